@@ -0,0 +1,534 @@
+package hospelhornbg_bioinformatics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import hospelhornbg_bioinformatics.SAMRecord.InvalidSAMRecordException;
+import hospelhornbg_genomeBuild.GenomeBuild;
+import waffleoRai_Utils.FileBuffer.UnsupportedFileTypeException;
+
+public class BAMReader implements Closeable {
+
+	//Reads BAM records straight off a BGZF stream
+	//Records are decoded to SAM text, so everything that already reads SAM lines
+	//	(SAMRecord.parseSAMRecord, the svtools line pipelines) can take BAM as-is.
+
+	//BAM structure (Little-Endian, after inflation)
+	//	Magic "BAM\1" [4]
+	//	l_text [4]
+	//	Header text [l_text]
+	//	n_ref [4]
+	//	References...
+	//		l_name [4]
+	//		Name (NUL terminated) [l_name]
+	//		l_ref [4]
+	//	Records...
+	//		block_size [4]
+	//		refID [4]
+	//		pos [4]
+	//		l_read_name [1]
+	//		mapq [1]
+	//		bin [2]
+	//		n_cigar_op [2]
+	//		flag [2]
+	//		l_seq [4]
+	//		next_refID [4]
+	//		next_pos [4]
+	//		tlen [4]
+	//		read_name [l_read_name]
+	//		cigar [4 * n_cigar_op]
+	//		seq [(l_seq+1)/2]
+	//		qual [l_seq]
+	//		Tags...
+
+	/* --- Constants --- */
+
+	public static final byte[] MAGIC = {'B', 'A', 'M', 1};
+
+	public static final String CIGAR_OPS = "MIDNSHP=X";
+	public static final String SEQ_BASES = "=ACMGRSVTWYHKDBN";
+
+	public static final int RECORD_FIXED_SIZE = 32;
+
+	/* --- Instance Variables --- */
+
+	private BGZFInputStream in;
+
+	private String headerText;
+	private String[] refNames;
+	private int[] refLengths;
+
+	private byte[] rbuff;
+	private byte[] ibuff;
+	private StringBuilder sb;
+	private long records;
+
+	/* --- Construction --- */
+
+	/**
+	 * Open a BAM stream and read its header.
+	 * @param raw Stream the BGZF data comes from.
+	 * @param threads Number of threads to inflate on.
+	 */
+	public BAMReader(InputStream raw, int threads) throws IOException
+	{
+		in = new BGZFInputStream(raw, threads);
+		rbuff = new byte[1024];
+		ibuff = new byte[4];
+		sb = new StringBuilder(1024);
+		records = 0;
+		try
+		{
+			readHeader();
+		}
+		catch (IOException e)
+		{
+			in.close();
+			throw e;
+		}
+	}
+
+	public BAMReader(String path, int threads) throws IOException
+	{
+		this(new FileInputStream(path), threads);
+	}
+
+	private void readFully(byte[] dst, int off, int len) throws IOException
+	{
+		int total = 0;
+		while (total < len)
+		{
+			int r = in.read(dst, off + total, len - total);
+			if (r < 0) throw new EOFException("BAMReader || Unexpected end of data");
+			total += r;
+		}
+	}
+
+	private int readInt() throws IOException
+	{
+		readFully(ibuff, 0, 4);
+		return BGZFInputStream.intLE(ibuff, 0);
+	}
+
+	private static String readCString(byte[] b, int off, int max)
+	{
+		int len = 0;
+		while (len < max && b[off + len] != 0) len++;
+		return new String(b, off, len, StandardCharsets.ISO_8859_1);
+	}
+
+	private void readHeader() throws IOException
+	{
+		byte[] mbytes = new byte[4];
+		readFully(mbytes, 0, 4);
+		for (int i = 0; i < 4; i++)
+		{
+			if (mbytes[i] != MAGIC[i]) throw new IOException("BAMReader.readHeader || Stream is not BAM!");
+		}
+
+		int ltext = readInt();
+		if (ltext < 0) throw new IOException("BAMReader.readHeader || Invalid header length: " + ltext);
+		byte[] tbytes = new byte[ltext];
+		readFully(tbytes, 0, ltext);
+		//Text may be NUL padded
+		headerText = readCString(tbytes, 0, ltext);
+
+		int nref = readInt();
+		if (nref < 0) throw new IOException("BAMReader.readHeader || Invalid reference count: " + nref);
+		refNames = new String[nref];
+		refLengths = new int[nref];
+		for (int i = 0; i < nref; i++)
+		{
+			int lname = readInt();
+			if (lname < 0) throw new IOException("BAMReader.readHeader || Invalid reference name length: " + lname);
+			byte[] nbytes = new byte[lname];
+			readFully(nbytes, 0, lname);
+			refNames[i] = readCString(nbytes, 0, lname);
+			refLengths[i] = readInt();
+		}
+	}
+
+	/* --- Header --- */
+
+	public String getHeaderText()
+	{
+		return headerText;
+	}
+
+	/**
+	 * @return Header text split into lines. If the text has no @SQ lines, they are
+	 * generated from the binary reference list so the result is still a usable SAM header.
+	 */
+	public List<String> getHeaderLines()
+	{
+		List<String> lines = new ArrayList<String>(refNames.length + 16);
+		boolean sqfound = false;
+		String[] split = headerText.split("\n");
+		for (String s : split)
+		{
+			if (s.endsWith("\r")) s = s.substring(0, s.length() - 1);
+			if (s.isEmpty()) continue;
+			if (s.startsWith("@SQ")) sqfound = true;
+			lines.add(s);
+		}
+		if (!sqfound)
+		{
+			for (int i = 0; i < refNames.length; i++) lines.add("@SQ\tSN:" + refNames[i] + "\tLN:" + refLengths[i]);
+		}
+		return lines;
+	}
+
+	public int getReferenceCount()
+	{
+		return refNames.length;
+	}
+
+	public String getReferenceName(int refID)
+	{
+		if (refID < 0 || refID >= refNames.length) return null;
+		return refNames[refID];
+	}
+
+	public int getReferenceLength(int refID)
+	{
+		if (refID < 0 || refID >= refLengths.length) return -1;
+		return refLengths[refID];
+	}
+
+	/* --- Records --- */
+
+	private String refName(int refID) throws IOException
+	{
+		if (refID < 0) return "*";
+		if (refID >= refNames.length) throw new IOException("BAMReader || Record " + records + " references contig " + refID + ", but there are only " + refNames.length + "!");
+		return refNames[refID];
+	}
+
+	private static int tagValueSize(char type)
+	{
+		switch (type)
+		{
+		case 'A': case 'c': case 'C': return 1;
+		case 's': case 'S': return 2;
+		case 'i': case 'I': case 'f': return 4;
+		}
+		return 0;
+	}
+
+	private int appendTag(byte[] b, int p, int end) throws IOException
+	{
+		if (p + 3 > end) throw new IOException("BAMReader || Record " + records + " has a truncated tag");
+		int vsize = tagValueSize((char)(b[p+2] & 0xFF));
+		if (b[p+2] == 'B')
+		{
+			if (p + 8 > end) throw new IOException("BAMReader || Record " + records + " has a truncated tag");
+			long asize = (long)tagValueSize((char)(b[p+3] & 0xFF)) * (BGZFInputStream.intLE(b, p + 4) & 0xFFFFFFFFL);
+			if (p + 8 + asize > end) throw new IOException("BAMReader || Record " + records + " has a truncated tag");
+		}
+		else if (p + 3 + vsize > end) throw new IOException("BAMReader || Record " + records + " has a truncated tag");
+		sb.append('\t');
+		sb.append((char)(b[p] & 0xFF));
+		sb.append((char)(b[p+1] & 0xFF));
+		char type = (char)(b[p+2] & 0xFF);
+		p += 3;
+		switch (type)
+		{
+		case 'A':
+			sb.append(":A:");
+			sb.append((char)(b[p] & 0xFF));
+			return p + 1;
+		case 'c':
+			sb.append(":i:");
+			sb.append((int)b[p]);
+			return p + 1;
+		case 'C':
+			sb.append(":i:");
+			sb.append(b[p] & 0xFF);
+			return p + 1;
+		case 's':
+			sb.append(":i:");
+			sb.append((short)BGZFInputStream.shortLE(b, p));
+			return p + 2;
+		case 'S':
+			sb.append(":i:");
+			sb.append(BGZFInputStream.shortLE(b, p));
+			return p + 2;
+		case 'i':
+			sb.append(":i:");
+			sb.append(BGZFInputStream.intLE(b, p));
+			return p + 4;
+		case 'I':
+			sb.append(":i:");
+			sb.append(BGZFInputStream.intLE(b, p) & 0xFFFFFFFFL);
+			return p + 4;
+		case 'f':
+			sb.append(":f:");
+			sb.append(Float.intBitsToFloat(BGZFInputStream.intLE(b, p)));
+			return p + 4;
+		case 'Z':
+		case 'H':
+			sb.append(':');
+			sb.append(type);
+			sb.append(':');
+			while (p < end && b[p] != 0) sb.append((char)(b[p++] & 0xFF));
+			return p + 1;
+		case 'B':
+			char sub = (char)(b[p] & 0xFF);
+			int count = BGZFInputStream.intLE(b, p + 1);
+			p += 5;
+			sb.append(":B:");
+			sb.append(sub);
+			for (int i = 0; i < count; i++)
+			{
+				sb.append(',');
+				switch (sub)
+				{
+				case 'c': sb.append((int)b[p]); p++; break;
+				case 'C': sb.append(b[p] & 0xFF); p++; break;
+				case 's': sb.append((short)BGZFInputStream.shortLE(b, p)); p += 2; break;
+				case 'S': sb.append(BGZFInputStream.shortLE(b, p)); p += 2; break;
+				case 'i': sb.append(BGZFInputStream.intLE(b, p)); p += 4; break;
+				case 'I': sb.append(BGZFInputStream.intLE(b, p) & 0xFFFFFFFFL); p += 4; break;
+				case 'f': sb.append(Float.intBitsToFloat(BGZFInputStream.intLE(b, p))); p += 4; break;
+				default: throw new IOException("BAMReader || Record " + records + " has a B tag with an invalid subtype: " + sub);
+				}
+			}
+			return p;
+		default:
+			throw new IOException("BAMReader || Record " + records + " has a tag with an invalid type: " + type);
+		}
+	}
+
+	/**
+	 * Read the next record as a SAM text line (no line break).
+	 * @return SAM line, or null at the end of the stream.
+	 */
+	public String nextSAMLine() throws IOException
+	{
+		//Block size - clean EOF is only allowed here
+		int r = 0;
+		while (r < 4)
+		{
+			int n = in.read(ibuff, r, 4 - r);
+			if (n < 0) break;
+			r += n;
+		}
+		if (r == 0) return null;
+		if (r < 4) throw new EOFException("BAMReader || Truncated record after record " + records);
+		int bsize = BGZFInputStream.intLE(ibuff, 0);
+		if (bsize < RECORD_FIXED_SIZE) throw new IOException("BAMReader || Record " + records + " has an invalid size: " + bsize);
+		if (rbuff.length < bsize) rbuff = new byte[Math.max(bsize, rbuff.length << 1)];
+		readFully(rbuff, 0, bsize);
+		byte[] b = rbuff;
+
+		int refID = BGZFInputStream.intLE(b, 0);
+		int pos = BGZFInputStream.intLE(b, 4);
+		int lname = b[8] & 0xFF;
+		int mapq = b[9] & 0xFF;
+		int ncigar = BGZFInputStream.shortLE(b, 12);
+		int flag = BGZFInputStream.shortLE(b, 14);
+		int lseq = BGZFInputStream.intLE(b, 16);
+		int nrefID = BGZFInputStream.intLE(b, 20);
+		int npos = BGZFInputStream.intLE(b, 24);
+		int tlen = BGZFInputStream.intLE(b, 28);
+
+		int p = RECORD_FIXED_SIZE;
+		if (lseq < 0 || p + lname + (ncigar << 2) + ((lseq + 1) >>> 1) + lseq > bsize)
+		{
+			throw new IOException("BAMReader || Record " + records + " is shorter than its fields!");
+		}
+
+		sb.setLength(0);
+		//QNAME
+		sb.append(readCString(b, p, lname));
+		p += lname;
+		sb.append('\t');
+		sb.append(flag);
+		sb.append('\t');
+		String rname = refName(refID);
+		sb.append(rname);
+		sb.append('\t');
+		sb.append(pos + 1);
+		sb.append('\t');
+		sb.append(mapq);
+		sb.append('\t');
+
+		//CIGAR
+		if (ncigar == 0) sb.append('*');
+		for (int i = 0; i < ncigar; i++)
+		{
+			int op = BGZFInputStream.intLE(b, p);
+			p += 4;
+			int opi = op & 0xF;
+			if (opi >= CIGAR_OPS.length()) throw new IOException("BAMReader || Record " + records + " has an invalid CIGAR op: " + opi);
+			sb.append(op >>> 4);
+			sb.append(CIGAR_OPS.charAt(opi));
+		}
+		sb.append('\t');
+
+		//RNEXT PNEXT TLEN
+		if (nrefID >= 0 && nrefID == refID) sb.append('=');
+		else sb.append(refName(nrefID));
+		sb.append('\t');
+		sb.append(npos + 1);
+		sb.append('\t');
+		sb.append(tlen);
+		sb.append('\t');
+
+		//SEQ
+		if (lseq == 0) sb.append('*');
+		for (int i = 0; i < lseq; i++)
+		{
+			int v = b[p + (i >>> 1)] & 0xFF;
+			if ((i & 1) == 0) v >>>= 4;
+			sb.append(SEQ_BASES.charAt(v & 0xF));
+		}
+		p += (lseq + 1) >>> 1;
+		sb.append('\t');
+
+		//QUAL
+		if (lseq == 0 || (b[p] & 0xFF) == 0xFF) sb.append('*');
+		else
+		{
+			for (int i = 0; i < lseq; i++) sb.append((char)((b[p + i] & 0xFF) + 33));
+		}
+		p += lseq;
+
+		//Tags
+		while (p < bsize) p = appendTag(b, p, bsize);
+
+		records++;
+		return sb.toString();
+	}
+
+	/**
+	 * Read the next record and parse it against a genome build.
+	 * @return Parsed record, or null at the end of the stream.
+	 */
+	public SAMRecord nextRecord(GenomeBuild gb, boolean verbose) throws IOException, UnsupportedFileTypeException, InvalidSAMRecordException
+	{
+		String line = nextSAMLine();
+		if (line == null) return null;
+		return SAMRecord.parseSAMRecord(line, gb, verbose).getRecord();
+	}
+
+	public long getRecordsRead()
+	{
+		return records;
+	}
+
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	/* --- SAM Text View --- */
+
+	/**
+	 * Presents a BAM stream as SAM text - header lines, then one line per record.
+	 */
+	public static class SAMTextSource extends InputStream
+	{
+		private BAMReader reader;
+		private byte[] line;
+		private int lpos;
+		private boolean done;
+
+		public SAMTextSource(BAMReader r)
+		{
+			reader = r;
+			StringBuilder hb = new StringBuilder(4096);
+			for (String s : r.getHeaderLines())
+			{
+				hb.append(s);
+				hb.append('\n');
+			}
+			line = hb.toString().getBytes(StandardCharsets.ISO_8859_1);
+			lpos = 0;
+			done = false;
+		}
+
+		private boolean fill() throws IOException
+		{
+			while (line == null || lpos >= line.length)
+			{
+				if (done) return false;
+				String s = reader.nextSAMLine();
+				if (s == null)
+				{
+					done = true;
+					line = null;
+					return false;
+				}
+				line = (s + "\n").getBytes(StandardCharsets.ISO_8859_1);
+				lpos = 0;
+			}
+			return true;
+		}
+
+		public int read() throws IOException
+		{
+			if (!fill()) return -1;
+			return line[lpos++] & 0xFF;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (len <= 0) return 0;
+			int total = 0;
+			while (total < len)
+			{
+				if (!fill()) break;
+				int copy = Math.min(len - total, line.length - lpos);
+				System.arraycopy(line, lpos, b, off + total, copy);
+				lpos += copy;
+				total += copy;
+			}
+			if (total == 0) return -1;
+			return total;
+		}
+
+		public void close() throws IOException
+		{
+			reader.close();
+		}
+
+	}
+
+	/* --- Openers --- */
+
+	/**
+	 * Wrap an alignment stream so it always reads as SAM text.
+	 * BAM (BGZF) input is detected from its first bytes and decoded - anything else is
+	 * assumed to be SAM and passed through.
+	 * @param in Raw input stream (file or stdin).
+	 * @param threads Number of threads to inflate BAM blocks on.
+	 */
+	public static InputStream openAsSAM(InputStream in, int threads) throws IOException
+	{
+		BufferedInputStream bis = new BufferedInputStream(in, BGZFInputStream.MAX_BLOCK_SIZE);
+		if (BGZFInputStream.isGzipped(bis)) return new SAMTextSource(new BAMReader(bis, threads));
+		return bis;
+	}
+
+	/**
+	 * Open a SAM or BAM file (or stdin if the path is null or empty) as a SAM text reader.
+	 */
+	public static BufferedReader openSAMReader(String path, int threads) throws IOException
+	{
+		InputStream raw = null;
+		if (path == null || path.isEmpty()) raw = System.in;
+		else raw = new FileInputStream(path);
+		return new BufferedReader(new InputStreamReader(openAsSAM(raw, threads), StandardCharsets.ISO_8859_1));
+	}
+
+}
@@ -0,0 +1,522 @@
+package hospelhornbg_bioinformatics;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BAMWriter implements Closeable {
+
+	//Writes BAM records onto a BGZF stream
+	//Records go in as SAM text (or a SAMRecord, which is written out as SAM text first),
+	//	so any tool that produces SAM lines can produce BAM with the same code.
+	//See BAMReader for the layout.
+
+	/* --- Constants --- */
+
+	public static final String EXT_BAM = ".bam";
+
+	/* --- Instance Variables --- */
+
+	private BGZFOutputStream out;
+
+	private Map<String, Integer> refIndex;
+	private boolean headerWritten;
+
+	private byte[] rbuff;
+	private int rpos;
+	private long records;
+
+	/* --- Construction --- */
+
+	/**
+	 * @param raw Stream to write the BGZF data to.
+	 * @param threads Number of threads to deflate on.
+	 */
+	public BAMWriter(OutputStream raw, int threads)
+	{
+		out = new BGZFOutputStream(raw, threads);
+		refIndex = new HashMap<String, Integer>();
+		headerWritten = false;
+		rbuff = new byte[1024];
+		rpos = 0;
+		records = 0;
+	}
+
+	public BAMWriter(String path, int threads) throws IOException
+	{
+		this(new BufferedOutputStream(new FileOutputStream(path), BGZFInputStream.MAX_BLOCK_SIZE), threads);
+	}
+
+	public static boolean isBAMPath(String path)
+	{
+		if (path == null) return false;
+		return path.toLowerCase().endsWith(EXT_BAM);
+	}
+
+	/* --- Buffer --- */
+
+	private void ensure(int n)
+	{
+		if (rpos + n <= rbuff.length) return;
+		int nsize = rbuff.length << 1;
+		while (nsize < rpos + n) nsize <<= 1;
+		byte[] nbuff = new byte[nsize];
+		System.arraycopy(rbuff, 0, nbuff, 0, rpos);
+		rbuff = nbuff;
+	}
+
+	private void putByte(int b)
+	{
+		ensure(1);
+		rbuff[rpos++] = (byte)b;
+	}
+
+	private void putShort(int s)
+	{
+		ensure(2);
+		BGZFOutputStream.shortLE(rbuff, rpos, s);
+		rpos += 2;
+	}
+
+	private void putInt(int i)
+	{
+		ensure(4);
+		BGZFOutputStream.intLE(rbuff, rpos, i);
+		rpos += 4;
+	}
+
+	private void putString(String s, boolean nul)
+	{
+		int len = s.length();
+		ensure(len + 1);
+		for (int i = 0; i < len; i++) rbuff[rpos++] = (byte)s.charAt(i);
+		if (nul) rbuff[rpos++] = 0;
+	}
+
+	/* --- Header --- */
+
+	/**
+	 * Write the BAM header. The reference list is taken from the @SQ lines, in order.
+	 * @param headerLines SAM header lines (no line breaks).
+	 */
+	public void writeHeader(List<String> headerLines) throws IOException
+	{
+		if (headerWritten) throw new IOException("BAMWriter.writeHeader || Header has already been written!");
+		StringBuilder text = new StringBuilder(4096);
+		List<String> names = new ArrayList<String>();
+		List<Integer> lengths = new ArrayList<Integer>();
+		for (String line : headerLines)
+		{
+			text.append(line);
+			text.append('\n');
+			if (!line.startsWith("@SQ")) continue;
+			String sn = null;
+			int ln = 0;
+			String[] fields = line.split("\t");
+			for (String f : fields)
+			{
+				if (f.startsWith("SN:")) sn = f.substring(3);
+				else if (f.startsWith("LN:"))
+				{
+					try {ln = Integer.parseInt(f.substring(3));}
+					catch (NumberFormatException e) {throw new IOException("BAMWriter.writeHeader || Invalid @SQ length: " + line);}
+				}
+			}
+			if (sn == null) throw new IOException("BAMWriter.writeHeader || @SQ line has no name: " + line);
+			if (refIndex.containsKey(sn)) continue;
+			refIndex.put(sn, names.size());
+			names.add(sn);
+			lengths.add(ln);
+		}
+
+		rpos = 0;
+		putString("BAM\1", false);
+		putInt(text.length());
+		putString(text.toString(), false);
+		putInt(names.size());
+		for (int i = 0; i < names.size(); i++)
+		{
+			String n = names.get(i);
+			putInt(n.length() + 1);
+			putString(n, true);
+			putInt(lengths.get(i));
+		}
+		out.write(rbuff, 0, rpos);
+		rpos = 0;
+		headerWritten = true;
+	}
+
+	public boolean headerWritten()
+	{
+		return headerWritten;
+	}
+
+	/* --- Records --- */
+
+	/**
+	 * Calculate the BAI bin for a 0-based, end-exclusive alignment span.
+	 */
+	public static int reg2bin(int beg, int end)
+	{
+		--end;
+		if (beg >> 14 == end >> 14) return ((1 << 15) - 1) / 7 + (beg >> 14);
+		if (beg >> 17 == end >> 17) return ((1 << 12) - 1) / 7 + (beg >> 17);
+		if (beg >> 20 == end >> 20) return ((1 << 9) - 1) / 7 + (beg >> 20);
+		if (beg >> 23 == end >> 23) return ((1 << 6) - 1) / 7 + (beg >> 23);
+		if (beg >> 26 == end >> 26) return ((1 << 3) - 1) / 7 + (beg >> 26);
+		return 0;
+	}
+
+	private int refID(String name) throws IOException
+	{
+		if (name.equals("*")) return -1;
+		Integer i = refIndex.get(name);
+		if (i == null) throw new IOException("BAMWriter || Contig \"" + name + "\" is not in the header @SQ lines!");
+		return i;
+	}
+
+	private static int parseInt(String s, String field) throws IOException
+	{
+		try {return Integer.parseInt(s);}
+		catch (NumberFormatException e) {throw new IOException("BAMWriter || Invalid " + field + ": " + s);}
+	}
+
+	private static int baseCode(char c)
+	{
+		int i = BAMReader.SEQ_BASES.indexOf(Character.toUpperCase(c));
+		if (i < 0) return 15; //N
+		return i;
+	}
+
+	private static char intType(long v)
+	{
+		if (v < 0)
+		{
+			if (v >= Byte.MIN_VALUE) return 'c';
+			if (v >= Short.MIN_VALUE) return 's';
+			if (v >= Integer.MIN_VALUE) return 'i';
+		}
+		else
+		{
+			if (v <= 0xFFL) return 'C';
+			if (v <= 0xFFFFL) return 'S';
+			if (v <= 0xFFFFFFFFL) return 'I';
+		}
+		return 0;
+	}
+
+	private void putTypedValue(char type, String val) throws IOException
+	{
+		try
+		{
+			switch (type)
+			{
+			case 'c': case 'C': putByte((int)Long.parseLong(val)); return;
+			case 's': case 'S': putShort((int)Long.parseLong(val)); return;
+			case 'i': case 'I': putInt((int)Long.parseLong(val)); return;
+			case 'f': putInt(Float.floatToIntBits(Float.parseFloat(val))); return;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IOException("BAMWriter || Invalid tag value: " + val);
+		}
+		throw new IOException("BAMWriter || Invalid array type: " + type);
+	}
+
+	private void putTag(String field) throws IOException
+	{
+		//TG:T:VALUE
+		if (field.length() < 5 || field.charAt(2) != ':' || field.charAt(4) != ':') throw new IOException("BAMWriter || Invalid tag: " + field);
+		char type = field.charAt(3);
+		String val = field.substring(5);
+		putByte(field.charAt(0));
+		putByte(field.charAt(1));
+		switch (type)
+		{
+		case 'A':
+			if (val.length() != 1) throw new IOException("BAMWriter || Invalid character tag: " + field);
+			putByte('A');
+			putByte(val.charAt(0));
+			return;
+		case 'i':
+			long v = 0;
+			try {v = Long.parseLong(val);}
+			catch (NumberFormatException e) {throw new IOException("BAMWriter || Invalid integer tag: " + field);}
+			char itype = intType(v);
+			if (itype == 0) throw new IOException("BAMWriter || Integer tag out of range: " + field);
+			putByte(itype);
+			putTypedValue(itype, val);
+			return;
+		case 'f':
+			putByte('f');
+			putTypedValue('f', val);
+			return;
+		case 'Z':
+		case 'H':
+			putByte(type);
+			putString(val, true);
+			return;
+		case 'B':
+			String[] parts = val.split(",");
+			if (parts.length < 1 || parts[0].length() != 1) throw new IOException("BAMWriter || Invalid array tag: " + field);
+			char sub = parts[0].charAt(0);
+			putByte('B');
+			putByte(sub);
+			putInt(parts.length - 1);
+			for (int i = 1; i < parts.length; i++) putTypedValue(sub, parts[i]);
+			return;
+		default:
+			throw new IOException("BAMWriter || Invalid tag type: " + field);
+		}
+	}
+
+	/**
+	 * Encode and write one SAM text record.
+	 * The header must be written first.
+	 */
+	public void writeSAMLine(String line) throws IOException
+	{
+		if (!headerWritten) throw new IOException("BAMWriter.writeSAMLine || Header must be written before records!");
+		String[] f = line.split("\t");
+		if (f.length < 11) throw new IOException("BAMWriter.writeSAMLine || Record has too few fields (" + f.length + ")");
+
+		String qname = f[0];
+		if (qname.length() > 254) throw new IOException("BAMWriter.writeSAMLine || QNAME is too long: " + qname);
+		int flag = parseInt(f[1], "FLAG");
+		int refID = refID(f[2]);
+		int pos = parseInt(f[3], "POS") - 1;
+		int mapq = parseInt(f[4], "MAPQ");
+		int nrefID = -1;
+		if (f[6].equals("=")) nrefID = refID;
+		else nrefID = refID(f[6]);
+		int npos = parseInt(f[7], "PNEXT") - 1;
+		int tlen = parseInt(f[8], "TLEN");
+		String seq = f[9];
+		String qual = f[10];
+		int lseq = seq.equals("*") ? 0 : seq.length();
+		if (!qual.equals("*") && qual.length() != lseq) throw new IOException("BAMWriter.writeSAMLine || QUAL length doesn't match SEQ length: " + qname);
+
+		rpos = 0;
+		putInt(0); //block_size - filled in at the end
+		putInt(refID);
+		putInt(pos);
+		putByte(qname.length() + 1);
+		putByte(mapq);
+		int binpos = rpos;
+		putShort(0); //bin - filled in after the CIGAR is read
+		int ncpos = rpos;
+		putShort(0); //n_cigar_op
+		putShort(flag);
+		putInt(lseq);
+		putInt(nrefID);
+		putInt(npos);
+		putInt(tlen);
+		putString(qname, true);
+
+		//CIGAR
+		int ncigar = 0;
+		int reflen = 0;
+		String cigar = f[5];
+		if (!cigar.equals("*"))
+		{
+			int n = 0;
+			boolean hasn = false;
+			for (int i = 0; i < cigar.length(); i++)
+			{
+				char c = cigar.charAt(i);
+				if (c >= '0' && c <= '9')
+				{
+					n = (n * 10) + (c - '0');
+					hasn = true;
+					continue;
+				}
+				int op = BAMReader.CIGAR_OPS.indexOf(c);
+				if (op < 0 || !hasn) throw new IOException("BAMWriter.writeSAMLine || Invalid CIGAR: " + cigar);
+				putInt((n << 4) | op);
+				//M D N = X consume reference
+				if (op == 0 || op == 2 || op == 3 || op == 7 || op == 8) reflen += n;
+				ncigar++;
+				n = 0;
+				hasn = false;
+			}
+			if (hasn) throw new IOException("BAMWriter.writeSAMLine || Invalid CIGAR: " + cigar);
+			if (ncigar > 0xFFFF) throw new IOException("BAMWriter.writeSAMLine || CIGAR has too many operations: " + qname);
+		}
+		BGZFOutputStream.shortLE(rbuff, ncpos, ncigar);
+		int end = (reflen > 0) ? pos + reflen : pos + 1;
+		BGZFOutputStream.shortLE(rbuff, binpos, reg2bin(pos, end));
+
+		//SEQ
+		ensure((lseq + 1) >>> 1);
+		for (int i = 0; i < lseq; i += 2)
+		{
+			int hi = baseCode(seq.charAt(i));
+			int lo = (i + 1 < lseq) ? baseCode(seq.charAt(i + 1)) : 0;
+			rbuff[rpos++] = (byte)((hi << 4) | lo);
+		}
+
+		//QUAL
+		ensure(lseq);
+		if (qual.equals("*"))
+		{
+			for (int i = 0; i < lseq; i++) rbuff[rpos++] = (byte)0xFF;
+		}
+		else
+		{
+			for (int i = 0; i < lseq; i++) rbuff[rpos++] = (byte)(qual.charAt(i) - 33);
+		}
+
+		//Tags
+		for (int i = 11; i < f.length; i++)
+		{
+			if (f[i].isEmpty()) continue;
+			putTag(f[i]);
+		}
+
+		BGZFOutputStream.intLE(rbuff, 0, rpos - 4);
+		out.write(rbuff, 0, rpos);
+		rpos = 0;
+		records++;
+	}
+
+	/**
+	 * Write a record. Its contigs must be named in the header the same way
+	 * (UCSC or not) as they are written here.
+	 */
+	public void writeRecord(SAMRecord rec, boolean use_UCSC_contig_names) throws IOException
+	{
+		writeSAMLine(rec.writeSAMRecord(use_UCSC_contig_names));
+	}
+
+	public long getRecordsWritten()
+	{
+		return records;
+	}
+
+	public void close() throws IOException
+	{
+		if (!headerWritten) writeHeader(new ArrayList<String>());
+		out.close();
+	}
+
+	/* --- SAM Text View --- */
+
+	/**
+	 * Takes SAM text and writes it out as BAM.
+	 * Header lines are collected until the first record line, then written as the BAM header.
+	 */
+	public static class SAMTextSink extends OutputStream
+	{
+		private BAMWriter writer;
+		private List<String> header;
+
+		private byte[] line;
+		private int lpos;
+
+		public SAMTextSink(BAMWriter w)
+		{
+			writer = w;
+			header = new ArrayList<String>();
+			line = new byte[1024];
+			lpos = 0;
+		}
+
+		private void endLine() throws IOException
+		{
+			int len = lpos;
+			if (len > 0 && line[len - 1] == '\r') len--;
+			lpos = 0;
+			if (len <= 0) return;
+			String s = new String(line, 0, len, StandardCharsets.ISO_8859_1);
+			if (s.charAt(0) == '@')
+			{
+				//Header lines after the first record have nowhere to go in BAM
+				if (!writer.headerWritten()) header.add(s);
+				return;
+			}
+			if (!writer.headerWritten()) writer.writeHeader(header);
+			writer.writeSAMLine(s);
+		}
+
+		public void write(int b) throws IOException
+		{
+			if (b == '\n')
+			{
+				endLine();
+				return;
+			}
+			if (lpos >= line.length)
+			{
+				byte[] nline = new byte[line.length << 1];
+				System.arraycopy(line, 0, nline, 0, lpos);
+				line = nline;
+			}
+			line[lpos++] = (byte)b;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			int end = off + len;
+			for (int i = off; i < end; i++)
+			{
+				if (b[i] == '\n')
+				{
+					endLine();
+					continue;
+				}
+				if (lpos >= line.length)
+				{
+					byte[] nline = new byte[line.length << 1];
+					System.arraycopy(line, 0, nline, 0, lpos);
+					line = nline;
+				}
+				line[lpos++] = b[i];
+			}
+		}
+
+		public void flush() throws IOException
+		{
+			//Nothing - flushing BGZF would cut blocks short
+		}
+
+		public void close() throws IOException
+		{
+			endLine();
+			if (!writer.headerWritten()) writer.writeHeader(header);
+			writer.close();
+		}
+
+	}
+
+	/* --- Openers --- */
+
+	/**
+	 * Open a writer that takes SAM text.
+	 * @param path Output path. Null or empty writes to stdout.
+	 * @param bam Whether to write BAM instead of plain SAM.
+	 * @param threads Number of threads to deflate BAM blocks on.
+	 */
+	public static BufferedWriter openSAMWriter(String path, boolean bam, int threads) throws IOException
+	{
+		OutputStream raw = null;
+		if (path == null || path.isEmpty()) raw = System.out;
+		else raw = new FileOutputStream(path);
+		if (bam)
+		{
+			raw = new BufferedOutputStream(raw, BGZFInputStream.MAX_BLOCK_SIZE);
+			raw = new SAMTextSink(new BAMWriter(raw, threads));
+		}
+		return new BufferedWriter(new OutputStreamWriter(raw, StandardCharsets.ISO_8859_1));
+	}
+
+}
@@ -0,0 +1,343 @@
+package hospelhornbg_bioinformatics;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class BGZFInputStream extends InputStream {
+
+	//Reads a BGZF (blocked gzip) stream as used by BAM
+	//Every block is a complete gzip member with a "BC" extra subfield holding its size,
+	//	so compressed blocks can be cut out of the stream without inflating them.
+	//Raw blocks are read on the calling thread and inflated on a pool a few blocks ahead,
+	//	then handed back in stream order.
+
+	//Block structure (Little-Endian)
+	//	ID1 ID2 CM FLG [4]	1f 8b 08 04
+	//	MTIME [4]
+	//	XFL OS [2]
+	//	XLEN [2]
+	//	Extra subfields [XLEN] - must include SI1=66 SI2=67 SLEN=2 BSIZE[2]
+	//	CDATA [BSIZE - XLEN - 19]
+	//	CRC32 [4]
+	//	ISIZE [4]
+
+	/* --- Constants --- */
+
+	public static final int MAX_BLOCK_SIZE = 0x10000;
+	public static final int BLOCK_HEADER_SIZE = 12; //Up to and including XLEN
+	public static final int BLOCK_FOOTER_SIZE = 8;
+
+	public static final int DEFO_BLOCKS_AHEAD_PER_THREAD = 4;
+
+	/* --- Instance Variables --- */
+
+	private InputStream src;
+	private ExecutorService pool;
+	private int maxAhead;
+
+	private LinkedList<Future<byte[]>> pending;
+	private boolean srcEnd;
+	private boolean closed;
+
+	private byte[] current;
+	private int cpos;
+
+	private long blocksRead;
+
+	/* --- Construction --- */
+
+	public BGZFInputStream(InputStream in)
+	{
+		this(in, 1);
+	}
+
+	/**
+	 * @param in Raw BGZF stream.
+	 * @param threads Number of threads to inflate blocks on. 1 or less inflates on the calling thread.
+	 */
+	public BGZFInputStream(InputStream in, int threads)
+	{
+		src = in;
+		if (threads > 1)
+		{
+			pool = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r);
+					t.setName("BGZFInflater_" + t.getId());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			maxAhead = threads * DEFO_BLOCKS_AHEAD_PER_THREAD;
+		}
+		else maxAhead = 1;
+		pending = new LinkedList<Future<byte[]>>();
+		srcEnd = false;
+		closed = false;
+		current = null;
+		cpos = 0;
+		blocksRead = 0;
+	}
+
+	/* --- Detection --- */
+
+	/**
+	 * Peek at the first bytes of a stream to see if it is gzip (and so, if it's
+	 * an alignment file, BAM). The stream position is not moved.
+	 * @param in Stream to check. Must support mark/reset.
+	 */
+	public static boolean isGzipped(BufferedInputStream in) throws IOException
+	{
+		in.mark(4);
+		int b0 = in.read();
+		int b1 = in.read();
+		in.reset();
+		return (b0 == 0x1f && b1 == 0x8b);
+	}
+
+	/* --- Block Reading --- */
+
+	private static int readFully(InputStream in, byte[] dst, int off, int len) throws IOException
+	{
+		int total = 0;
+		while (total < len)
+		{
+			int r = in.read(dst, off + total, len - total);
+			if (r < 0) break;
+			total += r;
+		}
+		return total;
+	}
+
+	static int shortLE(byte[] b, int off)
+	{
+		return (b[off] & 0xFF) | ((b[off+1] & 0xFF) << 8);
+	}
+
+	static int intLE(byte[] b, int off)
+	{
+		return (b[off] & 0xFF) | ((b[off+1] & 0xFF) << 8) | ((b[off+2] & 0xFF) << 16) | ((b[off+3] & 0xFF) << 24);
+	}
+
+	/**
+	 * Read the next whole compressed block from the source.
+	 * @return The raw block (header through ISIZE), or null at the end of the stream.
+	 */
+	private byte[] readRawBlock() throws IOException
+	{
+		byte[] head = new byte[BLOCK_HEADER_SIZE];
+		int r = readFully(src, head, 0, BLOCK_HEADER_SIZE);
+		if (r == 0) return null;
+		if (r < BLOCK_HEADER_SIZE) throw new EOFException("BGZFInputStream.readRawBlock || Truncated block header (block " + blocksRead + ")");
+		if ((head[0] & 0xFF) != 0x1f || (head[1] & 0xFF) != 0x8b || head[2] != 8 || (head[3] & 0x04) == 0)
+		{
+			throw new IOException("BGZFInputStream.readRawBlock || Block " + blocksRead + " is not a BGZF block!");
+		}
+		int xlen = shortLE(head, 10);
+		byte[] extra = new byte[xlen];
+		if (readFully(src, extra, 0, xlen) < xlen) throw new EOFException("BGZFInputStream.readRawBlock || Truncated block header (block " + blocksRead + ")");
+
+		//Find BSIZE
+		int bsize = -1;
+		int x = 0;
+		while (x + 4 <= xlen)
+		{
+			int slen = shortLE(extra, x + 2);
+			if (extra[x] == 'B' && extra[x+1] == 'C' && slen == 2 && x + 6 <= xlen)
+			{
+				bsize = shortLE(extra, x + 4) + 1;
+				break;
+			}
+			x += 4 + slen;
+		}
+		if (bsize < 0) throw new IOException("BGZFInputStream.readRawBlock || Block " + blocksRead + " has no BC field - plain gzip is not supported");
+		int rest = bsize - BLOCK_HEADER_SIZE - xlen;
+		if (rest < BLOCK_FOOTER_SIZE) throw new IOException("BGZFInputStream.readRawBlock || Block " + blocksRead + " has an invalid size (" + bsize + ")");
+
+		byte[] block = new byte[bsize];
+		System.arraycopy(head, 0, block, 0, BLOCK_HEADER_SIZE);
+		System.arraycopy(extra, 0, block, BLOCK_HEADER_SIZE, xlen);
+		if (readFully(src, block, BLOCK_HEADER_SIZE + xlen, rest) < rest) throw new EOFException("BGZFInputStream.readRawBlock || Truncated block (block " + blocksRead + ")");
+		blocksRead++;
+		return block;
+	}
+
+	/**
+	 * Inflate a raw block read by readRawBlock.
+	 * @return Uncompressed data. Empty for the EOF marker block.
+	 */
+	public static byte[] inflateBlock(byte[] block) throws IOException
+	{
+		int xlen = shortLE(block, 10);
+		int cstart = BLOCK_HEADER_SIZE + xlen;
+		int csize = block.length - cstart - BLOCK_FOOTER_SIZE;
+		int sum = intLE(block, block.length - 8);
+		int usize = intLE(block, block.length - 4);
+		if (usize < 0 || usize > MAX_BLOCK_SIZE) throw new IOException("BGZFInputStream.inflateBlock || Invalid uncompressed size: " + usize);
+
+		byte[] out = new byte[usize];
+		if (usize == 0) return out;
+		Inflater inflater = new Inflater(true);
+		try
+		{
+			inflater.setInput(block, cstart, csize);
+			int n = 0;
+			while (n < usize && !inflater.finished())
+			{
+				int r = inflater.inflate(out, n, usize - n);
+				if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+				n += r;
+			}
+			if (n != usize) throw new IOException("BGZFInputStream.inflateBlock || Block is truncated!");
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("BGZFInputStream.inflateBlock || Block could not be inflated", e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(out, 0, usize);
+		if ((int)crc.getValue() != sum) throw new IOException("BGZFInputStream.inflateBlock || Block failed CRC check!");
+		return out;
+	}
+
+	private static class InflateTask implements Callable<byte[]>
+	{
+		private byte[] block;
+
+		public InflateTask(byte[] raw)
+		{
+			block = raw;
+		}
+
+		public byte[] call() throws Exception
+		{
+			return inflateBlock(block);
+		}
+	}
+
+	/* --- Buffering --- */
+
+	private void fillAhead() throws IOException
+	{
+		while (!srcEnd && pending.size() < maxAhead)
+		{
+			byte[] raw = readRawBlock();
+			if (raw == null)
+			{
+				srcEnd = true;
+				break;
+			}
+			if (pool != null) pending.add(pool.submit(new InflateTask(raw)));
+			else
+			{
+				//Single thread - inflate now and wrap
+				final byte[] data = inflateBlock(raw);
+				FutureTask<byte[]> ft = new FutureTask<byte[]>(new Callable<byte[]>(){
+					public byte[] call() {return data;}
+				});
+				ft.run();
+				pending.add(ft);
+			}
+		}
+	}
+
+	/**
+	 * Load the next non-empty block.
+	 * @return False if there is no more data.
+	 */
+	private boolean nextBlock() throws IOException
+	{
+		if (closed) throw new IOException("BGZFInputStream || Stream is closed");
+		while (current == null || cpos >= current.length)
+		{
+			fillAhead();
+			if (pending.isEmpty())
+			{
+				current = null;
+				return false;
+			}
+			Future<byte[]> f = pending.poll();
+			try
+			{
+				current = f.get();
+			}
+			catch (InterruptedException e)
+			{
+				throw new IOException("BGZFInputStream || Interrupted while waiting for block", e);
+			}
+			catch (ExecutionException e)
+			{
+				Throwable c = e.getCause();
+				if (c instanceof IOException) throw (IOException)c;
+				throw new IOException("BGZFInputStream || Block could not be read", c);
+			}
+			cpos = 0;
+		}
+		return true;
+	}
+
+	/* --- InputStream --- */
+
+	public int read() throws IOException
+	{
+		if (!nextBlock()) return -1;
+		return current[cpos++] & 0xFF;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len <= 0) return 0;
+		int total = 0;
+		while (total < len)
+		{
+			if (!nextBlock()) break;
+			int copy = Math.min(len - total, current.length - cpos);
+			System.arraycopy(current, cpos, b, off + total, copy);
+			cpos += copy;
+			total += copy;
+		}
+		if (total == 0) return -1;
+		return total;
+	}
+
+	public int available() throws IOException
+	{
+		if (current == null) return 0;
+		return current.length - cpos;
+	}
+
+	public long getBlocksRead()
+	{
+		return blocksRead;
+	}
+
+	public void close() throws IOException
+	{
+		if (closed) return;
+		closed = true;
+		for (Future<byte[]> f : pending) f.cancel(true);
+		pending.clear();
+		if (pool != null) pool.shutdownNow();
+		src.close();
+	}
+
+}
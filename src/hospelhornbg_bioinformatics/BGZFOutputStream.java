@@ -0,0 +1,288 @@
+package hospelhornbg_bioinformatics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+public class BGZFOutputStream extends OutputStream {
+
+	//Writes a BGZF (blocked gzip) stream as used by BAM
+	//Data is cut into blocks of at most BLOCK_INPUT_SIZE bytes that are deflated on a pool
+	//	and written out in order as they finish. Closing writes the standard empty EOF block.
+	//See BGZFInputStream for the block layout.
+
+	/* --- Constants --- */
+
+	//Same as htslib - leaves room so the compressed block always fits under 64kb
+	public static final int BLOCK_INPUT_SIZE = 0xff00;
+	public static final int BLOCK_OVERHEAD = 26; //18 byte header + 8 byte footer
+
+	public static final int DEFO_LEVEL = Deflater.DEFAULT_COMPRESSION;
+	public static final int DEFO_BLOCKS_AHEAD_PER_THREAD = 4;
+
+	public static final byte[] EOF_BLOCK = {0x1f, (byte)0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00,
+											0x00, (byte)0xff, 0x06, 0x00, 0x42, 0x43, 0x02, 0x00,
+											0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00,
+											0x00, 0x00, 0x00, 0x00};
+
+	/* --- Instance Variables --- */
+
+	private OutputStream dst;
+	private ExecutorService pool;
+	private int maxAhead;
+	private int level;
+
+	private LinkedList<Future<byte[]>> pending;
+	private boolean closed;
+
+	private byte[] ubuff;
+	private int upos;
+
+	private long blocksWritten;
+
+	/* --- Construction --- */
+
+	public BGZFOutputStream(OutputStream out)
+	{
+		this(out, 1, DEFO_LEVEL);
+	}
+
+	public BGZFOutputStream(OutputStream out, int threads)
+	{
+		this(out, threads, DEFO_LEVEL);
+	}
+
+	/**
+	 * @param out Stream to write compressed blocks to.
+	 * @param threads Number of threads to deflate blocks on. 1 or less deflates on the calling thread.
+	 * @param compressionLevel Deflater level (0-9, or -1 for default)
+	 */
+	public BGZFOutputStream(OutputStream out, int threads, int compressionLevel)
+	{
+		dst = out;
+		level = compressionLevel;
+		if (threads > 1)
+		{
+			pool = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r);
+					t.setName("BGZFDeflater_" + t.getId());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			maxAhead = threads * DEFO_BLOCKS_AHEAD_PER_THREAD;
+		}
+		else maxAhead = 0;
+		pending = new LinkedList<Future<byte[]>>();
+		closed = false;
+		ubuff = new byte[BLOCK_INPUT_SIZE];
+		upos = 0;
+		blocksWritten = 0;
+	}
+
+	/* --- Block Writing --- */
+
+	static void shortLE(byte[] b, int off, int val)
+	{
+		b[off] = (byte)(val & 0xFF);
+		b[off+1] = (byte)((val >>> 8) & 0xFF);
+	}
+
+	static void intLE(byte[] b, int off, int val)
+	{
+		b[off] = (byte)(val & 0xFF);
+		b[off+1] = (byte)((val >>> 8) & 0xFF);
+		b[off+2] = (byte)((val >>> 16) & 0xFF);
+		b[off+3] = (byte)((val >>> 24) & 0xFF);
+	}
+
+	private static int deflate(byte[] data, int len, int level, byte[] out, int off)
+	{
+		Deflater deflater = new Deflater(level, true);
+		try
+		{
+			deflater.setInput(data, 0, len);
+			deflater.finish();
+			int csz = 0;
+			while (!deflater.finished())
+			{
+				int room = out.length - off - csz;
+				if (room <= 0) return -1;
+				csz += deflater.deflate(out, off + csz, room);
+			}
+			return csz;
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Compress data into one complete BGZF block.
+	 * @param data Uncompressed data. Should be no longer than BLOCK_INPUT_SIZE.
+	 * @param len Number of bytes of data to use.
+	 * @param level Deflater level.
+	 * @return The block, ready to write.
+	 */
+	public static byte[] deflateBlock(byte[] data, int len, int level)
+	{
+		byte[] buff = new byte[BGZFInputStream.MAX_BLOCK_SIZE];
+		int room = BGZFInputStream.MAX_BLOCK_SIZE - BLOCK_OVERHEAD;
+		int csz = deflate(data, len, level, buff, 18);
+		if (csz < 0 || csz > room)
+		{
+			//Didn't compress - store it instead, which always fits
+			csz = deflate(data, len, Deflater.NO_COMPRESSION, buff, 18);
+		}
+		int bsize = csz + BLOCK_OVERHEAD;
+
+		//Header
+		buff[0] = 0x1f; buff[1] = (byte)0x8b; buff[2] = 0x08; buff[3] = 0x04;
+		intLE(buff, 4, 0);
+		buff[8] = 0x00; buff[9] = (byte)0xff;
+		shortLE(buff, 10, 6);
+		buff[12] = 'B'; buff[13] = 'C';
+		shortLE(buff, 14, 2);
+		shortLE(buff, 16, bsize - 1);
+
+		//Footer
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, len);
+		intLE(buff, 18 + csz, (int)crc.getValue());
+		intLE(buff, 22 + csz, len);
+
+		byte[] block = new byte[bsize];
+		System.arraycopy(buff, 0, block, 0, bsize);
+		return block;
+	}
+
+	private static class DeflateTask implements Callable<byte[]>
+	{
+		private byte[] data;
+		private int len;
+		private int level;
+
+		public DeflateTask(byte[] udata, int ulen, int lvl)
+		{
+			data = udata;
+			len = ulen;
+			level = lvl;
+		}
+
+		public byte[] call() throws Exception
+		{
+			return deflateBlock(data, len, level);
+		}
+	}
+
+	private void writeHead() throws IOException
+	{
+		Future<byte[]> f = pending.poll();
+		try
+		{
+			dst.write(f.get());
+			blocksWritten++;
+		}
+		catch (InterruptedException e)
+		{
+			throw new IOException("BGZFOutputStream || Interrupted while waiting for block", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new IOException("BGZFOutputStream || Block could not be compressed", e.getCause());
+		}
+	}
+
+	private void drain() throws IOException
+	{
+		while (!pending.isEmpty()) writeHead();
+	}
+
+	private void flushBlock() throws IOException
+	{
+		if (upos <= 0) return;
+		if (pool == null)
+		{
+			dst.write(deflateBlock(ubuff, upos, level));
+			blocksWritten++;
+			upos = 0;
+			return;
+		}
+		//Keep the oldest blocks moving out so the queue stays bounded
+		while (pending.size() >= maxAhead) writeHead();
+		pending.add(pool.submit(new DeflateTask(ubuff, upos, level)));
+		ubuff = new byte[BLOCK_INPUT_SIZE];
+		upos = 0;
+		//Write anything already finished without waiting
+		while (!pending.isEmpty() && pending.peek().isDone()) writeHead();
+	}
+
+	/* --- OutputStream --- */
+
+	public void write(int b) throws IOException
+	{
+		if (closed) throw new IOException("BGZFOutputStream || Stream is closed");
+		ubuff[upos++] = (byte)b;
+		if (upos >= BLOCK_INPUT_SIZE) flushBlock();
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if (closed) throw new IOException("BGZFOutputStream || Stream is closed");
+		while (len > 0)
+		{
+			int copy = Math.min(len, BLOCK_INPUT_SIZE - upos);
+			System.arraycopy(b, off, ubuff, upos, copy);
+			upos += copy;
+			off += copy;
+			len -= copy;
+			if (upos >= BLOCK_INPUT_SIZE) flushBlock();
+		}
+	}
+
+	/**
+	 * Ends the current block and writes everything queued so far.
+	 * Blocks are cut short by this, so don't call it more than needed.
+	 */
+	public void flush() throws IOException
+	{
+		if (closed) return;
+		flushBlock();
+		drain();
+		dst.flush();
+	}
+
+	public long getBlocksWritten()
+	{
+		return blocksWritten;
+	}
+
+	public void close() throws IOException
+	{
+		if (closed) return;
+		try
+		{
+			flushBlock();
+			drain();
+			dst.write(EOF_BLOCK);
+			dst.close();
+		}
+		finally
+		{
+			closed = true;
+			if (pool != null) pool.shutdownNow();
+		}
+	}
+
+}
@@ -508,6 +508,17 @@ public class BreakendPair extends StructuralVariant{
 		return var1.getSampleGenotype(sampleName);
 	}
 	
+	public int[] getSampleAlleles(String sampleName)
+	{
+		return var1.getSampleAlleles(sampleName);
+	}
+	
+	void compactGenotypes(SampleIndex samples)
+	{
+		var1.compactGenotypes(samples);
+		var2.compactGenotypes(samples);
+	}
+	
 	public String getSampleGenotypeString(String sampleName)
 	{
 		return var1.getSampleGenotypeString(sampleName);
@@ -0,0 +1,262 @@
+package hospelhornbg_bioinformatics;
+
+import java.util.Set;
+
+class CompactGenotypes {
+
+	//One variant's row of a pool's compact genotype matrix
+	//Only GT, GQ, DP and CN are kept, in primitive arrays indexed by sample column:
+	//	2 bytes of allele codes + one short per numeric field per sample,
+	//	instead of a Genotype (and its maps) per sample.
+	//Numeric columns are not allocated unless at least one sample has a value.
+	//getView returns a Genotype that reads from, and writes GT/GQ/DP/CN back to, the row.
+	//	Anything else set on a view is not kept.
+
+	/*--- Constants ---*/
+
+	public static final byte ALLELE_UNKNOWN = 0x7F; // "."
+	public static final byte ALLELE_ABSENT = 0x7E; //No call in this slot (haploid, or no genotype)
+	public static final int MAX_ALLELE = 0x7D;
+	public static final byte PHASED_BIT = (byte)0x80; //On first slot
+
+	public static final int PLOIDY = 2;
+
+	/*--- Instance Variables ---*/
+
+	private SampleIndex samples;
+	private byte[] calls;
+	private short[] gq;
+	private short[] dp;
+	private short[] cn;
+
+	/*--- Construction ---*/
+
+	public CompactGenotypes(SampleIndex sampleIndex)
+	{
+		samples = sampleIndex;
+		int n = samples.size();
+		calls = new byte[n * PLOIDY];
+		for(int i = 0; i < calls.length; i++) calls[i] = ALLELE_ABSENT;
+	}
+
+	/*--- Packing ---*/
+
+	public static boolean canStore(int[] alleles)
+	{
+		if(alleles == null) return true;
+		if(alleles.length > PLOIDY) return false;
+		for(int a : alleles)
+		{
+			if(a > MAX_ALLELE) return false;
+		}
+		return true;
+	}
+
+	private static short packShort(int val)
+	{
+		if(val < 0) return -1;
+		if(val > Short.MAX_VALUE) return Short.MAX_VALUE; //Clamp - DP can get big
+		return (short)val;
+	}
+
+	private static short[] putShort(short[] arr, int col, int val, int n)
+	{
+		if(arr == null)
+		{
+			if(val < 0) return null;
+			arr = new short[n];
+			for(int i = 0; i < n; i++) arr[i] = -1;
+		}
+		arr[col] = packShort(val);
+		return arr;
+	}
+
+	/*--- Getters ---*/
+
+	public int getColumn(String sampleName)
+	{
+		int col = samples.getColumn(sampleName);
+		if(col < 0) return -1;
+		synchronized(this)
+		{
+			if(calls[col * PLOIDY] == ALLELE_ABSENT) return -1;
+		}
+		return col;
+	}
+
+	public boolean hasSample(String sampleName)
+	{
+		return getColumn(sampleName) >= 0;
+	}
+
+	public synchronized void addSampleNamesTo(Set<String> set)
+	{
+		int n = samples.size();
+		for(int i = 0; i < n; i++)
+		{
+			if(calls[i * PLOIDY] == ALLELE_ABSENT) continue;
+			set.add(samples.getName(i));
+		}
+	}
+
+	private int[] readAlleles(int col)
+	{
+		int pos = col * PLOIDY;
+		int ploidy = 0;
+		for(int i = 0; i < PLOIDY; i++)
+		{
+			if((calls[pos + i] & 0x7F) != ALLELE_ABSENT) ploidy++;
+		}
+		int[] alleles = new int[ploidy];
+		for(int i = 0; i < ploidy; i++)
+		{
+			int c = calls[pos + i] & 0x7F;
+			if(c == ALLELE_UNKNOWN) alleles[i] = -1;
+			else alleles[i] = c;
+		}
+		return alleles;
+	}
+
+	public synchronized int[] getAlleles(String sampleName)
+	{
+		int col = samples.getColumn(sampleName);
+		if(col < 0 || calls[col * PLOIDY] == ALLELE_ABSENT) return null;
+		return readAlleles(col);
+	}
+
+	public Genotype getView(String sampleName)
+	{
+		int col = getColumn(sampleName);
+		if(col < 0) return null;
+		return new View(col);
+	}
+
+	/*--- Setters ---*/
+
+	public synchronized void store(int col, int[] alleles, boolean phased, int gqVal, int dpVal, int cnVal)
+	{
+		int pos = col * PLOIDY;
+		int n = samples.size();
+		for(int i = 0; i < PLOIDY; i++)
+		{
+			byte c = ALLELE_ABSENT;
+			if(alleles != null && i < alleles.length)
+			{
+				if(alleles[i] < 0) c = ALLELE_UNKNOWN;
+				else c = (byte)alleles[i];
+			}
+			calls[pos + i] = c;
+		}
+		//A sample with a genotype always has something in slot 0
+		if(calls[pos] == ALLELE_ABSENT) calls[pos] = ALLELE_UNKNOWN;
+		if(phased) calls[pos] |= PHASED_BIT;
+
+		gq = putShort(gq, col, gqVal, n);
+		dp = putShort(dp, col, dpVal, n);
+		cn = putShort(cn, col, cnVal, n);
+	}
+
+	public boolean store(String sampleName, Genotype g)
+	{
+		//False if the genotype doesn't fit (not in index, ploidy > 2, too many alleles)
+		int col = samples.getColumn(sampleName);
+		if(col < 0 || g == null) return false;
+		int[] alleles = g.getAlleles();
+		if(!canStore(alleles)) return false;
+		store(col, alleles, g.isPhased(), g.getConditionalGenotypeQuality(), g.getReadDepth(), g.getCopyNumber());
+		return true;
+	}
+
+	public synchronized void remove(String sampleName)
+	{
+		int col = samples.getColumn(sampleName);
+		if(col < 0) return;
+		int pos = col * PLOIDY;
+		for(int i = 0; i < PLOIDY; i++) calls[pos + i] = ALLELE_ABSENT;
+		if(gq != null) gq[col] = -1;
+		if(dp != null) dp[col] = -1;
+		if(cn != null) cn[col] = -1;
+	}
+
+	/*--- View ---*/
+
+	private class View extends Genotype
+	{
+		private int col;
+		private boolean loading;
+
+		public View(int column)
+		{
+			super();
+			col = column;
+			loading = true;
+			synchronized(CompactGenotypes.this)
+			{
+				boolean phased = (calls[col * PLOIDY] & PHASED_BIT) != 0;
+				setAllelesDirect(readAlleles(col), phased);
+				if(gq != null) super.setGenotypeQuality((int)gq[col]);
+				if(dp != null) super.setReadDepth(dp[col]);
+				if(cn != null && cn[col] >= 0) super.setCopyNumber(cn[col]);
+			}
+			loading = false;
+		}
+
+		private void writeBack()
+		{
+			if(loading) return;
+			int[] alleles = getAlleles();
+			if(!canStore(alleles)) return;
+			store(col, alleles, isPhased(), getConditionalGenotypeQuality(), getReadDepth(), getCopyNumber());
+		}
+
+		public boolean setAlleles(String gtString)
+		{
+			boolean b = super.setAlleles(gtString);
+			writeBack();
+			return b;
+		}
+
+		public void setAlleles(final int[] newAlleles)
+		{
+			super.setAlleles(newAlleles);
+			writeBack();
+		}
+
+		public void setPhased(boolean phased)
+		{
+			super.setPhased(phased);
+			writeBack();
+		}
+
+		public void setReadDepth(int value)
+		{
+			super.setReadDepth(value);
+			writeBack();
+		}
+
+		public void setGenotypeQuality(int phred)
+		{
+			super.setGenotypeQuality(phred);
+			writeBack();
+		}
+
+		public void setGenotypeQuality(double probability)
+		{
+			super.setGenotypeQuality(probability);
+			writeBack();
+		}
+
+		public void setCopyNumber(int CN)
+		{
+			super.setCopyNumber(CN);
+			writeBack();
+		}
+
+		public void setField(String fieldKey, String value)
+		{
+			super.setField(fieldKey, value);
+			writeBack();
+		}
+	}
+
+}
@@ -0,0 +1,662 @@
+package hospelhornbg_bioinformatics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+import hospelhornbg_genomeBuild.Contig;
+import hospelhornbg_genomeBuild.GenomeBuild;
+
+public class ExternalSorter<T> implements Closeable {
+
+	//Sorts more records than fit in memory
+	//Records are collected into runs of bounded (estimated) size. Each full run is sorted and
+	//	spilled to a temp file on the pool while the next one fills. Spills are BGZF at the
+	//	fastest deflate level, so they cost little CPU and take a fraction of the disk.
+	//At the end all runs are merged with a heap - in several passes if there are too many
+	//	to keep open at once. Ties keep their input order.
+
+	/* --- Constants --- */
+
+	public static final long MIN_RUN_BYTES = 0x100000L;
+	public static final int DEFO_MERGE_WIDTH = 128;
+	public static final int SPILL_LEVEL = Deflater.BEST_SPEED;
+
+	public static final String TEMP_PREFIX = "xsort_";
+	public static final String TEMP_SUFFIX = ".run";
+
+	/* --- Interfaces --- */
+
+	public static interface RecordCodec<T>
+	{
+		public void write(T record, DataOutputStream out) throws IOException;
+
+		/**
+		 * @return The next record, or null at the end of the stream.
+		 */
+		public T read(DataInputStream in) throws IOException;
+
+		/**
+		 * @return Rough number of bytes the record takes up on the heap.
+		 */
+		public long estimateSize(T record);
+	}
+
+	public static interface RecordConsumer<T>
+	{
+		public void consume(T record) throws IOException;
+	}
+
+	/* --- Instance Variables --- */
+
+	private RecordCodec<T> codec;
+	private Comparator<T> comparator;
+	private File tempDir;
+
+	private int threads;
+	private long maxRunBytes;
+	private int mergeWidth;
+
+	private ArrayList<T> run;
+	private long runBytes;
+
+	private ExecutorService pool;
+	private LinkedList<Future<File>> spilling;
+	private List<File> runFiles;
+
+	private long count;
+	private boolean finished;
+
+	/* --- Construction --- */
+
+	/**
+	 * @param recordCodec Reads and writes records to and from the spill files.
+	 * @param order Sort order.
+	 * @param tempDirPath Directory to spill runs to. Null uses the system temp directory.
+	 */
+	public ExternalSorter(RecordCodec<T> recordCodec, Comparator<T> order, String tempDirPath)
+	{
+		codec = recordCodec;
+		comparator = order;
+		tempDir = (tempDirPath == null || tempDirPath.isEmpty()) ? null : new File(tempDirPath);
+		threads = 1;
+		maxRunBytes = -1;
+		mergeWidth = DEFO_MERGE_WIDTH;
+		run = new ArrayList<T>();
+		runBytes = 0;
+		spilling = new LinkedList<Future<File>>();
+		runFiles = new ArrayList<File>();
+		count = 0;
+		finished = false;
+	}
+
+	/**
+	 * Set the number of runs that can be sorted and spilled at once.
+	 * Must be called before the first record is added.
+	 */
+	public void setThreads(int n)
+	{
+		if (count > 0) return;
+		threads = Math.max(1, n);
+	}
+
+	/**
+	 * Set the estimated heap size of one run. Up to threads + 1 runs can be in memory at a time.
+	 * Leave unset (or 0 or less) to size runs from the max heap.
+	 */
+	public void setMaxRunBytes(long bytes)
+	{
+		maxRunBytes = bytes;
+	}
+
+	/**
+	 * Set the most runs merged at once.
+	 */
+	public void setMergeWidth(int n)
+	{
+		mergeWidth = Math.max(2, n);
+	}
+
+	private long getRunLimit()
+	{
+		if (maxRunBytes > 0) return maxRunBytes;
+		//About a third of the heap shared between the runs that can be in memory at once
+		long lim = Runtime.getRuntime().maxMemory() / (3L * (threads + 1));
+		return Math.max(MIN_RUN_BYTES, lim);
+	}
+
+	private ExecutorService getPool()
+	{
+		if (pool == null)
+		{
+			pool = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r);
+					t.setName("ExternalSorter_" + t.getId());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/* --- Spilling --- */
+
+	private File newTempFile() throws IOException
+	{
+		//Not deleteOnExit - close() deletes every run, and the tasks clean up after themselves if they fail
+		return File.createTempFile(TEMP_PREFIX, TEMP_SUFFIX, tempDir);
+	}
+
+	private DataOutputStream openSpill(File f) throws IOException
+	{
+		return new DataOutputStream(new BGZFOutputStream(new BufferedOutputStream(new FileOutputStream(f), BGZFInputStream.MAX_BLOCK_SIZE), 1, SPILL_LEVEL));
+	}
+
+	private DataInputStream openRun(File f) throws IOException
+	{
+		return new DataInputStream(new BGZFInputStream(new BufferedInputStream(new FileInputStream(f), BGZFInputStream.MAX_BLOCK_SIZE), 1));
+	}
+
+	private class SpillTask implements Callable<File>
+	{
+		private List<T> records;
+
+		public SpillTask(List<T> list)
+		{
+			records = list;
+		}
+
+		public File call() throws Exception
+		{
+			Collections.sort(records, comparator);
+			File f = newTempFile();
+			boolean ok = false;
+			try
+			{
+				DataOutputStream out = openSpill(f);
+				try
+				{
+					for (T r : records) codec.write(r, out);
+				}
+				finally
+				{
+					out.close();
+				}
+				ok = true;
+			}
+			finally
+			{
+				//Nobody else knows about the file until it's returned
+				if (!ok) f.delete();
+			}
+			records.clear();
+			return f;
+		}
+	}
+
+	private File waitFor(Future<File> f) throws IOException
+	{
+		try
+		{
+			return f.get();
+		}
+		catch (InterruptedException e)
+		{
+			throw new IOException("ExternalSorter || Interrupted while waiting for a run", e);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable c = e.getCause();
+			if (c instanceof IOException) throw (IOException)c;
+			throw new IOException("ExternalSorter || Run could not be sorted or spilled", c);
+		}
+	}
+
+	private void spillRun() throws IOException
+	{
+		if (run.isEmpty()) return;
+		List<T> full = run;
+		run = new ArrayList<T>(full.size());
+		runBytes = 0;
+
+		SpillTask task = new SpillTask(full);
+		if (threads <= 1)
+		{
+			try {runFiles.add(task.call());}
+			catch (IOException e) {throw e;}
+			catch (Exception e) {throw new IOException("ExternalSorter || Run could not be sorted or spilled", e);}
+			return;
+		}
+		//Only so many runs in memory - wait for the oldest
+		while (spilling.size() >= threads) runFiles.add(waitFor(spilling.poll()));
+		spilling.add(getPool().submit(task));
+	}
+
+	private void waitForSpills() throws IOException
+	{
+		while (!spilling.isEmpty()) runFiles.add(waitFor(spilling.poll()));
+	}
+
+	/* --- Input --- */
+
+	public void add(T record) throws IOException
+	{
+		if (finished) throw new IOException("ExternalSorter.add || Sorter has already been finished!");
+		run.add(record);
+		runBytes += codec.estimateSize(record);
+		count++;
+		if (runBytes >= getRunLimit()) spillRun();
+	}
+
+	public long getRecordCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @return Number of runs spilled to disk so far.
+	 */
+	public int getRunCount()
+	{
+		return runFiles.size() + spilling.size();
+	}
+
+	/* --- Merging --- */
+
+	private class Head
+	{
+		public T record;
+		public int src;
+		public DataInputStream in;
+	}
+
+	private void merge(List<File> files, RecordConsumer<T> out) throws IOException
+	{
+		PriorityQueue<Head> heap = new PriorityQueue<Head>(files.size() + 1, new Comparator<Head>(){
+			public int compare(Head o1, Head o2)
+			{
+				int c = comparator.compare(o1.record, o2.record);
+				if (c != 0) return c;
+				return o1.src - o2.src;
+			}
+		});
+		List<DataInputStream> open = new ArrayList<DataInputStream>(files.size());
+		try
+		{
+			for (int i = 0; i < files.size(); i++)
+			{
+				DataInputStream in = openRun(files.get(i));
+				open.add(in);
+				T r = codec.read(in);
+				if (r == null) continue;
+				Head h = new Head();
+				h.record = r;
+				h.src = i;
+				h.in = in;
+				heap.add(h);
+			}
+			while (!heap.isEmpty())
+			{
+				Head h = heap.poll();
+				out.consume(h.record);
+				T r = codec.read(h.in);
+				if (r != null)
+				{
+					h.record = r;
+					heap.add(h);
+				}
+			}
+		}
+		finally
+		{
+			for (DataInputStream in : open) in.close();
+		}
+	}
+
+	private class MergeTask implements Callable<File>
+	{
+		private List<File> files;
+
+		public MergeTask(List<File> group)
+		{
+			files = group;
+		}
+
+		public File call() throws Exception
+		{
+			File f = newTempFile();
+			boolean ok = false;
+			try
+			{
+				final DataOutputStream out = openSpill(f);
+				try
+				{
+					merge(files, new RecordConsumer<T>(){
+						public void consume(T record) throws IOException
+						{
+							codec.write(record, out);
+						}
+					});
+				}
+				finally
+				{
+					out.close();
+				}
+				ok = true;
+			}
+			finally
+			{
+				if (!ok) f.delete();
+			}
+			for (File in : files) in.delete();
+			return f;
+		}
+	}
+
+	/**
+	 * Merge neighboring groups of runs until there are few enough to merge in one go.
+	 * Groups are merged in parallel. Neighbors only, so ties stay in input order.
+	 */
+	private void reduceRuns() throws IOException
+	{
+		while (runFiles.size() > mergeWidth)
+		{
+			List<Future<File>> merged = new ArrayList<Future<File>>();
+			List<File> next = new ArrayList<File>();
+			try
+			{
+				for (int i = 0; i < runFiles.size(); i += mergeWidth)
+				{
+					List<File> group = new ArrayList<File>(runFiles.subList(i, Math.min(i + mergeWidth, runFiles.size())));
+					MergeTask task = new MergeTask(group);
+					if (threads <= 1)
+					{
+						try {next.add(task.call());}
+						catch (IOException e) {throw e;}
+						catch (Exception e) {throw new IOException("ExternalSorter || Runs could not be merged", e);}
+					}
+					else merged.add(getPool().submit(task));
+				}
+				for (Future<File> f : merged) next.add(waitFor(f));
+			}
+			catch (IOException e)
+			{
+				//Hold on to whatever did get merged so close() can delete it
+				for (Future<File> f : merged)
+				{
+					File done = awaitQuietly(f);
+					if (done != null && !next.contains(done)) next.add(done);
+				}
+				runFiles.addAll(next);
+				throw e;
+			}
+			runFiles = next;
+		}
+	}
+
+	/**
+	 * Sort everything added so far and pass it on in order.
+	 * The sorter can't be added to afterwards. Temp files are deleted when done.
+	 * @param out Receives the records, in sorted order, on the calling thread.
+	 */
+	public void sortTo(RecordConsumer<T> out) throws IOException
+	{
+		if (finished) throw new IOException("ExternalSorter.sortTo || Sorter has already been finished!");
+		finished = true;
+		try
+		{
+			if (runFiles.isEmpty() && spilling.isEmpty())
+			{
+				//Everything fit in memory
+				Collections.sort(run, comparator);
+				for (T r : run) out.consume(r);
+				run.clear();
+				return;
+			}
+			spillRun();
+			waitForSpills();
+			reduceRuns();
+			merge(runFiles, out);
+		}
+		finally
+		{
+			close();
+		}
+	}
+
+	/**
+	 * Wait out a task without throwing.
+	 * @return The task's file, or null if it failed (failed tasks delete their own file).
+	 */
+	private File awaitQuietly(Future<File> f)
+	{
+		boolean interrupted = false;
+		File out = null;
+		while (true)
+		{
+			try
+			{
+				out = f.get();
+				break;
+			}
+			catch (InterruptedException e) {interrupted = true;}
+			catch (ExecutionException e) {break;}
+			catch (CancellationException e) {break;}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		return out;
+	}
+
+	/**
+	 * Drop everything and delete any temp files.
+	 * Spills still in progress are waited for, then deleted.
+	 */
+	public void close() throws IOException
+	{
+		finished = true;
+		run.clear();
+		for (Future<File> f : spilling)
+		{
+			File done = awaitQuietly(f);
+			if (done != null) runFiles.add(done);
+		}
+		spilling.clear();
+		for (File f : runFiles)
+		{
+			if (f.exists() && !f.delete()) System.err.println("ExternalSorter.close || WARNING: Temp file " + f.getAbsolutePath() + " could not be deleted!");
+		}
+		runFiles.clear();
+		if (pool != null)
+		{
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/* --- Line Records --- */
+
+	/**
+	 * Text lines, spilled as a length and the raw (ISO-8859-1) bytes.
+	 */
+	public static class LineCodec implements RecordCodec<String>
+	{
+		public void write(String record, DataOutputStream out) throws IOException
+		{
+			byte[] b = record.getBytes(StandardCharsets.ISO_8859_1);
+			out.writeInt(b.length);
+			out.write(b);
+		}
+
+		public String read(DataInputStream in) throws IOException
+		{
+			int b0 = in.read();
+			if (b0 < 0) return null;
+			int b1 = in.read();
+			int b2 = in.read();
+			int b3 = in.read();
+			if ((b1 | b2 | b3) < 0) throw new EOFException("ExternalSorter.LineCodec || Truncated record");
+			int len = (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+			byte[] b = new byte[len];
+			in.readFully(b);
+			return new String(b, StandardCharsets.ISO_8859_1);
+		}
+
+		public long estimateSize(String record)
+		{
+			//Object headers + char array
+			return 56L + (record.length() << 1);
+		}
+	}
+
+	/**
+	 * Orders tab separated lines (VCF, BED, etc.) by contig then position.
+	 * Contigs follow the build's order. Contigs not in the build go after, by name.
+	 */
+	public static class CoordinateLineComparator implements Comparator<String>
+	{
+		private Map<String, Integer> ranks;
+		private int contigCol;
+		private int posCol;
+
+		/**
+		 * @param gb Build to take contig order from. May be null (contigs are then ordered by name).
+		 * @param contigColumn Index of the contig column (0 for VCF and BED).
+		 * @param posColumn Index of the position column (1 for VCF and BED).
+		 */
+		public CoordinateLineComparator(GenomeBuild gb, int contigColumn, int posColumn)
+		{
+			ranks = new HashMap<String, Integer>();
+			contigCol = contigColumn;
+			posCol = posColumn;
+			if (gb != null)
+			{
+				List<Contig> clist = gb.getChromosomes();
+				int i = 0;
+				for (Contig c : clist)
+				{
+					for (String n : c.getAllNames())
+					{
+						if (n != null && !ranks.containsKey(n)) ranks.put(n, i);
+					}
+					i++;
+				}
+			}
+		}
+
+		private static String field(String line, int col)
+		{
+			int st = 0;
+			for (int i = 0; i < col; i++)
+			{
+				st = line.indexOf('\t', st);
+				if (st < 0) return "";
+				st++;
+			}
+			int ed = line.indexOf('\t', st);
+			if (ed < 0) ed = line.length();
+			return line.substring(st, ed);
+		}
+
+		private static long parsePos(String s)
+		{
+			try {return Long.parseLong(s);}
+			catch (NumberFormatException e) {return Long.MAX_VALUE;}
+		}
+
+		public int compare(String o1, String o2)
+		{
+			String c1 = field(o1, contigCol);
+			String c2 = field(o2, contigCol);
+			if (!c1.equals(c2))
+			{
+				Integer r1 = ranks.get(c1);
+				Integer r2 = ranks.get(c2);
+				if (r1 != null && r2 != null)
+				{
+					if (!r1.equals(r2)) return r1.compareTo(r2);
+				}
+				else if (r1 != null) return -1;
+				else if (r2 != null) return 1;
+				else return c1.compareTo(c2);
+			}
+			return Long.compare(parsePos(field(o1, posCol)), parsePos(field(o2, posCol)));
+		}
+	}
+
+	/**
+	 * Sort a text file (VCF, BED, SAM...) line by line.
+	 * Header lines (starting with # or @) at the top are copied through first, unsorted.
+	 * @return Number of records sorted.
+	 */
+	public static long sortTextFile(String inpath, String outpath, Comparator<String> order, String tempDir, int threads) throws IOException
+	{
+		final ExternalSorter<String> sorter = new ExternalSorter<String>(new LineCodec(), order, tempDir);
+		sorter.setThreads(threads);
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(inpath), StandardCharsets.ISO_8859_1));
+		final BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outpath), StandardCharsets.ISO_8859_1));
+		try
+		{
+			String line = null;
+			boolean header = true;
+			while ((line = br.readLine()) != null)
+			{
+				if (line.isEmpty()) continue;
+				if (header && (line.charAt(0) == '#' || line.charAt(0) == '@'))
+				{
+					bw.write(line);
+					bw.write("\n");
+					continue;
+				}
+				header = false;
+				sorter.add(line);
+			}
+			br.close();
+			sorter.sortTo(new RecordConsumer<String>(){
+				public void consume(String record) throws IOException
+				{
+					bw.write(record);
+					bw.write("\n");
+				}
+			});
+			return sorter.getRecordCount();
+		}
+		finally
+		{
+			br.close();
+			bw.close();
+			sorter.close();
+		}
+	}
+
+}
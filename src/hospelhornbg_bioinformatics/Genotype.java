@@ -274,8 +274,8 @@ public class Genotype {
 	private int ancestorHTID; //AHAP
 	
 	private Map<String, String> unparsedFieldMap; //For unrecognized values
-	private Map<String, Field> fieldMap;
-	private static Map<String, InfoDefinition> defMap;
+	private Map<String, Field> fieldMap; //Built on first getField/setField
+	private static volatile Map<String, InfoDefinition> defMap;
 	
 	/* --- Construction --- */
 	
@@ -286,7 +286,6 @@ public class Genotype {
 	public Genotype()
 	{
 		setDefaults();
-		populateMaps();
 	}
 	
 	/**
@@ -299,12 +298,11 @@ public class Genotype {
 	public Genotype(String[] VCF_keys, String VCF_field) throws UnsupportedFileTypeException
 	{
 		setDefaults();
-		populateMaps();
 		if (VCF_field == null) return;
 		if (VCF_field.isEmpty()) return;
 		if (VCF_field.equals(".")) return;
 		
-		String[] fields = VCF_field.split(":");
+		String[] fields = VCFTokenizer.split(VCF_field, ':');
 		//System.err.println("Genotype.<init> || DEBUG: VCF_keys.length = " + VCF_keys.length);
 		//for (String s : VCF_keys) System.err.println("Genotype.<init> || \t" + s);
 		//System.err.println("Genotype.<init> || DEBUG: fields.length = " + fields.length);
@@ -801,31 +799,32 @@ public class Genotype {
 			
 		});
 	
-		if (defMap == null) populateDefMap();
 	}
 	
-	private static void populateDefMap()
-	{
-		defMap = new HashMap<String, InfoDefinition>();
-		defMap.put(Genotype.INFODEF_AHAP.getKey(), INFODEF_AHAP);
-		defMap.put(Genotype.INFODEF_CN.getKey(), INFODEF_CN);
-		defMap.put(Genotype.INFODEF_CNL.getKey(), INFODEF_CNL);
-		defMap.put(Genotype.INFODEF_CNQ.getKey(), INFODEF_CNQ);
-		defMap.put(Genotype.INFODEF_DP.getKey(), INFODEF_DP);
-		defMap.put(Genotype.INFODEF_EC.getKey(), INFODEF_EC);
-		defMap.put(Genotype.INFODEF_FT.getKey(), INFODEF_FT);
-		defMap.put(Genotype.INFODEF_GL.getKey(), INFODEF_GL);
-		defMap.put(Genotype.INFODEF_GLE.getKey(), INFODEF_GLE);
-		defMap.put(Genotype.INFODEF_GP.getKey(), INFODEF_GP);
-		defMap.put(Genotype.INFODEF_GQ.getKey(), INFODEF_GQ);
-		defMap.put(Genotype.INFODEF_GT.getKey(), INFODEF_GT);
-		defMap.put(Genotype.INFODEF_HAP.getKey(), INFODEF_HAP);
-		defMap.put(Genotype.INFODEF_HQ.getKey(), INFODEF_HQ);
-		defMap.put(Genotype.INFODEF_MQ.getKey(), INFODEF_MQ);
-		defMap.put(Genotype.INFODEF_NQ.getKey(), INFODEF_NQ);
-		defMap.put(Genotype.INFODEF_PL.getKey(), INFODEF_PL);
-		defMap.put(Genotype.INFODEF_PQ.getKey(), INFODEF_PQ);
-		defMap.put(Genotype.INFODEF_PS.getKey(), INFODEF_PS);
+	private static synchronized void populateDefMap()
+	{
+		if (defMap != null) return;
+		Map<String, InfoDefinition> map = new HashMap<String, InfoDefinition>();
+		map.put(Genotype.INFODEF_AHAP.getKey(), INFODEF_AHAP);
+		map.put(Genotype.INFODEF_CN.getKey(), INFODEF_CN);
+		map.put(Genotype.INFODEF_CNL.getKey(), INFODEF_CNL);
+		map.put(Genotype.INFODEF_CNQ.getKey(), INFODEF_CNQ);
+		map.put(Genotype.INFODEF_DP.getKey(), INFODEF_DP);
+		map.put(Genotype.INFODEF_EC.getKey(), INFODEF_EC);
+		map.put(Genotype.INFODEF_FT.getKey(), INFODEF_FT);
+		map.put(Genotype.INFODEF_GL.getKey(), INFODEF_GL);
+		map.put(Genotype.INFODEF_GLE.getKey(), INFODEF_GLE);
+		map.put(Genotype.INFODEF_GP.getKey(), INFODEF_GP);
+		map.put(Genotype.INFODEF_GQ.getKey(), INFODEF_GQ);
+		map.put(Genotype.INFODEF_GT.getKey(), INFODEF_GT);
+		map.put(Genotype.INFODEF_HAP.getKey(), INFODEF_HAP);
+		map.put(Genotype.INFODEF_HQ.getKey(), INFODEF_HQ);
+		map.put(Genotype.INFODEF_MQ.getKey(), INFODEF_MQ);
+		map.put(Genotype.INFODEF_NQ.getKey(), INFODEF_NQ);
+		map.put(Genotype.INFODEF_PL.getKey(), INFODEF_PL);
+		map.put(Genotype.INFODEF_PQ.getKey(), INFODEF_PQ);
+		map.put(Genotype.INFODEF_PS.getKey(), INFODEF_PS);
+		defMap = map;
 	}
 	
 	private void tryParseCommonFields() throws UnsupportedFileTypeException
@@ -898,6 +897,66 @@ public class Genotype {
 		}
 	}
 	
+	/**
+	 * Read the allele calls from a VCF GT string without building a Genotype.
+	 * A lone "." gives the same unknown diploid call ("./.") as an empty Genotype.
+	 * @param gt VCF GT string (eg. "0/1", "1|0", "./.")
+	 * @return Array of general allele indices (-1 for "."), or null if the string could not
+	 * be read as a GT value.
+	 */
+	public static int[] parseGTAlleles(String gt)
+	{
+		if (gt == null) return null;
+		return parseGTAlleles(gt, 0, gt.length());
+	}
+	
+	/**
+	 * Read the allele calls from a region of a string holding a VCF GT value,
+	 * without building a Genotype or any intermediate strings.
+	 * @param src Source text
+	 * @param st Start of the GT value (inclusive)
+	 * @param ed End of the GT value (exclusive)
+	 * @return Array of general allele indices (-1 for "."), or null if the region could not
+	 * be read as a GT value.
+	 */
+	public static int[] parseGTAlleles(CharSequence src, int st, int ed)
+	{
+		if (ed - st == 1 && src.charAt(st) == '.')
+		{
+			int[] unk = {-1, -1};
+			return unk;
+		}
+		if (st >= ed) return null;
+		
+		int n = 1;
+		for (int i = st; i < ed; i++)
+		{
+			char c = src.charAt(i);
+			if (c == '/' || c == '|') n++;
+		}
+		
+		int[] alleles = new int[n];
+		int a = 0;
+		int tst = st;
+		for (int i = st; i <= ed; i++)
+		{
+			if (i < ed)
+			{
+				char c = src.charAt(i);
+				if (c != '/' && c != '|') continue;
+			}
+			if (i - tst == 1 && src.charAt(tst) == '.') alleles[a] = -1;
+			else
+			{
+				try {alleles[a] = VCFTokenizer.parseInt(src, tst, i);}
+				catch (NumberFormatException e) {return null;}
+			}
+			a++;
+			tst = i + 1;
+		}
+		return alleles;
+	}
+	
 	private void parseDP(String val) throws UnsupportedFileTypeException
 	{
 		//String dp = fieldMap.get("DP");
@@ -1569,6 +1628,7 @@ public class Genotype {
 		if (val != null) return val;
 		
 		//Check parsed fields
+		if (fieldMap == null) populateMaps();
 		Field f = fieldMap.get(fieldKey);
 		if (f == null) return null;
 		return f.get();
@@ -1604,6 +1664,7 @@ public class Genotype {
 	{
 		if (fieldKey == null || fieldKey.isEmpty()) return;
 		//See if parsed field.
+		if (fieldMap == null) populateMaps();
 		Field f = this.fieldMap.get(fieldKey);
 		if (f == null) this.unparsedFieldMap.put(fieldKey, value);
 		else f.set(value);
@@ -1649,6 +1710,19 @@ public class Genotype {
 		alleles = acopy;
 	}
 
+	/**
+	 * Set the called alleles and phasing without any checks. Unlike setAlleles,
+	 * unknown (-1) alleles are accepted. The array is not copied.
+	 * For subclasses that load calls from another store (see CompactGenotypes).
+	 * @param newAlleles Array of general allele indicies, -1 for unknown.
+	 * @param phased Whether the call is phased.
+	 */
+	protected final void setAllelesDirect(int[] newAlleles, boolean phased)
+	{
+		alleles = newAlleles;
+		genotypePhased = phased;
+	}
+	
 	/**
 	 * Set the genotype phasing flag.
 	 * @param phased Whether this genotype is phased.
@@ -2191,6 +2265,18 @@ public class Genotype {
 	 * @return Decimal percentage of alleles that are alternate alleles.
 	 */
 	public double getPercentAlt()
+	{
+		return getPercentAlt(alleles);
+	}
+	
+	/**
+	 * Calculate the percentage of called alleles in an allele array that are alt alleles.
+	 * Unknown (".", -1) alleles are not counted.
+	 * @param alleles General allele indices, as returned by getAlleles.
+	 * @return Percentage (0.0 - 100.0) of known alleles that are not the reference allele.
+	 * 0.0 if the array is null, empty, or contains no known alleles.
+	 */
+	public static double getPercentAlt(int[] alleles)
 	{
 		if (alleles == null) return 0;
 		int t = alleles.length;
@@ -2216,8 +2302,19 @@ public class Genotype {
 	 */
 	public boolean isGenotypeUnknown()
 	{
-		if (this.alleles == null) return true;
-		if (this.alleles.length < 1) return true;
+		return isGenotypeUnknown(alleles);
+	}
+	
+	/**
+	 * Get whether an allele array describes an unknown genotype (usually denoted "./." in a VCF).
+	 * @param alleles General allele indices, as returned by getAlleles.
+	 * @return True - If the array is null, empty, or all alleles are "undefined". False - If there is at least
+	 * one valid allele.
+	 */
+	public static boolean isGenotypeUnknown(int[] alleles)
+	{
+		if (alleles == null) return true;
+		if (alleles.length < 1) return true;
 		for (int i : alleles)
 		{
 			if (i >= 0) return false;
@@ -2281,6 +2378,7 @@ public class Genotype {
 	 */
 	public static InfoDefinition getStandardDefinition(String key)
 	{
+		if (defMap == null) populateDefMap();
 		return defMap.get(key);
 	}
 	
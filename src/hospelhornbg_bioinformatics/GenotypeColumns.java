@@ -0,0 +1,215 @@
+package hospelhornbg_bioinformatics;
+
+import java.util.List;
+import java.util.Set;
+
+import waffleoRai_Utils.FileBuffer.UnsupportedFileTypeException;
+
+class GenotypeColumns {
+
+	//Undecoded sample columns of a single VCF record
+	//The record's sample columns are kept as one string with column offsets, and a
+	//	Genotype is only built the first time a sample is asked for.
+	//GT can be read straight out of the text without building a Genotype at all.
+	//Sample name -> column lookup (SampleIndex) is shared between all records
+	//	parsed against the same sample list.
+
+	/*--- Instance Variables ---*/
+
+	private SampleIndex samples;
+	private String[] format;
+	private int gtIndex;
+
+	private String text;
+	private int[] starts;
+	private int[] ends;
+	private int count;
+
+	private Genotype[] decoded;
+	private boolean[] dropped;
+
+	/*--- Construction ---*/
+
+	public GenotypeColumns(VCFTokenizer tok, String[] formatKeys, List<String> sampleList)
+	{
+		//Columns past the end of the sample list are ignored, as are samples
+		//	without a column.
+		samples = SampleIndex.forList(sampleList);
+		format = formatKeys;
+		gtIndex = -1;
+		for(int i = 0; i < format.length; i++)
+		{
+			if(format[i].equals(Genotype.INFODEF_GT.getKey())) {gtIndex = i; break;}
+		}
+
+		count = tok.countFields() - 9;
+		if(count > samples.size()) count = samples.size();
+		if(count < 0) count = 0;
+		starts = new int[count];
+		ends = new int[count];
+		if(count < 1)
+		{
+			text = "";
+			return;
+		}
+
+		//One copy of the sample region, not one string per sample
+		int base = tok.getFieldStart(9);
+		text = tok.getLine().substring(base, tok.getFieldEnd(8 + count));
+		for(int i = 0; i < count; i++)
+		{
+			starts[i] = tok.getFieldStart(9 + i) - base;
+			ends[i] = tok.getFieldEnd(9 + i) - base;
+		}
+	}
+
+	/*--- Internal ---*/
+
+	private int getColumn(String sampleName)
+	{
+		if(sampleName == null) return -1;
+		int i = samples.getColumn(sampleName);
+		if(i < 0 || i >= count) return -1;
+		if(dropped != null && dropped[i]) return -1;
+		return i;
+	}
+
+	private int findSubfield(int col, int keyIndex)
+	{
+		//Start offset of the nth ':' separated value in a column, or -1 if the
+		//	column is truncated before it.
+		if(keyIndex < 0) return -1;
+		int st = starts[col];
+		int ed = ends[col];
+		for(int i = 0; i < keyIndex; i++)
+		{
+			st = text.indexOf(':', st);
+			if(st < 0 || st >= ed) return -1;
+			st++;
+		}
+		return st;
+	}
+
+	private int subfieldEnd(int col, int st)
+	{
+		int e = text.indexOf(':', st);
+		if(e < 0 || e > ends[col]) e = ends[col];
+		return e;
+	}
+
+	private Genotype decode(int col)
+	{
+		if(decoded == null) decoded = new Genotype[count];
+		Genotype g = decoded[col];
+		if(g != null) return g;
+		try
+		{
+			g = new Genotype(format, text.substring(starts[col], ends[col]));
+		}
+		catch(UnsupportedFileTypeException e)
+		{
+			System.err.println("GenotypeColumns.decode || Genotype for sample " + samples.getName(col) + " could not be parsed: " + text.substring(starts[col], ends[col]));
+			e.printStackTrace();
+			return null;
+		}
+		decoded[col] = g;
+		return g;
+	}
+
+	/*--- Getters ---*/
+
+	public String[] getFormat()
+	{
+		return format;
+	}
+
+	public synchronized boolean hasSample(String sampleName)
+	{
+		return getColumn(sampleName) >= 0;
+	}
+
+	public synchronized void addSampleNamesTo(Set<String> set)
+	{
+		for(int i = 0; i < count; i++)
+		{
+			if(dropped != null && dropped[i]) continue;
+			set.add(samples.getName(i));
+		}
+	}
+
+	public synchronized Genotype getGenotype(String sampleName)
+	{
+		int col = getColumn(sampleName);
+		if(col < 0) return null;
+		return decode(col);
+	}
+
+	public synchronized int[] getAlleles(String sampleName)
+	{
+		//GT fast path - reads the allele calls from the raw text.
+		int col = getColumn(sampleName);
+		if(col < 0) return null;
+		if(decoded != null && decoded[col] != null) return decoded[col].getAlleles();
+		int st = findSubfield(col, gtIndex);
+		if(st < 0) return Genotype.parseGTAlleles(".");
+		int[] alleles = Genotype.parseGTAlleles(text, st, subfieldEnd(col, st));
+		if(alleles != null) return alleles;
+		//Something weird - let the full parser deal with it
+		Genotype g = decode(col);
+		if(g == null) return null;
+		return g.getAlleles();
+	}
+
+	public synchronized Genotype getDecodedGenotype(String sampleName)
+	{
+		//Only what's already been decoded - doesn't decode anything
+		int col = getColumn(sampleName);
+		if(col < 0 || decoded == null) return null;
+		return decoded[col];
+	}
+
+	public synchronized String getRawSubfield(String sampleName, String key)
+	{
+		int col = getColumn(sampleName);
+		if(col < 0) return null;
+		int k = -1;
+		for(int i = 0; i < format.length; i++)
+		{
+			if(format[i].equals(key)) {k = i; break;}
+		}
+		int st = findSubfield(col, k);
+		if(st < 0) return null;
+		return text.substring(st, subfieldEnd(col, st));
+	}
+
+	public synchronized String getRawColumn(String sampleName)
+	{
+		//Raw text, only while the sample has not been decoded (decoded copies may be edited)
+		int col = getColumn(sampleName);
+		if(col < 0) return null;
+		if(decoded != null && decoded[col] != null) return null;
+		return text.substring(starts[col], ends[col]);
+	}
+
+	public boolean formatMatches(List<String> keys)
+	{
+		if(keys == null || keys.size() != format.length) return false;
+		for(int i = 0; i < format.length; i++)
+		{
+			if(!format[i].equals(keys.get(i))) return false;
+		}
+		return true;
+	}
+
+	/*--- Setters ---*/
+
+	public synchronized void dropSample(String sampleName)
+	{
+		int col = getColumn(sampleName);
+		if(col < 0) return;
+		if(dropped == null) dropped = new boolean[count];
+		dropped[col] = true;
+		if(decoded != null) decoded[col] = null;
+	}
+
+}
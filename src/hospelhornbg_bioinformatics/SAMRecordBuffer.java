@@ -0,0 +1,411 @@
+package hospelhornbg_bioinformatics;
+
+import java.nio.charset.StandardCharsets;
+
+import hospelhornbg_bioinformatics.SAMRecord.FailFlags;
+import hospelhornbg_bioinformatics.SAMRecord.InvalidSAMRecordException;
+import hospelhornbg_bioinformatics.SAMRecord.WarningFlags;
+import hospelhornbg_genomeBuild.Contig;
+import hospelhornbg_genomeBuild.GenomeBuild;
+import waffleoRai_Utils.FileBuffer.UnsupportedFileTypeException;
+
+public class SAMRecordBuffer {
+
+	//Mutable SAM record parsed straight off the line bytes - the low allocation
+	//	alternative to SAMRecord.parseSAMRecord for tools that stream whole files.
+	//Meant to be kept one per worker thread and reused for every line. Not thread safe.
+	//Numeric fields are decoded on parse. String fields and optional tags stay as
+	//	offsets into the caller's array and are only decoded when asked for, so the
+	//	array must not be changed while the record is in use.
+	//Contigs are resolved through a small per-buffer cache keyed on the name bytes,
+	//	so RNAME/RNEXT cost one lookup per distinct name, not one per read.
+
+	/* ----- Constants ----- */
+
+	public static final int MANDATORY_FIELDS = 11;
+
+	private static final int CACHE_SLOTS = 1024; //Power of 2
+	private static final int CACHE_MAX = CACHE_SLOTS >>> 1;
+
+	/* ----- Instance Variables ----- */
+
+	private GenomeBuild genome;
+
+	//Contig cache - open addressing on name bytes
+	private byte[][] c_names;
+	private String[] c_strings;
+	private Contig[] c_contigs;
+	private int c_count;
+
+	//Current record
+	private byte[] data;
+	private int[] fstart;
+	private int[] fend;
+	private int fcount;
+
+	private int flags;
+	private String rname;
+	private Contig reference;
+	private int position;
+	private int mapq;
+	private String rnext;
+	private Contig refNext;
+	private int pNext;
+	private int templateLength;
+
+	private WarningFlags warnings;
+
+	/* ----- Construction ----- */
+
+	public SAMRecordBuffer(GenomeBuild gbuild)
+	{
+		genome = gbuild;
+		c_names = new byte[CACHE_SLOTS][];
+		c_strings = new String[CACHE_SLOTS];
+		c_contigs = new Contig[CACHE_SLOTS];
+		c_count = 0;
+		fstart = new int[32];
+		fend = new int[32];
+		warnings = new WarningFlags();
+	}
+
+	/* ----- Contig Cache ----- */
+
+	private static int hashBytes(byte[] b, int st, int ed)
+	{
+		int h = 0;
+		for (int i = st; i < ed; i++) h = 31 * h + b[i];
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean bytesMatch(byte[] key, byte[] b, int st, int ed)
+	{
+		if (key.length != ed - st) return false;
+		for (int i = 0; i < key.length; i++)
+		{
+			if (key[i] != b[st + i]) return false;
+		}
+		return true;
+	}
+
+	private int findSlot(byte[] b, int st, int ed)
+	{
+		//Returns slot holding the name, or -(empty slot + 1)
+		int mask = CACHE_SLOTS - 1;
+		int i = hashBytes(b, st, ed) & mask;
+		while (c_names[i] != null)
+		{
+			if (bytesMatch(c_names[i], b, st, ed)) return i;
+			i = (i + 1) & mask;
+		}
+		return -(i + 1);
+	}
+
+	private int resolveContig(byte[] b, int st, int ed)
+	{
+		//Returns a cache slot, or -1 if the cache is full and the name is new (rare)
+		int slot = findSlot(b, st, ed);
+		if (slot >= 0) return slot;
+		if (c_count >= CACHE_MAX) return -1;
+		slot = -(slot + 1);
+		byte[] key = new byte[ed - st];
+		System.arraycopy(b, st, key, 0, key.length);
+		String name = new String(key, StandardCharsets.ISO_8859_1).intern();
+		c_names[slot] = key;
+		c_strings[slot] = name;
+		c_contigs[slot] = genome.getContig(name);
+		c_count++;
+		return slot;
+	}
+
+	/* ----- Parsing ----- */
+
+	private static InvalidSAMRecordException syntaxError()
+	{
+		FailFlags ff = new FailFlags(); ff.err_syntax = true;
+		return new InvalidSAMRecordException(ff);
+	}
+
+	private boolean fieldIs(int f, char c)
+	{
+		return (fend[f] - fstart[f] == 1) && (data[fstart[f]] == c);
+	}
+
+	private int parseIntField(int f, String fname, boolean verbose) throws InvalidSAMRecordException
+	{
+		int st = fstart[f];
+		int ed = fend[f];
+		boolean neg = false;
+		if (st < ed && (data[st] == '-' || data[st] == '+'))
+		{
+			neg = (data[st] == '-');
+			st++;
+		}
+		if (st >= ed || ed - st > 10)
+		{
+			if(verbose)System.err.println("SAMRecordBuffer.parse || ERROR: " + fname + " record (" + getFieldString(f) + ") could not be parsed as a decimal integer!");
+			throw syntaxError();
+		}
+		long v = 0;
+		for (int i = st; i < ed; i++)
+		{
+			int d = data[i] - '0';
+			if (d < 0 || d > 9)
+			{
+				if(verbose)System.err.println("SAMRecordBuffer.parse || ERROR: " + fname + " record (" + getFieldString(f) + ") could not be parsed as a decimal integer!");
+				throw syntaxError();
+			}
+			v = (v * 10) + d;
+		}
+		if (neg) v = -v;
+		if (v > Integer.MAX_VALUE || v < Integer.MIN_VALUE)
+		{
+			if(verbose)System.err.println("SAMRecordBuffer.parse || ERROR: " + fname + " record (" + getFieldString(f) + ") could not be parsed as a decimal integer!");
+			throw syntaxError();
+		}
+		return (int)v;
+	}
+
+	private void splitFields(int off, int len)
+	{
+		fcount = 0;
+		int ed = off + len;
+		int st = off;
+		for (int i = off; i <= ed; i++)
+		{
+			if (i == ed || data[i] == '\t')
+			{
+				if (fcount >= fstart.length)
+				{
+					int[] ns = new int[fstart.length << 1];
+					int[] ne = new int[fend.length << 1];
+					System.arraycopy(fstart, 0, ns, 0, fcount);
+					System.arraycopy(fend, 0, ne, 0, fcount);
+					fstart = ns;
+					fend = ne;
+				}
+				fstart[fcount] = st;
+				fend[fcount] = i;
+				fcount++;
+				st = i + 1;
+			}
+		}
+	}
+
+	/**
+	 * Parse a SAM record line, replacing whatever this buffer held before.
+	 * <br>Same checks as SAMRecord.parseSAMRecord, except that optional tag
+	 * values are not decoded (only the TAG:TYPE: part is checked) and tag
+	 * values may contain ':' as the spec allows.
+	 * @param line Array holding the line. Kept by reference, not copied.
+	 * @param off Offset of the line start.
+	 * @param len Length of the line, not counting the line break (a trailing '\r' is dropped).
+	 * @param verbose Whether to print parsing errors to stderr.
+	 * @throws InvalidSAMRecordException If the record is malformed.
+	 */
+	public void parse(byte[] line, int off, int len, boolean verbose) throws InvalidSAMRecordException
+	{
+		if (len > 0 && line[off + len - 1] == '\r') len--;
+		data = line;
+		warnings.err_invalid_RNAME = null;
+		warnings.err_invalid_POS = 0;
+		warnings.err_invalid_RNEXT = null;
+		warnings.err_invalid_PNEXT = 0;
+		warnings.err_qualstr_len_bad = false;
+
+		splitFields(off, len);
+		if (fcount < MANDATORY_FIELDS)
+		{
+			if(verbose)System.err.println("SAMRecordBuffer.parse || ERROR: SAM Record contains insufficient number of fields (" + fcount + ")!");
+			throw syntaxError();
+		}
+
+		//FLAG
+		flags = parseIntField(1, "Flag", verbose);
+
+		//RNAME
+		reference = null;
+		rname = null;
+		int slot = resolveContig(data, fstart[2], fend[2]);
+		if (slot >= 0) rname = c_strings[slot];
+		else rname = getFieldString(2);
+		if (!fieldIs(2, '*'))
+		{
+			if (slot >= 0) reference = c_contigs[slot];
+			else reference = genome.getContig(rname);
+			if (reference == null) warnings.err_invalid_RNAME = rname;
+		}
+
+		//POS
+		position = parseIntField(3, "POS", verbose);
+		if (reference != null && (position < 0 || position > reference.getLength())) warnings.err_invalid_POS = position;
+
+		//MAPQ
+		mapq = parseIntField(4, "MAPQ", verbose);
+
+		//RNEXT
+		refNext = null;
+		slot = resolveContig(data, fstart[6], fend[6]);
+		if (slot >= 0) rnext = c_strings[slot];
+		else rnext = getFieldString(6);
+		if (fieldIs(6, '=')) refNext = reference;
+		else if (!fieldIs(6, '*'))
+		{
+			if (slot >= 0) refNext = c_contigs[slot];
+			else refNext = genome.getContig(rnext);
+			if (refNext == null) warnings.err_invalid_RNEXT = rnext;
+		}
+
+		//PNEXT
+		pNext = parseIntField(7, "PNEXT", verbose);
+		if (refNext != null && (pNext < 0 || pNext > refNext.getLength())) warnings.err_invalid_PNEXT = pNext;
+
+		//TLEN
+		templateLength = parseIntField(8, "TLEN", verbose);
+
+		//SEQ/QUAL
+		boolean nullseq = fieldIs(9, '*');
+		if (!fieldIs(10, '*'))
+		{
+			if (nullseq)
+			{
+				if(verbose)System.err.println("SAMRecordBuffer.parse || ERROR: Non-null quality string cannot accompany null sequence string!");
+				FailFlags ff = new FailFlags(); ff.err_nullseq_nnqual = true;
+				throw new InvalidSAMRecordException(ff);
+			}
+			if (getSequenceLength() != getQualityLength()) warnings.err_qualstr_len_bad = true;
+		}
+
+		//Optional fields - check the TAG:TYPE: prefix only
+		for (int f = MANDATORY_FIELDS; f < fcount; f++)
+		{
+			int st = fstart[f];
+			int ed = fend[f];
+			if (ed - st < 5 || data[st + 2] != ':' || data[st + 4] != ':')
+			{
+				if(verbose)System.err.println("SAMRecordBuffer.parse || ERROR: Custom field is not formatted correctly: " + getFieldString(f));
+				throw syntaxError();
+			}
+			switch (data[st + 3])
+			{
+			case 'A': case 'i': case 'f': case 'Z': case 'H': case 'B': break;
+			default:
+				if(verbose)System.err.println("SAMRecordBuffer.parse || ERROR: Custom field type not recoginized: " + getFieldString(f));
+				FailFlags ff = new FailFlags(); ff.err_bad_customFieldType = getFieldString(f);
+				throw new InvalidSAMRecordException(ff);
+			}
+		}
+	}
+
+	/* ----- Getters ----- */
+
+	private String getFieldString(int f)
+	{
+		return new String(data, fstart[f], fend[f] - fstart[f], StandardCharsets.ISO_8859_1);
+	}
+
+	private String getFieldStringOrNull(int f)
+	{
+		if (fieldIs(f, '*')) return null;
+		return getFieldString(f);
+	}
+
+	public String getQueryName(){return getFieldStringOrNull(0);}
+	public int getFlags(){return flags;}
+	public boolean getFlag(int bit){return (flags & (1 << bit)) != 0;}
+	public Contig getReferenceContig(){return reference;}
+	public int getPosition(){return position;}
+	public int getMapQuality(){return mapq;}
+	public String getCIGAR(){return getFieldStringOrNull(5);}
+	public Contig getNextReferenceContig(){return refNext;}
+	public int getNextPosition(){return pNext;}
+	public int getTemplateLength(){return templateLength;}
+	public String getSequence(){return getFieldStringOrNull(9);}
+	public WarningFlags getParserWarnings(){return warnings;}
+
+	/**
+	 * @return RNAME exactly as written in the record (interned).
+	 */
+	public String getRawRName(){return rname;}
+
+	/**
+	 * @return RNEXT exactly as written in the record (interned).
+	 */
+	public String getRawRNext(){return rnext;}
+
+	public int getSequenceLength()
+	{
+		if (fieldIs(9, '*')) return 0;
+		return fend[9] - fstart[9];
+	}
+
+	public int getQualityLength()
+	{
+		if (fieldIs(10, '*')) return 0;
+		return fend[10] - fstart[10];
+	}
+
+	public int getPhredBaseQuality(int index)
+	{
+		if (index < 0 || index >= getQualityLength()) return -1;
+		return Byte.toUnsignedInt(data[fstart[10] + index]) - 33;
+	}
+
+	public int countOptionalFields()
+	{
+		return fcount - MANDATORY_FIELDS;
+	}
+
+	/**
+	 * Decode an optional field. Only done on request.
+	 * @param TAG Two character tag.
+	 * @return Field, or null if the record has no such tag (or its value is empty).
+	 */
+	public SAMField getCustomField(String TAG) throws UnsupportedFileTypeException, InvalidSAMRecordException
+	{
+		if (TAG == null || TAG.length() != 2) return null;
+		char t0 = TAG.charAt(0);
+		char t1 = TAG.charAt(1);
+		for (int f = MANDATORY_FIELDS; f < fcount; f++)
+		{
+			int st = fstart[f];
+			if (data[st] == t0 && data[st + 1] == t1) return SAMRecord.parseOptionalField(getFieldString(f), false);
+		}
+		return null;
+	}
+
+	/**
+	 * Copy the current record out into a full SAMRecord (optional fields decoded).
+	 */
+	public SAMRecord toSAMRecord() throws UnsupportedFileTypeException, InvalidSAMRecordException
+	{
+		SAMRecord rec = new SAMRecord();
+		rec.setQueryName(getQueryName());
+		for (int b = 0; b < 16; b++)
+		{
+			if (getFlag(b)) rec.setFlag(b);
+		}
+		rec.setReferenceContig(reference);
+		rec.setPosition(position);
+		rec.setMapQuality(mapq);
+		rec.setCIGAR(getCIGAR());
+		rec.setNextReferenceContig(refNext);
+		rec.setNextPosition(pNext);
+		rec.setTemplateLength(templateLength);
+		rec.setSequence(getSequence());
+		int qlen = getQualityLength();
+		if (qlen > 0)
+		{
+			int[] quals = new int[qlen];
+			for (int i = 0; i < qlen; i++) quals[i] = getPhredBaseQuality(i);
+			rec.setQualities(quals);
+		}
+		for (int f = MANDATORY_FIELDS; f < fcount; f++)
+		{
+			SAMField of = SAMRecord.parseOptionalField(getFieldString(f), false);
+			if (of != null) rec.addCustomField(of);
+		}
+		return rec;
+	}
+
+}
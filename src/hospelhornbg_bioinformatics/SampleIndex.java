@@ -0,0 +1,69 @@
+package hospelhornbg_bioinformatics;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class SampleIndex {
+
+	//Sample name <-> column lookup shared by per-variant genotype stores
+	//Built once per sample list, so records parsed/compacted against the same
+	//	list don't each carry their own map.
+	//VariantPools hold their own index. Parsers use forList, which caches the last
+	//	index per thread (like VCFTokenizer), so tables read on different threads
+	//	never see each other's index.
+
+	private static final ThreadLocal<SampleIndex> LOCAL_INDEX = new ThreadLocal<SampleIndex>();
+
+	private List<String> source;
+	private String[] names;
+	private Map<String, Integer> columns;
+
+	SampleIndex(List<String> samples)
+	{
+		source = samples;
+		names = new String[samples.size()];
+		columns = new HashMap<String, Integer>();
+		int i = 0;
+		for(String s : samples)
+		{
+			names[i] = s;
+			columns.put(s, i);
+			i++;
+		}
+	}
+
+	public static SampleIndex forList(List<String> samples)
+	{
+		SampleIndex idx = LOCAL_INDEX.get();
+		if(idx != null && idx.matches(samples)) return idx;
+		idx = new SampleIndex(samples);
+		LOCAL_INDEX.set(idx);
+		return idx;
+	}
+
+	private boolean matches(List<String> samples)
+	{
+		//Identity check - parsers hand the same list to every record
+		return (samples == source) && (samples.size() == names.length);
+	}
+
+	public int size()
+	{
+		return names.length;
+	}
+
+	public int getColumn(String sampleName)
+	{
+		if(sampleName == null) return -1;
+		Integer i = columns.get(sampleName);
+		if(i == null) return -1;
+		return i;
+	}
+
+	public String getName(int column)
+	{
+		return names[column];
+	}
+
+}
@@ -4,20 +4,25 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collection;
-import java.util.Deque;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import hospelhornbg_bioinformatics.VariantPool.InfoDefinition;
+import hospelhornbg_genomeBuild.Contig;
 import hospelhornbg_genomeBuild.GenomeBuild;
 import waffleoRai_Utils.FileBuffer;
 import waffleoRai_Utils.FileBuffer.UnsupportedFileTypeException;
@@ -152,126 +157,128 @@ public class VCF {
 		parseVCF(filePath, readSVs);
 	}
 	
-	private class ParserThread extends Thread
+	/* --- Parse Pool --- */
+	
+	//Record lines are parsed in batches on a work stealing pool.
+	//Batch futures are queued in file order (bounded), and the reading thread
+	//	collects the oldest one whenever the queue fills, so results come back
+	//	in file order and no more than a few batches per thread are ever in flight.
+	
+	public static final int PARSE_BATCH_SIZE = 1000;
+	public static final int PARSE_BATCHES_PER_THREAD = 4;
+	
+	private static int parseThreads = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Set the number of worker threads used to parse VCF records.
+	 * <br>Defaults to the number of available processors.
+	 * @param threads Number of parser threads. Values less than 1 are set to 1.
+	 */
+	public static void setParseThreadCount(int threads)
+	{
+		if (threads < 1) threads = 1;
+		parseThreads = threads;
+	}
+	
+	private static class ParsedBatch
 	{
-		private static final String killsignal = "#KILL";
-		private Deque<String> linequeue;
-		private List<Variant> variants;
+		public List<Variant> variants;
+		public int rejected;
+		public UnsupportedFileTypeException error;
+		public String errorLine;
+	}
+	
+	private class ParseTask implements Callable<ParsedBatch>
+	{
+		private List<String> lines;
 		private List<String> slist;
 		
-		private List<String> rejected;
-		
-		private boolean running;
-		
-		public ParserThread(int i)
+		public ParseTask(List<String> batch, List<String> sampleList)
 		{
-			linequeue = new LinkedList<String>();
-			variants = new LinkedList<Variant>();
-			running = false;
-			slist = new LinkedList<String>();
-			rejected = new LinkedList<String>();
-			//slist = sampleList;
-			super.setName("VCFParserThread_" + i);
-			super.setDaemon(true);
+			lines = batch;
+			slist = sampleList;
 		}
 		
-		public void run()
+		public ParsedBatch call()
 		{
-			running = true;
-			while(running)
+			ParsedBatch pb = new ParsedBatch();
+			pb.variants = new ArrayList<Variant>(lines.size());
+			for (String line : lines)
 			{
-				while(!queueEmpty())
+				try 
 				{
-					String line = popQueue();
-					if (line.equals(killsignal)) {
-						running = false;
-						break;
-					}
-					try 
-					{
-						//if(gBuild == null) System.err.println("VCF.ParserThread.run || gBuild is null!!");
-						//else System.err.println("VCF.ParserThread.run || gBuild is not null!!");
-						Variant v = new Variant(line, slist, gBuild, !presetGenome);
-						addParsedVariant(v);
-					} 
-					catch (UnsupportedFileTypeException e) 
-					{
-						parsingErr = true;
-						running = false;
-						System.err.println("VCF.ParserThread.run || Parsing error! Variant Line: ");
-						System.err.println(line);
-						e.printStackTrace();
-						break;
-					}
-					catch (NullPointerException e)
-					{
-						//Rejected contig
-						addRejectedRecord(line);
-					}
+					Variant v = new Variant(line, slist, gBuild, !presetGenome);
+					pb.variants.add(v);
+				} 
+				catch (UnsupportedFileTypeException e) 
+				{
+					pb.error = e;
+					pb.errorLine = line;
+					break;
 				}
-				try {
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
-					Thread.interrupted();
-					//e.printStackTrace();
+				catch (NullPointerException e)
+				{
+					//Rejected contig
+					pb.rejected++;
 				}
 			}
+			return pb;
 		}
-		
-		private synchronized void addRejectedRecord(String record)
-		{
-			rejected.add(record);
-		}
-		
-		public synchronized boolean queueEmpty()
-		{
-			return linequeue.isEmpty();
-		}
-		
-		public synchronized void addLine(String line)
-		{
-			linequeue.add(line);
-		}
-		
-		private synchronized String popQueue()
-		{
-			return linequeue.pop();
-		}
-		
-		public synchronized void killWhenDone()
-		{
-			linequeue.add(killsignal);
-		}
-		
-		public Collection<Variant> getVariants()
-		{
-			if(running) return null;
-			return variants;
-		}
-		
-		public synchronized void setSampleList(Collection<String> sampleList)
+	}
+	
+	private int parsedCount = 0;
+	private int rejectedCount = 0;
+	
+	private void collectBatch(Future<ParsedBatch> f, List<Variant> out) throws UnsupportedFileTypeException
+	{
+		ParsedBatch pb = null;
+		try 
 		{
-			slist.addAll(sampleList);
-		}
-		
-		private synchronized void addParsedVariant(Variant v)
+			pb = f.get();
+		} 
+		catch (InterruptedException e) 
 		{
-			variants.add(v);
-		}
-		
-		public synchronized int countParsed()
+			throw new UnsupportedFileTypeException("VCF.parseVCF || Parse interrupted!");
+		} 
+		catch (ExecutionException e) 
 		{
-			return variants.size();
+			e.printStackTrace();
+			throw new UnsupportedFileTypeException("VCF.parseVCF || Parser task failed!");
 		}
 		
-		public synchronized int countRejected()
+		parsedCount += pb.variants.size();
+		rejectedCount += pb.rejected;
+		out.addAll(pb.variants);
+		if (pb.error != null)
 		{
-			return rejected.size();
+			System.err.println("VCF.parseVCF || Parsing error! Variant Line: ");
+			System.err.println(pb.errorLine);
+			pb.error.printStackTrace();
+			throw pb.error;
 		}
-		
 	}
 	
-	private boolean parsingErr = false;
+	private void submitBatch(ExecutorService pool, BlockingQueue<Future<ParsedBatch>> inflight, List<String> batch, List<String> slist, List<Variant> out) throws UnsupportedFileTypeException
+	{
+		//Reader pays for its own back-pressure by collecting the oldest batch
+		if (inflight.remainingCapacity() < 1) collectBatch(inflight.poll(), out);
+		inflight.add(pool.submit(new ParseTask(batch, slist)));
+	}
+	
+	private void registerContig(String line)
+	{
+		//When the build is being filled from the VCF, new contigs are added here on the
+		//	reading thread so parser threads never race to add the same one.
+		int tab = line.indexOf('\t');
+		if (tab < 0) return;
+		String chrom = line.substring(0, tab);
+		if (gBuild.getContig(chrom) != null) return;
+		Contig chromosome = new Contig();
+		chromosome.setUDPName(chrom);
+		chromosome.setUCSCName(chrom);
+		gBuild.addContig(chromosome);
+	}
+	
 	private boolean presetGenome = false;
 	
 	/**
@@ -297,211 +304,167 @@ public class VCF {
 		//if(gBuild != null) gBuild.printMe();
 		
 		int c = 0;
+		parsedCount = 0;
+		rejectedCount = 0;
 		
-		boolean flipper = false;
-		ParserThread t1 = new ParserThread(1);
-		ParserThread t2 = new ParserThread(2);
+		ExecutorService parsePool = new ForkJoinPool(parseThreads);
+		BlockingQueue<Future<ParsedBatch>> inflight = new ArrayBlockingQueue<Future<ParsedBatch>>(parseThreads * PARSE_BATCHES_PER_THREAD);
+		List<Variant> parsed = new ArrayList<Variant>();
+		List<String> slist = null;
+		List<String> batch = new ArrayList<String>(PARSE_BATCH_SIZE);
 		
-		//Read header
-		String line = null;
-		try {line = reader.readLine();}
-		catch(IOException e) {
-			reader.close();
-			freader.close();
-			throw e;
-		}
-		
-		while (line != null && (!line.isEmpty()))
+		try
 		{
-			if (line.charAt(0) == '#')
+			//Read header
+			String line = reader.readLine();
+		
+			while (line != null && (!line.isEmpty()))
 			{
-				//It's a header line
-				//Look for an = sign and split if find one. 
-					//If not, then header line is unrecognized, or is the CHROM line
-				if (line.length() > 2 && line.charAt(1) == '#')
+				if (line.charAt(0) == '#')
 				{
-					if (line.indexOf('=') >= 0)
+					//It's a header line
+					//Look for an = sign and split if find one. 
+						//If not, then header line is unrecognized, or is the CHROM line
+					if (line.length() > 2 && line.charAt(1) == '#')
 					{
-						line = line.substring(line.lastIndexOf('#') + 1);
-						String[] fields = line.split("=");
-						if (fields == null) continue;
-						if (fields.length < 2) {
-							String k = fields[0];
-							fields = new String[2];
-							fields[0] = k;
-							fields[1] = "";
-						}
-						
-						if (fields[0].equals("INFO"))
+						if (line.indexOf('=') >= 0)
 						{
-							InfoDefinition def = parseHeaderLine(line);
-							String key = def.getKey();
-							variants.addInfoFieldDefinition(key, def);
-							variants.addInfoKeyToActiveList(key);
-							//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || INFO field found: " + key);
-						}
-						else if (fields[0].equals("FORMAT"))
-						{
-							InfoDefinition def = parseHeaderLine(line);
-							String key = def.getKey();
-							variants.addFormatFieldDefinition(key, def);
-							variants.addFormatKeyToActiveList(key);
-							//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || FORMAT field found: " + key);
-						}
-						else if (fields[0].equals("ALT"))
-						{
-							String[] pieces = parseShortLine(line);
-							if (pieces.length == 2)
+							line = line.substring(line.lastIndexOf('#') + 1);
+							String[] fields = line.split("=");
+							if (fields == null) continue;
+							if (fields.length < 2) {
+								String k = fields[0];
+								fields = new String[2];
+								fields[0] = k;
+								fields[1] = "";
+							}
+						
+							if (fields[0].equals("INFO"))
 							{
-								variants.addCustomAlt(pieces[0], pieces[1]);
+								InfoDefinition def = parseHeaderLine(line);
+								String key = def.getKey();
+								variants.addInfoFieldDefinition(key, def);
+								variants.addInfoKeyToActiveList(key);
+								//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || INFO field found: " + key);
 							}
-							//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || ALT field found: " + pieces[0]);
-						}
-						else if (fields[0].equals("FILTER"))
-						{
-							String[] pieces = parseShortLine(line);
-							if (pieces.length == 2)
+							else if (fields[0].equals("FORMAT"))
 							{
-								variants.addFilter(pieces[0], pieces[1]);
+								InfoDefinition def = parseHeaderLine(line);
+								String key = def.getKey();
+								variants.addFormatFieldDefinition(key, def);
+								variants.addFormatKeyToActiveList(key);
+								//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || FORMAT field found: " + key);
+							}
+							else if (fields[0].equals("ALT"))
+							{
+								String[] pieces = parseShortLine(line);
+								if (pieces.length == 2)
+								{
+									variants.addCustomAlt(pieces[0], pieces[1]);
+								}
+								//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || ALT field found: " + pieces[0]);
+							}
+							else if (fields[0].equals("FILTER"))
+							{
+								String[] pieces = parseShortLine(line);
+								if (pieces.length == 2)
+								{
+									variants.addFilter(pieces[0], pieces[1]);
+								}
+								//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || FILTER field found: " + pieces[0]);
+							}
+							else if (fields[0].equals("fileformat"))
+							{
+								fileformat = fields[1];
+								//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Format: " + fields[1]);
+							}
+							else if (fields[0].equals("fileDate"))
+							{
+								dateString = fields[1];
+								//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Date: " + fields[1]);
+							}
+							else if (fields[0].equals("source"))
+							{
+								source = fields[1];
+								//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Source: " + fields[1]);
+							}
+							else if (fields[0].equals("reference") && (gBuild == null))
+							{
+								String ref = fields[1];
+								System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Reference Genome Build Detected: " + ref);
+								if (!ref.isEmpty()) gBuild = GenomeBuild.loadStandardBuild(ref);
+							}
+							else
+							{
+								strayHeaderLines.add(fields);
 							}
-							//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || FILTER field found: " + pieces[0]);
-						}
-						else if (fields[0].equals("fileformat"))
-						{
-							fileformat = fields[1];
-							//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Format: " + fields[1]);
-						}
-						else if (fields[0].equals("fileDate"))
-						{
-							dateString = fields[1];
-							//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Date: " + fields[1]);
-						}
-						else if (fields[0].equals("source"))
-						{
-							source = fields[1];
-							//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Source: " + fields[1]);
-						}
-						else if (fields[0].equals("reference") && (gBuild == null))
-						{
-							String ref = fields[1];
-							System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Reference Genome Build Detected: " + ref);
-							if (!ref.isEmpty()) gBuild = GenomeBuild.loadStandardBuild(ref);
 						}
 						else
 						{
-							strayHeaderLines.add(fields);
+							String[] arr = new String[1];
+							arr[0] = line;
+							strayHeaderLines.add(arr);
 						}
 					}
 					else
 					{
-						String[] arr = new String[1];
-						arr[0] = line;
-						strayHeaderLines.add(arr);
+						//Assume it's the #CHROM etc. column header line
+							//Extract sample names, if present
+						String[] cols = line.split("\t");
+						//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Header line found: " + line);
+						//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Columns: " + cols.length);
+						if (cols.length > 8)
+						{
+							//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || This VCF contains genotypes calls.");
+							for (int i = 9; i < cols.length; i++) variants.addSample(cols[i]);
+						}
+						slist = variants.getAllSamples();
+						//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Sample List: ");
+						for (String s : slist) System.err.println("\t" + s);
+						//Make a fillable genome build if one wasn't provided or detected.
+						if (gBuild == null)
+						{
+							Random r = new Random();
+							gBuild = new GenomeBuild("Unknown", "VCF_" + String.format("%08x", r.nextInt()), null);	
+						}
 					}
 				}
 				else
 				{
-					//Assume it's the #CHROM etc. column header line
-						//Extract sample names, if present
-					String[] cols = line.split("\t");
-					//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Header line found: " + line);
-					//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Columns: " + cols.length);
-					if (cols.length > 8)
-					{
-						//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || This VCF contains genotypes calls.");
-						for (int i = 9; i < cols.length; i++) variants.addSample(cols[i]);
-					}
-					List<String> slist1 = variants.getAllSamples();
-					List<String> slist2 = variants.getAllSamples();
-					//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Sample List: ");
-					for (String s : slist1) System.err.println("\t" + s);
-					//System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Sample List Size: " + slist1.size());
-					t1.setSampleList(slist1);
-					t2.setSampleList(slist2);
-					//Make a fillable genome build if one wasn't provided or detected.
-					if (gBuild == null)
+					//Assume it's a variant record.
+					if (slist == null) slist = variants.getAllSamples(); //No #CHROM line
+					if (!presetGenome && gBuild != null) registerContig(line);
+					batch.add(line);
+					if (batch.size() >= PARSE_BATCH_SIZE)
 					{
-						Random r = new Random();
-						gBuild = new GenomeBuild("Unknown", "VCF_" + String.format("%08x", r.nextInt()), null);	
+						submitBatch(parsePool, inflight, batch, slist, parsed);
+						batch = new ArrayList<String>(PARSE_BATCH_SIZE);
 					}
-					t1.start();
-					t2.start();
-				}
-			}
-			else
-			{
-				//Assume it's a variant record.
-				if(flipper) t2.addLine(line);
-				else t1.addLine(line);
-				flipper = !flipper;
-				if (parsingErr) {
-					reader.close();
-					freader.close();
-					throw new UnsupportedFileTypeException();
+					c++;
 				}
-				c++;
-			}
-			/*if (c % 5000 == 0 && c != 0)
-			{
-				System.err.println("VCF.parseVCF || Variants read: " + c);
-				int tot = 0;
-				tot += t1.countParsed();
-				tot += t2.countParsed();
-				System.err.println("VCF.parseVCF || Variants parsed: " + tot);
-				tot = 0;
-				tot += t1.countRejected();
-				tot += t2.countRejected();
-				System.err.println("VCF.parseVCF || Variants rejected: " + tot);
-			}*/
-			try {line = reader.readLine();}
-			catch(IOException e) {
-				reader.close();
-				freader.close();
-				throw e;
+				line = reader.readLine();
 			}
-		}
 		
-		System.err.println("VCF.parseVCF || VCF Reading complete. Variants read: " + c);
-		reader.close();
-		freader.close();
+			System.err.println("VCF.parseVCF || VCF Reading complete. Variants read: " + c);
 		
-		t1.killWhenDone();
-		t2.killWhenDone();
-		
-		while(t1.isAlive() || t2.isAlive())
+			//Flush the tail and collect everything still in flight, oldest first
+			if (!batch.isEmpty()) submitBatch(parsePool, inflight, batch, slist, parsed);
+			while (!inflight.isEmpty()) collectBatch(inflight.poll(), parsed);
+		}
+		finally
 		{
-			//int tot = 0;
-			//tot += t1.countParsed();
-			//tot += t2.countParsed();
-			//System.err.println("VCF.parseVCF || Variants parsed: " + tot);
-			//tot = 0;
-			//tot += t1.countRejected();
-			//tot += t2.countRejected();
-			//System.err.println("VCF.parseVCF || Variants rejected: " + tot);
-			try {
-				Thread.sleep(5000);
-			} catch (InterruptedException e) {
-				Thread.interrupted();
-				System.err.println("VCF.parseVCF || Main thread sleep interrupted. Checking worker thread status... ");
-				//e.printStackTrace();
-			}
+			reader.close();
+			freader.close();
+			parsePool.shutdownNow();
 		}
 		
 		System.err.println("VCF.parseVCF || Variant parsing complete!");
-		int tot = 0;
-		tot += t1.countParsed();
-		tot += t2.countParsed();
-		System.err.println("VCF.parseVCF || Variants parsed: " + tot);
-		tot = 0;
-		tot += t1.countRejected();
-		tot += t2.countRejected();
-		System.err.println("VCF.parseVCF || Variants rejected: " + tot);
+		System.err.println("VCF.parseVCF || Variants parsed: " + parsedCount);
+		System.err.println("VCF.parseVCF || Variants rejected: " + rejectedCount);
 		
-		//Get the parsed variants.
-		variants.addVariants(t1.getVariants());
-		variants.addVariants(t2.getVariants());
-		
-		variants.sortVariants();
+		//Batches were merged in file order, so a sorted VCF needs no resort
+		variants.addVariants(parsed);
+		if (!variants.isSorted()) variants.sortVariants();
 		System.err.println(Thread.currentThread().getName() + " || VCF.parseVCF || Variants found: " + variants.getVariants().size());
 		
 		if (readSVs)
@@ -571,16 +534,11 @@ public class VCF {
 	public static Map<String, String[]> mapINFOValues(String INFO_field)
 	{
 		Map<String, String[]> infoMap = new HashMap<String, String[]>();
-		String[] fields = INFO_field.split(";");
-		
-		for(String s : fields)
+		VCFTokenizer.InfoCursor c = new VCFTokenizer.InfoCursor(INFO_field);
+		while(c.next())
 		{
-			String[] kv = s.split("=");
-			if (kv.length != 2) continue;
-			String key = kv[0];
-			String val = kv[1];
-			String[] vals = val.split(",");
-			infoMap.put(key, vals);
+			if (c.isFlag()) continue;
+			infoMap.put(c.getKey(), c.getValues());
 		}
 		
 		return infoMap;
@@ -742,6 +700,28 @@ public class VCF {
 	public void writeToDisk(String path) throws IOException
 	{
 		FileWriter writer = new FileWriter(path);
+		writeHeader(writer);
+		//Variants
+		List<String> samples = variants.getAllSamples();
+		List<Variant> varList = variants.getVariants();
+		for (Variant v : varList)
+		{
+			List<InfoDefinition> deflist = variants.getOrderedInfoDefs();
+			writer.write(v.toVCFLine(samples, deflist) + "\n");
+		}
+		//Close
+		writer.close();
+	}
+	
+	/**
+	 * Write only the header of this VCF (meta lines and the #CHROM line) to an
+	 * open writer. Records can then be written after it one at a time, so the
+	 * full variant list never needs to be held in memory.
+	 * @param writer Open writer to write header to. It is not closed.
+	 * @throws IOException If there is an error writing to the provided writer.
+	 */
+	public void writeHeader(Writer writer) throws IOException
+	{
 		writer.write("##fileformat=" + fileformat + "\n");
 		writer.write("##fileDate=" + dateString + "\n");
 		if (source != null && !source.isEmpty())
@@ -796,15 +776,6 @@ public class VCF {
 		}
 		cline += "\n";
 		writer.write(cline);
-		//Variants
-		List<Variant> varList = variants.getVariants();
-		for (Variant v : varList)
-		{
-			List<InfoDefinition> deflist = variants.getOrderedInfoDefs();
-			writer.write(v.toVCFLine(samples, deflist) + "\n");
-		}
-		//Close
-		writer.close();
 	}
 	
 	/* --- Static --- */
@@ -864,66 +835,56 @@ public class VCF {
 		myVCF.writeToDisk(outpath);
 	}
 	
+	private static void readGenotypes(Variant v, VCFTokenizer tok, List<String> genoSamples)
+	{
+		//FORMAT is split once for the whole record
+		//Sample columns are decoded when first asked for
+		int fcount = tok.countFields();
+		if(fcount < 9 || genoSamples == null) return;
+		String[] formatKeys = tok.splitField(8, ':');
+		v.clearGenotypeFields();
+		for(String k : formatKeys) v.addGenotypeField(k);
+		if(fcount > 9) v.setRawGenotypes(new GenotypeColumns(tok, formatKeys, genoSamples));
+	}
+	
+	private static void readFilters(Variant v, VCFTokenizer tok)
+	{
+		if(tok.fieldEquals(6, "PASS")) v.setFilterPass(true);
+		else
+		{
+			v.setFilterPass(false);
+			if(tok.fieldIsMissing(6)) return;
+			String[] filters = tok.splitField(6, ';');
+			for(String f : filters) v.addFailedFilter(f);
+		}
+	}
+	
 	public static Variant parseVCFLine(String line, List<String> genoSamples, GenomeBuild gb) throws UnsupportedFileTypeException
 	{
 		if(gb == null) return null;
 		Variant v = new Variant();
 		
-		String[] fields = line.split("\t");
+		VCFTokenizer tok = VCFTokenizer.getThreadTokenizer();
+		tok.reset(line);
+		if(tok.countFields() < VCFTokenizer.MIN_FIELDS) throw new FileBuffer.UnsupportedFileTypeException("VCF.parseVCFLine || Record has insufficient tab separated fields");
 		try 
 		{
-			v.setChromosome(gb.getContig(fields[0]));
-			v.setPosition(Integer.parseInt(fields[1]));
-			v.setVariantName(fields[2]);
-			v.setRefAllele(fields[3]);
+			v.setChromosome(gb.getContig(tok.getField(0)));
+			v.setPosition(tok.parseIntField(1));
+			v.setVariantName(tok.getField(2));
+			v.setRefAllele(tok.getField(3));
 			//Alt allele(s)
-			String[] alts = fields[4].split(",");
+			String[] alts = tok.splitField(4, ',');
 			for(String a : alts) v.addAltAllele(a);
 			//QUAL
-			v.setQuality(Double.parseDouble(fields[5]));
+			if(tok.fieldIsMissing(5)) v.setQuality(-1);
+			else v.setQuality(tok.parseDoubleField(5));
 			//FILTER
-			if(fields[6].equals("PASS")) v.setFilterPass(true);
-			else
-			{
-				v.setFilterPass(false);
-				String[] filters = fields[6].split(";");
-				if(filters != null && filters.length > 0)
-				{
-					for(String f : filters) v.addFailedFilter(f);
-				}	
-			}
-			//INFO
-			String[] infoFields = fields[7].split(";");
-			if(infoFields != null)
-			{
-				for (String i : infoFields)
-				{
-					String[] kv = i.split("=");
-					if(kv.length < 2)
-					{
-						v.addInfoFlag(i);
-						continue;
-					}
-					String key = kv[0];
-					String[] values = kv[1].split(",");
-					v.addInfoField(key, values);
-				}
-			}
-			//FORMAT
-			if(fields.length < 9) return v;
-			String formatString = fields[8];
-			//Genotypes
-			int i = 9;
-			for(String s : genoSamples)
-			{
-				if (i >= fields.length) break;
-				String rawGeno = fields[i];
-				
-				Genotype g = new Genotype(formatString, rawGeno);
-				v.addGenotype(s, g);
-				
-				i++;
-			}
+			readFilters(v, tok);
+			//INFO (parsed when first accessed)
+			if(!tok.fieldIsMissing(7)) v.setRawInfo(tok.getField(7));
+			//FORMAT + Genotypes
+			readGenotypes(v, tok, genoSamples);
 		}
 		catch(NullPointerException e)
 		{
@@ -939,42 +900,67 @@ public class VCF {
 		return v;
 	}
 	
+	private static void readCI(StructuralVariant sv, String[] rng, boolean variantEnd, boolean narrow)
+	{
+		if(rng == null || rng.length < 2) return;
+		sv.setCIDiff(Integer.parseInt(rng[0]), variantEnd, narrow, false);
+		sv.setCIDiff(Integer.parseInt(rng[1]), variantEnd, narrow, true);
+	}
+	
 	public static StructuralVariant parseVCFLineAsSV(String line, List<String> genoSamples, GenomeBuild gb) throws UnsupportedFileTypeException
 	{
 		if(gb == null) return null;
 		StructuralVariant sv = null;
 		
-		String[] fields = line.split("\t");
+		VCFTokenizer tok = VCFTokenizer.getThreadTokenizer();
+		tok.reset(line);
+		if(tok.countFields() < VCFTokenizer.MIN_FIELDS) throw new FileBuffer.UnsupportedFileTypeException("VCF.parseVCFLineAsSV || Record has insufficient tab separated fields");
 		
 		try 
 		{
 			//This time, we're gonna parse INFO first in case we need to
 			// switch to TRA!
+			//Only the SV fields are pulled out, everything else is
+			// passed on to the variant as raw text.
 			
-			Set<String> flags = new HashSet<String>();
-			Map<String, String[]> infos = new HashMap<String, String[]>();
+			String typeraw = "BND";
+			String endraw = null;
+			String chr2 = null;
+			String[] svlen = null;
+			String[] cipos = null;
+			String[] ciend = null;
+			String[] cipos95 = null;
+			String[] ciend95 = null;
+			String mate = null;
+			boolean imprecise = false;
+			boolean secondary = false;
 			
-			String[] infoFields = fields[7].split(";");
-			if(infoFields != null)
+			StringBuilder rest = new StringBuilder(tok.getFieldLength(7));
+			String src = tok.getLine();
+			VCFTokenizer.InfoCursor c = tok.getInfoCursor();
+			while(c.next())
 			{
-				for (String i : infoFields)
+				if(c.isFlag())
 				{
-					String[] kv = i.split("=");
-					if(kv.length < 2)
-					{
-						flags.add(i);
-						continue;
-					}
-					String key = kv[0];
-					String[] values = kv[1].split(",");
-					infos.put(key, values);
+					if(c.keyEquals(StructuralVariant.INFODEF_INFO_IMPRECISE.getKey())) {imprecise = true; continue;}
+					if(c.keyEquals(StructuralVariant.INFODEF_INFO_SECONDARY.getKey())) {secondary = true; continue;}
+				}
+				else
+				{
+					if(c.keyEquals(StructuralVariant.INFODEF_INFO_SVTYPE.getKey())) {typeraw = c.getValues()[0]; continue;}
+					if(c.keyEquals(StructuralVariant.INFODEF_INFO_END.getKey())) {endraw = c.getValues()[0]; continue;}
+					if(c.keyEquals(Translocation.INFODEF_INFO_CHR2.getKey())) {chr2 = c.getValues()[0]; continue;}
+					if(c.keyEquals(StructuralVariant.INFODEF_INFO_SVLEN.getKey())) {svlen = c.getValues(); continue;}
+					if(c.keyEquals(StructuralVariant.INFODEF_INFO_CIPOS.getKey())) {cipos = c.getValues(); continue;}
+					if(c.keyEquals(StructuralVariant.INFODEF_INFO_CIEND.getKey())) {ciend = c.getValues(); continue;}
+					if(c.keyEquals(StructuralVariant.INFODEF_INFO_CIPOS95.getKey())) {cipos95 = c.getValues(); continue;}
+					if(c.keyEquals(StructuralVariant.INFODEF_INFO_CIEND95.getKey())) {ciend95 = c.getValues(); continue;}
+					if(c.keyEquals(StructuralVariant.INFODEF_INFO_MATEID.getKey())) {mate = c.getValues()[0]; continue;}
 				}
+				if(rest.length() > 0) rest.append(';');
+				rest.append(src, c.getEntryStart(), c.getEntryEnd());
 			}
 			
-			//Get the SV related INFO fields out of the way!
-			String typeraw = "BND";
-			String[] val = infos.remove(StructuralVariant.INFODEF_INFO_SVTYPE.getKey());
-			if (val.length >= 1) typeraw = val[0];
 			SVType t = SVType.getType(typeraw);
 			//System.err.println("-DEBUG- typeraw = " + typeraw);
 			//System.err.println("-DEBUG- Type = " + t.getString());
@@ -984,28 +970,19 @@ public class VCF {
 			else sv = new StructuralVariant();
 			sv.setType(t);
 			
-			//Parse the other interesting SV fields
-				//End
-				//Chr2
-				//SVLEN
-				//CI
-				//MateID
-				//Imprecise
-				//Secondary
+			sv.setChromosome(gb.getContig(tok.getField(0)));
+			sv.setPosition(tok.parseIntField(1));
 			
-			sv.setChromosome(gb.getContig(fields[0]));
-			sv.setPosition(Integer.parseInt(fields[1]));
-			//System.err.println("-DEBUG- Contig = " + fields[0]);
-			//System.err.println("-DEBUG- Pos = " + fields[1]);
+			sv.setVariantName(tok.getField(2));
+			sv.setRefAllele(tok.getField(3));
+			//Alt allele(s) - before SVLEN, which is indexed by alt
+			String[] alts = tok.splitField(4, ',');
+			for(String a : alts) sv.addAltAllele(a);
 			
+			//Parse the other interesting SV fields
 			try
 			{
-				val = infos.remove(StructuralVariant.INFODEF_INFO_END.getKey());
-				if(val != null && val.length >= 1)
-				{
-					int end = Integer.parseInt(val[0]);
-					sv.setEndPosition(end);
-				}
+				if(endraw != null) sv.setEndPosition(Integer.parseInt(endraw));
 			}
 			catch(NumberFormatException e)
 			{
@@ -1013,23 +990,19 @@ public class VCF {
 				throw new FileBuffer.UnsupportedFileTypeException("VCF.parseVCFLineAsSV || SV end position could not be read! (Number parsing error)");
 			}
 			
-			
 			if(t == SVType.TRA)
 			{
-				val = infos.remove(Translocation.INFODEF_INFO_CHR2.getKey());
-				if(val == null) sv.setEndChromosome(sv.getChromosome());
-				else sv.setEndChromosome(gb.getContig(val[0]));
+				if(chr2 == null) sv.setEndChromosome(sv.getChromosome());
+				else sv.setEndChromosome(gb.getContig(chr2));
 			}
 			
-			
-			val = infos.remove(StructuralVariant.INFODEF_INFO_SVLEN.getKey());
-			if(val != null)
+			if(svlen != null)
 			{
 				try
 				{
-					for(int i = 0; i < val.length; i++)
+					for(int i = 0; i < svlen.length; i++)
 					{
-						int len = Integer.parseInt(val[i]);
+						int len = Integer.parseInt(svlen[i]);
 						sv.setSVLength(i, len);
 					}
 				}
@@ -1042,49 +1015,10 @@ public class VCF {
 			
 			try
 			{
-				val = infos.remove(StructuralVariant.INFODEF_INFO_CIPOS.getKey());
-				if(val != null)
-				{
-					String[] rng = val[0].split(",");
-					if(rng.length >= 2)
-					{
-						sv.setCIDiff(Integer.parseInt(rng[0]), false, false, false);
-						sv.setCIDiff(Integer.parseInt(rng[1]), false, false, true);
-					}
-				}
-				
-				val = infos.remove(StructuralVariant.INFODEF_INFO_CIEND.getKey());
-				if(val != null)
-				{
-					String[] rng = val[0].split(",");
-					if(rng.length >= 2)
-					{
-						sv.setCIDiff(Integer.parseInt(rng[0]), true, false, false);
-						sv.setCIDiff(Integer.parseInt(rng[1]), true, false, true);
-					}
-				}
-				
-				val = infos.remove(StructuralVariant.INFODEF_INFO_CIPOS95.getKey());
-				if(val != null)
-				{
-					String[] rng = val[0].split(",");
-					if(rng.length >= 2)
-					{
-						sv.setCIDiff(Integer.parseInt(rng[0]), false, true, false);
-						sv.setCIDiff(Integer.parseInt(rng[1]), false, true, true);
-					}
-				}
-				
-				val = infos.remove(StructuralVariant.INFODEF_INFO_CIEND95.getKey());
-				if(val != null)
-				{
-					String[] rng = val[0].split(",");
-					if(rng.length >= 2)
-					{
-						sv.setCIDiff(Integer.parseInt(rng[0]), true, true, false);
-						sv.setCIDiff(Integer.parseInt(rng[1]), true, true, true);
-					}
-				}
+				readCI(sv, cipos, false, false);
+				readCI(sv, ciend, true, false);
+				readCI(sv, cipos95, false, true);
+				readCI(sv, ciend95, true, true);
 			}
 			catch(NumberFormatException e)
 			{
@@ -1092,44 +1026,22 @@ public class VCF {
 				throw new FileBuffer.UnsupportedFileTypeException("VCF.parseVCFLineAsSV || CIs could not be read! (Number parsing error)");
 			}
 			
-			val = infos.remove(StructuralVariant.INFODEF_INFO_MATEID.getKey());
-			if(val != null) sv.addMate(val[0]);
-			
-			String fkey = StructuralVariant.INFODEF_INFO_IMPRECISE.getKey();
-			if(flags.remove(fkey)) sv.setImprecise(true);
-			else sv.setImprecise(false);
-			
-			fkey = StructuralVariant.INFODEF_INFO_SECONDARY.getKey();
-			if(flags.remove(fkey)) sv.setSecondary(true);
-			else sv.setSecondary(false);
-			
-			//Copy the remainder of the INFO fields
-			
-			if(!flags.isEmpty())
-			{
-				for(String f : flags) sv.addInfoFlag(f);
-			}
-			
-			if(!infos.isEmpty())
-			{
-				for(String k : infos.keySet()) sv.addInfoField(k, infos.get(k));
-			}
+			if(mate != null) sv.addMate(mate);
+			sv.setImprecise(imprecise);
+			sv.setSecondary(secondary);
 			
+			//Remainder of the INFO fields (parsed when first accessed)
+			if(rest.length() > 0) sv.setRawInfo(rest.toString());
 			
 			/*--------------------*/
 			
-			sv.setVariantName(fields[2]);
-			sv.setRefAllele(fields[3]);
-			//Alt allele(s)
-			String[] alts = fields[4].split(",");
-			for(String a : alts) sv.addAltAllele(a);
 			//QUAL
-			if(fields[5].equals(".")) sv.setQuality(-1);
+			if(tok.fieldIsMissing(5)) sv.setQuality(-1);
 			else
 			{
 				try 
 				{
-					sv.setQuality(Double.parseDouble(fields[5]));
+					sv.setQuality(tok.parseDoubleField(5));
 				}
 				catch(NumberFormatException e)
 				{
@@ -1138,33 +1050,11 @@ public class VCF {
 				}
 			}
 			//FILTER
-			if(fields[6].equals("PASS")) sv.setFilterPass(true);
-			else
-			{
-				sv.setFilterPass(false);
-				String[] filters = fields[6].split(";");
-				if(filters != null && filters.length > 0)
-				{
-					for(String f : filters) sv.addFailedFilter(f);
-				}	
-			}
+			readFilters(sv, tok);
 			//INFO (Did before...)
 			
-			//FORMAT
-			if(fields.length < 9) return sv;
-			String formatString = fields[8];
-			//Genotypes
-			int i = 9;
-			for(String s : genoSamples)
-			{
-				if (i >= fields.length) break;
-				String rawGeno = fields[i];
-				
-				Genotype g = new Genotype(formatString, rawGeno);
-				sv.addGenotype(s, g);
-				
-				i++;
-			}
+			//FORMAT + Genotypes
+			readGenotypes(sv, tok, genoSamples);
 		}
 		catch(NullPointerException e)
 		{
@@ -0,0 +1,303 @@
+package hospelhornbg_bioinformatics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import hospelhornbg_genomeBuild.Contig;
+import hospelhornbg_genomeBuild.GenomeBuild;
+import waffleoRai_Utils.FileBuffer;
+import waffleoRai_Utils.FileBuffer.UnsupportedFileTypeException;
+
+public class VCFParseBenchmark {
+
+	//Record parse timing - VCFTokenizer vs. the old String.split("\t") parser
+	//Usage: VCFParseBenchmark [records] [samples] [build gbdh]
+	//	With no build, loads the packaged GRCh38 build.
+	//Records are generated in memory so disk speed doesn't factor in.
+
+	public static final int DEFAULT_RECORDS = 200000;
+	public static final int DEFAULT_SAMPLES = 3;
+	public static final int WARMUP_ROUNDS = 3;
+	public static final int TIMED_ROUNDS = 5;
+	public static final long SEED = 0x5EED1234L;
+
+	//Keys read back in the "parse + INFO" rounds
+	public static final String[] LOOKUP_KEYS = {"SVTYPE", "END", "AF"};
+
+	private static final String[] SVTYPES = {"DEL", "DUP", "INV", "INS"};
+	private static final String[] FILTERS = {"PASS", "PASS", "PASS", "LowQual", "LowQual;HighDP"};
+	private static final String[] GENOS = {"0/0", "0/1", "1/1", "./."};
+
+	/*--- Record Generation ---*/
+
+	private static List<String> makeRecords(List<Contig> contigs, int count, int samples, Random r)
+	{
+		List<String> lines = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++)
+		{
+			Contig c = contigs.get(r.nextInt(contigs.size()));
+			int span = (int)Math.min(Integer.MAX_VALUE - 1, Math.max(1L, c.getLength() - 100000));
+			int pos = r.nextInt(span) + 1;
+			int len = r.nextInt(50000) + 50;
+			String type = SVTYPES[r.nextInt(SVTYPES.length)];
+
+			StringBuilder sb = new StringBuilder(256 + (samples * 32));
+			sb.append(c.getUDPName()).append('\t');
+			sb.append(pos).append('\t');
+			sb.append("sv").append(i).append('\t');
+			sb.append('N').append('\t');
+			sb.append('<').append(type).append('>').append('\t');
+			sb.append(r.nextInt(1000)).append('.').append(r.nextInt(10)).append('\t');
+			sb.append(FILTERS[r.nextInt(FILTERS.length)]).append('\t');
+			//INFO
+			if (r.nextInt(4) == 0) sb.append("IMPRECISE;");
+			sb.append("SVTYPE=").append(type);
+			sb.append(";END=").append(pos + len);
+			sb.append(";SVLEN=").append(type.equals("DEL") ? -len : len);
+			sb.append(";CIPOS=-").append(r.nextInt(100)).append(',').append(r.nextInt(100));
+			sb.append(";CIEND=-").append(r.nextInt(100)).append(',').append(r.nextInt(100));
+			sb.append(";AF=0.").append(r.nextInt(1000));
+			sb.append(";DP=").append(r.nextInt(200));
+			sb.append(";SUPPORT=").append(r.nextInt(40)).append(',').append(r.nextInt(40));
+			//FORMAT + Genotypes
+			sb.append("\tGT:GQ:DP");
+			for (int s = 0; s < samples; s++)
+			{
+				sb.append('\t').append(GENOS[r.nextInt(GENOS.length)]);
+				sb.append(':').append(r.nextInt(99));
+				sb.append(':').append(r.nextInt(200));
+			}
+			lines.add(sb.toString());
+		}
+		return lines;
+	}
+
+	/*--- Old Parser ---*/
+
+	//VCF.parseVCFLine as it was before VCFTokenizer, kept here for comparison
+	private static Variant parseVCFLine_split(String line, List<String> genoSamples, GenomeBuild gb) throws UnsupportedFileTypeException
+	{
+		if(gb == null) return null;
+		Variant v = new Variant();
+
+		String[] fields = line.split("\t");
+		try
+		{
+			v.setChromosome(gb.getContig(fields[0]));
+			v.setPosition(Integer.parseInt(fields[1]));
+			v.setVariantName(fields[2]);
+			v.setRefAllele(fields[3]);
+			//Alt allele(s)
+			String[] alts = fields[4].split(",");
+			for(String a : alts) v.addAltAllele(a);
+			//QUAL
+			v.setQuality(Double.parseDouble(fields[5]));
+			//FILTER
+			if(fields[6].equals("PASS")) v.setFilterPass(true);
+			else
+			{
+				v.setFilterPass(false);
+				String[] filters = fields[6].split(";");
+				if(filters != null && filters.length > 0)
+				{
+					for(String f : filters) v.addFailedFilter(f);
+				}
+			}
+			//INFO
+			String[] infoFields = fields[7].split(";");
+			if(infoFields != null)
+			{
+				for (String i : infoFields)
+				{
+					String[] kv = i.split("=");
+					if(kv.length < 2)
+					{
+						v.addInfoFlag(i);
+						continue;
+					}
+					String key = kv[0];
+					String[] values = kv[1].split(",");
+					v.addInfoField(key, values);
+				}
+			}
+			//FORMAT
+			if(fields.length < 9) return v;
+			String formatString = fields[8];
+			//Genotypes
+			int i = 9;
+			for(String s : genoSamples)
+			{
+				if (i >= fields.length) break;
+				String rawGeno = fields[i];
+
+				Genotype g = new Genotype(formatString, rawGeno);
+				v.addGenotype(s, g);
+
+				i++;
+			}
+		}
+		catch(NullPointerException e)
+		{
+			e.printStackTrace();
+			throw new FileBuffer.UnsupportedFileTypeException("VCFParseBenchmark.parseVCFLine_split || NPE - Likely VCF record has insufficient tab separated fields");
+		}
+		catch(NumberFormatException e)
+		{
+			e.printStackTrace();
+			throw new FileBuffer.UnsupportedFileTypeException("VCFParseBenchmark.parseVCFLine_split || One or more integers could not be read as such!");
+		}
+
+		return v;
+	}
+
+	/*--- Timing ---*/
+
+	private static long touchInfo(Variant v)
+	{
+		long n = 0;
+		for (String k : LOOKUP_KEYS)
+		{
+			String[] vals = v.getInfoEntry(k);
+			if (vals != null) n += vals.length;
+		}
+		return n;
+	}
+
+	private static long timeSplit(List<String> lines, List<String> samples, GenomeBuild gb, boolean info) throws UnsupportedFileTypeException
+	{
+		long n = 0;
+		for (String line : lines)
+		{
+			Variant v = parseVCFLine_split(line, samples, gb);
+			n += v.getPosition();
+			if (info) n += touchInfo(v);
+		}
+		return n;
+	}
+
+	private static long timeTokenizer(List<String> lines, List<String> samples, GenomeBuild gb, boolean info) throws UnsupportedFileTypeException
+	{
+		long n = 0;
+		for (String line : lines)
+		{
+			Variant v = VCF.parseVCFLine(line, samples, gb);
+			n += v.getPosition();
+			if (info) n += touchInfo(v);
+		}
+		return n;
+	}
+
+	private static boolean sameRecord(Variant a, Variant b, List<String> samples)
+	{
+		if (a.getChromosome() != b.getChromosome()) return false;
+		if (a.getPosition() != b.getPosition()) return false;
+		if (!a.getRefAllele().equals(b.getRefAllele())) return false;
+		if (!Arrays.equals(a.getAllAltAlleles(), b.getAllAltAlleles())) return false;
+		if (Double.compare(a.getQuality(), b.getQuality()) != 0) return false;
+		if (a.passedAllFilters() != b.passedAllFilters()) return false;
+		if (!a.getAllInfoKeys().equals(b.getAllInfoKeys())) return false;
+		for (String k : a.getAllInfoKeys())
+		{
+			if (!Arrays.equals(a.getInfoEntry(k), b.getInfoEntry(k))) return false;
+		}
+		for (String s : samples)
+		{
+			Genotype ga = a.getSampleGenotype(s);
+			Genotype gt = b.getSampleGenotype(s);
+			if (ga == null || gt == null)
+			{
+				if (ga != gt) return false;
+				continue;
+			}
+			if (!Arrays.equals(ga.getAlleles(), gt.getAlleles())) return false;
+		}
+		return true;
+	}
+
+	private static int countMismatches(List<String> lines, List<String> samples, GenomeBuild gb) throws UnsupportedFileTypeException
+	{
+		int bad = 0;
+		for (String line : lines)
+		{
+			Variant a = parseVCFLine_split(line, samples, gb);
+			Variant b = VCF.parseVCFLine(line, samples, gb);
+			if (!sameRecord(a, b, samples)) bad++;
+		}
+		return bad;
+	}
+
+	public static void run(GenomeBuild gb, int records, int nsamples) throws UnsupportedFileTypeException
+	{
+		List<Contig> contigs = new ArrayList<Contig>();
+		for (Contig c : gb.getChromosomes())
+		{
+			if (c.getLength() > 0) contigs.add(c);
+		}
+		List<String> samples = new ArrayList<String>(nsamples);
+		for (int s = 0; s < nsamples; s++) samples.add("SAMPLE" + s);
+
+		System.out.println("Generating " + records + " records...");
+		List<String> lines = makeRecords(contigs, records, nsamples, new Random(SEED));
+
+		System.out.println("Mode\tRecords\tSplit (ms)\tTokenizer (ms)\tSpeedup\tMismatched");
+		boolean[] modes = {false, true};
+		for (boolean info : modes)
+		{
+			for (int w = 0; w < WARMUP_ROUNDS; w++)
+			{
+				timeSplit(lines, samples, gb, info);
+				timeTokenizer(lines, samples, gb, info);
+			}
+
+			//Interleave so drift hits both sides
+			long splitns = 0;
+			long tokns = 0;
+			for (int t = 0; t < TIMED_ROUNDS; t++)
+			{
+				long t0 = System.nanoTime();
+				timeSplit(lines, samples, gb, info);
+				long t1 = System.nanoTime();
+				timeTokenizer(lines, samples, gb, info);
+				long t2 = System.nanoTime();
+				splitns += t1 - t0;
+				tokns += t2 - t1;
+			}
+
+			double oldms = (double)splitns / (1000000.0 * TIMED_ROUNDS);
+			double newms = (double)tokns / (1000000.0 * TIMED_ROUNDS);
+			String mode = info ? "parse+info" : "parse";
+			int bad = countMismatches(lines, samples, gb);
+			System.out.println(mode + "\t" + records + "\t" + String.format("%.2f", oldms) + "\t" + String.format("%.2f", newms) + "\t" + String.format("%.2fx", oldms/newms) + "\t" + bad);
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			int records = DEFAULT_RECORDS;
+			int nsamples = DEFAULT_SAMPLES;
+			if (args.length >= 1) records = Integer.parseInt(args[0]);
+			if (args.length >= 2) nsamples = Integer.parseInt(args[1]);
+
+			GenomeBuild gb = null;
+			System.out.println("Loading Genome Build...");
+			if (args.length >= 3) gb = new GenomeBuild(args[2]);
+			else gb = GenomeBuild.loadStandardBuild("grch38");
+			if (gb == null)
+			{
+				System.err.println("Build could not be loaded!");
+				System.exit(1);
+			}
+			run(gb, records, nsamples);
+		}
+		catch (Exception e)
+		{
+			System.err.println("Exception!");
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -29,6 +29,11 @@ private String vcf_path;
 	private ConcurrentMap<String, String> filters;
 	private ConcurrentMap<String, InfoDefinition> genotypeFields;
 	
+	//Header order, so skeleton pools write fields back out the way they came in
+	private List<String> infoOrder;
+	private List<String> filterOrder;
+	private List<String> genotypeOrder;
+	
 	private ConcurrentLinkedQueue<String> lineBuffer;
 	private BufferedReader readBuffer;
 	
@@ -97,6 +102,10 @@ private String vcf_path;
 		filters = new ConcurrentHashMap<String, String>();
 		genotypeFields = new ConcurrentHashMap<String, InfoDefinition>();
 		
+		infoOrder = new LinkedList<String>();
+		filterOrder = new LinkedList<String>();
+		genotypeOrder = new LinkedList<String>();
+		
 		genoSampleList = new LinkedList<String>();
 		lineBuffer = new ConcurrentLinkedQueue<String>();
 	}
@@ -134,6 +143,41 @@ private String vcf_path;
 		}
 	}
 	
+	public String nextRecordLine() throws IOException
+	{
+		//Raw record line, for callers that want to parse on their own threads
+		//Unlike the iterators, a read error is thrown instead of looking like the end of the file
+		if(readBuffer == null) return null;
+		String preread = lineBuffer.poll();
+		if(preread != null) return preread;
+		return readBuffer.readLine();
+	}
+	
+	public List<String> getSampleList()
+	{
+		List<String> list = new LinkedList<String>();
+		list.addAll(genoSampleList);
+		return list;
+	}
+	
+	public GenomeBuild getGenomeBuild()
+	{
+		return genome;
+	}
+	
+	public VariantPool makeSkeletonPool()
+	{
+		//Header metadata only (no variants) - for writing a matching VCF back out
+		VariantPool pool = new VariantPool(genoSampleList.size());
+		pool.setGenomeBuild(genome);
+		for(String s : genoSampleList) pool.addSample(s);
+		for(String k : infoOrder) pool.addInfoField(k, infoFields.get(k));
+		for(String k : genotypeOrder) pool.addFormatField(k, genotypeFields.get(k));
+		for(String k : filterOrder) pool.addFilter(k, filters.get(k));
+		for(String k : customAlts.keySet()) pool.addCustomAlt(k, customAlts.get(k));
+		return pool;
+	}
+	
 	public Iterator<Variant> getIterator()
 	{
 		return new VIterator();
@@ -175,7 +219,7 @@ private String vcf_path;
 			if(key.equals("INFO"))
 			{
 				InfoDefinition def = parseInfoDef(value);
-				if(def != null) infoFields.put(def.getKey(), def);
+				if(def != null && infoFields.put(def.getKey(), def) == null) infoOrder.add(def.getKey());
 			}
 			else if (key.equals("ALT"))
 			{
@@ -185,12 +229,12 @@ private String vcf_path;
 			else if(key.equals("FORMAT"))
 			{
 				InfoDefinition def = parseInfoDef(value);
-				if(def != null) genotypeFields.put(def.getKey(), def);
+				if(def != null && genotypeFields.put(def.getKey(), def) == null) genotypeOrder.add(def.getKey());
 			}
 			else if(key.equals("FILTER"))
 			{
 				InfoDefinition def = parseInfoDef(value);
-				if(def != null) filters.put(def.getKey(), def.getDescription());
+				if(def != null && filters.put(def.getKey(), def.getDescription()) == null) filterOrder.add(def.getKey());
 			}
 			else shortHeaderFields.put(key, value);
 		}
@@ -0,0 +1,384 @@
+package hospelhornbg_bioinformatics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hospelhornbg_genomeBuild.GenomeBuild;
+import waffleoRai_Utils.FileBuffer.UnsupportedFileTypeException;
+
+public class VCFStreamPipeline {
+
+	//Constant memory VCF processing (VCF in -> stages -> VCF out)
+	//Records are read off a VCFReadStreamer in batches, parsed and run through
+	//	the stage chain (on a pool if threaded), then written in input order.
+	//The batch queue is bounded, so the reader blocks when the writer falls behind.
+
+	//Differences from VCF.readVCF -> VariantPool -> VCF.writeVCF:
+	//	Output is in input order (pool is not resorted)
+	//	SVs are cast record by record, so BND mates are not paired into BreakendPairs
+
+	/*--- Constants ---*/
+
+	public static final int DEFO_BATCH_SIZE = 512;
+	public static final int DEFO_MAX_BATCHES = 32;
+
+	public static final long QUEUE_WAIT_MILLIS = 100;
+
+	private static final List<Variant> END_OF_INPUT = new ArrayList<Variant>(1);
+
+	/*--- Stage Interfaces ---*/
+
+	public static interface VariantStage
+	{
+		//Return the (possibly replaced) variant, or null to drop it
+		//Must be thread safe if pipeline is run with more than one thread
+		public Variant processVariant(Variant v);
+	}
+
+	public static interface VariantFilter
+	{
+		public boolean passes(Variant v);
+	}
+
+	/*--- Instance Variables ---*/
+
+	private String inPath;
+	private GenomeBuild genome;
+	private boolean castSVs;
+
+	private VCFReadStreamer reader;
+	private VariantPool header;
+	private List<String> samples;
+
+	private List<VariantStage> stages;
+
+	private int threads;
+	private int batchSize;
+	private int maxBatches;
+
+	private volatile boolean error_kill;
+
+	private AtomicLong c_read;
+	private AtomicLong c_rejected;
+	private AtomicLong c_written;
+
+	/*--- Construction ---*/
+
+	public VCFStreamPipeline(String vcfPath, GenomeBuild gb, boolean readSVs)
+	{
+		inPath = vcfPath;
+		genome = gb;
+		castSVs = readSVs;
+		stages = new LinkedList<VariantStage>();
+		threads = 1;
+		batchSize = DEFO_BATCH_SIZE;
+		maxBatches = DEFO_MAX_BATCHES;
+		c_read = new AtomicLong();
+		c_rejected = new AtomicLong();
+		c_written = new AtomicLong();
+	}
+
+	public void open() throws IOException
+	{
+		//Reads the header. Header pool can be edited until run is called.
+		reader = new VCFReadStreamer(inPath, genome);
+		reader.open();
+		header = reader.makeSkeletonPool();
+		samples = reader.getSampleList();
+	}
+
+	/*--- Getters ---*/
+
+	public VariantPool getHeader()
+	{
+		return header;
+	}
+
+	public long countRead(){return c_read.get();}
+	public long countRejected(){return c_rejected.get();}
+	public long countWritten(){return c_written.get();}
+
+	/*--- Setters ---*/
+
+	public void addStage(VariantStage stage)
+	{
+		if(stage != null) stages.add(stage);
+	}
+
+	public void addFilter(final VariantFilter filter)
+	{
+		if(filter == null) return;
+		stages.add(new VariantStage(){
+			public Variant processVariant(Variant v)
+			{
+				if(filter.passes(v)) return v;
+				return null;
+			}
+		});
+	}
+
+	public void setThreads(int n)
+	{
+		if(n < 1) n = 1;
+		threads = n;
+	}
+
+	public void setBatching(int recordsPerBatch, int batchesInFlight)
+	{
+		if(recordsPerBatch > 0) batchSize = recordsPerBatch;
+		if(batchesInFlight > 0) maxBatches = batchesInFlight;
+	}
+
+	/*--- Record Processing ---*/
+
+	private Variant castStructuralVariant(Variant v)
+	{
+		//Single record version of VariantPool.castStructuralVariants
+		if(!v.hasInfoField("SVTYPE")) return v;
+		StructuralVariant sv = new StructuralVariant(v);
+		if (sv.getType() == SVType.TRA || (sv.getType() == SVType.BND && (sv.getInfoEntry(Translocation.INFODEF_INFO_CHR2.getKey()) != null)))
+		{
+			return new Translocation(sv, genome);
+		}
+		sv.removeInfoField(Translocation.INFODEF_INFO_CHR2.getKey());
+		return sv;
+	}
+
+	private Variant processLine(String line) throws UnsupportedFileTypeException
+	{
+		if(line == null || line.isEmpty()) return null;
+		c_read.incrementAndGet();
+
+		Variant v = null;
+		//Like VCF.parseVCF - build can only be grown if none was given
+		try {v = new Variant(line, samples, genome, (genome == null));}
+		catch(NullPointerException e)
+		{
+			//Rejected contig
+			c_rejected.incrementAndGet();
+			return null;
+		}
+		if(castSVs) v = castStructuralVariant(v);
+
+		for(VariantStage s : stages)
+		{
+			v = s.processVariant(v);
+			if(v == null) return null;
+		}
+		return v;
+	}
+
+	private List<Variant> processBatch(List<String> lines) throws UnsupportedFileTypeException
+	{
+		List<Variant> out = new ArrayList<Variant>(lines.size());
+		for(String line : lines)
+		{
+			Variant v = processLine(line);
+			if(v != null) out.add(v);
+		}
+		return out;
+	}
+
+	private class BatchTask implements Callable<List<Variant>>
+	{
+		private List<String> lines;
+
+		public BatchTask(List<String> batch)
+		{
+			lines = batch;
+		}
+
+		@Override
+		public List<Variant> call() throws Exception
+		{
+			return processBatch(lines);
+		}
+	}
+
+	private class ReaderRunner implements Runnable
+	{
+		private ExecutorService pool;
+		private BlockingQueue<Future<List<Variant>>> queue;
+
+		public ReaderRunner(ExecutorService workers, BlockingQueue<Future<List<Variant>>> outq)
+		{
+			pool = workers;
+			queue = outq;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				List<String> batch = new ArrayList<String>(batchSize);
+				String line = null;
+				while(!error_kill && (line = reader.nextRecordLine()) != null)
+				{
+					batch.add(line);
+					if(batch.size() >= batchSize)
+					{
+						putBlocking(queue, pool.submit(new BatchTask(batch)));
+						batch = new ArrayList<String>(batchSize);
+					}
+				}
+				if(!batch.isEmpty() && !error_kill) putBlocking(queue, pool.submit(new BatchTask(batch)));
+
+				Callable<List<Variant>> endTask = new Callable<List<Variant>>(){
+					public List<Variant> call() {return END_OF_INPUT;}
+				};
+				putBlocking(queue, pool.submit(endTask));
+			}
+			catch(Throwable e)
+			{
+				//Read errors included - anything escaping here would leave the writer polling forever
+				killAll(e);
+			}
+		}
+	}
+
+	private <T> void putBlocking(BlockingQueue<T> q, T item) throws InterruptedException
+	{
+		//Back-pressure: waits for the writer, but gives up if the pipeline is dead
+		while(!q.offer(item, QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+		{
+			if(error_kill) return;
+		}
+	}
+
+	private synchronized void killAll(Throwable e)
+	{
+		if(!error_kill) System.err.println("VCFStreamPipeline || An unhandled exception has been detected! Terminating...");
+		error_kill = true;
+		if(e != null) e.printStackTrace();
+	}
+
+	/*--- Running ---*/
+
+	private boolean runSingleThread(VCFWriteStreamer out) throws IOException
+	{
+		String line = null;
+		while((line = reader.nextRecordLine()) != null)
+		{
+			try
+			{
+				Variant v = processLine(line);
+				if(v == null) continue;
+				out.writeVariant(v);
+				c_written.incrementAndGet();
+			}
+			catch(UnsupportedFileTypeException e)
+			{
+				System.err.println("VCFStreamPipeline.run || Parsing error! Variant Line: ");
+				System.err.println(line);
+				e.printStackTrace();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean runThreaded(VCFWriteStreamer out) throws IOException
+	{
+		BlockingQueue<Future<List<Variant>>> queue = new ArrayBlockingQueue<Future<List<Variant>>>(maxBatches);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+		Thread t_read = new Thread(new ReaderRunner(pool, queue));
+		t_read.setName("VCFStreamPipeline_Reader");
+		t_read.setDaemon(true);
+		t_read.start();
+
+		//Write on this thread, in submission (input) order
+		boolean done = false;
+		try
+		{
+			while(!error_kill)
+			{
+				Future<List<Variant>> f = queue.poll(QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+				if(f == null) continue;
+				List<Variant> batch = f.get();
+				if(batch == END_OF_INPUT) break;
+				for(Variant v : batch)
+				{
+					out.writeVariant(v);
+					c_written.incrementAndGet();
+				}
+			}
+			done = true;
+			t_read.join();
+		}
+		catch(InterruptedException e)
+		{
+			killAll(e);
+		}
+		catch(ExecutionException e)
+		{
+			killAll(e);
+		}
+		catch(RuntimeException e)
+		{
+			killAll(e);
+		}
+		finally
+		{
+			if(!done) error_kill = true; //Writer bailed, let the reader go
+			pool.shutdownNow();
+		}
+
+		return !error_kill;
+	}
+
+	/**
+	 * Stream every record through the stages and into a new VCF.
+	 * If the run fails (false or an exception), the partial output file is deleted.
+	 * @return True if every record was read and written, false if the run was stopped.
+	 */
+	public boolean run(String outPath, String sourceApp) throws IOException
+	{
+		if(reader == null) open();
+		error_kill = false;
+
+		VCFWriteStreamer out = new VCFWriteStreamer(outPath, header, sourceApp);
+		out.open();
+
+		boolean good = false;
+		boolean closed = false;
+		try
+		{
+			if(threads <= 1) good = runSingleThread(out);
+			else good = runThreaded(out);
+		}
+		finally
+		{
+			try
+			{
+				out.close();
+				closed = true;
+			}
+			finally
+			{
+				//Don't leave a truncated VCF that looks like output
+				if(!good || !closed) Files.deleteIfExists(Paths.get(outPath));
+				reader.close();
+				reader = null;
+			}
+		}
+
+		System.err.println("VCFStreamPipeline || Records read: " + c_read.get() + " | Rejected: " + c_rejected.get() + " | Written: " + c_written.get());
+		return good;
+	}
+
+}
@@ -0,0 +1,312 @@
+package hospelhornbg_bioinformatics;
+
+public class VCFTokenizer {
+
+	//Reusable tab field tokenizer for VCF record lines
+	//Field boundaries are found by offset (indexOf on single chars), so nothing
+	//	goes through the regex engine and a field is only copied out as a String
+	//	if it is asked for.
+	//One instance per thread - use getThreadTokenizer() from the static parsers.
+
+	/*--- Constants ---*/
+
+	public static final int MIN_FIELDS = 8;
+	private static final int INIT_FIELD_CAPACITY = 16;
+
+	private static final ThreadLocal<VCFTokenizer> LOCAL_TOKENIZER = new ThreadLocal<VCFTokenizer>(){
+		protected VCFTokenizer initialValue()
+		{
+			return new VCFTokenizer();
+		}
+	};
+
+	/*--- Instance Variables ---*/
+
+	private String line;
+	private int[] starts;
+	private int[] ends;
+	private int fieldCount;
+
+	/*--- Construction ---*/
+
+	public VCFTokenizer()
+	{
+		starts = new int[INIT_FIELD_CAPACITY];
+		ends = new int[INIT_FIELD_CAPACITY];
+	}
+
+	public static VCFTokenizer getThreadTokenizer()
+	{
+		return LOCAL_TOKENIZER.get();
+	}
+
+	/*--- Tokenizing ---*/
+
+	public void reset(String record)
+	{
+		line = record;
+		fieldCount = 0;
+		if(record == null) return;
+
+		int len = record.length();
+		//Tolerate a trailing CR
+		if(len > 0 && record.charAt(len - 1) == '\r') len--;
+
+		int pos = 0;
+		while(true)
+		{
+			int tab = record.indexOf('\t', pos);
+			if(tab < 0 || tab > len) tab = len;
+			if(fieldCount >= starts.length) growFieldArrays();
+			starts[fieldCount] = pos;
+			ends[fieldCount] = tab;
+			fieldCount++;
+			if(tab >= len) break;
+			pos = tab + 1;
+		}
+	}
+
+	private void growFieldArrays()
+	{
+		int nsz = starts.length << 1;
+		int[] ns = new int[nsz];
+		int[] ne = new int[nsz];
+		System.arraycopy(starts, 0, ns, 0, fieldCount);
+		System.arraycopy(ends, 0, ne, 0, fieldCount);
+		starts = ns;
+		ends = ne;
+	}
+
+	/*--- Field Access ---*/
+
+	public String getLine()
+	{
+		return line;
+	}
+
+	public int countFields()
+	{
+		return fieldCount;
+	}
+
+	public int getFieldStart(int field)
+	{
+		if(field < 0 || field >= fieldCount) throw new ArrayIndexOutOfBoundsException(field);
+		return starts[field];
+	}
+
+	public int getFieldEnd(int field)
+	{
+		if(field < 0 || field >= fieldCount) throw new ArrayIndexOutOfBoundsException(field);
+		return ends[field];
+	}
+
+	public int getFieldLength(int field)
+	{
+		return getFieldEnd(field) - getFieldStart(field);
+	}
+
+	public String getField(int field)
+	{
+		return line.substring(getFieldStart(field), getFieldEnd(field));
+	}
+
+	public boolean fieldEquals(int field, String value)
+	{
+		int st = getFieldStart(field);
+		int len = ends[field] - st;
+		if(len != value.length()) return false;
+		return line.regionMatches(st, value, 0, len);
+	}
+
+	public boolean fieldIsMissing(int field)
+	{
+		int st = getFieldStart(field);
+		int len = ends[field] - st;
+		if(len == 0) return true;
+		return (len == 1 && line.charAt(st) == '.');
+	}
+
+	public int parseIntField(int field)
+	{
+		return parseInt(line, getFieldStart(field), ends[field]);
+	}
+
+	public double parseDoubleField(int field)
+	{
+		return Double.parseDouble(getField(field));
+	}
+
+	public String[] splitField(int field, char delim)
+	{
+		return split(line, getFieldStart(field), ends[field], delim);
+	}
+
+	/*--- Static Utilities ---*/
+
+	public static String[] split(String s, char delim)
+	{
+		if(s == null) return null;
+		return split(s, 0, s.length(), delim);
+	}
+
+	public static String[] split(String s, int st, int ed, char delim)
+	{
+		//Unlike String.split, empty tokens (including trailing ones) are kept
+		int count = 1;
+		int pos = st;
+		while((pos = s.indexOf(delim, pos)) >= 0 && pos < ed)
+		{
+			count++;
+			pos++;
+		}
+
+		String[] arr = new String[count];
+		if(count == 1)
+		{
+			arr[0] = s.substring(st, ed);
+			return arr;
+		}
+
+		pos = st;
+		for(int i = 0; i < count - 1; i++)
+		{
+			int d = s.indexOf(delim, pos);
+			arr[i] = s.substring(pos, d);
+			pos = d + 1;
+		}
+		arr[count - 1] = s.substring(pos, ed);
+		return arr;
+	}
+
+	public static int parseInt(CharSequence s, int st, int ed)
+	{
+		if(st >= ed) throw new NumberFormatException("Empty integer field");
+		boolean neg = false;
+		int i = st;
+		char c = s.charAt(i);
+		if(c == '-' || c == '+')
+		{
+			neg = (c == '-');
+			i++;
+			if(i >= ed) throw new NumberFormatException("Sign with no digits");
+		}
+
+		long val = 0;
+		for(; i < ed; i++)
+		{
+			c = s.charAt(i);
+			if(c < '0' || c > '9') throw new NumberFormatException("For input string: \"" + s.subSequence(st, ed) + "\"");
+			val = (val * 10) + (c - '0');
+			if(val > 0x80000000L) throw new NumberFormatException("Integer out of range: \"" + s.subSequence(st, ed) + "\"");
+		}
+		if(neg) val = -val;
+		if(val > Integer.MAX_VALUE) throw new NumberFormatException("Integer out of range: \"" + s.subSequence(st, ed) + "\"");
+		return (int)val;
+	}
+
+	/*--- INFO Field ---*/
+
+	public InfoCursor getInfoCursor()
+	{
+		if(fieldCount < MIN_FIELDS) return new InfoCursor("", 0, 0);
+		return new InfoCursor(line, starts[7], ends[7]);
+	}
+
+	public static class InfoCursor
+	{
+		//Walks the ';' separated entries of an INFO column in place
+		//Key/values are only copied out if asked for
+
+		private String src;
+		private int end;
+
+		private int pos;
+		private int eStart;
+		private int eEnd;
+		private int eq;
+
+		public InfoCursor(String info)
+		{
+			this(info, 0, info.length());
+		}
+
+		public InfoCursor(String source, int st, int ed)
+		{
+			src = source;
+			end = ed;
+			pos = st;
+			eStart = -1;
+			//A lone "." is an empty INFO column
+			if(ed - st == 1 && source.charAt(st) == '.') pos = ed + 1;
+		}
+
+		public boolean next()
+		{
+			while(pos <= end)
+			{
+				int sc = src.indexOf(';', pos);
+				if(sc < 0 || sc > end) sc = end;
+				eStart = pos;
+				eEnd = sc;
+				pos = sc + 1;
+				if(eEnd == eStart) continue; //Skip empty entries (";;")
+
+				eq = src.indexOf('=', eStart);
+				if(eq >= eEnd) eq = -1;
+				return true;
+			}
+			eStart = -1;
+			return false;
+		}
+
+		public boolean isFlag()
+		{
+			return eq < 0;
+		}
+
+		public boolean keyEquals(String key)
+		{
+			int kEnd = (eq < 0)?eEnd:eq;
+			int len = kEnd - eStart;
+			if(len != key.length()) return false;
+			return src.regionMatches(eStart, key, 0, len);
+		}
+
+		public String getKey()
+		{
+			if(eq < 0) return src.substring(eStart, eEnd);
+			return src.substring(eStart, eq);
+		}
+
+		public String getRawValue()
+		{
+			if(eq < 0) return null;
+			return src.substring(eq + 1, eEnd);
+		}
+
+		public String[] getValues()
+		{
+			if(eq < 0) return null;
+			return split(src, eq + 1, eEnd, ',');
+		}
+
+		public int getEntryStart(){return eStart;}
+		public int getEntryEnd(){return eEnd;}
+
+	}
+
+	public static boolean infoHasKey(String info, String key)
+	{
+		if(info == null || key == null) return false;
+		//Cheap reject before walking entries
+		if(info.indexOf(key) < 0) return false;
+		InfoCursor c = new InfoCursor(info);
+		while(c.next())
+		{
+			if(c.keyEquals(key)) return true;
+		}
+		return false;
+	}
+
+}
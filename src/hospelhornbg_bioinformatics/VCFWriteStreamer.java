@@ -0,0 +1,80 @@
+package hospelhornbg_bioinformatics;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.List;
+
+import hospelhornbg_bioinformatics.VariantPool.InfoDefinition;
+
+public class VCFWriteStreamer {
+
+	//Counterpart to VCFReadStreamer
+	//Header comes from a skeleton pool (metadata, no variants), then records
+	//	are written one at a time as they are handed in.
+
+	private String vcf_path;
+	private VariantPool header;
+	private String sourceApp;
+
+	private List<String> samples;
+	private List<InfoDefinition> infoDefs;
+
+	private BufferedWriter writer;
+	private boolean toStdout;
+	private long written;
+
+	public VCFWriteStreamer(String vcfPath, VariantPool skeleton, String appName)
+	{
+		vcf_path = vcfPath;
+		header = skeleton;
+		sourceApp = appName;
+	}
+
+	public void open() throws IOException
+	{
+		if(vcf_path != null && !vcf_path.isEmpty() && !vcf_path.equalsIgnoreCase("stdout"))
+		{
+			writer = new BufferedWriter(new FileWriter(vcf_path));
+			toStdout = false;
+		}
+		else
+		{
+			writer = new BufferedWriter(new OutputStreamWriter(System.out));
+			toStdout = true;
+		}
+
+		//Snapshot the column/INFO order now, header edits after this are not seen
+		samples = header.getAllSamples();
+		infoDefs = header.getOrderedInfoDefs();
+		written = 0;
+
+		VCF vcf = new VCF(header, sourceApp);
+		vcf.setFormatToCurrent();
+		vcf.stampDate();
+		vcf.writeHeader(writer);
+	}
+
+	public void writeVariant(Variant v) throws IOException
+	{
+		if(v == null) return;
+		writer.write(v.toVCFLine(samples, infoDefs));
+		writer.write("\n");
+		written++;
+	}
+
+	public long countWritten()
+	{
+		return written;
+	}
+
+	public void close() throws IOException
+	{
+		if(writer == null) return;
+		if(toStdout) writer.flush(); //Leave System.out open
+		else writer.close();
+		writer = null;
+	}
+
+}
@@ -190,6 +190,12 @@ public class Variant implements Comparable<Variant>{
 	 * A set of all flag type INFO annotations for this variant.
 	 */
 	private Set<String> infoB;
+	/**
+	 * Unparsed INFO column text as read from a VCF record. If this is non-null, the INFO
+	 * maps have not been filled yet - they are populated from this string the first time
+	 * any INFO annotation is read or modified.
+	 */
+	private volatile String rawInfo;
 	
 	/**
 	 * An ordered list of the genotype annotation field keys
@@ -201,6 +207,17 @@ public class Variant implements Comparable<Variant>{
 	 * but not in this map are assumed to be ref/ref.
 	 */
 	private Map<String, Genotype> genotypes;
+	/**
+	 * Sample columns read from a VCF record that have not been turned into Genotype objects
+	 * yet. Genotypes in the map above take precedence; samples are decoded from here
+	 * the first time they are requested.
+	 */
+	private GenotypeColumns rawGenotypes;
+	/**
+	 * Compact (GT/GQ/DP/CN only) genotypes, if this variant's pool is in compact genotype
+	 * mode. Checked after the genotype map and before any raw columns.
+	 */
+	private CompactGenotypes compactGenotypes;
 	
 	/**
 	 * If noted, the coding effect the variant has.
@@ -245,13 +262,14 @@ public class Variant implements Comparable<Variant>{
 		//System.err.println(Thread.currentThread().getName() + " || Variant.<init> || Sample list: ");
 		//for (String s : samples) System.err.println("\t" + s);
 		setDefaults();
-		String[] fields = VCF_line.split("\t");
-		if (fields == null) throw new FileBuffer.UnsupportedFileTypeException();
-		if (fields.length < 8) throw new FileBuffer.UnsupportedFileTypeException();
+		VCFTokenizer tok = VCFTokenizer.getThreadTokenizer();
+		tok.reset(VCF_line);
+		int fcount = tok.countFields();
+		if (fcount < VCFTokenizer.MIN_FIELDS) throw new FileBuffer.UnsupportedFileTypeException();
 		
 		try
 		{
-			String chrom = fields[0];
+			String chrom = tok.getField(0);
 			//Find chrom
 			if (genome != null && !allowBuildModification) {
 				//System.err.println(Thread.currentThread().getName() + " || Variant.<init> || Genome: " + genome.getBuildName());
@@ -280,63 +298,38 @@ public class Variant implements Comparable<Variant>{
 				chromosome.setUCSCName(chrom);
 				//chromosome.setType(Contig.SORTCLASS_UNKNOWN);
 			}
-			position = Integer.parseInt(fields[1]);
-			variantID = fields[2];
-			if (variantID.equals(".")) variantID = ".";
-			refAllele = fields[3]; if (refAllele.equals(".")) refAllele = ".";
-			String[] stArr = fields[4].split(",");
+			position = tok.parseIntField(1);
+			if (tok.fieldEquals(2, ".")) variantID = ".";
+			else variantID = tok.getField(2);
+			if (tok.fieldEquals(3, ".")) refAllele = ".";
+			else refAllele = tok.getField(3);
+			String[] stArr = tok.splitField(4, ',');
 			altAlleles = new ArrayList<String>(stArr.length);
 			for (String s : stArr) altAlleles.add(s);
-			if (!fields[5].equals(".")) quality = Double.parseDouble(fields[5]);
-			if (!fields[6].equals("."))
+			if (!tok.fieldEquals(5, ".")) quality = tok.parseDoubleField(5);
+			if (!tok.fieldEquals(6, "."))
 			{
-				if (fields[6].equals("PASS")) passedFilters = true;
+				if (tok.fieldEquals(6, "PASS")) passedFilters = true;
 				else
 				{
-					stArr = fields[6].split(";");
+					stArr = tok.splitField(6, ';');
 					filters = new ArrayList<String>(stArr.length);
 					for (String s : stArr) filters.add(s);
 				}
 			}
-			if (!fields[7].isEmpty() && !fields[7].equals("."))
-			{
-				String[] infofields = fields[7].split(";");
-				for (String s : infofields)
-				{
-					if (s.indexOf("=") < 0)
-					{
-						//It's probably a flag
-						//System.out.println("Variant<init> || Flag found: " + s);
-						infoB.add(s);
-					}
-					else
-					{
-						String[] infopieces = s.split("=");
-						if (infopieces == null) throw new UnsupportedFileTypeException();
-						if (infopieces.length < 2) throw new UnsupportedFileTypeException();
-						String[] infoVals = infopieces[1].split(",");
-						infoZ.put(infopieces[0], infoVals);	
-					}
-				}
-			}
-			if (fields.length > 8 && samples != null)
+			//INFO is left as text until something asks for it
+			if (!tok.fieldIsMissing(7)) rawInfo = tok.getField(7);
+			if (fcount > 8 && samples != null)
 			{
 				//System.err.println(Thread.currentThread().getName() + " || Variant.<init> || More than 8 fields found!");
-				int sampNum = fields.length - 9;
+				int sampNum = fcount - 9;
 				//System.err.println(Thread.currentThread().getName() + " || Variant.<init> || Number of samples: " + sampNum);
-				String format = fields[8];
-				//System.err.println(Thread.currentThread().getName() + " || Variant.<init> || Format string: " + format);
-				stArr = format.split(":");
+				stArr = tok.splitField(8, ':');
 				genoFields = new ArrayList<String>(stArr.length);
 				for (String s : stArr) genoFields.add(s);
 				//System.err.println(Thread.currentThread().getName() + " || Variant.<init> || format field count: " + genoFields.size());
-				for (int i = 0; i < sampNum; i++)
-				{
-					//System.err.println(Thread.currentThread().getName() + " || Variant.<init> || genotyping sample " + i);
-					String g = fields[9 + i];
-					Genotype gt = new Genotype(format, g);
-					genotypes.put(samples.get(i), gt);
-				}
+				//Sample columns are decoded when asked for
+				if (sampNum > 0) rawGenotypes = new GenotypeColumns(tok, stArr, samples);
 			}
 			
 		}
@@ -346,8 +339,10 @@ public class Variant implements Comparable<Variant>{
 			throw new UnsupportedFileTypeException();
 		}
 		
+		//Only expand INFO here if there is actually a GFUNC to pull out
 		String key = GeneSet.INFODEF_INFO_GFUNC.getKey();
-		String func = getSingleStringInfoEntry(key);
+		String func = null;
+		if (VCFTokenizer.infoHasKey(rawInfo, key)) func = getSingleStringInfoEntry(key);
 		if (func != null)
 		{
 			removeInfoField(key);
@@ -370,6 +365,7 @@ public class Variant implements Comparable<Variant>{
 	{
 		//REFERENCES, DOES NOT COPY. That's why it's protected - template is expected to be deleted!
 		setDefaults();
+		other.inflateInfo();
 		confirmed = other.confirmed;
 		chromosome = other.chromosome;
 		position = other.position;
@@ -385,6 +381,8 @@ public class Variant implements Comparable<Variant>{
 		infoB = other.infoB;
 		genoFields = other.genoFields;
 		genotypes = other.genotypes;
+		rawGenotypes = other.rawGenotypes;
+		compactGenotypes = other.compactGenotypes;
 		function = other.function;
 	}
 	
@@ -419,6 +417,50 @@ public class Variant implements Comparable<Variant>{
 		infoF = new HashMap<String, double[]>();
 		infoB = new HashSet<String>();
 		genotypes = new HashMap<String, Genotype>();
+		rawGenotypes = null;
+		compactGenotypes = null;
+		rawInfo = null;
+	}
+	
+	/**
+	 * Parse the raw INFO column text (if this variant still has any) into the INFO maps.
+	 * All values are stored as strings (or flags) until requested as another type.
+	 * This is called before any access to the INFO maps, and does nothing once the
+	 * maps have been filled.
+	 * <br>Safe to hit from several reader threads at once; the text is only parsed once.
+	 */
+	protected final void inflateInfo()
+	{
+		if (rawInfo == null) return;
+		synchronized (this)
+		{
+			String info = rawInfo;
+			if (info == null) return;
+			VCFTokenizer.InfoCursor c = new VCFTokenizer.InfoCursor(info);
+			while (c.next())
+			{
+				if (c.isFlag()) infoB.add(c.getKey());
+				else infoZ.put(c.getKey(), c.getValues());
+			}
+			rawInfo = null; //Volatile write publishes the filled maps
+		}
+	}
+	
+	/**
+	 * Set the INFO annotations of this variant from a raw VCF INFO column string, replacing
+	 * any existing annotations. Parsing is deferred until the INFO is first accessed.
+	 * @param info Raw VCF INFO column text (semicolon separated). If null, empty, or ".",
+	 * the variant is left with no INFO annotations.
+	 */
+	public void setRawInfo(String info)
+	{
+		infoZ.clear();
+		infoI.clear();
+		infoF.clear();
+		infoB.clear();
+		rawInfo = null;
+		if (info == null || info.isEmpty() || info.equals(".")) return;
+		rawInfo = info;
 	}
 	
 	/**
@@ -738,6 +780,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	protected final String[] getInfoEntryDirect(String key)
 	{
+		inflateInfo();
 		if (infoZ.containsKey(key)) return infoZ.get(key);
 		if (infoB.contains(key))
 		{
@@ -797,6 +840,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public final String[] getStringInfoEntry(String fieldKey)
 	{
+		inflateInfo();
 		return infoZ.get(fieldKey);
 	}
 	
@@ -829,6 +873,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public final int[] getIntInfoEntry(String fieldKey)
 	{
+		inflateInfo();
 		//Check string fields if not already parse into ints and floats
 		int[] vals = infoI.get(fieldKey);
 		if (vals != null) return vals;
@@ -869,6 +914,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public final double[] getFloatInfoEntry(String fieldKey)
 	{
+		inflateInfo();
 		double[] vals = infoF.get(fieldKey);
 		if (vals != null) return vals;
 		
@@ -907,6 +953,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public boolean getInfoFlag(String fieldKey)
 	{
+		inflateInfo();
 		//for (String k : infoB) if (k.equals(fieldKey)) return true;
 		//return false;
 		return infoB.contains(fieldKey);
@@ -934,7 +981,38 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public Genotype getSampleGenotype(String sampleName)
 	{
-		return genotypes.get(sampleName);
+		Genotype g = genotypes.get(sampleName);
+		if (g != null) return g;
+		if (compactGenotypes != null)
+		{
+			g = compactGenotypes.getView(sampleName);
+			if (g != null) return g;
+		}
+		if (rawGenotypes == null) return null;
+		return rawGenotypes.getGenotype(sampleName);
+	}
+	
+	/**
+	 * Get the allele calls (GT) for the sample with the provided name/ID string.
+	 * <br>If the sample's genotype has not been decoded yet, the calls are read straight from
+	 * the VCF text without building a Genotype, so this is much cheaper than
+	 * getSampleGenotype when only GT is needed.
+	 * @param sampleName Name or ID of sample genotype requested.
+	 * @return An int array of general allele indices (0 = ref, -1 = unknown) - a copy
+	 * that may be modified freely.
+	 * <br> null If there is no genotype recorded for that sample.
+	 */
+	public int[] getSampleAlleles(String sampleName)
+	{
+		Genotype g = genotypes.get(sampleName);
+		if (g != null) return g.getAlleles();
+		if (compactGenotypes != null)
+		{
+			int[] alleles = compactGenotypes.getAlleles(sampleName);
+			if (alleles != null) return alleles;
+		}
+		if (rawGenotypes == null) return null;
+		return rawGenotypes.getAlleles(sampleName);
 	}
 	
 	/**
@@ -944,6 +1022,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public Set<String> getAllInfoKeys()
 	{
+		inflateInfo();
 		Set<String> allKeys = new HashSet<String>();
 		allKeys.addAll(infoB);
 		allKeys.addAll(infoZ.keySet());
@@ -961,6 +1040,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public boolean hasInfoField(String fieldKey)
 	{
+		inflateInfo();
 		if (infoB.contains(fieldKey)) return true;
 		if (infoZ.containsKey(fieldKey)) return true;
 		if (infoI.containsKey(fieldKey)) return true;
@@ -1019,7 +1099,12 @@ public class Variant implements Comparable<Variant>{
 	 */
 	protected Set<String> getAllGenotypedSamples()
 	{
-		return genotypes.keySet();
+		if (rawGenotypes == null && compactGenotypes == null) return genotypes.keySet();
+		Set<String> all = new HashSet<String>();
+		if (rawGenotypes != null) rawGenotypes.addSampleNamesTo(all);
+		if (compactGenotypes != null) compactGenotypes.addSampleNamesTo(all);
+		all.addAll(genotypes.keySet());
+		return all;
 	}
 	
 	/**
@@ -1226,6 +1311,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public void defineInfoFields(Map<String, InfoDefinition> infoDefs)
 	{
+		inflateInfo();
 		Set<String> infoStrings = infoDefs.keySet();
 		for (String key : infoStrings)
 		{
@@ -1242,6 +1328,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public void addInfoFlag(String key)
 	{
+		inflateInfo();
 		if (key == null || key.isEmpty()) return;
 		infoB.add(key);
 	}
@@ -1254,6 +1341,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public void removeInfoFlag(String key)
 	{
+		inflateInfo();
 		if (key == null || key.isEmpty()) return;
 		infoB.remove(key);
 	}
@@ -1265,6 +1353,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public void removeInfoField(String key)
 	{
+		inflateInfo();
 		if (key == null || key.isEmpty()) return;
 		infoB.remove(key);
 		infoZ.remove(key);
@@ -1281,6 +1370,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public void addInfoField(String key, String value)
 	{
+		inflateInfo();
 		if (key == null || key.isEmpty()) return;
 		String[] vals = new String[1];
 		vals[0] = value;
@@ -1296,6 +1386,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public void addInfoField(String key, String[] values)
 	{
+		inflateInfo();
 		if (key == null || key.isEmpty()) return;
 		infoZ.put(key, values);
 	}
@@ -1324,6 +1415,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public void addInfoField(String[] values, InfoDefinition def)
 	{
+		inflateInfo();
 		if (def == null || values == null || values.length < 1) return;
 		String key = def.getKey();
 		int type = def.getType();
@@ -1373,6 +1465,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public void addInfoField(String key, int value)
 	{
+		inflateInfo();
 		if (key == null || key.isEmpty()) return;
 		int[] vals = new int[1];
 		vals[0] = value;
@@ -1386,6 +1479,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public void addInfoField(String key, int[] values)
 	{
+		inflateInfo();
 		if (key == null || key.isEmpty()) return;
 		infoI.put(key, values);
 	}
@@ -1397,6 +1491,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public void addInfoField(String key, double value)
 	{
+		inflateInfo();
 		if (key == null || key.isEmpty()) return;
 		double[] vals = new double[1];
 		vals[0] = value;
@@ -1410,6 +1505,7 @@ public class Variant implements Comparable<Variant>{
 	 */
 	public void addInfoField(String key, double[] values)
 	{
+		inflateInfo();
 		if (key == null || key.isEmpty()) return;
 		infoF.put(key, values);
 	}
@@ -1426,9 +1522,79 @@ public class Variant implements Comparable<Variant>{
 	{
 		if (sampleName == null) return;
 		if (sampleName.isEmpty()) return;
+		if (rawGenotypes != null) rawGenotypes.dropSample(sampleName);
+		if (compactGenotypes != null) compactGenotypes.remove(sampleName);
 		genotypes.put(sampleName, gt);
 	}
 	
+	/**
+	 * Set the undecoded sample columns for this variant. Used by VCF parsers.
+	 * @param columns Sample columns of the VCF record.
+	 */
+	void setRawGenotypes(GenotypeColumns columns)
+	{
+		rawGenotypes = columns;
+	}
+	
+	/**
+	 * Move this variant's genotypes into a compact row keeping only GT, GQ, DP, and CN.
+	 * Raw columns are read directly and are not decoded into full Genotypes first.
+	 * Samples that aren't in the index, or whose calls don't fit the compact
+	 * encoding (more than two alleles per call or very high allele indices), are left
+	 * as full Genotypes.
+	 * @param samples Sample index (column order) shared by the pool.
+	 */
+	void compactGenotypes(SampleIndex samples)
+	{
+		if (compactGenotypes != null) return;
+		CompactGenotypes row = new CompactGenotypes(samples);
+		
+		//Undecoded columns first
+		if (rawGenotypes != null)
+		{
+			Set<String> rawnames = new HashSet<String>();
+			rawGenotypes.addSampleNamesTo(rawnames);
+			for (String s : rawnames)
+			{
+				int col = samples.getColumn(s);
+				Genotype g = rawGenotypes.getDecodedGenotype(s);
+				if (g == null && col >= 0)
+				{
+					String gt = rawGenotypes.getRawSubfield(s, Genotype.INFODEF_GT.getKey());
+					int[] alleles = rawGenotypes.getAlleles(s);
+					if (CompactGenotypes.canStore(alleles))
+					{
+						boolean phased = (gt != null && gt.indexOf('|') >= 0);
+						row.store(col, alleles, phased, 
+								parseCompactField(rawGenotypes.getRawSubfield(s, Genotype.INFODEF_GQ.getKey())), 
+								parseCompactField(rawGenotypes.getRawSubfield(s, Genotype.INFODEF_DP.getKey())), 
+								parseCompactField(rawGenotypes.getRawSubfield(s, Genotype.INFODEF_CN.getKey())));
+						continue;
+					}
+				}
+				if (g == null) g = rawGenotypes.getGenotype(s);
+				if (g != null && !row.store(s, g)) genotypes.put(s, g);
+			}
+			rawGenotypes = null;
+		}
+		
+		//Then anything already decoded/added
+		List<String> keys = new ArrayList<String>(genotypes.size());
+		keys.addAll(genotypes.keySet());
+		for (String s : keys)
+		{
+			if (row.store(s, genotypes.get(s))) genotypes.remove(s);
+		}
+		compactGenotypes = row;
+	}
+	
+	private static int parseCompactField(String raw)
+	{
+		if (raw == null || raw.isEmpty() || raw.equals(".")) return -1;
+		try {return VCFTokenizer.parseInt(raw, 0, raw.length());}
+		catch (NumberFormatException e) {return -1;}
+	}
+	
 	/**
 	 * Add a genotype field to the end of the list of genotype fields
 	 * to include should this variant be written out to a file.
@@ -2025,12 +2191,20 @@ public class Variant implements Comparable<Variant>{
 				s += formatString + "\t";
 				//System.err.println("Variant.toVCFLine || Format string: " + formatString);
 				
+				//Columns that were never decoded can be copied as read if FORMAT hasn't changed
+				boolean rawOkay = (rawGenotypes != null && rawGenotypes.formatMatches(genoFields));
 				for (int i = 0; i < orderedSamples.size(); i++)
 				{
 					String sample = orderedSamples.get(i);
 					Genotype g = genotypes.get(sample);
-					String genotype = "./.";
-					if (g != null) genotype = g.toVCFField(genoFields);
+					String genotype = null;
+					if (g == null && rawOkay) genotype = rawGenotypes.getRawColumn(sample);
+					if (genotype == null)
+					{
+						if (g == null) g = getSampleGenotype(sample);
+						if (g != null) genotype = g.toVCFField(genoFields);
+						else genotype = "./.";
+					}
 					//System.err.println("Variant.toVCFLine || Genotype string for " + sample + ": " + genotype);
 					if (i < orderedSamples.size() - 1) s += genotype + "\t";
 					else s += genotype;
@@ -0,0 +1,311 @@
+package hospelhornbg_bioinformatics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import hospelhornbg_genomeBuild.Contig;
+
+public class VariantConfirmer {
+
+	//Truth set confirmation for VariantPool.confirm
+	//Pool variants are bucketed by contig and indexed by position and by sorted
+	//	breakpoint interval (CI envelope around POS and around END). Each truth variant
+	//	only gets tested against the pool variants whose intervals it can reach, instead
+	//	of the whole pool.
+	//The index only picks candidates - the actual test is the same equivalent(...) calls as
+	//	the old nested loop, tried in pool order, so the variant confirmed and the
+	//	returned count are the same.
+
+	/*--- Inner Classes ---*/
+
+	private static class IntervalIndex
+	{
+		//Breakpoint intervals sorted by low end
+		//All intervals are short (CI widths), so a query only walks back maxLen from its start.
+
+		private int[] lo;
+		private int[] hi;
+		private int[] idx;
+		private int count;
+		private int maxLen;
+
+		public IntervalIndex(List<int[]> intervals)
+		{
+			int[][] arr = new int[intervals.size()][];
+			arr = intervals.toArray(arr);
+			Arrays.sort(arr, new java.util.Comparator<int[]>(){
+				public int compare(int[] o1, int[] o2)
+				{
+					if (o1[0] != o2[0]) return Integer.compare(o1[0], o2[0]);
+					return Integer.compare(o1[2], o2[2]);
+				}
+			});
+			count = arr.length;
+			lo = new int[count];
+			hi = new int[count];
+			idx = new int[count];
+			for(int i = 0; i < count; i++)
+			{
+				lo[i] = arr[i][0];
+				hi[i] = arr[i][1];
+				idx[i] = arr[i][2];
+				int len = hi[i] - lo[i];
+				if(len > maxLen) maxLen = len;
+			}
+		}
+
+		private int firstAtOrAbove(long val)
+		{
+			int l = 0;
+			int r = count;
+			while(l < r)
+			{
+				int m = (l + r) >>> 1;
+				if(lo[m] < val) l = m + 1;
+				else r = m;
+			}
+			return l;
+		}
+
+		public void query(int qlo, int qhi, List<Integer> out)
+		{
+			int i = firstAtOrAbove((long)qlo - (long)maxLen);
+			for(; i < count; i++)
+			{
+				if(lo[i] > qhi) break;
+				if(hi[i] >= qlo) out.add(idx[i]);
+			}
+		}
+	}
+
+	private static class ContigBucket
+	{
+		private Map<Integer, List<Integer>> byPos;
+		private List<int[]> startList;
+		private List<int[]> endList;
+		private IntervalIndex starts;
+		private IntervalIndex ends;
+
+		public ContigBucket()
+		{
+			byPos = new HashMap<Integer, List<Integer>>();
+			startList = new LinkedList<int[]>();
+			endList = new LinkedList<int[]>();
+		}
+
+		public void finish()
+		{
+			starts = new IntervalIndex(startList);
+			ends = new IntervalIndex(endList);
+			startList = null;
+			endList = null;
+		}
+	}
+
+	/*--- Instance Variables ---*/
+
+	private Variant[] pool;
+	private Map<Contig, ContigBucket> buckets;
+
+	private boolean bothEnds;
+	private boolean ci95;
+	private boolean pointOverlap;
+
+	/*--- Construction ---*/
+
+	public VariantConfirmer(List<Variant> poolVariants, boolean stringent_bothEnds, boolean stringent_CI, boolean stringent_overlap)
+	{
+		bothEnds = stringent_bothEnds;
+		ci95 = stringent_CI;
+		pointOverlap = stringent_overlap;
+
+		pool = new Variant[poolVariants.size()];
+		pool = poolVariants.toArray(pool);
+		buckets = new HashMap<Contig, ContigBucket>();
+		for(int i = 0; i < pool.length; i++)
+		{
+			Variant v = pool[i];
+			Contig c = v.getChromosome();
+			if(c == null) continue;
+			ContigBucket b = buckets.get(c);
+			if(b == null)
+			{
+				b = new ContigBucket();
+				buckets.put(c, b);
+			}
+			List<Integer> plist = b.byPos.get(v.getPosition());
+			if(plist == null)
+			{
+				plist = new ArrayList<Integer>(2);
+				b.byPos.put(v.getPosition(), plist);
+			}
+			plist.add(i);
+			if(v instanceof StructuralVariant)
+			{
+				StructuralVariant sv = (StructuralVariant)v;
+				b.startList.add(envelope(sv, false, i));
+				b.endList.add(envelope(sv, true, i));
+			}
+		}
+		for(ContigBucket b : buckets.values()) b.finish();
+	}
+
+	private int[] envelope(StructuralVariant sv, boolean end, int index)
+	{
+		//CI range at one end, widened to include the SV's own POS so that
+		//	candidates are a superset for either overlap mode.
+		int[] e = new int[3];
+		int a = sv.getCIPosition(end, ci95, false);
+		int b = sv.getCIPosition(end, ci95, true);
+		e[0] = Math.min(a, b);
+		e[1] = Math.max(a, b);
+		if(!end)
+		{
+			int p = sv.getPosition();
+			if(p < e[0]) e[0] = p;
+			if(p > e[1]) e[1] = p;
+		}
+		e[2] = index;
+		return e;
+	}
+
+	/*--- Matching ---*/
+
+	private boolean matches(Variant v, Variant t)
+	{
+		//Same test as the original VariantPool.confirm loop
+		if (v.equivalent(t)) return true;
+		if (t instanceof StructuralVariant && v instanceof StructuralVariant)
+		{
+			StructuralVariant svt = (StructuralVariant)t;
+			StructuralVariant svv = (StructuralVariant)v;
+			if (svv.equivalent(svt, bothEnds, ci95, pointOverlap)) return true;
+		}
+		return false;
+	}
+
+	private boolean confirmOne(Variant t)
+	{
+		Contig c = t.getChromosome();
+		if(c == null) return false;
+		ContigBucket b = buckets.get(c);
+		if(b == null) return false;
+
+		List<Integer> cand = new ArrayList<Integer>(8);
+		List<Integer> plist = b.byPos.get(t.getPosition());
+		if(plist != null) cand.addAll(plist);
+		if(t instanceof StructuralVariant)
+		{
+			StructuralVariant st = (StructuralVariant)t;
+			int[] se = envelope(st, false, -1);
+			b.starts.query(se[0], se[1], cand);
+			if(pointOverlap) b.ends.query(st.getPosition(), st.getPosition(), cand);
+			else
+			{
+				int[] ee = envelope(st, true, -1);
+				b.ends.query(ee[0], ee[1], cand);
+			}
+		}
+		if(cand.isEmpty()) return false;
+
+		//First match in pool order wins
+		java.util.Collections.sort(cand);
+		int last = -1;
+		for(Integer i : cand)
+		{
+			if(i == last) continue;
+			last = i;
+			Variant v = pool[i];
+			if(matches(v, t))
+			{
+				v.confirm();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int confirmAll(List<Variant> truth)
+	{
+		int count = 0;
+		for(Variant t : truth)
+		{
+			if(confirmOne(t)) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Mark every pool variant that is the first (in pool order) equivalent of a truth variant
+	 * as confirmed.
+	 * @param truth Truth variants.
+	 * @param threads Number of threads to use. Truth variants are split by contig, so at most
+	 * one thread per contig is useful. 1 or less runs on the calling thread.
+	 * @return The number of truth variants that matched a pool variant.
+	 */
+	public int confirm(List<Variant> truth, int threads)
+	{
+		if(truth == null || truth.isEmpty()) return 0;
+		if(threads <= 1) return confirmAll(truth);
+
+		//Split truth by contig - pool variants that can match are on the same contig,
+		//	so no two tasks ever confirm the same pool variant.
+		Map<Contig, List<Variant>> tbuckets = new HashMap<Contig, List<Variant>>();
+		for(Variant t : truth)
+		{
+			Contig c = t.getChromosome();
+			if(c == null) continue;
+			List<Variant> l = tbuckets.get(c);
+			if(l == null)
+			{
+				l = new LinkedList<Variant>();
+				tbuckets.put(c, l);
+			}
+			l.add(t);
+		}
+
+		//One task per contig, so no more threads than contigs
+		ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tbuckets.size())));
+		List<Future<Integer>> flist = new LinkedList<Future<Integer>>();
+		int total = 0;
+		try
+		{
+			for(final List<Variant> l : tbuckets.values())
+			{
+				flist.add(exec.submit(new Callable<Integer>(){
+					public Integer call()
+					{
+						return confirmAll(l);
+					}
+				}));
+			}
+			for(Future<Integer> f : flist) total += f.get();
+		}
+		catch(InterruptedException e)
+		{
+			System.err.println("VariantConfirmer.confirm || Interrupted before all contigs were checked!");
+			e.printStackTrace();
+		}
+		catch(ExecutionException e)
+		{
+			System.err.println("VariantConfirmer.confirm || Error checking truth variants!");
+			e.printStackTrace();
+		}
+		finally
+		{
+			exec.shutdownNow();
+		}
+
+		return total;
+	}
+
+}
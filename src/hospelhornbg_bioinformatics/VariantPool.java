@@ -1,6 +1,7 @@
 package hospelhornbg_bioinformatics;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -9,6 +10,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import hospelhornbg_genomeBuild.Contig;
 import hospelhornbg_genomeBuild.GenomeBuild;
@@ -112,6 +117,9 @@ public class VariantPool {
 	private List<String> filter_order;
 	private List<String> geno_order;
 	
+	private boolean compactGenotypes;
+	private SampleIndex sampleIndex; //Built on first compaction, dropped when the sample list changes
+	
 	/* --- Construction/Parsing --- */
 	
 	/**
@@ -143,78 +151,182 @@ public class VariantPool {
 	public void castStructuralVariants()
 	{
 		//System.err.println(Thread.currentThread().getName() + " || VariantPool.castStructuralVariants || Method entered... ");
-		List<Variant> nonSV = new LinkedList<Variant>();
-		List<StructuralVariant> SV = new LinkedList<StructuralVariant>();
-		
-		for (Variant v : varList)
-		{
-			//Look for "SVTYPE" info field
-			if (v.hasInfoField("SVTYPE"))
+		final Variant[] all = varList.toArray(new Variant[varList.size()]);
+		final Variant[] cast = new Variant[all.length];
+		runChunked(all.length, new ChunkJob(){
+			public void run(int st, int ed)
 			{
-				SV.add(new StructuralVariant(v));
+				for (int i = st; i < ed; i++)
+				{
+					//Look for "SVTYPE" info field
+					if (all[i].hasInfoField("SVTYPE")) cast[i] = new StructuralVariant(all[i]);
+				}
 			}
-			else nonSV.add(v);
+		});
+		
+		List<Variant> nonSV = new LinkedList<Variant>();
+		List<StructuralVariant> SV = new ArrayList<StructuralVariant>();
+		for (int i = 0; i < all.length; i++)
+		{
+			if (cast[i] != null) SV.add((StructuralVariant)cast[i]);
+			else nonSV.add(all[i]);
 		}
 		//System.err.println(Thread.currentThread().getName() + " || VariantPool.castStructuralVariants || SVs found: " + SV.size());
 		//System.err.println(Thread.currentThread().getName() + " || VariantPool.castStructuralVariants || non-SVs found: " + nonSV.size());
-		//Pair breakends
-		List<StructuralVariant> bnd = new LinkedList<StructuralVariant>();
-		List<StructuralVariant> otherSV = new LinkedList<StructuralVariant>();
-		//StructuralVariant.resetMaxTotalEvidence();
-		//StructuralVariant.resetMaxBEDEvidence();
+		
+		//Event ID -> first SV with that ID (same mate the old per-secondary list scan found)
+		final Map<String, StructuralVariant> eventIndex = new HashMap<String, StructuralVariant>();
 		for (StructuralVariant sv : SV)
 		{
-			//System.out.println("VariantPool.castStructuralVariants || Structural variant found: " + sv.toString());
-			if (sv.isSecondary())
+			String ev = sv.getEventID();
+			if (ev != null && !eventIndex.containsKey(ev)) eventIndex.put(ev, sv);
+		}
+		
+		//Pair breakends and cast TRA type SVs
+		final StructuralVariant[] svArr = SV.toArray(new StructuralVariant[SV.size()]);
+		final StructuralVariant[] result = new StructuralVariant[svArr.length];
+		final byte[] role = new byte[svArr.length];
+		//StructuralVariant.resetMaxTotalEvidence();
+		//StructuralVariant.resetMaxBEDEvidence();
+		runChunked(svArr.length, new ChunkJob(){
+			public void run(int st, int ed)
 			{
-				//System.out.println("VariantPool.castStructuralVariants || Secondary variant found: " + sv.toString());
-				try
-				{
-					BreakendPair bpair = new BreakendPair(sv, SV);
-					bnd.add(bpair);
-				}
-				catch (IllegalArgumentException e)
+				for (int i = st; i < ed; i++)
 				{
-					otherSV.add(sv); //No partner found...
+					StructuralVariant sv = svArr[i];
+					if (sv.isSecondary())
+					{
+						StructuralVariant mate = null;
+						if (sv.getEventID() != null) mate = eventIndex.get(sv.getEventID());
+						if (mate != null)
+						{
+							result[i] = new BreakendPair(sv, mate);
+							role[i] = CAST_ROLE_BND;
+							continue;
+						}
+						//No partner found...
+					}
+					else if (sv.getMateIDs().size() >= 1) continue;
+					
+					if (sv.getType() == SVType.TRA || (sv.getType() == SVType.BND && (sv.getInfoEntry(Translocation.INFODEF_INFO_CHR2.getKey()) != null)))
+					{
+						result[i] = new Translocation(sv, genome);
+						role[i] = CAST_ROLE_TRA;
+					}
+					else
+					{
+						sv.removeInfoField(Translocation.INFODEF_INFO_CHR2.getKey());
+						result[i] = sv;
+						role[i] = CAST_ROLE_STD;
+					}
 				}
 			}
-			else if (sv.getMateIDs().size() < 1) {
-				otherSV.add(sv);
-			}
-			
-		}
-		//System.err.println(Thread.currentThread().getName() + " || VariantPool.castStructuralVariants || Standard SVs found: " + otherSV.size());
-		//System.err.println(Thread.currentThread().getName() + " || VariantPool.castStructuralVariants || BND pairs found: " + bnd.size());
+		});
 		
-		//System.err.println(Thread.currentThread().getName() + " || VariantPool.castStructuralVariants || Casting TRA type SVs... ");
-		List<Translocation> tra = new LinkedList<Translocation>();
-		List<StructuralVariant> stdSV = new LinkedList<StructuralVariant>();
-		for (StructuralVariant sv : otherSV)
+		List<Variant> stdSV = new LinkedList<Variant>();
+		List<Variant> tra = new LinkedList<Variant>();
+		List<Variant> bnd = new LinkedList<Variant>();
+		for (int i = 0; i < result.length; i++)
 		{
-			if (sv.getType() == SVType.TRA || (sv.getType() == SVType.BND && (sv.getInfoEntry(Translocation.INFODEF_INFO_CHR2.getKey()) != null)))
+			switch (role[i])
 			{
-				Translocation tr = new Translocation(sv, genome);
-				tra.add(tr);
-			}
-			else {
-				sv.removeInfoField(Translocation.INFODEF_INFO_CHR2.getKey());
-				stdSV.add(sv);
+			case CAST_ROLE_STD: stdSV.add(result[i]); break;
+			case CAST_ROLE_TRA: tra.add(result[i]); break;
+			case CAST_ROLE_BND: bnd.add(result[i]); break;
 			}
 		}
-		
 		//System.err.println(Thread.currentThread().getName() + " || VariantPool.castStructuralVariants || Non-TRA/BND SVs found: " + stdSV.size());
 		//System.err.println(Thread.currentThread().getName() + " || VariantPool.castStructuralVariants || Translocations found: " + tra.size());
+		//System.err.println(Thread.currentThread().getName() + " || VariantPool.castStructuralVariants || BND pairs found: " + bnd.size());
 		
-		varList.clear();
-		varList.addAll(nonSV);
-		varList.addAll(stdSV);
-		varList.addAll(tra);
-		varList.addAll(bnd);
+		//Same concatenation order as before - the sort is stable, so ties come out the same
+		Variant[] sorted = new Variant[nonSV.size() + stdSV.size() + tra.size() + bnd.size()];
+		int j = 0;
+		for (Variant v : nonSV) sorted[j++] = v;
+		for (Variant v : stdSV) sorted[j++] = v;
+		for (Variant v : tra) sorted[j++] = v;
+		for (Variant v : bnd) sorted[j++] = v;
 		//System.err.println(Thread.currentThread().getName() + " || VariantPool.castStructuralVariants || Resorting variants... ");
-		Collections.sort(varList);
+		Arrays.parallelSort(sorted);
+		
+		varList.clear();
+		for (Variant v : sorted) varList.add(v);
 		//System.err.println(Thread.currentThread().getName() + " || VariantPool.castStructuralVariants || Method returning... ");
 	}
 	
+	/* --- SV Casting --- */
+	
+	//castStructuralVariants work is split into index ranges of the (contig sorted) pool and
+	//	run on a work stealing pool. Each chunk only writes its own slots of the output
+	//	arrays, so the result is in the same order as a serial run.
+	
+	public static final int CAST_CHUNK_SIZE = 4096;
+	
+	private static final byte CAST_ROLE_STD = 1;
+	private static final byte CAST_ROLE_TRA = 2;
+	private static final byte CAST_ROLE_BND = 3;
+	
+	private static int castThreads = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Set the number of worker threads used by castStructuralVariants.
+	 * <br>Defaults to the number of available processors.
+	 * @param threads Number of threads. Values less than 1 are set to 1.
+	 */
+	public static void setCastThreadCount(int threads)
+	{
+		if (threads < 1) threads = 1;
+		castThreads = threads;
+	}
+	
+	private static interface ChunkJob
+	{
+		public void run(int st, int ed);
+	}
+	
+	private static void runChunked(int count, final ChunkJob job)
+	{
+		if (castThreads <= 1 || count <= CAST_CHUNK_SIZE)
+		{
+			job.run(0, count);
+			return;
+		}
+		ExecutorService pool = new ForkJoinPool(castThreads);
+		List<Future<?>> flist = new LinkedList<Future<?>>();
+		try
+		{
+			for (int st = 0; st < count; st += CAST_CHUNK_SIZE)
+			{
+				final int cst = st;
+				final int ced = Math.min(st + CAST_CHUNK_SIZE, count);
+				flist.add(pool.submit(new Runnable(){
+					public void run()
+					{
+						job.run(cst, ced);
+					}
+				}));
+			}
+			for (Future<?> f : flist) f.get();
+		}
+		catch (InterruptedException e)
+		{
+			System.err.println("VariantPool.runChunked || Interrupted before SV casting finished!");
+			throw new IllegalStateException(e);
+		}
+		catch (ExecutionException e)
+		{
+			//Same exception a serial run would have thrown
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new IllegalStateException(cause);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+	
 	/* --- Inner Classes --- */
 	
 	/**
@@ -590,6 +702,7 @@ public class VariantPool {
 		varList.add(v);
 		v.clearGenotypeFields();
 		for (String k : geno_order) v.addGenotypeField(k);
+		if (compactGenotypes) v.compactGenotypes(getSampleIndex());
 	}
 	
 	/**
@@ -614,6 +727,57 @@ public class VariantPool {
 		Collections.sort(varList);
 	}
 	
+	/**
+	 * Check whether the internal variant list is already in sorted order.
+	 * This is a single linear pass, so a full sort can be skipped when variants
+	 * were added in order (eg. read from a sorted VCF).
+	 * @return True if the variant list is in ascending order.
+	 */
+	public boolean isSorted()
+	{
+		Variant last = null;
+		for (Variant v : varList)
+		{
+			if (last != null && last.compareTo(v) > 0) return false;
+			last = v;
+		}
+		return true;
+	}
+	
+	/**
+	 * Turn compact genotype mode on or off for this pool.
+	 * <br>In compact mode, each variant's genotypes are stored as a row of primitive arrays
+	 * (allele codes, GQ, DP, CN) indexed by this pool's sample list, and Genotype objects
+	 * returned by getSampleGenotype are short lived views over that row.
+	 * <br>Only GT, GQ, DP, and CN are kept - any other FORMAT values are dropped (and written out as ".").
+	 * Calls with more than two alleles, or samples not in the pool's sample list, are kept as full Genotypes.
+	 * <br>Turning the mode on compacts all variants currently in the pool and any added afterwards.
+	 * Turning it off only stops new variants from being compacted.
+	 * @param compact True to turn compact mode on, false to turn it off.
+	 */
+	public void setCompactGenotypes(boolean compact)
+	{
+		compactGenotypes = compact;
+		if (!compact) return;
+		SampleIndex idx = getSampleIndex();
+		for (Variant v : varList) v.compactGenotypes(idx);
+	}
+	
+	private SampleIndex getSampleIndex()
+	{
+		if (sampleIndex == null) sampleIndex = new SampleIndex(sampleList);
+		return sampleIndex;
+	}
+	
+	/**
+	 * Check whether this pool is in compact genotype mode.
+	 * @return True if variants added to this pool have their genotypes compacted.
+	 */
+	public boolean usesCompactGenotypes()
+	{
+		return compactGenotypes;
+	}
+	
 	/**
 	 * Clear all variants from this pool.
 	 */
@@ -629,6 +793,7 @@ public class VariantPool {
 	public void addSample(String sampleName)
 	{
 		sampleList.add(sampleName);
+		sampleIndex = null;
 	}
 	
 	/**
@@ -637,6 +802,7 @@ public class VariantPool {
 	public void clearSamples()
 	{
 		sampleList.clear();
+		sampleIndex = null;
 	}
 	
 	/**
@@ -847,34 +1013,31 @@ public class VariantPool {
 	 */
 	public int confirm(VariantPool truthset, boolean stringent_bothEnds, boolean stringent_CI, boolean stringent_overlap)
 	{
-		final List<Variant> truth = truthset.getVariants();
-		int confirmcount = 0;
-		
-		for (Variant t : truth)
-		{
-			for (Variant v : varList)
-			{
-				if (v.equivalent(t))
-				{
-					confirmcount++;
-					v.confirm();
-					break;
-				}
-				if (t instanceof StructuralVariant && v instanceof StructuralVariant)
-				{
-					StructuralVariant svt = (StructuralVariant)t;
-					StructuralVariant svv = (StructuralVariant)v;
-					if (svv.equivalent(svt, stringent_bothEnds, stringent_CI, stringent_overlap))
-					{
-						confirmcount++;
-						v.confirm();
-						break;
-					}
-				}
-			}
-		}
-		
-		return confirmcount;
+		return confirm(truthset, stringent_bothEnds, stringent_CI, stringent_overlap, 1);
+	}
+	
+	/**
+	 * Run this pool against a truth set pool and flag "confirmed" all variants in this pool
+	 * that are equivalent to any variant in the truth set.
+	 * <br>Each truth variant confirms the first equivalent variant in this pool (in pool order),
+	 * so the result is the same regardless of thread count.
+	 * @param truthset A variant pool containing a set of all confirmed variants to check
+	 * this pool against.
+	 * @param stringent_bothEnds Stringency setting: If on, both ends of the SV (not just one or the other) must be
+	 * considered in range of each other.
+	 * @param stringent_CI Stringency setting: If on, then the valid range around a breakpoint for considering
+	 * two variants equivalent is the 95% confidence interval rather than the default 90% CI.
+	 * @param stringent_overlap Stringency setting: If on, intervals at either end of the variant
+	 * must encompass the actual endpoint calls themselves to be considered equivalent. Otherwise,
+	 * a simple overlap of the two ranges is considered sufficient.
+	 * @param threads Number of threads to split the truth set over (by contig).
+	 * @return The number of variants in this pool that have been flagged confirmed.
+	 */
+	public int confirm(VariantPool truthset, boolean stringent_bothEnds, boolean stringent_CI, boolean stringent_overlap, int threads)
+	{
+		if (truthset == null) return 0;
+		VariantConfirmer vc = new VariantConfirmer(varList, stringent_bothEnds, stringent_CI, stringent_overlap);
+		return vc.confirm(truthset.getVariants(), threads);
 	}
 	
 	/**
@@ -909,6 +1072,8 @@ public class VariantPool {
 		//FILTER
 		for (String s : this.filters.keySet())copy.addFilter(s, filters.get(s));
 		copy.filter_order.addAll(this.filter_order);
+		//Genotype mode
+		copy.compactGenotypes = this.compactGenotypes;
 		
 		return copy;
 	}
@@ -0,0 +1,159 @@
+package hospelhornbg_genomeBuild;
+
+import java.util.List;
+
+class GeneIntervalTree {
+
+	//Implicit augmented interval tree over one contig's genes (same layout as cgranges)
+	//Genes stay in their sorted array. Even indices are leaves, and a node at level k
+	//	has children k-1 levels down at index +/- 2^(k-1). Each node keeps the largest
+	//	transcript end in its subtree, so whole subtrees ending before the query are skipped.
+	//Overlaps come back in array (sorted) order in O(log n + k).
+
+	/*--- Constants ---*/
+
+	//Subtrees this small are just scanned
+	private static final int SCAN_LEVEL = 3;
+
+	/*--- Instance Variables ---*/
+
+	private Gene[] genes;
+	private int[] starts;
+	private int[] ends;
+	private int[] maxEnd;
+	private int count;
+	private int maxLevel;
+
+	/*--- Construction ---*/
+
+	/**
+	 * Build a tree over genes already sorted by transcript start.
+	 * The array is used as-is, not copied - don't change it afterwards.
+	 * @param sortedGenes Genes, sorted by transcript start.
+	 */
+	public GeneIntervalTree(Gene[] sortedGenes)
+	{
+		genes = sortedGenes;
+		count = genes.length;
+		starts = new int[count];
+		ends = new int[count];
+		maxEnd = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			starts[i] = genes[i].getTranscriptStart();
+			ends[i] = genes[i].getTranscriptEnd();
+		}
+		maxLevel = buildIndex();
+	}
+
+	private int buildIndex()
+	{
+		if (count <= 0) return -1;
+		int lastI = 0;
+		int last = 0;
+		for (int i = 0; i < count; i += 2)
+		{
+			lastI = i;
+			last = maxEnd[i] = ends[i];
+		}
+		int k;
+		for (k = 1; (1L << k) <= count; k++)
+		{
+			int x = 1 << (k - 1);
+			int i0 = (x << 1) - 1;
+			int step = x << 2;
+			for (int i = i0; i < count; i += step)
+			{
+				int el = maxEnd[i - x];
+				int er = (i + x < count) ? maxEnd[i + x] : last;
+				int e = ends[i];
+				if (el > e) e = el;
+				if (er > e) e = er;
+				maxEnd[i] = e;
+			}
+			//Max end of the rightmost (possibly incomplete) node at this level
+			lastI = (((lastI >>> k) & 1) != 0) ? lastI - x : lastI + x;
+			if (lastI < count && maxEnd[lastI] > last) last = maxEnd[lastI];
+		}
+		return k - 1;
+	}
+
+	/*--- Query ---*/
+
+	private boolean hit(int i, int stPos, long qEnd)
+	{
+		return (starts[i] < qEnd) && (ends[i] > stPos);
+	}
+
+	/**
+	 * Find genes overlapping a region.
+	 * A gene is a hit if stPos < transcript end and edPos >= transcript start.
+	 * @param stPos Region start.
+	 * @param edPos Region end.
+	 * @param out List to add hits to (in sorted order). Not cleared first.
+	 * @return Number of genes added.
+	 */
+	public int query(int stPos, int edPos, List<Gene> out)
+	{
+		if (count <= 0) return 0;
+		long qEnd = (long)edPos + 1L;
+		int found = 0;
+
+		//Explicit stack - (level, index, visited) - no more than a few dozen deep
+		int[] sk = new int[64];
+		int[] sx = new int[64];
+		boolean[] sw = new boolean[64];
+		int t = 0;
+		sk[t] = maxLevel; sx[t] = (1 << maxLevel) - 1; sw[t] = false; t++;
+
+		while (t > 0)
+		{
+			t--;
+			int k = sk[t];
+			int x = sx[t];
+			boolean w = sw[t];
+			if (k <= SCAN_LEVEL)
+			{
+				//Small subtree - scan its whole index range
+				int i0 = (x >>> k) << k;
+				int i1 = i0 + (1 << (k + 1)) - 1;
+				if (i1 > count) i1 = count;
+				for (int i = i0; i < i1 && starts[i] < qEnd; i++)
+				{
+					if (hit(i, stPos, qEnd))
+					{
+						out.add(genes[i]);
+						found++;
+					}
+				}
+			}
+			else if (!w)
+			{
+				//Come back for this node after its left subtree
+				int y = x - (1 << (k - 1));
+				sk[t] = k; sx[t] = x; sw[t] = true; t++;
+				if (y >= count || maxEnd[y] > stPos)
+				{
+					sk[t] = k - 1; sx[t] = y; sw[t] = false; t++;
+				}
+			}
+			else if (x < count && starts[x] < qEnd)
+			{
+				if (hit(x, stPos, qEnd))
+				{
+					out.add(genes[x]);
+					found++;
+				}
+				sk[t] = k - 1; sx[t] = x + (1 << (k - 1)); sw[t] = false; t++;
+			}
+		}
+
+		return found;
+	}
+
+	public int size()
+	{
+		return count;
+	}
+
+}
@@ -0,0 +1,140 @@
+package hospelhornbg_genomeBuild;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class GeneSearchBenchmark {
+
+	//Region lookup timing - interval tree vs. the old 1Mb index table search
+	//Usage: GeneSearchBenchmark [build gbdh] [gene set gbgd]
+	//	With no args, loads the packaged GRCh38 build and refSeq set.
+
+	public static final int QUERIES_PER_SIZE = 20000;
+	public static final int WARMUP_ROUNDS = 2;
+	public static final long SEED = 0x5EED1234L;
+
+	public static final int[] REGION_SIZES = {1, 1000, 100000, 1000000, 10000000, 50000000};
+
+	private static int[][] makeRegions(List<Contig> contigs, int size, Random r)
+	{
+		//[contig index, start, end]
+		int[][] regs = new int[QUERIES_PER_SIZE][3];
+		for (int i = 0; i < QUERIES_PER_SIZE; i++)
+		{
+			int ci = r.nextInt(contigs.size());
+			long len = contigs.get(ci).getLength();
+			int span = (int)Math.max(1L, len - size);
+			int st = r.nextInt(span);
+			regs[i][0] = ci;
+			regs[i][1] = st;
+			regs[i][2] = st + size - 1;
+		}
+		return regs;
+	}
+
+	private static long timeTree(GeneSet gs, List<Contig> contigs, int[][] regs)
+	{
+		long hits = 0;
+		List<Gene> out = new ArrayList<Gene>(256);
+		for (int[] reg : regs)
+		{
+			out.clear();
+			int n = gs.getGenesInRegion(contigs.get(reg[0]), reg[1], reg[2], out);
+			if (n > 0) hits += n;
+		}
+		return hits;
+	}
+
+	private static long timeIndexTable(GeneSet gs, List<Contig> contigs, int[][] regs)
+	{
+		long hits = 0;
+		for (int[] reg : regs)
+		{
+			List<Gene> glist = gs.getGenesInRegion_indexTable(contigs.get(reg[0]), reg[1], reg[2]);
+			if (glist != null) hits += glist.size();
+		}
+		return hits;
+	}
+
+	private static int countMismatches(GeneSet gs, List<Contig> contigs, int[][] regs)
+	{
+		int bad = 0;
+		List<Gene> out = new ArrayList<Gene>(256);
+		for (int[] reg : regs)
+		{
+			out.clear();
+			gs.getGenesInRegion(contigs.get(reg[0]), reg[1], reg[2], out);
+			List<Gene> old = gs.getGenesInRegion_indexTable(contigs.get(reg[0]), reg[1], reg[2]);
+			Set<Gene> a = new HashSet<Gene>(out);
+			Set<Gene> b = new HashSet<Gene>();
+			if (old != null) b.addAll(old);
+			if (!a.equals(b)) bad++;
+		}
+		return bad;
+	}
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			GenomeBuild gb = null;
+			GeneSet gs = null;
+			System.out.println("Loading Genome Build...");
+			if (args.length >= 2)
+			{
+				gb = new GenomeBuild(args[0]);
+				System.out.println("Loading Gene Set...");
+				gs = new GeneSet(args[1], gb, true);
+			}
+			else
+			{
+				gb = GenomeBuild.loadStandardBuild("grch38");
+				System.out.println("Loading Gene Set...");
+				gs = GeneSet.loadRefGene(gb);
+			}
+			if (gb == null || gs == null)
+			{
+				System.err.println("Build or gene set could not be loaded!");
+				System.exit(1);
+			}
+
+			List<Contig> contigs = new ArrayList<Contig>();
+			for (Contig c : gb.getChromosomes())
+			{
+				if (c.getLength() > 0) contigs.add(c);
+			}
+
+			Random r = new Random(SEED);
+			System.out.println("Size\tQueries\tHits\tTree (ms)\tIndex Table (ms)\tSpeedup\tMismatched");
+			for (int size : REGION_SIZES)
+			{
+				int[][] regs = makeRegions(contigs, size, r);
+				for (int w = 0; w < WARMUP_ROUNDS; w++)
+				{
+					timeTree(gs, contigs, regs);
+					timeIndexTable(gs, contigs, regs);
+				}
+
+				long t0 = System.nanoTime();
+				long hits = timeTree(gs, contigs, regs);
+				long t1 = System.nanoTime();
+				timeIndexTable(gs, contigs, regs);
+				long t2 = System.nanoTime();
+
+				double treems = (double)(t1 - t0) / 1000000.0;
+				double oldms = (double)(t2 - t1) / 1000000.0;
+				int bad = countMismatches(gs, contigs, regs);
+				System.out.println(size + "\t" + QUERIES_PER_SIZE + "\t" + hits + "\t" + String.format("%.2f", treems) + "\t" + String.format("%.2f", oldms) + "\t" + String.format("%.2fx", oldms/treems) + "\t" + bad);
+			}
+		}
+		catch (Exception e)
+		{
+			System.err.println("Exception!");
+			e.printStackTrace();
+		}
+	}
+
+}
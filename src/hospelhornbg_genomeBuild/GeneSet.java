@@ -5,6 +5,7 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
@@ -12,19 +13,34 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import hospelhornbg_bioinformatics.BreakendPair;
 import hospelhornbg_bioinformatics.StructuralVariant;
@@ -182,6 +198,19 @@ public class GeneSet
 	 */
 	public static final InfoDefinition INFODEF_INFO_LDIST = new InfoDefinition("REFGENE_GDISTL", VariantPool.INFODEF_INT, "Number of base pairs from nearest left flanking gene(s) for intergenic variants", VariantPool.INFODEF_NARGS_VARIABLE);
 
+	/**
+	 * Number of breakpoint/region lookups each annotating thread remembers.
+	 * Repeated identical breakpoints (common in multi-caller or multi-sample sets)
+	 * skip the gene search.
+	 */
+	public static final int ANNO_MEMO_SIZE = 1024;
+	
+	/**
+	 * Largest number of variants handed to a worker at once by annotateAll.
+	 * Big contigs are split into several batches so all threads stay busy.
+	 */
+	public static final int ANNO_BATCH_SIZE = 2048;
+
 	/* --- Instance Variables --- */
 	
 	private String name;
@@ -194,54 +223,94 @@ public class GeneSet
 	private Map<String, Gene> tidMap; //null until queried...
 	private Map<String, List<Gene>> nameMap; //null until queried...
 	
+	//Lazy (mapped) mode - CHRM blocks are only decoded when their contig is first asked for
+	private ByteBuffer gbgdData;
+	private int gbgdVersion;
+	private boolean gbgdBuildMatch;
+	private volatile Map<Contig, Integer> lazyBlocks; //Offsets of blocks not yet decoded, null when none
+	private final Object lazyLock = new Object();
+	
+	private volatile int geneGeneration; //Bumped when genes are added - stales the memos
+	private final ThreadLocal<AnnoMemo> annoMemo = new ThreadLocal<AnnoMemo>(){
+		protected AnnoMemo initialValue()
+		{
+			return new AnnoMemo();
+		}
+	};
+	
 	/* --- Inner Structures --- */
 	
 	private static class ChromSet
 	{
-		private int[] indexTable;
+		//Read-only once loaded. Searches don't lock - the gene list, index table and
+		//	overlap map are each swapped in whole when addGenes rebuilds them.
+		//	(addGenes itself is not safe to run alongside searches)
+		
+		private volatile int[] indexTable;
 		private boolean adjustSize;
 		
 		private GeneList genes;
-		private OverlapMap overlapMap;
+		private volatile OverlapMap overlapMap;
+		private volatile GeneIntervalTree tree; //For region queries
 		
 		private static class GeneList
 		{
+			//Readers go through an immutable array snapshot - no locking.
+			//Writers (load/addGenes only) are serialized and publish a new snapshot when done.
+			
 			private List<Gene> genes;
+			private volatile Gene[] snapshot;
 			
 			public GeneList(int initSize)
 			{
 				genes = new ArrayList<Gene>(initSize);
+				snapshot = new Gene[0];
 			}
 			
-			public synchronized Gene get(int index)
+			private void publish()
 			{
-				return genes.get(index);
+				Gene[] arr = new Gene[genes.size()];
+				snapshot = genes.toArray(arr);
 			}
 			
-			public synchronized int size()
+			public Gene get(int index)
 			{
-				return genes.size();
+				return snapshot[index];
+			}
+			
+			public int size()
+			{
+				return snapshot.length;
 			}
 		
 			public synchronized void addAll(Collection<Gene> c)
 			{
 				genes.addAll(c);
+				publish();
 			}
 		
 			public synchronized void sort()
 			{
 				Collections.sort(genes);
+				publish();
+			}
+			
+			public List<Gene> subList(int fromIndex, int toIndex)
+			{
+				return Collections.unmodifiableList(Arrays.asList(snapshot).subList(fromIndex, toIndex));
 			}
 			
-			public synchronized List<Gene> subList(int fromIndex, int toIndex)
+			public Gene[] getSnapshot()
 			{
-				return genes.subList(fromIndex, toIndex);
+				//Never modified once published
+				return snapshot;
 			}
 			
-			public synchronized List<Gene> getGenes()
+			public List<Gene> getGenes()
 			{
-				List<Gene> glist = new ArrayList<Gene>(genes.size());
-				glist.addAll(genes);
+				Gene[] arr = snapshot;
+				List<Gene> glist = new ArrayList<Gene>(arr.length);
+				Collections.addAll(glist, arr);
 				return glist;
 			}
 			
@@ -249,6 +318,8 @@ public class GeneSet
 		
 		private static class OverlapMap
 		{
+			//Filled once by updateOverlapMap before it is swapped in, then only read.
+			
 			private Map<Integer, List<Integer>> overlapMap;
 			
 			public OverlapMap()
@@ -256,16 +327,24 @@ public class GeneSet
 				overlapMap = new HashMap<Integer, List<Integer>>();
 			}
 			
-			public synchronized void put(Integer key, List<Integer> value)
+			public void put(Integer key, List<Integer> value)
 			{
 				overlapMap.put(key, value);
 			}
 			
-			public synchronized List<Integer> get(Integer key)
+			public List<Integer> get(Integer key)
 			{
 				return overlapMap.get(key);
 			}
 			
+			public void freeze()
+			{
+				for(Map.Entry<Integer, List<Integer>> e : overlapMap.entrySet())
+				{
+					e.setValue(Collections.unmodifiableList(new ArrayList<Integer>(e.getValue())));
+				}
+			}
+			
 		}
 		
 		public ChromSet(long chrSize)
@@ -277,6 +356,7 @@ public class GeneSet
 			genes = new GeneList(geneCountEst);
 			adjustSize = false;
 			overlapMap = new OverlapMap();
+			tree = new GeneIntervalTree(genes.getSnapshot());
 		}
 		
 		public ChromSet(int nGenes)
@@ -287,6 +367,7 @@ public class GeneSet
 			indexTable = new int[megabases + 1];
 			adjustSize = true;
 			overlapMap = new OverlapMap();
+			tree = new GeneIntervalTree(genes.getSnapshot());
 		}
 		
 		private void updateIndexTable()
@@ -294,6 +375,7 @@ public class GeneSet
 			int listi = 0;
 			int pos = INDEX_DIST;
 			
+			int[] indexTable = new int[this.indexTable.length];
 			if (adjustSize)
 			{
 				Gene lastg = genes.get(genes.size() - 1);
@@ -346,12 +428,13 @@ public class GeneSet
 				//System.err.println("GeneSet.ChromSet.updateIndexTable || indexTable[" + i + "] set to " + listi);
 				pos += INDEX_DIST;
 			}
+			this.indexTable = indexTable;
 		}
 		
 		private void updateOverlapMap()
 		{
 			//System.err.println("GeneSet.ChromSet.updateOverlapMap || Called");
-			overlapMap = new OverlapMap();
+			OverlapMap overlapMap = new OverlapMap();
 			//System.err.println("GeneSet.ChromSet.updateOverlapMap || Map instantiated");
 			
 			int gNum = genes.size();
@@ -399,6 +482,8 @@ public class GeneSet
 					//else mCount++;
 				}
 			}
+			overlapMap.freeze();
+			this.overlapMap = overlapMap;
 			//System.err.println("GeneSet.ChromSet.updateOverlapMap || Complete");
 			//System.err.println("GeneSet.ChromSet.updateOverlapMap || Total Crosses: " + tCount);
 			//System.err.println("GeneSet.ChromSet.updateOverlapMap || Hits: " + hCount);
@@ -416,6 +501,7 @@ public class GeneSet
 			//System.err.println("GeneSet.ChromSet.addGenes || Genes indexed");
 			updateOverlapMap();
 			//System.err.println("GeneSet.ChromSet.addGenes || Gene overlap mapped");
+			tree = new GeneIntervalTree(genes.getSnapshot());
 		}
 		
 		public int serializeTo(int UID, OutputStream out)
@@ -843,8 +929,21 @@ public class GeneSet
 			return glist;
 		}
 		
+		public int getGenesInRegion(int stPos, int edPos, List<Gene> out)
+		{
+			return tree.query(stPos, edPos, out);
+		}
+		
 		public List<Gene> getGenesInRegion(int stPos, int edPos)
 		{
+			List<Gene> hits = new ArrayList<Gene>();
+			tree.query(stPos, edPos, hits);
+			return hits;
+		}
+		
+		public List<Gene> getGenesInRegion_indexTable(int stPos, int edPos)
+		{
+			//Old index table + overlap map search. Only kept to compare against (GeneSearchBenchmark)
 			//System.err.println("GeneSet.ChromSet.getGenesInRegion || DEBUG: Region = " + stPos + " to " + edPos);
 			HitRecord start = search(stPos, false, false);
 			HitRecord end = search(edPos, false, false);
@@ -1086,6 +1185,78 @@ public class GeneSet
 			}
 		}
 		
+		public AnnoRecord copy()
+		{
+			//Arrays end up in the variant's INFO map, so each variant gets its own
+			AnnoRecord rec = new AnnoRecord();
+			if (genes != null) rec.genes = Arrays.copyOf(genes, genes.length);
+			rec.effect = effect;
+			if (lflank != null) rec.lflank = Arrays.copyOf(lflank, lflank.length);
+			if (ldist != null) rec.ldist = Arrays.copyOf(ldist, ldist.length);
+			if (rflank != null) rec.rflank = Arrays.copyOf(rflank, rflank.length);
+			if (rdist != null) rec.rdist = Arrays.copyOf(rdist, rdist.length);
+			return rec;
+		}
+		
+	}
+	
+	private static class MemoKey
+	{
+		private Contig contig;
+		private int st;
+		private int ed;
+		private boolean region;
+		
+		public MemoKey(Contig c, int start, int end, boolean isRegion)
+		{
+			contig = c;
+			st = start;
+			ed = end;
+			region = isRegion;
+		}
+		
+		public boolean equals(Object o)
+		{
+			if (o == this) return true;
+			if (!(o instanceof MemoKey)) return false;
+			MemoKey k = (MemoKey)o;
+			if (st != k.st || ed != k.ed || region != k.region) return false;
+			return contig.equals(k.contig);
+		}
+		
+		public int hashCode()
+		{
+			int h = contig.hashCode();
+			h = (h * 31) + st;
+			h = (h * 31) + ed;
+			if (region) h++;
+			return h;
+		}
+	}
+	
+	private static class MemoEntry
+	{
+		public AnnoRecord rec;
+		public Gene[] hits;
+	}
+	
+	private static class AnnoMemo extends LinkedHashMap<MemoKey, MemoEntry>
+	{
+		//One per thread, so no locking. Least recently used lookup is dropped when full.
+		
+		private static final long serialVersionUID = 2401418245193735203L;
+		
+		public int generation;
+		
+		public AnnoMemo()
+		{
+			super(ANNO_MEMO_SIZE + 1, 0.75f, true);
+		}
+		
+		protected boolean removeEldestEntry(Map.Entry<MemoKey, MemoEntry> eldest)
+		{
+			return size() > ANNO_MEMO_SIZE;
+		}
 	}
 	
 	/* --- Construction --- */
@@ -1103,7 +1274,7 @@ public class GeneSet
 	{
 		name = setname;
 		genome = gb;
-		genemap = new HashMap<Contig, ChromSet>();
+		genemap = new ConcurrentHashMap<Contig, ChromSet>();
 		
 		List<Contig> buildcontigs = gb.getChromosomes();
 		for (Contig c : buildcontigs)
@@ -1112,6 +1283,12 @@ public class GeneSet
 		}
 	}
 	
+	private GeneSet()
+	{
+		//For lazy loaded sets - filled by mapGBGD
+		genemap = new ConcurrentHashMap<Contig, ChromSet>();
+	}
+	
 	/**
 	 * Construct a GeneSet object from a gbgd file on disk, and an existing
 	 * genome build.
@@ -1129,11 +1306,47 @@ public class GeneSet
 	 */
 	public GeneSet(String gbgdPath, GenomeBuild gb, boolean strictBuildMatch) throws UnsupportedFileTypeException, IOException
 	{
-		genemap = new HashMap<Contig, ChromSet>();
+		genemap = new ConcurrentHashMap<Contig, ChromSet>();
 		parseGBGD(gbgdPath, gb, strictBuildMatch);
 		
 	}
 	
+	/**
+	 * Construct a GeneSet object from a gbgd file on disk, and an existing
+	 * genome build, optionally in lazy mode.
+	 * <br>In lazy mode, the decompressed database is cached in the temp directory
+	 * (so the decompression only happens once per file) and memory mapped. Genes for
+	 * a contig are only read from the map the first time that contig is used.
+	 * @param gbgdPath Path to the file to read.
+	 * @param gb Genome build the file uses.
+	 * @param strictBuildMatch Whether to reject the file if the genome build provided
+	 * as an argument doesn't match the one requested in the file.
+	 * @param lazy Whether to load contigs on first access from a mapped copy.
+	 * @throws UnsupportedFileTypeException If the file could not be read as a gbgd, or
+	 * there is a build mismatch.
+	 * @throws IOException If there is an error accessing the file or cache on disk.
+	 */
+	public GeneSet(String gbgdPath, GenomeBuild gb, boolean strictBuildMatch, boolean lazy) throws UnsupportedFileTypeException, IOException
+	{
+		genemap = new ConcurrentHashMap<Contig, ChromSet>();
+		if (!lazy)
+		{
+			parseGBGD(gbgdPath, gb, strictBuildMatch);
+			return;
+		}
+		if (gbgdPath == null || gbgdPath.isEmpty()) throw new FileBuffer.UnsupportedFileTypeException();
+		if (gb == null) throw new UnsupportedFileTypeException();
+		final File f = new File(gbgdPath);
+		String src = Integer.toHexString(f.getAbsolutePath().hashCode());
+		String ver = Long.toHexString(f.length()) + "_" + Long.toHexString(f.lastModified());
+		mapCached(src, ver, new Callable<InputStream>(){
+			public InputStream call() throws IOException
+			{
+				return new FileInputStream(f);
+			}
+		}, gb, strictBuildMatch);
+	}
+	
 	/**
 	 * Construct a GeneSet object from a gbgd file as an inputstream and an existing genome build.
 	 * @param gbgdStream The gbgd file as an input stream.
@@ -1150,7 +1363,7 @@ public class GeneSet
 	 */
 	public GeneSet(InputStream gbgdStream, GenomeBuild gb, boolean strictBuildMatch) throws UnsupportedFileTypeException, IOException
 	{
-		genemap = new HashMap<Contig, ChromSet>();
+		genemap = new ConcurrentHashMap<Contig, ChromSet>();
 		
 		FileBuffer myFile = new FileBuffer(1024 * 500); //500KB
 	//	int sz = 0;
@@ -1228,76 +1441,88 @@ public class GeneSet
 						// Common Name [NT-VLS - Padded to WORD]
 		
 		
-		//System.err.println("GeneSet.parseGBGD || DEBUG: Method entered...");
 		// --- Header
 		//Check magic, decompress, and check for inner magic
 		long cPos = myFile.findString(0, 0x10, MAGIC_GBGD_COMPRESSED);
 		if (cPos < 0) throw new UnsupportedFileTypeException();
-		//System.err.println("GeneSet.parseGBGD || DEBUG: Compressed Magic found...");
 		FileBuffer compressed = myFile;
 		myFile = Huffman.HuffDecodeFile(compressed, cPos + 4);
-		//myFile.writeFile("C:\\Users\\Blythe\\Desktop\\grch37_refSeq_decompressed.gbgd");
-		cPos = myFile.findString(0, 0x10, MAGIC_GBGD);
-		if (cPos < 0) throw new UnsupportedFileTypeException();
-		//System.err.println("GeneSet.parseGBGD || DEBUG: Decompressed Magic found...");
-		cPos = 4;
-		//DEBUG
-		//myFile.writeFile("C:\\Users\\Blythe\\Documents\\GitHub\\bioisvtools\\src\\hospelhornbg_genomeBuild\\resources\\grch37_refSeq_decomp.gbgd");	
 		
+		//Everything is read through the same block parser as the lazy mode, just all at once
+		ByteBuffer buf = ByteBuffer.wrap(myFile.getBytes(0, myFile.getFileSize()));
+		Map<Contig, Integer> blocks = readGBGDHeader(buf, gb, strictBuildMatch);
+		for (Contig c : blocks.keySet())
+		{
+			genemap.put(c, parseChromBlock(buf, blocks.get(c), c));
+		}
+	}
+	
+	private static String readASCII(ByteBuffer buf, int pos, int maxLen)
+	{
+		//Stops at the first NUL
+		StringBuilder sb = new StringBuilder(maxLen < 64 ? maxLen : 64);
+		int ed = pos + maxLen;
+		if (ed > buf.limit()) ed = buf.limit();
+		for (int i = pos; i < ed; i++)
+		{
+			byte b = buf.get(i);
+			if (b == 0) break;
+			sb.append((char)b);
+		}
+		return sb.toString();
+	}
+	
+	private Map<Contig, Integer> readGBGDHeader(ByteBuffer buf, GenomeBuild gb, boolean strictBuildMatch) throws UnsupportedFileTypeException
+	{
+		//Reads the header and contig table, and returns where each contig's CHRM block is.
+		//Absolute reads only (buffer may be shared)
+		if (buf.limit() < 8) throw new UnsupportedFileTypeException();
+		if (!MAGIC_GBGD.equals(readASCII(buf, 0, 4))) throw new UnsupportedFileTypeException();
+		int cPos = 4;
 		
 		//Check for the "version" field
-		int version = myFile.intFromFile(cPos);
+		int version = buf.getInt(cPos);
 		if (version < 2 || version > CURRENT_VERSION) version = 1;
-		//System.err.println("GeneSet.parseGBGD || DEBUG: Version: " + version);
-				
+		
 		//Get genome build UID and confirm with desired build (v2+)
 		boolean namematch = false;
 		String gbName = "UNKGENOME";
 		if (version >= 2)
 		{
 			cPos += 4;
-			int gbuid = myFile.intFromFile(cPos); cPos += 4;
-			//System.err.println("GeneSet.parseGBGD || -DEBUG- gb is null? " + (gb == null));
+			int gbuid = buf.getInt(cPos); cPos += 4;
 			int mybuilduid = gb.getUIDEnum().getUID();
 			namematch = (gbuid == mybuilduid);
-			//System.err.println("GeneSet.parseGBGD || DEBUG: Build Match? " + namematch);
 		}
 		else
 		{
 			//Get genome build name and confirm it with desired build (v1)
-			gbName = myFile.getASCII_string(cPos, 12); cPos += 12;
-			//System.err.println("GeneSet.parseGBDB || Build name: " + gbName);
+			gbName = readASCII(buf, cPos, 12); cPos += 12;
 			namematch = gbName.equals(gb.getBuildName());
-			//System.err.println("GeneSet.parseGBDB || Namematch = " + namematch);
 			if (strictBuildMatch && !namematch) throw new UnsupportedFileTypeException();
 		}
 		if (namematch) genome = gb;
 		else genome = new GenomeBuild("unknown", gbName, null);
-				
+		gbgdVersion = version;
+		gbgdBuildMatch = namematch;
+		
 		transcriptUIDMap = new ConcurrentHashMap<Integer, Gene>();
-				
+		
 		//Get database name
-		name = myFile.getASCII_string(cPos, 16); cPos += 16;
-		//System.err.println("GeneSet.parseGBDB || Database Name: " + name);
-				
+		name = readASCII(buf, cPos, 16); cPos += 16;
+		
 		//--- Contig Table
-		//System.err.println("GeneSet.parseGBDB || Parsing Contig Table ---");
-		Map<Integer, Contig> contigUIDmap = new HashMap<Integer, Contig>();
-		int cCount = myFile.intFromFile(cPos); cPos += 4;
-		//System.err.println("GeneSet.parseGBDB || \tContig Count: " + cCount);
+		int cCount = buf.getInt(cPos); cPos += 4;
+		List<Contig> clist = new ArrayList<Contig>(cCount);
+		List<Integer> olist = new ArrayList<Integer>(cCount);
 		for (int i = 0; i < cCount; i++)
 		{
-			int UID = myFile.intFromFile(cPos); cPos += 4;
-			String cName = myFile.getASCII_string(cPos, 40); cPos += 40;
-			cPos += 4; //This int is the offset of the contig's CHRM block from this value. 
-						//Used if you don't want to/ can't read file into memory in one go (ie. indexing)
-			//System.err.println("GeneSet.parseGBDB || \tContig 0x" + Integer.toHexString(UID));
-			//System.err.println("GeneSet.parseGBDB || \t\tName: " + cName);
+			int UID = buf.getInt(cPos); cPos += 4;
+			String cName = readASCII(buf, cPos, 40); cPos += 40;
+			int off = buf.getInt(cPos); cPos += 4; //Offset of the contig's CHRM block from the start of the CHRM chunk
 			Contig c = genome.getContig(cName);
-			//if (c!= null) System.err.println("GeneSet.parseGBDB || \t\tMatched to build contig " + c.getUDPName());
 			if ((c == null) && !namematch)
 			{
-				//System.err.println("GeneSet.parseGBDB || \t\tContig not found in build. Creating...");
 				c = new Contig();
 				c.setUCSCName(cName);
 				c.setUDPName(cName);
@@ -1307,96 +1532,254 @@ public class GeneSet
 				genome.addContig(c);
 			}
 			else if (c == null && namematch) throw new UnsupportedFileTypeException();
-					
-			contigUIDmap.put(UID, c);
+			clist.add(c);
+			olist.add(off);
 		}
-				
-			//--- Chrom blocks
-		//System.err.println("GeneSet.parseGBDB || Parsing CHRM Blocks ---");
-		for (int i = 0; i < cCount; i++)
-		{
-			List<Gene> glist = new LinkedList<Gene>();
-			cPos = myFile.findString(cPos, cPos + 0x10, MAGIC_CHROMBLOCK);
-			if (cPos < 0) throw new UnsupportedFileTypeException();
-			else cPos += 4;
-			//System.err.println("GeneSet.parseGBDB || \tCHRM block found at 0x" + Long.toHexString(cPos));
-			//int chunkSize = myFile.intFromFile(cPos); cPos += 4;
-			cPos += 4; //Skip chunk size
-			int cUID = myFile.intFromFile(cPos); cPos += 4; //Chrom UID
-			//System.err.println("GeneSet.parseGBDB || \tContig 0x" + Integer.toHexString(cUID));
-			Contig c = contigUIDmap.get(cUID);
-			//if (c!= null) System.err.println("GeneSet.parseGBDB || \t\tMatched to build contig " + c.getUDPName());
-			if (c == null) throw new UnsupportedFileTypeException();
-			int geneCount = myFile.intFromFile(cPos); cPos += 4;
-			//System.err.println("GeneSet.parseGBDB || \t\tGene Count: " + geneCount);
-			int idxEntries = myFile.intFromFile(cPos); cPos += 4;
-			//System.err.println("GeneSet.parseGBDB || \t\tIndex Entries: " + idxEntries);
-			//We'll actually skip the index table, since that is for reading off disk...
-			cPos += (idxEntries * 4);
-					
-			for (int j = 0; j < geneCount; j++)
-			{
-				int guid = 0;
-				if(version >= 3) {guid = myFile.intFromFile(cPos); cPos += 4;}
-				int gSt = myFile.intFromFile(cPos); cPos += 4;
-				int gEd = myFile.intFromFile(cPos); cPos += 4;
-				int tSt = myFile.intFromFile(cPos); cPos += 4;
-				int tEd = myFile.intFromFile(cPos); cPos += 4;
-				int flags = Byte.toUnsignedInt(myFile.getByte(cPos)); cPos += 2;
-				//There is one byte of flags, and one byte "0" padding, so skip ahead 2.
-				int nExons = Short.toUnsignedInt(myFile.shortFromFile(cPos)); cPos += 2;
-				List<Exon> eList = new LinkedList<Exon>();
-				for (int k = 0; k < nExons; k++)
-				{
-					int eSt = myFile.intFromFile(cPos); cPos += 4;
-					int eEd = myFile.intFromFile(cPos); cPos += 4;
-					eList.add(new Exon(eSt, eEd));
-				}
-				String gID = myFile.getASCII_string(cPos, '\0');
-				cPos += gID.length() + 1;
-				//Skip padding, if needed...
-				if (gID.length() % 2 == 0) cPos++;
-				String gName = myFile.getASCII_string(cPos, '\0');
-				cPos += gName.length() + 1;
-				if (gName.length() % 2 == 0) cPos++;
-				
-				if(guid == 0) guid = gID.hashCode();
-				
-				while(transcriptUIDMap.containsKey(guid))
-				{
-					//Generate a new one
-					System.err.println("GeneSet.parseGBGD || Duplicate GUID found! 0x" + Integer.toHexString(guid));
-					Random r = new Random();
-					guid = r.nextInt();
-					System.err.println("GeneSet.parseGBGD || Reset to 0x" + Integer.toHexString(guid));
-					System.err.println("GeneSet.parseGBGD || (Change must be saved to disk)");
-				}
-						
-				Gene g = new Gene(nExons);
-				g.setGUID(guid);
-				g.setChromosome(c);
-				g.setStart(gSt);
-				g.setEnd(gEd);
-				g.setTranslationStart(tSt);
-				g.setTranslationEnd(tEd);
-				g.setID(gID);
-				g.setName(gName);
-				g.setStrand((flags & 0x1) != 0);
-				g.setNCRNA((flags & 0x2) != 0);
-				g.addExons(eList);
-						
-				glist.add(g);
-				transcriptUIDMap.put(g.getGUID(), g);
+		
+		//Table ends where the CHRM chunk starts
+		Map<Contig, Integer> blocks = new LinkedHashMap<Contig, Integer>();
+		for (int i = 0; i < cCount; i++) blocks.put(clist.get(i), cPos + olist.get(i));
+		return blocks;
+	}
+	
+	private ChromSet parseChromBlock(ByteBuffer buf, int blockPos, Contig c) throws UnsupportedFileTypeException
+	{
+		int cPos = blockPos;
+		if (!MAGIC_CHROMBLOCK.equals(readASCII(buf, cPos, 4))) throw new UnsupportedFileTypeException();
+		cPos += 4;
+		cPos += 4; //Skip chunk size
+		cPos += 4; //Chrom UID (already matched by contig table)
+		int geneCount = buf.getInt(cPos); cPos += 4;
+		int idxEntries = buf.getInt(cPos); cPos += 4;
+		//We'll actually skip the index table, since that is for reading off disk...
+		cPos += (idxEntries * 4);
+		
+		List<Gene> glist = new ArrayList<Gene>(geneCount);
+		for (int j = 0; j < geneCount; j++)
+		{
+			int guid = 0;
+			if(gbgdVersion >= 3) {guid = buf.getInt(cPos); cPos += 4;}
+			int gSt = buf.getInt(cPos); cPos += 4;
+			int gEd = buf.getInt(cPos); cPos += 4;
+			int tSt = buf.getInt(cPos); cPos += 4;
+			int tEd = buf.getInt(cPos); cPos += 4;
+			int flags = Byte.toUnsignedInt(buf.get(cPos)); cPos += 2;
+			//There is one byte of flags, and one byte "0" padding, so skip ahead 2.
+			int nExons = Short.toUnsignedInt(buf.getShort(cPos)); cPos += 2;
+			List<Exon> eList = new ArrayList<Exon>(nExons);
+			for (int k = 0; k < nExons; k++)
+			{
+				int eSt = buf.getInt(cPos); cPos += 4;
+				int eEd = buf.getInt(cPos); cPos += 4;
+				eList.add(new Exon(eSt, eEd));
+			}
+			String gID = readASCII(buf, cPos, buf.limit() - cPos);
+			cPos += gID.length() + 1;
+			//Skip padding, if needed...
+			if (gID.length() % 2 == 0) cPos++;
+			String gName = readASCII(buf, cPos, buf.limit() - cPos);
+			cPos += gName.length() + 1;
+			if (gName.length() % 2 == 0) cPos++;
+			
+			if(guid == 0) guid = gID.hashCode();
+			
+			while(transcriptUIDMap.containsKey(guid))
+			{
+				//Generate a new one
+				System.err.println("GeneSet.parseGBGD || Duplicate GUID found! 0x" + Integer.toHexString(guid));
+				Random r = new Random();
+				guid = r.nextInt();
+				System.err.println("GeneSet.parseGBGD || Reset to 0x" + Integer.toHexString(guid));
+				System.err.println("GeneSet.parseGBGD || (Change must be saved to disk)");
 			}
 					
-			ChromSet chr = null;
-			if (namematch) chr = new ChromSet(c.getLength());
-			else chr = new ChromSet(geneCount);
-					
-			chr.addGenes(glist);
+			Gene g = new Gene(nExons);
+			g.setGUID(guid);
+			g.setChromosome(c);
+			g.setStart(gSt);
+			g.setEnd(gEd);
+			g.setTranslationStart(tSt);
+			g.setTranslationEnd(tEd);
+			g.setID(gID);
+			g.setName(gName);
+			g.setStrand((flags & 0x1) != 0);
+			g.setNCRNA((flags & 0x2) != 0);
+			g.addExons(eList);
 					
-			genemap.put(c, chr);
+			glist.add(g);
+			transcriptUIDMap.put(g.getGUID(), g);
 		}
+		
+		ChromSet chr = null;
+		if (gbgdBuildMatch) chr = new ChromSet(c.getLength());
+		else chr = new ChromSet(geneCount);
+		chr.addGenes(glist);
+		return chr;
+	}
+	
+	/* --- Lazy Loading --- */
+	
+	//Decompressed gbgd copies are named gbgdcache_<source>_<version>.gbgd and kept across runs.
+	//Caching a new version of a source clears out its old ones.
+	public static final String CACHE_PREFIX = "gbgdcache_";
+	
+	/**
+	 * Delete all decompressed gbgd copies (gbgdcache_*.gbgd) from the temp directory.
+	 * <br>These are normally kept so later runs don't have to decompress again. Outdated
+	 * copies are removed whenever a source is re-cached, so this is only needed to clear
+	 * the cache completely.
+	 * <br>Sets that are already mapped keep working where the OS allows a mapped
+	 * file to be deleted. Otherwise the file is left.
+	 */
+	public static void deleteCacheFiles()
+	{
+		deleteCacheFiles(CACHE_PREFIX, null);
+	}
+	
+	private static void deleteCacheFiles(String prefix, String keep)
+	{
+		File[] files = new File(FileBuffer.getTempDir()).listFiles();
+		if (files == null) return;
+		for (File f : files)
+		{
+			String name = f.getName();
+			if (!name.startsWith(prefix) || !name.endsWith(".gbgd")) continue;
+			if (keep != null && name.equals(keep)) continue;
+			try
+			{
+				Files.deleteIfExists(f.toPath());
+			}
+			catch (IOException e)
+			{
+				//Still mapped or held elsewhere - try again next time
+			}
+		}
+	}
+	
+	private static String getCachePath(String src, String ver)
+	{
+		return FileBuffer.getTempDir() + File.separator + CACHE_PREFIX + src + "_" + ver + ".gbgd";
+	}
+	
+	private void mapCached(String src, String ver, Callable<InputStream> source, GenomeBuild gb, boolean strictBuildMatch) throws UnsupportedFileTypeException, IOException
+	{
+		String raw = getCachePath(src, ver);
+		for (int tries = 0; ; tries++)
+		{
+			if (!FileBuffer.fileExists(raw))
+			{
+				InputStream is = null;
+				try {is = source.call();}
+				catch (IOException e) {throw e;}
+				catch (Exception e) {throw new IOException(e);}
+				try {decompressToCache(is, raw);}
+				finally {is.close();}
+				//New copy is in place - outdated ones for the same source can go
+				deleteCacheFiles(CACHE_PREFIX + src + "_", new File(raw).getName());
+			}
+			try
+			{
+				mapGBGD(raw, gb, strictBuildMatch);
+				return;
+			}
+			catch (NoSuchFileException e)
+			{
+				//Removed by another process between the check and the open - decompress again
+				if (tries >= 1) throw e;
+			}
+		}
+	}
+	
+	private static void decompressToCache(InputStream in, String cachePath) throws UnsupportedFileTypeException, IOException
+	{
+		//Decompressed gbgd is written next to where it will be mapped from, then moved into place
+		String temp = FileBuffer.generateTemporaryPath("gbgd_in");
+		String part = cachePath + ".part";
+		try
+		{
+			Files.copy(in, Paths.get(temp), StandardCopyOption.REPLACE_EXISTING);
+			FileBuffer myFile = FileBuffer.createBuffer(temp, true);
+			long cPos = myFile.findString(0, 0x10, MAGIC_GBGD_COMPRESSED);
+			if (cPos >= 0)
+			{
+				FileBuffer raw = Huffman.HuffDecodeFile(myFile, cPos + 4);
+				raw.writeFile(part);
+			}
+			else if (myFile.findString(0, 0x10, MAGIC_GBGD) == 0) Files.copy(Paths.get(temp), Paths.get(part), StandardCopyOption.REPLACE_EXISTING);
+			else throw new UnsupportedFileTypeException();
+			Files.move(Paths.get(part), Paths.get(cachePath), StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally
+		{
+			Files.deleteIfExists(Paths.get(temp));
+			Files.deleteIfExists(Paths.get(part));
+		}
+	}
+	
+	private void mapGBGD(String rawPath, GenomeBuild gb, boolean strictBuildMatch) throws UnsupportedFileTypeException, IOException
+	{
+		FileChannel ch = FileChannel.open(Paths.get(rawPath), StandardOpenOption.READ);
+		gbgdData = ch.map(MapMode.READ_ONLY, 0, ch.size()); //Big-endian by default
+		ch.close(); //Mapping stays valid
+		Map<Contig, Integer> blocks = readGBGDHeader(gbgdData, gb, strictBuildMatch);
+		lazyBlocks = new HashMap<Contig, Integer>();
+		lazyBlocks.putAll(blocks);
+		if (lazyBlocks.isEmpty()) lazyBlocks = null;
+	}
+	
+	private ChromSet getChromSet(Contig c)
+	{
+		if (c == null) return null;
+		ChromSet cs = genemap.get(c);
+		if (cs != null || lazyBlocks == null) return cs;
+		synchronized(lazyLock)
+		{
+			cs = genemap.get(c);
+			if (cs != null) return cs;
+			Map<Contig, Integer> pending = lazyBlocks;
+			if (pending == null) return null;
+			Integer off = pending.remove(c);
+			if (off == null) return null;
+			try 
+			{
+				cs = parseChromBlock(gbgdData, off, c);
+				genemap.put(c, cs);
+			} 
+			catch (UnsupportedFileTypeException e) 
+			{
+				System.err.println("GeneSet.getChromSet || ERROR! CHRM block for " + c.getUDPName() + " could not be read!");
+				e.printStackTrace();
+			}
+			if (pending.isEmpty())
+			{
+				lazyBlocks = null;
+				gbgdData = null; //Let the map go
+			}
+		}
+		return cs;
+	}
+	
+	private void loadAllChromSets()
+	{
+		//Anything that walks all contigs needs them all decoded
+		if (lazyBlocks == null) return;
+		List<Contig> clist = new ArrayList<Contig>();
+		synchronized(lazyLock)
+		{
+			if (lazyBlocks == null) return;
+			clist.addAll(lazyBlocks.keySet());
+		}
+		for (Contig c : clist) getChromSet(c);
+	}
+	
+	/**
+	 * Check whether this set was opened in lazy mode and still has contigs
+	 * that haven't been read yet.
+	 * @return True if any contig's genes are still waiting to be loaded.
+	 */
+	public boolean hasUnloadedContigs()
+	{
+		return lazyBlocks != null;
 	}
 	
 	/**
@@ -1407,6 +1790,7 @@ public class GeneSet
 	 */
 	public void serializeGBGD(String gbdbPath) throws UnsupportedFileTypeException, IOException
 	{
+		loadAllChromSets();
 		//Calculate some sizes...
 		int headersize = 4 + 12 + 16;
 		//System.err.println("GeneSet.serializeGBGD || headersize = " + headersize);
@@ -1520,6 +1904,7 @@ public class GeneSet
 	 */
 	public void outputTable(String tablePath) throws IOException
 	{
+		loadAllChromSets();
 		FileWriter fw = new FileWriter(tablePath);
 		BufferedWriter bw = new BufferedWriter(fw);
 		
@@ -1529,7 +1914,7 @@ public class GeneSet
 		
 		for (Contig c : contigList)
 		{
-			ChromSet cGenes = genemap.get(c);
+			ChromSet cGenes = getChromSet(c);
 			List<Gene> glist = cGenes.getAllGenes();
 			for (Gene g : glist)
 			{
@@ -1560,10 +1945,56 @@ public class GeneSet
 		return coll;
 	}
 	
+	private AnnoRecord lookupMemo(MemoKey key, List<Gene> genelist)
+	{
+		AnnoMemo memo = annoMemo.get();
+		if (memo.generation != geneGeneration)
+		{
+			memo.clear();
+			memo.generation = geneGeneration;
+			return null;
+		}
+		MemoEntry e = memo.get(key);
+		if (e == null) return null;
+		Collections.addAll(genelist, e.hits);
+		return e.rec.copy();
+	}
+	
+	private AnnoRecord storeMemo(MemoKey key, AnnoRecord rec, List<Gene> hits, List<Gene> genelist)
+	{
+		genelist.addAll(hits);
+		if (rec == null) return null;
+		MemoEntry e = new MemoEntry();
+		e.rec = rec;
+		e.hits = hits.toArray(new Gene[hits.size()]);
+		annoMemo.get().put(key, e);
+		return rec.copy();
+	}
+	
 	private AnnoRecord annotateRegion(Contig c, int st, int ed, List<Gene> genelist)
 	{
 		if (c == null) return null;
-		ChromSet cGenes = genemap.get(c);
+		MemoKey key = new MemoKey(c, st, ed, true);
+		AnnoRecord rec = lookupMemo(key, genelist);
+		if (rec != null) return rec;
+		List<Gene> hits = new LinkedList<Gene>();
+		return storeMemo(key, annotateRegionDirect(c, st, ed, hits), hits, genelist);
+	}
+	
+	private AnnoRecord annotatePosition(Contig c, int pos, List<Gene> genelist)
+	{
+		if (c == null) return null;
+		MemoKey key = new MemoKey(c, pos, pos, false);
+		AnnoRecord rec = lookupMemo(key, genelist);
+		if (rec != null) return rec;
+		List<Gene> hits = new LinkedList<Gene>();
+		return storeMemo(key, annotatePositionDirect(c, pos, hits), hits, genelist);
+	}
+	
+	private AnnoRecord annotateRegionDirect(Contig c, int st, int ed, List<Gene> genelist)
+	{
+		if (c == null) return null;
+		ChromSet cGenes = getChromSet(c);
 		if (cGenes == null) return null;
 		
 		//int gnum = cGenes.geneCount();
@@ -1758,10 +2189,10 @@ public class GeneSet
 		return rec;
 	}
 	
-	private AnnoRecord annotatePosition(Contig c, int pos, List<Gene> genelist)
+	private AnnoRecord annotatePositionDirect(Contig c, int pos, List<Gene> genelist)
 	{
 		if (c == null) return null;
-		ChromSet cGenes = genemap.get(c);
+		ChromSet cGenes = getChromSet(c);
 		if (cGenes == null) return null;
 		if (!cGenes.hasGenes())
 		{
@@ -1802,9 +2233,9 @@ public class GeneSet
 	{
 		if (c1 == null) return null;
 		if (c2 == null) return null;
-		ChromSet chrom1 = genemap.get(c1);
+		ChromSet chrom1 = getChromSet(c1);
 		if (chrom1 == null) return null;
-		ChromSet chrom2 = genemap.get(c2);
+		ChromSet chrom2 = getChromSet(c2);
 		if (chrom2 == null) return null;
 		
 		boolean c1genes = chrom1.hasGenes();
@@ -2155,6 +2586,114 @@ public class GeneSet
 		return genelist;
 	}
 	
+	private int annotateBatch(List<Variant> batch, boolean inversionRegion)
+	{
+		int count = 0;
+		for (Variant v : batch)
+		{
+			if (v instanceof StructuralVariant) annotateStructuralVariant((StructuralVariant)v, inversionRegion);
+			else annotateVariant(v);
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Annotate a set of variants using several threads.
+	 * Structural variants are treated as in annotateStructuralVariant (with inversionRegion on),
+	 * other variants as in annotateVariant.
+	 * @param variants Variants to annotate.
+	 * @param parallelism Number of threads to use. 1 or less annotates on the calling thread.
+	 * @return Number of variants annotated.
+	 */
+	public int annotateAll(Collection<Variant> variants, int parallelism)
+	{
+		return annotateAll(variants, true, parallelism);
+	}
+	
+	/**
+	 * Annotate a set of variants using several threads.
+	 * <br>Variants are grouped by contig, and each contig is handed out in batches
+	 * of up to ANNO_BATCH_SIZE variants. Gene lookups don't lock, so the threads
+	 * don't wait on each other.
+	 * @param variants Variants to annotate.
+	 * @param inversionRegion If true, treat inversions as a region (see annotateStructuralVariant).
+	 * @param parallelism Number of threads to use. 1 or less annotates on the calling thread.
+	 * @return Number of variants annotated.
+	 */
+	public int annotateAll(Collection<Variant> variants, boolean inversionRegion, int parallelism)
+	{
+		if (variants == null || variants.isEmpty()) return 0;
+		if (parallelism <= 1)
+		{
+			List<Variant> all = new ArrayList<Variant>(variants.size());
+			all.addAll(variants);
+			return annotateBatch(all, inversionRegion);
+		}
+		
+		//Group by contig (variants with no contig go together - they just fail lookup)
+		Map<Contig, List<Variant>> bycontig = new HashMap<Contig, List<Variant>>();
+		List<Variant> nocontig = new LinkedList<Variant>();
+		for (Variant v : variants)
+		{
+			if (v == null) continue;
+			Contig c = v.getChromosome();
+			if (c == null)
+			{
+				nocontig.add(v);
+				continue;
+			}
+			List<Variant> l = bycontig.get(c);
+			if (l == null)
+			{
+				l = new ArrayList<Variant>();
+				bycontig.put(c, l);
+			}
+			l.add(v);
+		}
+		
+		List<List<Variant>> batches = new LinkedList<List<Variant>>();
+		for (List<Variant> l : bycontig.values())
+		{
+			int n = l.size();
+			for (int i = 0; i < n; i += ANNO_BATCH_SIZE) batches.add(l.subList(i, Math.min(n, i + ANNO_BATCH_SIZE)));
+		}
+		if (!nocontig.isEmpty()) batches.add(nocontig);
+		
+		ExecutorService exec = Executors.newFixedThreadPool(Math.min(parallelism, batches.size()));
+		List<Future<Integer>> flist = new LinkedList<Future<Integer>>();
+		int total = 0;
+		try
+		{
+			for (final List<Variant> b : batches)
+			{
+				flist.add(exec.submit(new Callable<Integer>(){
+					public Integer call()
+					{
+						return annotateBatch(b, inversionRegion);
+					}
+				}));
+			}
+			for (Future<Integer> f : flist) total += f.get();
+		}
+		catch (InterruptedException e)
+		{
+			System.err.println("GeneSet.annotateAll || Interrupted before all variants were annotated!");
+			e.printStackTrace();
+		}
+		catch (ExecutionException e)
+		{
+			System.err.println("GeneSet.annotateAll || Error annotating variants!");
+			e.printStackTrace();
+		}
+		finally
+		{
+			exec.shutdownNow();
+		}
+		
+		return total;
+	}
+	
 	/* --- Access --- */
 	
 	/**
@@ -2165,6 +2704,7 @@ public class GeneSet
 	 */
 	public void addGenes(Collection<Gene> genes)
 	{
+		loadAllChromSets();
 		Map<Contig, List<Gene>> addcoll = new HashMap<Contig, List<Gene>>();
 		Set<Contig> cset = genemap.keySet();
 		for (Contig c : cset){
@@ -2184,13 +2724,14 @@ public class GeneSet
 		//System.err.println("|DEBUG| GeneSet.addGenes || Genes sorted by contig.");
 		for (Contig c : cset)
 		{
-			ChromSet cGenes = genemap.get(c);
+			ChromSet cGenes = getChromSet(c);
 			if (cGenes == null) continue;
 			//int n = addcoll.get(c).size();
 			cGenes.addGenes(addcoll.get(c));
 			//System.err.println("|DEBUG| GeneSet.addGenes || " + n + " genes added to contig " + c.getUDPName());
 			addcoll.remove(c);
 		}
+		geneGeneration++;
 		
 		//System.err.println("|DEBUG| GeneSet.addGenes || Add complete.");
 	}
@@ -2201,6 +2742,7 @@ public class GeneSet
 	 */
 	public List<Gene> getAllGenes()
 	{
+		loadAllChromSets();
 		Collection<ChromSet> csets = genemap.values();
 		List<Gene> glist = new LinkedList<Gene>();
 		for (ChromSet cs : csets)
@@ -2275,6 +2817,7 @@ public class GeneSet
 
 	public Gene getGeneByTranscriptGUID(int uid)
 	{
+		loadAllChromSets();
 		if(transcriptUIDMap == null)
 		{
 			transcriptUIDMap = new HashMap<Integer, Gene>();
@@ -2297,7 +2840,7 @@ public class GeneSet
 		//System.err.println("GeneSet.getGenesInRegion || DEBUG: Start: " + stPos);
 		//System.err.println("GeneSet.getGenesInRegion || DEBUG: End: " + edPos);
 		
-		ChromSet cs = genemap.get(c);
+		ChromSet cs = getChromSet(c);
 		if(cs == null) return null;
 		//System.err.println("GeneSet.getGenesInRegion || DEBUG: Data for contig found!");
 		//System.err.println("GeneSet.getGenesInRegion || DEBUG: Gene Dump!!!");
@@ -2306,12 +2849,41 @@ public class GeneSet
 		return cs.getGenesInRegion(stPos, edPos);
 	}
 	
+	/**
+	 * Get all genes overlapping a region, adding them to a caller supplied list.
+	 * <br>A gene is a hit if stPos is before the transcript end and edPos is at or 
+	 * after the transcript start.
+	 * @param c Contig to search.
+	 * @param stPos Region start.
+	 * @param edPos Region end.
+	 * @param out List to add hits to, in sorted order. Not cleared first.
+	 * @return Number of genes added, or -1 if the contig isn't in this set.
+	 */
+	public int getGenesInRegion(Contig c, int stPos, int edPos, List<Gene> out)
+	{
+		if (c == null || out == null) return -1;
+		if (stPos < 0) stPos = 0;
+		ChromSet cs = getChromSet(c);
+		if(cs == null) return -1;
+		return cs.getGenesInRegion(stPos, edPos, out);
+	}
+	
+	List<Gene> getGenesInRegion_indexTable(Contig c, int stPos, int edPos)
+	{
+		//For GeneSearchBenchmark
+		if (c == null) return null;
+		if (stPos < 0) stPos = 0;
+		ChromSet cs = getChromSet(c);
+		if(cs == null) return null;
+		return cs.getGenesInRegion_indexTable(stPos, edPos);
+	}
+	
 	public List<Gene> getGenesAtPosition(Contig c, int pos)
 	{
 		if (c == null) return null;
 		if (pos < 0) pos = 0;
 		
-		ChromSet cs = genemap.get(c);
+		ChromSet cs = getChromSet(c);
 		if(cs == null) return null;
 		
 		return cs.getGenesAtPosition(pos);
@@ -2481,22 +3053,33 @@ public class GeneSet
 		debugPathMap.put("hg38", DEBUGPATH_38);
 	}
 	
-	private static void loadRefGeneIntoMap(String buildname)
+	private static GeneSet openPackagedSet(String packPath, GenomeBuild gb) throws UnsupportedFileTypeException, IOException
+	{
+		//Lazy set over a decompressed copy of the packaged gbgd (cached in the temp dir)
+		final URL res = GenomeBuild.class.getResource(packPath);
+		if (res == null) throw new IOException("Resource not found: " + packPath);
+		URLConnection conn = res.openConnection();
+		String src = Integer.toHexString(res.toString().hashCode());
+		String ver = Long.toHexString(conn.getContentLengthLong()) + "_" + Long.toHexString(conn.getLastModified());
+		GeneSet gs = new GeneSet();
+		gs.mapCached(src, ver, new Callable<InputStream>(){
+			public InputStream call() throws IOException
+			{
+				return res.openStream();
+			}
+		}, gb, true);
+		return gs;
+	}
+	
+	private static void loadRefGeneIntoMap(String buildname, GenomeBuild gb)
 	{	
-		//Try to load genome build
-		GenomeBuild gb = GenomeBuild.loadStandardBuild(buildname);
-		if (gb == null) throw new IllegalArgumentException();
-		
 		//Try package local path
 		String packPath = packPathMap.get(buildname);
 		if (packPath == null) throw new IllegalArgumentException();
 		GeneSet gs = null;
-		InputStream is = GenomeBuild.class.getResourceAsStream(packPath);
 		try 
 		{
-			gs = new GeneSet(is, gb, true);
-			is.close();
-			//gs = new GeneSet(packPath, gb, true);
+			gs = openPackagedSet(packPath, gb);
 		} 
 		catch (UnsupportedFileTypeException e) 
 		{
@@ -2520,7 +3103,7 @@ public class GeneSet
 		if (debugPath == null) throw new IllegalArgumentException();
 		try 
 		{
-			gs = new GeneSet(debugPath, gb, true);
+			gs = new GeneSet(debugPath, gb, true, true);
 		} 
 		catch (UnsupportedFileTypeException e) 
 		{
@@ -2540,6 +3123,14 @@ public class GeneSet
 		
 	}
 	
+	private static void loadRefGeneIntoMap(String buildname)
+	{	
+		//Try to load genome build
+		GenomeBuild gb = GenomeBuild.loadStandardBuild(buildname);
+		if (gb == null) throw new IllegalArgumentException();
+		loadRefGeneIntoMap(buildname, gb);
+	}
+	
 	private static void loadRefGeneIntoMap(GenomeBuild gb)
 	{	
 		//Try to load genome build
@@ -2547,57 +3138,7 @@ public class GeneSet
 		String buildname = gb.getBuildName();
 		buildname = buildDict.get(buildname);
 		if (buildname == null) return;
-		
-		//Try package local path
-		String packPath = packPathMap.get(buildname);
-		if (packPath == null) throw new IllegalArgumentException();
-		GeneSet gs = null;
-		InputStream is = GenomeBuild.class.getResourceAsStream(packPath);
-		try 
-		{
-			gs = new GeneSet(is, gb, true);
-			is.close();
-		} 
-		catch (UnsupportedFileTypeException e) 
-		{
-			System.err.println("GeneSet.loadRefGeneIntoMap || ERROR! " + buildname + " (" + packPath + ") could not be parsed!!");
-			e.printStackTrace();
-		}
-		catch (IOException e) 
-		{
-			System.err.println("GeneSet.loadRefGeneIntoMap || ERROR! " + buildname + " (" + packPath + ") could not be read!!");
-			e.printStackTrace();
-		}
-		if (gs != null)
-		{
-			loadedMap.put(buildname, gs);
-			return;
-		}
-		
-		//Try debug path
-		System.err.println("GeneSet.loadRefGeneIntoMap || Standard path for " + buildname + " (" + packPath + ") did not work. Trying debug path...");
-		String debugPath = debugPathMap.get(buildname);
-		if (debugPath == null) throw new IllegalArgumentException();
-		try 
-		{
-			gs = new GeneSet(debugPath, gb, true);
-		} 
-		catch (UnsupportedFileTypeException e) 
-		{
-			System.err.println("GeneSet.loadRefGeneIntoMap || ERROR! " + buildname + " (" + debugPath + ") could not be parsed!!");
-			e.printStackTrace();
-		}
-		catch (IOException e) 
-		{
-			System.err.println("GeneSet.loadRefGeneIntoMap || ERROR! " + buildname + " (" + debugPath + ") could not be read!!");
-			e.printStackTrace();
-		}
-		if (gs != null)
-		{
-			loadedMap.put(buildname, gs);
-			return;
-		}
-		
+		loadRefGeneIntoMap(buildname, gb);
 	}
 	
 	/**
@@ -2608,7 +3149,7 @@ public class GeneSet
 	 * @param buildname Valid name of genome build to load. Case insensitive.
 	 * @return JAR path of refSeq database for requested genome build, if present.
 	 */
-	public static String getStandardDB_packagePath(String buildname)
+	public static synchronized String getStandardDB_packagePath(String buildname)
 	{
 		if (loadedMap == null) populateLoadMaps();
 		buildname = buildname.toLowerCase();
@@ -2623,11 +3164,13 @@ public class GeneSet
 	 * Load the refSeq gene database for the specified genome build, if
 	 * present in the jar. The loaded build will remain in memory until all threads
 	 * terminate or is explicitly unloaded - so keep this in mind!
+	 * <br>One instance per build is shared by all callers (and threads). It is opened
+	 * in lazy mode, so contigs are only read the first time they are used.
 	 * @param buildname Valid name of genome build to load. Case insensitive.
 	 * @return refSeq database as a GeneSet object if the build name is recognized,
 	 * null if the build or a refSeq database for the build could not be found.
 	 */
-	public static GeneSet loadRefGene(String buildname)
+	public static synchronized GeneSet loadRefGene(String buildname)
 	{
 		if (loadedMap == null) populateLoadMaps();
 		buildname = buildname.toLowerCase();
@@ -2650,11 +3193,13 @@ public class GeneSet
 	 * Load the refSeq gene database for the specified genome build, if
 	 * present in the jar. The loaded build will remain in memory until all threads
 	 * terminate or is explicitly unloaded - so keep this in mind!
+	 * <br>One instance per build is shared by all callers (and threads). It is opened
+	 * in lazy mode, so contigs are only read the first time they are used.
 	 * @param build GenomeBuild to load accompanying refGene db of.
 	 * @return refSeq database as a GeneSet object if the build name is recognized,
 	 * null if the build or a refSeq database for the build could not be found.
 	 */
-	public static GeneSet loadRefGene(GenomeBuild build)
+	public static synchronized GeneSet loadRefGene(GenomeBuild build)
 	{
 		if (loadedMap == null) populateLoadMaps();
 		String buildname = build.getBuildName();
@@ -2679,7 +3224,7 @@ public class GeneSet
 	 * will do nothing.
 	 * @param buildname Valid name of genome build to load. Case insensitive.
 	 */
-	public static void unloadRefGene(String buildname)
+	public static synchronized void unloadRefGene(String buildname)
 	{
 		if (loadedMap == null) return;
 		buildname = buildname.toLowerCase();
@@ -2696,7 +3241,7 @@ public class GeneSet
 	 * part of the program is still referencing any given GeneSet, the object
 	 * will NOT be freed for the Java garbage collector to have at.
 	 */
-	public static void unloadAllRefGene()
+	public static synchronized void unloadAllRefGene()
 	{
 		if (loadedMap == null) return;
 		loadedMap.clear();
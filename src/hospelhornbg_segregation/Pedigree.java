@@ -423,8 +423,9 @@ public class Pedigree{
 		Set<Integer> alleles = new HashSet<Integer>();
 		for (Individual aff : affected)
 		{
-			Genotype g = v.getSampleGenotype(aff.getName());
-			int[] all = g.getAlleles();
+			//GT only - doesn't decode the full genotype
+			int[] all = v.getSampleAlleles(aff.getName());
+			if (all == null) continue;
 			for (int a : all) alleles.add(a);
 		}
 		
@@ -435,7 +436,7 @@ public class Pedigree{
 			clist.add(c);
 		}
 		
-		//Build genomap
+		//Build genomap (only this family's samples are decoded)
 		Map<Individual, Genotype> genomap = new HashMap<Individual, Genotype>();
 		Collection<Individual> allindivs = indivMap.values();
 		for (Individual i : allindivs)
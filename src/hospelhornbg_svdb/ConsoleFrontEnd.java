@@ -32,6 +32,7 @@ public class ConsoleFrontEnd {
 	public static final String PROG_CLEARVARS = "clearvars";
 	public static final String PROG_SEEVARS = "seevars";
 	public static final String PROG_REGIDX = "regidx";
+	public static final String PROG_GENOROWS = "genorows";
 	
 	public static final String PROG_VARINFO = "varinfo"; //Dumps all info on a single variant, including all genotypes!
 	
@@ -184,6 +185,14 @@ public class ConsoleFrontEnd {
 		db.close();
 	}
 	
+	public static boolean migrateGenotypeRows(String dbDir) throws IOException, SQLException
+	{
+		SVDatabase db = SVDatabase.loadDatabase(dbDir);
+		boolean good = db.migrateToGenotypeRows();
+		db.close();
+		return good;
+	}
+	
 	/* ----- Main Method ----- */
 	
 	public static void runSVDB(String[] args, GenomeBuild gb, boolean verbose)
@@ -562,7 +571,7 @@ public class ConsoleFrontEnd {
 			
 			try 
 			{
-				addVCF(dbdir, vcfPath, verbose, notra, 1);
+				addVCF(dbdir, vcfPath, verbose, notra, threadCount);
 			} 
 			catch (IOException e) 
 			{
@@ -596,7 +605,7 @@ public class ConsoleFrontEnd {
 			
 			try 
 			{
-				addVCFBatch(dbdir, inpath, verbose, notra, 1);
+				addVCFBatch(dbdir, inpath, verbose, notra, threadCount);
 			} 
 			catch (IOException e) 
 			{
@@ -669,6 +678,29 @@ public class ConsoleFrontEnd {
 				System.exit(1);
 			}
 		}
+		else if(mode.equals(PROG_GENOROWS))
+		{
+			try 
+			{
+				if(!migrateGenotypeRows(dbdir))
+				{
+					System.err.println(PROG_GENOROWS + " ERROR | Genotype rows could not be built!");
+					System.exit(1);
+				}
+			} 
+			catch (IOException e) 
+			{
+				System.err.println(PROG_GENOROWS + " ERROR | Genotype rows could not be built!");
+				e.printStackTrace();
+				System.exit(1);
+			} 
+			catch (SQLException e) 
+			{
+				System.err.println(PROG_GENOROWS + " ERROR | Genotype rows could not be built! (Could not connect to SQL database!)");
+				e.printStackTrace();
+				System.exit(1);
+			}
+		}
 		else
 		{
 			System.err.println("ERROR: Mode \"" + mode + "\" not recognized!");
@@ -0,0 +1,366 @@
+package hospelhornbg_svdb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import hospelhornbg_bioinformatics.SVType;
+import hospelhornbg_bioinformatics.StructuralVariant;
+import hospelhornbg_bioinformatics.Translocation;
+import hospelhornbg_bioinformatics.VCF;
+import hospelhornbg_bioinformatics.VCFReadStreamer;
+import hospelhornbg_genomeBuild.Contig;
+import hospelhornbg_genomeBuild.GenomeBuild;
+import hospelhornbg_segregation.FamilyMember;
+import waffleoRai_Utils.FileBuffer.UnsupportedFileTypeException;
+
+public class DBVTVarAdder {
+
+	//Parallel VCF ingest for the flat file (DBVariantTable) backend
+	//Same stage split as SQLVTVarAdder:
+	//	Read VCF lines in batches, parse on a pool
+	//	Route parsed variants to a merge worker by contig (file order kept per contig)
+	//	Merge worker does candidate lookup and merge/new decision
+	//	Variant/genotype write queues are flushed in batches when they fill
+
+	/*--- Constants ---*/
+
+	public static final int LINES_PER_BATCH = 256;
+	public static final int MAX_Q_SIZE_PARSED = 64; //Batches
+	public static final int MAX_Q_SIZE_WORKER = 64; //Batches
+
+	public static final long QUEUE_WAIT_MILLIS = 100;
+
+	private static final List<StructuralVariant> END_OF_INPUT = new ArrayList<StructuralVariant>(1);
+
+	/*--- Instance Variables ---*/
+
+	private DBVariantTable table;
+	private GenomeBuild genome;
+	private Map<String, FamilyMember> sampleMap;
+	private int mergeFactor;
+
+	private int parserCount;
+	private int workerCount;
+
+	private ReentrantReadWriteLock flushLock;
+	private BlockingQueue<Future<List<StructuralVariant>>> parsedQ;
+	private List<BlockingQueue<List<StructuralVariant>>> workerQs;
+	private Map<Contig, Integer> workerMap;
+
+	private volatile boolean error_kill;
+
+	private AtomicLong c_parsed;
+	private AtomicLong c_processed;
+	private AtomicLong c_flushes;
+
+	/*--- Runner Objects ---*/
+
+	private class ParseTask implements Callable<List<StructuralVariant>>
+	{
+		private List<String> lines;
+		private List<String> samples;
+		private boolean ignore_translocations;
+
+		public ParseTask(List<String> batch, List<String> sampleList, boolean noTRA)
+		{
+			lines = batch;
+			samples = sampleList;
+			ignore_translocations = noTRA;
+		}
+
+		@Override
+		public List<StructuralVariant> call() throws Exception
+		{
+			List<StructuralVariant> out = new ArrayList<StructuralVariant>(lines.size());
+			for(String line : lines)
+			{
+				if(line.isEmpty()) continue;
+				StructuralVariant sv = VCF.parseVCFLineAsSV(line, samples, genome);
+				if(sv == null) continue;
+				if(ignore_translocations && ((sv.getType() == SVType.BND) || (sv.getType() == SVType.TRA))) continue;
+				out.add(sv);
+			}
+			c_parsed.addAndGet(out.size());
+			return out;
+		}
+	}
+
+	private class Dispatcher implements Runnable
+	{
+		//Takes parse results in file order and hands them to merge workers
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while(!error_kill)
+				{
+					Future<List<StructuralVariant>> f = parsedQ.poll(QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+					if(f == null) continue;
+					List<StructuralVariant> batch = f.get();
+					if(batch == END_OF_INPUT) break;
+
+					//Split by worker
+					Map<Integer, List<StructuralVariant>> split = new HashMap<Integer, List<StructuralVariant>>();
+					for(StructuralVariant sv : batch)
+					{
+						int w = getWorker(sv);
+						List<StructuralVariant> wlist = split.get(w);
+						if(wlist == null)
+						{
+							wlist = new LinkedList<StructuralVariant>();
+							split.put(w, wlist);
+						}
+						wlist.add(sv);
+					}
+					for(Integer w : split.keySet()) putBlocking(workerQs.get(w), split.get(w));
+				}
+			}
+			catch(InterruptedException | ExecutionException e)
+			{
+				killAll(e);
+			}
+			finally
+			{
+				for(BlockingQueue<List<StructuralVariant>> q : workerQs)
+				{
+					try {putBlocking(q, END_OF_INPUT);}
+					catch(InterruptedException e) {killAll(e);}
+				}
+			}
+		}
+
+		private int getWorker(StructuralVariant sv)
+		{
+			//Contigs are dealt round robin as they show up
+			Contig c = null;
+			if(sv instanceof Translocation) c = ((Translocation)sv).getChromosome1();
+			else c = sv.getChromosome();
+			Integer w = workerMap.get(c);
+			if(w == null)
+			{
+				w = workerMap.size() % workerCount;
+				workerMap.put(c, w);
+			}
+			return w;
+		}
+	}
+
+	private class MergeWorker implements Runnable
+	{
+		private BlockingQueue<List<StructuralVariant>> queue;
+
+		public MergeWorker(BlockingQueue<List<StructuralVariant>> q)
+		{
+			queue = q;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while(!error_kill)
+				{
+					List<StructuralVariant> batch = queue.poll(QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+					if(batch == null) continue;
+					if(batch == END_OF_INPUT) return;
+					for(StructuralVariant sv : batch)
+					{
+						if(error_kill) return;
+						//Each worker adds at most one variant and genotype record between checks
+						if(table.writeQueuesFull(workerCount)) flush();
+
+						long vid = -1;
+						flushLock.readLock().lock();
+						try{vid = table.addVariantConcurrent(sv, mergeFactor, sampleMap);}
+						finally{flushLock.readLock().unlock();}
+
+						if(vid == -1)
+						{
+							System.err.println("DBVTVarAdder || There was an error adding a variant! Terminating...");
+							killAll(null);
+							return;
+						}
+						c_processed.incrementAndGet();
+					}
+				}
+			}
+			catch(Exception e)
+			{
+				killAll(e);
+			}
+		}
+	}
+
+	/*--- Construction ---*/
+
+	public DBVTVarAdder(DBVariantTable mytable, Map<String, FamilyMember> samples, int merge_factor, int threads)
+	{
+		table = mytable;
+		genome = table.getGenomeBuild();
+		sampleMap = samples;
+		mergeFactor = merge_factor;
+
+		if(threads < 2) threads = 2;
+		workerCount = threads >>> 1;
+		parserCount = threads - workerCount;
+
+		flushLock = new ReentrantReadWriteLock();
+	}
+
+	/*--- Other ---*/
+
+	private <T> void putBlocking(BlockingQueue<T> q, T item) throws InterruptedException
+	{
+		//Gives up if the pipeline has been killed so nothing hangs on a dead consumer
+		while(!q.offer(item, QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+		{
+			if(error_kill) return;
+		}
+	}
+
+	private void flush() throws IOException, UnsupportedFileTypeException
+	{
+		flushLock.writeLock().lock();
+		try
+		{
+			//Someone else may have gotten here first
+			if(!table.writeQueuesFull(workerCount)) return;
+			table.flushWriteQueues();
+			c_flushes.incrementAndGet();
+		}
+		finally
+		{
+			flushLock.writeLock().unlock();
+		}
+	}
+
+	private synchronized void killAll(Exception e)
+	{
+		if(!error_kill)
+		{
+			System.err.println("An unhandled exception has been detected! Terminating variant addition...");
+			printCounts();
+		}
+		error_kill = true;
+		if(e != null) e.printStackTrace();
+	}
+
+	protected void printCounts()
+	{
+		System.err.print("\tParsed: " + c_parsed.get() + " | ");
+		System.err.print("Processed: " + c_processed.get() + " | ");
+		System.err.print("Flushes: " + c_flushes.get() + "\n");
+	}
+
+	/*--- Running ---*/
+
+	public boolean run(String vcfpath, boolean noTRA) throws IOException
+	{
+		error_kill = false;
+		c_parsed = new AtomicLong();
+		c_processed = new AtomicLong();
+		c_flushes = new AtomicLong();
+
+		parsedQ = new ArrayBlockingQueue<Future<List<StructuralVariant>>>(MAX_Q_SIZE_PARSED);
+		workerQs = new ArrayList<BlockingQueue<List<StructuralVariant>>>(workerCount);
+		for(int i = 0; i < workerCount; i++) workerQs.add(new ArrayBlockingQueue<List<StructuralVariant>>(MAX_Q_SIZE_WORKER));
+		workerMap = new HashMap<Contig, Integer>();
+
+		VCFReadStreamer reader = new VCFReadStreamer(vcfpath, genome);
+		reader.open();
+		List<String> samples = reader.getSampleList();
+
+		table.startConcurrentAdd();
+
+		ExecutorService parsePool = Executors.newFixedThreadPool(parserCount);
+		List<Thread> threads = new ArrayList<Thread>(workerCount + 1);
+		Thread t_dispatch = new Thread(new Dispatcher());
+		t_dispatch.setName("DBVTVarAdder_Dispatcher");
+		t_dispatch.setDaemon(true);
+		threads.add(t_dispatch);
+		for(int i = 0; i < workerCount; i++)
+		{
+			Thread t = new Thread(new MergeWorker(workerQs.get(i)));
+			t.setName("DBVTVarAdder_MergeWorker" + i);
+			t.setDaemon(true);
+			threads.add(t);
+		}
+
+		long time = System.currentTimeMillis();
+		for(Thread t : threads) t.start();
+
+		//Read on this thread
+		try
+		{
+			List<String> batch = new ArrayList<String>(LINES_PER_BATCH);
+			String line = null;
+			while(!error_kill && (line = reader.nextRecordLine()) != null)
+			{
+				batch.add(line);
+				if(batch.size() >= LINES_PER_BATCH)
+				{
+					putBlocking(parsedQ, parsePool.submit(new ParseTask(batch, samples, noTRA)));
+					batch = new ArrayList<String>(LINES_PER_BATCH);
+				}
+			}
+			if(!batch.isEmpty() && !error_kill) putBlocking(parsedQ, parsePool.submit(new ParseTask(batch, samples, noTRA)));
+
+			Callable<List<StructuralVariant>> endTask = new Callable<List<StructuralVariant>>(){
+				public List<StructuralVariant> call() {return END_OF_INPUT;}
+			};
+			putBlocking(parsedQ, parsePool.submit(endTask));
+
+			for(Thread t : threads) t.join();
+		}
+		catch(InterruptedException e)
+		{
+			killAll(e);
+		}
+		catch(IOException e)
+		{
+			//Read error - stop the workers before passing it up
+			killAll(e);
+			throw e;
+		}
+		finally
+		{
+			parsePool.shutdownNow();
+			reader.close();
+			table.endConcurrentAdd();
+		}
+
+		if(error_kill) return false;
+
+		//Write what's left
+		try {table.flushWriteQueues();}
+		catch(UnsupportedFileTypeException e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+
+		time = System.currentTimeMillis() - time;
+		System.err.println("VCF Addition completed! Time elapsed: " + (time/1000L) + " seconds");
+		printCounts();
+
+		return true;
+	}
+
+}
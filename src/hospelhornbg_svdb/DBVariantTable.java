@@ -4,9 +4,14 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -19,10 +24,17 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import hospelhornbg_bioinformatics.SVType;
 import hospelhornbg_bioinformatics.StructuralVariant;
@@ -57,6 +69,11 @@ public class DBVariantTable implements VariantTable{
 	public static final int MAX_IDXREC_IN_MEM = 0xFFFF;
 	public static final int MAX_VAR_IN_MEM = 2048;
 	public static final int MAX_GENO_IN_MEM = 2048;
+	
+	//Default read cache budgets (see setCacheBudgets)
+	public static final int DEFO_IDXREC_CACHE_ENTRIES = MAX_IDXREC_IN_MEM;
+	public static final int DEFO_VAR_CACHE_ENTRIES = MAX_VAR_IN_MEM;
+	public static final int DEFO_GENO_CACHE_ENTRIES = MAX_GENO_IN_MEM;
 	public static final String VINDEX_NAME = "vars.vidx";
 	public static final String CINDEX_NAME = "vars.cidx";
 	
@@ -69,10 +86,35 @@ public class DBVariantTable implements VariantTable{
 	public static final String GENOTBL_EXT = "genot";
 	public static final String GENOTBL_FILE = "genotypes";
 	
+	//Worker threads shared by all region queries (TRA lookup and earlier section scan)
+	public static final int REGION_QUERY_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	
 	//public static final int NEWVAR_RESULT_FAIL = -1;
 	//public static final int NEWVAR_RESULT_MERGED = 1;
 	//public static final int NEWVAR_RESULT_NEW = 0;
 	
+	/*----- Shared Workers -----*/
+	
+	private static ExecutorService regionPool;
+	
+	private static synchronized ExecutorService getRegionPool()
+	{
+		//Fixed size, daemon threads - never needs shutting down
+		if(regionPool == null)
+		{
+			regionPool = Executors.newFixedThreadPool(REGION_QUERY_THREADS, new ThreadFactory(){
+				private int n = 0;
+				public synchronized Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "DBVariantTable_RegionWorker" + (n++));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return regionPool;
+	}
+	
 	/*----- Inner Classes (Minor) -----*/
 	
 	private static class LookupRecord
@@ -85,6 +127,203 @@ public class DBVariantTable implements VariantTable{
 		public int genoRecSize;
 	}
 	
+	private static class MappedVarIndex
+	{
+		//vars.vidx mapped read-only once and shared by all reader threads
+		//Records are fixed size and sorted by var UID, so binary search directly on the map
+		//Mapped in 1GB segments (records never cross segments) to get around the int limit
+		
+		public static final int SEGMENT_SHIFT = 30;
+		public static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+		
+		private MappedByteBuffer[] segments;
+		private long recordCount;
+		
+		public MappedVarIndex(String vidxPath) throws IOException
+		{
+			FileChannel ch = FileChannel.open(Paths.get(vidxPath), StandardOpenOption.READ);
+			long fsz = ch.size();
+			recordCount = fsz >>> 5;
+			long mapsz = recordCount << 5;
+			int scount = (int)(mapsz >>> SEGMENT_SHIFT) + 1;
+			segments = new MappedByteBuffer[scount];
+			for(int i = 0; i < scount; i++)
+			{
+				long st = (long)i << SEGMENT_SHIFT;
+				long len = Math.min(mapsz - st, 1L << SEGMENT_SHIFT);
+				segments[i] = ch.map(MapMode.READ_ONLY, st, len); //Big-endian by default
+			}
+			ch.close(); //Mapping stays valid
+		}
+		
+		public long getRecordCount()
+		{
+			return recordCount;
+		}
+		
+		public long getVarUID(long record)
+		{
+			long pos = record << 5;
+			//Absolute reads only, so readers don't step on each other
+			return segments[(int)(pos >>> SEGMENT_SHIFT)].getLong((int)(pos & SEGMENT_MASK));
+		}
+		
+		public LookupRecord getRecord(long record)
+		{
+			long pos = record << 5;
+			MappedByteBuffer seg = segments[(int)(pos >>> SEGMENT_SHIFT)];
+			int off = (int)(pos & SEGMENT_MASK);
+			LookupRecord lr = new LookupRecord();
+			lr.offset = seg.getLong(off + 8);
+			lr.recordSize = seg.getInt(off + 16);
+			lr.type = SVType.getTypeByID(Byte.toUnsignedInt(seg.get(off + 20)));
+			int gsz = Byte.toUnsignedInt(seg.get(off + 21)) << 16;
+			gsz |= Byte.toUnsignedInt(seg.get(off + 22)) << 8;
+			gsz |= Byte.toUnsignedInt(seg.get(off + 23));
+			lr.genoRecSize = gsz;
+			lr.genoOffset = seg.getLong(off + 24);
+			return lr;
+		}
+		
+		public LookupRecord search(long varUID)
+		{
+			long lo = 0;
+			long hi = recordCount - 1;
+			while(lo <= hi)
+			{
+				long mid = (lo + hi) >>> 1;
+				long idxid = getVarUID(mid);
+				if(idxid == varUID) return getRecord(mid);
+				else if(idxid < varUID) lo = mid + 1;
+				else hi = mid - 1;
+			}
+			return null;
+		}
+
+	}
+
+	private static class TRAEndIndex
+	{
+		//Where the TRAs land, by contig
+		//A TRA is listed under its start contig at the end of the start CI, and under
+		//	its end contig with the whole end CI - the same two checks the old TRA table
+		//	scan did for every region query.
+		//Built from one pass over the TRA table. Only var UIDs are held.
+
+		private static class ContigEnds
+		{
+			//Sorted by low end. Query walks back maxLen from its start.
+
+			private List<long[]> building;
+
+			private int[] lo;
+			private int[] hi;
+			private long[] uid;
+			private int count;
+			private int maxLen;
+
+			public ContigEnds()
+			{
+				building = new LinkedList<long[]>();
+			}
+
+			public void add(int l, int h, long varUID)
+			{
+				building.add(new long[]{l, h, varUID});
+			}
+
+			public void finish()
+			{
+				long[][] arr = new long[building.size()][];
+				arr = building.toArray(arr);
+				building = null;
+				java.util.Arrays.sort(arr, new java.util.Comparator<long[]>(){
+					public int compare(long[] o1, long[] o2)
+					{
+						return Long.compare(o1[0], o2[0]);
+					}
+				});
+				count = arr.length;
+				lo = new int[count];
+				hi = new int[count];
+				uid = new long[count];
+				for(int i = 0; i < count; i++)
+				{
+					lo[i] = (int)arr[i][0];
+					hi[i] = (int)arr[i][1];
+					uid[i] = arr[i][2];
+					int len = hi[i] - lo[i];
+					if(len > maxLen) maxLen = len;
+				}
+			}
+
+			public void query(int qlo, int qhi, Set<Long> out)
+			{
+				long from = (long)qlo - (long)maxLen;
+				int l = 0;
+				int r = count;
+				while(l < r)
+				{
+					int m = (l + r) >>> 1;
+					if(lo[m] < from) l = m + 1;
+					else r = m;
+				}
+				for(int i = l; i < count; i++)
+				{
+					if(lo[i] > qhi) break;
+					if(hi[i] >= qlo) out.add(uid[i]);
+				}
+			}
+		}
+
+		private Map<Contig, ContigEnds> contigs;
+
+		public TRAEndIndex(VDBFileScanner scanner)
+		{
+			contigs = new HashMap<Contig, ContigEnds>();
+			for(DBVariant v : scanner)
+			{
+				long vid = v.getLongID();
+				Contig c1 = v.getChrom();
+				if(c1 != null)
+				{
+					int st2 = v.getStartPosition().getEnd();
+					getContig(c1).add(st2, st2, vid);
+				}
+				Contig c2 = v.getEndChrom();
+				if(c2 != null)
+				{
+					int ed1 = v.getEndPosition().getStart();
+					int ed2 = v.getEndPosition().getEnd();
+					getContig(c2).add(ed1, ed2, vid);
+				}
+			}
+			for(ContigEnds ce : contigs.values()) ce.finish();
+		}
+
+		private ContigEnds getContig(Contig c)
+		{
+			ContigEnds ce = contigs.get(c);
+			if(ce == null)
+			{
+				ce = new ContigEnds();
+				contigs.put(c, ce);
+			}
+			return ce;
+		}
+
+		public Set<Long> getVariantIDs(Contig c, int start, int end)
+		{
+			//[start, end)
+			Set<Long> out = new TreeSet<Long>();
+			ContigEnds ce = contigs.get(c);
+			if(ce == null || end <= start) return out;
+			ce.query(start, end - 1, out);
+			return out;
+		}
+
+	}
+
 	private static class RegionIndex
 	{
 		//Right now, load fully into mem
@@ -328,8 +567,7 @@ public class DBVariantTable implements VariantTable{
 			
 		}
 		
-		private ConcurrentMap<Long, VariantGenotype> genoCache;
-		private ConcurrentLinkedQueue<Long> cacheQueue;
+		private LRUCache<Long, VariantGenotype> genoCache;
 		
 		private String gtbl_path;
 		private StreamBuffer openFile;
@@ -339,11 +577,16 @@ public class DBVariantTable implements VariantTable{
 		
 		private ConcurrentMap<Long, LookupRecord> tempIndex; //Usually null
 		
+		private GenotypeSampleIndex sampleIndex; //Loaded or built on first sample query
+		
+		private volatile boolean softQueueLimit; //Caller flushes when set
+		
 		public GenotypeCache(String genoTablePath)
 		{
-			genoCache = new ConcurrentSkipListMap<Long, VariantGenotype>();
+			genoCache = new LRUCache<Long, VariantGenotype>(DEFO_GENO_CACHE_ENTRIES, 0L, new LRUCache.SizeEstimator<VariantGenotype>(){
+				public long estimateSize(VariantGenotype value) {return value.calculateSerializedSize(true);}
+			});
 			dirtyQueue = new ConcurrentSkipListMap<Long, VariantGenotype>();
-			cacheQueue = new ConcurrentLinkedQueue<Long>();
 			//removeQueue = new ConcurrentLinkedQueue<Long>();
 			gtbl_path = genoTablePath;
 			try 
@@ -358,6 +601,57 @@ public class DBVariantTable implements VariantTable{
 			}
 		}
 		
+		private String getSampleIndexPath()
+		{
+			return GenotypeTable.getSidecarPath(gtbl_path, GenotypeSampleIndex.EXT);
+		}
+		
+		private synchronized GenotypeSampleIndex getSampleIndex() throws IOException
+		{
+			if(sampleIndex != null) return sampleIndex;
+			if(openFile == null) return null;
+			String spath = getSampleIndexPath();
+			
+			//Use the one on disk if it was written against this table
+			if(FileBuffer.fileExists(spath))
+			{
+				try
+				{
+					GenotypeSampleIndex sidx = GenotypeSampleIndex.readIndex(spath);
+					if(sidx.matchesTable(gtbl_path))
+					{
+						sampleIndex = sidx;
+						return sampleIndex;
+					}
+				}
+				catch(UnsupportedFileTypeException e)
+				{
+					System.err.println("DBVariantTable.GenotypeCache.getSampleIndex || Sample index could not be read. Regenerating...");
+				}
+			}
+			
+			//Otherwise, one scan to rebuild it
+			GenotypeSampleIndex sidx = new GenotypeSampleIndex();
+			long fsz = FileBuffer.fileSize(gtbl_path);
+			long cpos = 16;
+			while(cpos < fsz)
+			{
+				VariantGenotype vg = VariantGenotype.readFromGENOT(openFile, cpos);
+				addPostings(sidx, vg, cpos);
+				cpos += vg.calculateSerializedSize(true);
+			}
+			sidx.writeIndex(spath, gtbl_path);
+			sampleIndex = sidx;
+			
+			return sampleIndex;
+		}
+		
+		private static void addPostings(GenotypeSampleIndex sidx, VariantGenotype vg, long offset)
+		{
+			long vid = vg.getVariantUID();
+			for(Integer sid : vg.getAllIndividuals()) sidx.addPosting(sid, vid, offset);
+		}
+		
 		protected void buildTemporaryIndex()
 		{
 			//WILL EAT MEMORY!
@@ -392,49 +686,47 @@ public class DBVariantTable implements VariantTable{
 			tempIndex = null;
 		}
 		
-		private void freeOldestGT()
-		{
-			long targ = cacheQueue.poll();
-			genoCache.remove(targ);
-		}
-		
-		public VariantGenotype getVariantGenotypes(long vid, LookupRecord lr)
+		public synchronized VariantGenotype getVariantGenotypes(long vid, LookupRecord lr)
 		{
 			//Check cache
 			VariantGenotype vg = genoCache.get(vid);
 			if (vg != null) return vg;
 			
-			//Cache miss
-			if(genoCache.size() >= MAX_GENO_IN_MEM)
-			{
-				//Free last
-				freeOldestGT();
-			}
+			//Variants merged before they hit the disk have no lookup record yet
+			vg = dirtyQueue.get(vid);
+			if (vg != null) return vg;
+			if (lr == null) return null;
 			
-			//Load into cache and return
+			//Cache miss - load into cache and return (cache evicts as needed)
 			vg = VariantGenotype.readFromGENOT(openFile, lr.genoOffset);
-			if(vg != null) {
-				cacheQueue.add(vg.getVariantUID());
-				genoCache.put(vg.getVariantUID(), vg);
-			}
+			if(vg != null) genoCache.put(vg.getVariantUID(), vg);
 			
 			return vg;
 		}
 		
 		public boolean queueForWriting(VariantGenotype newGT)
 		{
-			if(dirtyQueue.size() >= MAX_GENO_IN_MEM) return false;
+			if(!softQueueLimit && dirtyQueue.size() >= MAX_GENO_IN_MEM) return false;
 			dirtyQueue.put(newGT.getVariantUID(), newGT);
 			return true;
 		}
 		
+		public int queuedCount()
+		{
+			return dirtyQueue.size();
+		}
+		
+		public LRUCache<Long, VariantGenotype> getReadCache()
+		{
+			return genoCache;
+		}
+		
 		public boolean writeGenotypeTable() throws IOException
 		{
 			if(dirtyQueue.isEmpty()) return true; //Nothing new to write
 			
 			//Clear the cache! It is now obsolete. Also saves memory.
 			genoCache.clear();
-			cacheQueue.clear();
 			tempIndex = null;
 			
 			//Temp file
@@ -450,6 +742,11 @@ public class DBVariantTable implements VariantTable{
 			BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(temp));
 			bw.write(genotHeader.getBytes());
 			
+			//Sample postings are rebuilt as records go out
+			sampleIndex = null;
+			GenotypeSampleIndex sidx = new GenotypeSampleIndex();
+			long opos = 16;
+			
 			//Write clean variants from input file...
 			long cpos = 16;
 			long fsz = FileBuffer.fileSize(gtbl_path);
@@ -462,7 +759,10 @@ public class DBVariantTable implements VariantTable{
 				if(!dirtyQueue.containsKey(vid))
 				{
 					//Just copy back
-					bw.write(vg.serializeForGENOT(true).getBytes());
+					FileBuffer rec = vg.serializeForGENOT(true);
+					bw.write(rec.getBytes());
+					addPostings(sidx, vg, opos);
+					opos += rec.getFileSize();
 				}
 				//Otherwise, eat.
 			}
@@ -473,7 +773,10 @@ public class DBVariantTable implements VariantTable{
 			for(Long vid : dirtyList)
 			{
 				VariantGenotype vg = dirtyQueue.get(vid);
-				bw.write(vg.serializeForGENOT(true).getBytes());
+				FileBuffer rec = vg.serializeForGENOT(true);
+				bw.write(rec.getBytes());
+				addPostings(sidx, vg, opos);
+				opos += rec.getFileSize();
 			}
 			
 			bw.close();
@@ -485,6 +788,8 @@ public class DBVariantTable implements VariantTable{
 			//Replace old file!
 			Files.move(Paths.get(temp), Paths.get(gtbl_path));
 			openFile = new StreamBuffer(gtbl_path, true);
+			sidx.writeIndex(getSampleIndexPath(), gtbl_path);
+			sampleIndex = sidx;
 			
 			return true;
 		}
@@ -498,7 +803,6 @@ public class DBVariantTable implements VariantTable{
 			String temp = FileBuffer.getTempDir() + File.separator + "genot_remSample.tmp";
 			
 			genoCache.clear();
-			cacheQueue.clear();
 			tempIndex = null;
 			
 			FileBuffer genotHeader = new FileBuffer(16, true);
@@ -510,6 +814,10 @@ public class DBVariantTable implements VariantTable{
 			BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(temp));
 			bw.write(genotHeader.getBytes());
 			
+			sampleIndex = null;
+			GenotypeSampleIndex sidx = new GenotypeSampleIndex();
+			long opos = 16;
+			
 			//Write clean variants from input file...
 			long cpos = 16;
 			long fsz = FileBuffer.fileSize(gtbl_path);
@@ -524,7 +832,10 @@ public class DBVariantTable implements VariantTable{
 				if(vg.genotypeRecords() > 0)
 				{
 					//Write back out
-					bw.write(vg.serializeForGENOT(true).getBytes());
+					FileBuffer rec = vg.serializeForGENOT(true);
+					bw.write(rec.getBytes());
+					addPostings(sidx, vg, opos);
+					opos += rec.getFileSize();
 				}
 				else deleteVars.add(vg.getVariantUID());
 				
@@ -541,6 +852,8 @@ public class DBVariantTable implements VariantTable{
 			//Replace old file!
 			Files.move(Paths.get(temp), Paths.get(gtbl_path));
 			openFile = new StreamBuffer(gtbl_path, true);
+			sidx.writeIndex(getSampleIndexPath(), gtbl_path);
+			sampleIndex = sidx;
 
 			return new ListGroup(deleteVars, hetVars, homVars);
 		}
@@ -551,11 +864,34 @@ public class DBVariantTable implements VariantTable{
 			return new GenotypeTableIterator();
 		}
 		
-		public ListGroup getVariantIDsForSample(int sampleUID)
+		public synchronized ListGroup getVariantIDsForSample(int sampleUID)
 		{
 			List<Long> homVars = new LinkedList<Long>();
 			List<Long> hetVars = new LinkedList<Long>();
 			
+			List<GenotypeSampleIndex.Posting> plist = null;
+			try {plist = getSamplePostings(sampleUID);}
+			catch(IOException e)
+			{
+				e.printStackTrace();
+				plist = null;
+			}
+			
+			if(plist != null)
+			{
+				//Only visit this sample's records
+				for(GenotypeSampleIndex.Posting p : plist)
+				{
+					VariantGenotype vg = VariantGenotype.readFromGENOT(openFile, p.getRecordOffset());
+					if(vg == null) continue;
+					SVDBGenotype g = vg.getGenotype(sampleUID);
+					if(g == null) continue;
+					if(g.isHomozygous()) homVars.add(vg.getVariantUID());
+					else hetVars.add(vg.getVariantUID());
+				}
+				return new ListGroup(null, hetVars, homVars);
+			}
+			
 			for(VariantGenotype vg : this)
 			{
 				if(vg.hasGenotypeFor(sampleUID))
@@ -569,6 +905,14 @@ public class DBVariantTable implements VariantTable{
 			return new ListGroup(null, hetVars, homVars);
 		}
 		
+		public synchronized List<GenotypeSampleIndex.Posting> getSamplePostings(int sampleUID) throws IOException
+		{
+			//Null if there is no table to index
+			GenotypeSampleIndex sidx = getSampleIndex();
+			if(sidx == null) return null;
+			return sidx.getPostings(sampleUID);
+		}
+		
 	}
 	
 	private static class VariantCache
@@ -596,32 +940,41 @@ public class DBVariantTable implements VariantTable{
 		private String srcDir;
 		private boolean cachedIndex;
 		
-		private ConcurrentMap<Long, DBVariant> cache;
-		private ConcurrentMap<Long, LookupRecord> index;
-		
-		private ConcurrentLinkedQueue<Long> cacheQueue;
-		private ConcurrentLinkedQueue<Long> indexCacheQueue;
+		private LRUCache<Long, DBVariant> cache;
+		private LRUCache<Long, LookupRecord> index; //Unbounded if not caching index
 		
 		private ConcurrentMap<Long, DBVariant> dirtyQueue;
 		private ConcurrentLinkedQueue<Long> removeQueue;
 		
 		private GenotypeCache genoCache;
 		
+		private MergeCandidateIndex mergeIndex;
+		private boolean mergeIndexLoaded;
+		
+		private volatile boolean softQueueLimit; //Caller flushes when set
+		
+		private volatile MappedVarIndex mappedIndex;
+		private final ReentrantReadWriteLock vidxLock = new ReentrantReadWriteLock(); //Readers of mappedIndex vs. vidx swap
+		private final Object vidxMapLock = new Object(); //Not this - see getMappedIndex
+		private volatile TRAEndIndex traIndex;
+		private final Object traLock = new Object(); //Not this - index lookups sync on this
+		
 		public VariantCache(GenomeBuild gb, GeneSet gs, String dir, boolean cacheIndex) throws IOException
 		{
 			genome = gb;
 			genes = gs;
 			gindex = new GenomeIndex(gb);
 			srcDir = dir;
-			cache = new ConcurrentSkipListMap<Long, DBVariant>();
-			index = new ConcurrentHashMap<Long, LookupRecord>();
-			cacheQueue = new ConcurrentLinkedQueue<Long>();
+			cache = new LRUCache<Long, DBVariant>(DEFO_VAR_CACHE_ENTRIES);
 			cachedIndex = cacheIndex;
-			indexCacheQueue = new ConcurrentLinkedQueue<Long>();
+			if(cachedIndex) index = new LRUCache<Long, LookupRecord>(DEFO_IDXREC_CACHE_ENTRIES);
+			else index = new LRUCache<Long, LookupRecord>(0);
 			cindex = new RegionIndex(srcDir + File.separator + CINDEX_NAME);
 			genoCache = new GenotypeCache(srcDir + File.separator + GENOTBL_FILE + "." + GENOTBL_EXT);
 			dirtyQueue = new ConcurrentSkipListMap<Long, DBVariant>();
 			removeQueue = new ConcurrentLinkedQueue<Long>();
+			mergeIndex = new MergeCandidateIndex();
+			mergeIndexLoaded = false;
 			if(!cacheIndex) loadIndex();
 		}
 		
@@ -665,81 +1018,74 @@ public class DBVariantTable implements VariantTable{
 			}
 		}
 		
-		private void clearOldestIndexRecordFromCache()
+		private MappedVarIndex getMappedIndex()
 		{
-			long oldid = indexCacheQueue.poll();
-			index.remove(oldid);
+			//Caller must hold the vidx read lock
+			//Maps under its own lock - loadMergeIndex holds this while it waits on the read lock
+			MappedVarIndex vidx = mappedIndex;
+			if(vidx != null) return vidx;
+			synchronized(vidxMapLock)
+			{
+				if(mappedIndex != null) return mappedIndex;
+				String idxpath = getIndexPath();
+				if (!FileBuffer.fileExists(idxpath)) return null;
+				if(FileBuffer.fileSize(idxpath) < 32L) return null;
+				try 
+				{
+					mappedIndex = new MappedVarIndex(idxpath);
+				} 
+				catch (IOException e) 
+				{
+					e.printStackTrace();
+					return null;
+				}
+				return mappedIndex;
+			}
 		}
 		
-		private void clearOldestVariantFromCache()
+		private void releaseMappedIndex()
 		{
-			long vid = cacheQueue.poll();
-			cache.remove(vid);
+			//Only call while holding the vidx write lock
+			mappedIndex = null;
 		}
 		
-		private LookupRecord searchForRecord(long varUID, long minOff, long maxOff, String idxpath)
+		private String getIndexTempPath()
 		{
-			long ssz = maxOff - minOff;
-			long stoff = ssz / 2L;
-			stoff &= ~(0x1FL); //To set to nearest 32
-			stoff += minOff;
-			
-			//Read variant UID at that offset
-			int idxid = -1;
-			FileBuffer rec = null;
-			try 
-			{
-				rec = new FileBuffer(idxpath, stoff, 32, true);
-			} 
-			catch (IOException e) 
-			{
-				e.printStackTrace();
-				return null;
-			}
-			idxid = rec.intFromFile(0);
-			
-			//Compare retrieved id to target
-			if(idxid == varUID)
-			{
-				//Parse and return this record
-				long off = rec.longFromFile(8);
-				int sz = rec.intFromFile(16);
-				int etype =  Byte.toUnsignedInt(rec.getByte(20));
-				int gsz = rec.shortishFromFile(21);
-				long goff = rec.longFromFile(24);
-				LookupRecord lr = new LookupRecord();
-				lr.offset = off;
-				lr.recordSize = sz;
-				lr.type = SVType.getTypeByID(etype);
-				lr.genoOffset = goff;
-				lr.genoRecSize = gsz;
-				return lr;
-			}
-			else if (idxid < varUID)
+			//Same directory, so the swap can be an atomic rename
+			return getIndexPath() + ".tmp";
+		}
+		
+		private void swapInIndex(String newpath) throws IOException
+		{
+			//The vidx is never written in place - a new one is written next to it and renamed over it.
+			//Waits for any reader walking the old map. On systems that allow it the old map
+			//	stays valid after the rename anyway, since it points at the unlinked old file.
+			vidxLock.writeLock().lock();
+			try
 			{
-				//Must be after
-				return searchForRecord(varUID, stoff+32, maxOff, idxpath);
+				releaseMappedIndex();
+				Files.move(Paths.get(newpath), Paths.get(getIndexPath()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 			}
-			else if (idxid > varUID)
+			finally
 			{
-				//Must be before
-				return searchForRecord(varUID, minOff, stoff, idxpath);
+				vidxLock.writeLock().unlock();
 			}
-			
-			return null;
 		}
 		
 		private LookupRecord getIndexRecordFromDisc(long varUID)
 		{
 			//This is for disc only index lookup!
-			String idxpath = getIndexPath();
-			if (!FileBuffer.fileExists(idxpath)) return null;
-			long fsz = FileBuffer.fileSize(idxpath);
-			if(fsz < 32L) return null;
-			
-			//Start at middle record
-			//All records are 32 bytes
-			return searchForRecord(varUID, 0, fsz, idxpath);
+			vidxLock.readLock().lock();
+			try
+			{
+				MappedVarIndex vidx = getMappedIndex();
+				if(vidx == null) return null;
+				return vidx.search(varUID);
+			}
+			finally
+			{
+				vidxLock.readLock().unlock();
+			}
 		}
 		
 		public LookupRecord getIndexRecord(long varUID)
@@ -747,21 +1093,11 @@ public class DBVariantTable implements VariantTable{
 			if(!cachedIndex) return index.get(varUID);
 			//See if there's a hit
 			LookupRecord rec = index.get(varUID);
-			if (rec != null) {
-				indexCacheQueue.remove(varUID);
-				indexCacheQueue.add(varUID);
-				return rec;
-			}
+			if (rec != null) return rec;
 			//Otherwise, miss
-			if(index.size() >= MAX_IDXREC_IN_MEM)
-			{
-				//Clear oldest record
-				clearOldestIndexRecordFromCache();
-			}
 			rec = getIndexRecordFromDisc(varUID);
 			if (rec != null)
 			{
-				indexCacheQueue.add(varUID);
 				index.put(varUID, rec);
 				return rec;
 			}
@@ -779,16 +1115,10 @@ public class DBVariantTable implements VariantTable{
 		{
 			//Check cache...
 			DBVariant hit = cache.get(varUID);
-			if(hit != null)
-			{
-				cacheQueue.remove(varUID);
-				cacheQueue.add(varUID);
-				return hit;
-			}
+			if(hit != null) return hit;
 			
 			//Cache miss
-			if (cache.size() >= MAX_VAR_IN_MEM) clearOldestVariantFromCache();
-			
+
 			LookupRecord lookup = getIndexRecord(varUID);
 			if (lookup == null) return null;
 			if(lookup.type == null) return null;
@@ -798,8 +1128,7 @@ public class DBVariantTable implements VariantTable{
 			{
 				FileBuffer raw = FileBuffer.createBuffer(tblpath, lookup.offset, edoff, true);
 				DBVariant var = DBVariant.getFromVDBRecord(raw, genome, genes, 0).getVariant();
-				cache.put(varUID, var);
-				cacheQueue.add(varUID);
+				cache.put(varUID, var, Integer.toUnsignedLong(lookup.recordSize));
 				return var;
 			} 
 			catch (IOException e) 
@@ -852,39 +1181,28 @@ public class DBVariantTable implements VariantTable{
 				if(r == null) return found;
 				
 				//Scan the vidx, loading all lookup records in range into index cache
-				long vidx_off = r.startIndex << 5;
-				long vidx_end_off = vidx_off + ((long)r.recordCount * 32L);
-				
-				String vidx_path = getIndexPath();
-				if(!FileBuffer.fileExists(vidx_path)) return found;
-				FileBuffer vidx = FileBuffer.createBuffer(vidx_path, vidx_off, vidx_end_off, true);
-				long fsz = vidx.getFileSize();
-				long cpos = 0;
-				while(cpos < fsz)
+				vidxLock.readLock().lock();
+				try
 				{
-					long vid = vidx.longFromFile(cpos); cpos += 8;
-					//See if already cached...
-					LookupRecord lr = index.get(vid);
-					if(lr != null)
+					MappedVarIndex vidx = getMappedIndex();
+					if(vidx == null) return found;
+					long rmax = Math.min(r.startIndex + (long)r.recordCount, vidx.getRecordCount());
+					for(long rec = r.startIndex; rec < rmax; rec++)
 					{
-						indexCacheQueue.remove(vid);
-						indexCacheQueue.add(vid);
-						cpos += 24;
-					}
-					else
-					{
-						lr = new LookupRecord();
-						lr.offset = vidx.longFromFile(cpos); cpos += 8;
-						lr.recordSize = vidx.intFromFile(cpos); cpos += 4;
-						int etype = vidx.intFromFile(cpos); cpos+=4;
-						cpos += 8;
-						lr.type = SVType.getTypeByID(etype);
-						//Cache
-						if(index.size() >= MAX_IDXREC_IN_MEM) clearOldestIndexRecordFromCache();
-						index.put(vid, lr);
-						indexCacheQueue.add(vid);
+						long vid = vidx.getVarUID(rec);
+						//See if already cached...
+						LookupRecord lr = index.get(vid);
+						if(lr == null)
+						{
+							lr = vidx.getRecord(rec);
+							index.put(vid, lr);
+						}
+						found.add(vid);
 					}
-					found.add(vid);
+				}
+				finally
+				{
+					vidxLock.readLock().unlock();
 				}
 				
 			}
@@ -897,8 +1215,7 @@ public class DBVariantTable implements VariantTable{
 				long min = Integer.toUnsignedLong(stp) << 32;
 				long max = (Integer.toUnsignedLong(edp) << 32) | 0xFFFFFFFF;
 				
-				List<Long> allids = new ArrayList<Long>(index.size() + 1);
-				allids.addAll(index.keySet());
+				List<Long> allids = index.getKeySnapshot();
 				Collections.sort(allids);
 				for(Long l : allids)
 				{
@@ -910,133 +1227,135 @@ public class DBVariantTable implements VariantTable{
 			return found;
 		}
 		
+		private TRAEndIndex getTRAIndex() throws IOException, UnsupportedFileTypeException
+		{
+			//One pass over the TRA table, kept until the table is rewritten
+			TRAEndIndex tidx = traIndex;
+			if(tidx != null) return tidx;
+			synchronized(traLock)
+			{
+				if(traIndex != null) return traIndex;
+				String tratblpath = getFilename(SVType.TRA);
+				if(!FileBuffer.fileExists(tratblpath)) return null;
+				VDBFileScanner scanner = new VDBFileScanner(genome, genes, tratblpath);
+				scanner.open();
+				traIndex = new TRAEndIndex(scanner);
+				scanner.close();
+				return traIndex;
+			}
+		}
+		
+		private void releaseTRAIndex()
+		{
+			synchronized(traLock) {traIndex = null;}
+		}
+		
 		private List<DBVariant> scanForTRAs(Contig c, int start, int end) throws IOException, UnsupportedFileTypeException
 		{
-			String tratblpath = getFilename(SVType.TRA);
 			List<DBVariant> vlist = new LinkedList<DBVariant>();
-			if(!FileBuffer.fileExists(tratblpath)) return vlist;
-			VDBFileScanner scanner = new VDBFileScanner(genome, genes, tratblpath);
-			scanner.open();
-			for(DBVariant v : scanner)
+			TRAEndIndex tidx = getTRAIndex();
+			if(tidx == null) return vlist;
+			for(Long vid : tidx.getVariantIDs(c, start, end))
 			{
-				//Check the variant END to see if in range
-				//Also check the end of the start 
-				if(v.getChrom().equals(c))
-				{
-					int st2 = v.getStartPosition().getEnd();
-					if(st2 >= start && st2 < end)
-					{
-						vlist.add(v);
-						continue;
-					}
-				}
-				Contig c2 = v.getEndChrom();
-				if(c2 != null)
-				{
-					if(c2.equals(c))
-					{
-						int ed1 = v.getEndPosition().getStart();
-						int ed2 = v.getEndPosition().getEnd();
-						if(ed2 < start) continue;
-						if(ed1 >= end) continue;
-						vlist.add(v);
-					}
-				}
+				DBVariant v = getVariant(vid);
+				if(v != null) vlist.add(v);
+			}
+			return vlist;
+		}
+		
+		private List<DBVariant> scanEarlierSections(Contig c, int start) throws IOException
+		{
+			//Variants that start in an earlier section but reach into the region
+			List<DBVariant> vlist = new LinkedList<DBVariant>();
+			int secsz = (int)(c.getLength()/0xFFFFL);
+			if(secsz < 1) secsz = 1;
+			int sec = start/secsz;
+			int secst = sec * secsz;
+			int max = secst - 1;
+			if(max < 0) return vlist;
+			List<Long> idlist = getVariantIDsInApproximateRegion(c, 0, max);
+			for(Long vid : idlist)
+			{
+				DBVariant var = getVariantNoCache(vid);
+				if(var == null) continue;
+				//See if variant is actually in requested region
+				if(var.getEndPosition().getEnd() < start) continue;
+				vlist.add(var);
 			}
-			scanner.close();
 			return vlist;
 		}
 		
 		public Collection<DBVariant> getVariantsInRegion(Contig c, int start, int end) throws IOException
 		{
-			ConcurrentLinkedQueue<DBVariant> varlist = new ConcurrentLinkedQueue<DBVariant>();
-			//Spawn sub threads for scanning all TRAs and checking earlier contigs
-			Runnable trascanner = new Runnable() {
-
-				@Override
-				public void run() 
+			//TRA lookup and the earlier section scan go to the shared workers
+			ExecutorService pool = getRegionPool();
+			Future<List<DBVariant>> traFuture = pool.submit(new Callable<List<DBVariant>>(){
+				public List<DBVariant> call() throws Exception
 				{
-					List<DBVariant> vlist;
-					try 
-					{
-						vlist = scanForTRAs(c, start, end);
-						varlist.addAll(vlist);
-					} 
-					catch (IOException | UnsupportedFileTypeException e) 
-					{
-						e.printStackTrace();
-					}
-			
+					return scanForTRAs(c, start, end);
 				}
-				
-			};
-			Thread traThread = new Thread(trascanner);
-			traThread.start();
-			
-			Runnable endscanner = new Runnable() {
-				@Override
-				public void run()
+			});
+			Future<List<DBVariant>> endFuture = pool.submit(new Callable<List<DBVariant>>(){
+				public List<DBVariant> call() throws Exception
 				{
-					//Figure out max pos
-					int secsz = (int)(c.getLength()/0xFFFFL);
-					int sec = start/secsz;
-					int secst = sec * secsz;
-					int max = secst - 1;
-					try 
-					{
-						List<Long> idlist = getVariantIDsInApproximateRegion(c, 0, max);
-						for(Long vid : idlist)
-						{
-							DBVariant var = getVariantNoCache(vid);
-							//See if variant is actually in requested region
-							if(var.getEndPosition().getEnd() < start) continue;
-							//if(var.getStartPosition().getStart() > end) continue;
-							varlist.add(var);
-						}
-					} 
-					catch (IOException e) 
-					{
-						e.printStackTrace();
-					}
+					return scanEarlierSections(c, start);
 				}
-			};
-			Thread endThread = new Thread(endscanner);
-			endThread.start();
+			});
 			
+			List<DBVariant> varlist = new LinkedList<DBVariant>();
 			List<Long> checkids = getVariantIDsInApproximateRegion(c, start, end);
 			for(Long vid : checkids)
 			{
 				DBVariant var = getVariant(vid);
+				if(var == null) continue;
 				//See if variant is actually in requested region
 				if(var.getEndPosition().getEnd() < start) continue;
 				if(var.getStartPosition().getStart() > end) continue;
 				varlist.add(var);
 			}
 			
-			//Wait for the other threads to finish
-			while(traThread.isAlive() || endThread.isAlive())
-			{
-				try 
-				{
-					Thread.sleep(10);
-				} 
-				catch (InterruptedException e) 
-				{
-					// Eat, but print stack trace as a warning
-					e.printStackTrace();
-				}
-			}
+			//Collect the worker results
+			varlist.addAll(collectRegionResult(traFuture, "TRA lookup"));
+			varlist.addAll(collectRegionResult(endFuture, "Earlier section scan"));
 			
 			return varlist;
 		}
 		
+		private List<DBVariant> collectRegionResult(Future<List<DBVariant>> f, String what) throws IOException
+		{
+			try 
+			{
+				return f.get();
+			} 
+			catch (InterruptedException e) 
+			{
+				System.err.println("DBVariantTable.VariantCache.getVariantsInRegion || " + what + " interrupted!");
+				e.printStackTrace();
+				f.cancel(true);
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException e) 
+			{
+				Throwable t = e.getCause();
+				if(t instanceof IOException) throw (IOException)t;
+				System.err.println("DBVariantTable.VariantCache.getVariantsInRegion || " + what + " failed!");
+				e.printStackTrace();
+			}
+			return new LinkedList<DBVariant>();
+		}
+		
 		public void generateMasterIndex() throws IOException
 		{
 			//Write the vidx
 			
 			//Wipe the index cache
-			indexCacheQueue.clear();
+			//(The old vidx stays mapped and readable until the new one is swapped in)
 			index.clear();
+			releaseTRAIndex();
+			
+			//Records are gathered here before they are written out
+			//	(The index cache evicts, so it can't be used for this)
+			Map<Long, LookupRecord> scratch = new HashMap<Long, LookupRecord>();
 			
 			//If we are set to cache the index, we may need some disc space...
 			int tmp_idx = 0;
@@ -1065,19 +1384,19 @@ public class DBVariantTable implements VariantTable{
 					{
 						long vid = v.getLongID();
 						genoCache.updateWithGenoIndex(vid, lr);
-						if(!cachedIndex) index.put(vid, lr);
+						if(!cachedIndex) scratch.put(vid, lr);
 						else
 						{
-							//We have to see if there is space in the cache
-							if(index.size() >= MAX_IDXREC_IN_MEM)
+							//We have to see if there is space in memory
+							if(scratch.size() >= MAX_IDXREC_IN_MEM)
 							{
 								//Dump to tmp file
 								String tmppath = tmp_path_stem + tmp_idx + ".tmp";
-								dumpIndexFromMemory(tmppath);
-								index.clear();
+								dumpIndexFromMemory(tmppath, scratch);
+								scratch.clear();
 								tmp_idx++;
 							}
-							index.put(vid, lr);
+							scratch.put(vid, lr);
 						}
 					}
 				}
@@ -1087,15 +1406,22 @@ public class DBVariantTable implements VariantTable{
 			genoCache.freeTemporaryIndex();
 			
 			//Scan done
-			if(!cachedIndex) dumpIndexFromMemory(getIndexPath());
+			String newidx = getIndexTempPath();
+			if(!cachedIndex) 
+			{
+				dumpIndexFromMemory(newidx, scratch);
+				swapInIndex(newidx);
+				for(Long vid : scratch.keySet()) index.put(vid, scratch.get(vid));
+			}
 			else
 			{
-				if(tmp_idx < 1) dumpIndexFromMemory(getIndexPath()); //Never filled, don't have to combine temps
-				else combineTempIndexDumps(tmp_path_stem, tmp_idx);
+				if(tmp_idx < 1) dumpIndexFromMemory(newidx, scratch); //Never filled, don't have to combine temps
+				else combineTempIndexDumps(tmp_path_stem, tmp_idx, scratch, newidx);
+				swapInIndex(newidx);
 			}
 		}
 		
-		private void combineTempIndexDumps(String stem, int filecount) throws IOException
+		private void combineTempIndexDumps(String stem, int filecount, Map<Long, LookupRecord> index, String outpath) throws IOException
 		{
 			//Also make sure to dump what remains in memory!
 			
@@ -1116,7 +1442,6 @@ public class DBVariantTable implements VariantTable{
 				cposs[i] = 0;
 			}
 			
-			String outpath = this.getIndexPath();
 			BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(outpath));
 			
 			//Scan all temps and the mem set to find the lowest var UID
@@ -1182,7 +1507,7 @@ public class DBVariantTable implements VariantTable{
 			bw.close();
 		}
 		
-		private void dumpIndexFromMemory(String path) throws IOException
+		private void dumpIndexFromMemory(String path, Map<Long, LookupRecord> index) throws IOException
 		{
 			//Sort variant UIDs
 			List<Long> allids = new ArrayList<Long>(index.size() + 1);
@@ -1261,6 +1586,40 @@ public class DBVariantTable implements VariantTable{
 			cindex.reIndex(getIndexPath());
 		}
 
+		private synchronized void loadMergeIndex() throws IOException
+		{
+			//Only needed for adding variants, so it isn't built until
+			//	the first merge lookup.
+			if(mergeIndexLoaded) return;
+			mergeIndex.clear();
+			
+			//Walk the vidx and pull the CIs for every variant
+			vidxLock.readLock().lock();
+			try
+			{
+				MappedVarIndex vidx = getMappedIndex();
+				if(vidx != null)
+				{
+					long rcount = vidx.getRecordCount();
+					for(long rec = 0; rec < rcount; rec++)
+					{
+						DBVariant var = getVariantNoCache(vidx.getVarUID(rec));
+						if(var != null) mergeIndex.indexVariant(var);
+					}
+				}
+			}
+			finally
+			{
+				vidxLock.readLock().unlock();
+			}
+			
+			//Anything that hasn't been written yet
+			for(DBVariant var : dirtyQueue.values()) mergeIndex.indexVariant(var);
+			for(Long vid : removeQueue) mergeIndex.removeVariant(vid);
+			
+			mergeIndexLoaded = true;
+		}
+		
 		public int calculateLeewayBP(StructuralVariant sv, double leewayPerc)
 		{
 			//double ldbl = (double)leewayRaw/1000.0;
@@ -1306,28 +1665,29 @@ public class DBVariantTable implements VariantTable{
 			if(sv == null) return -1;
 			//Get some basic info on the variant
 			double ldbl = (double)mergeFactor/1000.0;
-			int lbp = calculateLeewayBP(sv, ldbl);
 
 			//See if it merges to existing variant
-			int stEnd = sv.getCIPosition(false, false, true);
-			Collection<Long> cand;
-			try {cand = this.getVariantIDsInApproximateRegion(sv.getChromosome(), 0, stEnd + lbp);} 
-			catch (IOException e) 
+			//Merge index only returns variants of the same type whose POS CI
+			//	(plus leeway) overlaps this one
+			if(!mergeIndexLoaded)
 			{
-				e.printStackTrace();
-				return -1;
+				try {loadMergeIndex();} 
+				catch (IOException e) 
+				{
+					e.printStackTrace();
+					return -1;
+				}
 			}
+			Collection<Long> cand = mergeIndex.getMergeCandidates(sv, ldbl);
 			
 			if(cand != null && !cand.isEmpty())
 			{
 				for(Long vid : cand)
 				{
-					//Grab lookup record
-					LookupRecord lr = getIndexRecord(vid);
-					//Toss if not the same type
-					if(lr.type != sv.getType()) continue;
-					//Read variant if same type
-					DBVariant dbv = getVariant(vid);
+					//Might not be on disk yet
+					DBVariant dbv = dirtyQueue.get(vid);
+					if(dbv == null) dbv = getVariant(vid);
+					if(dbv == null) continue;
 					if(dbv.svIsEquivalent(sv, ldbl))
 					{
 						if(mergeInVariant(sv, dbv, sampleMap)) return vid;
@@ -1540,11 +1900,40 @@ public class DBVariantTable implements VariantTable{
 		public boolean queueVariantForUpdate(DBVariant dbv)
 		{
 			if(dbv == null) return false;
-			if(dirtyQueue.size() >= MAX_VAR_IN_MEM) return false;
+			if(!softQueueLimit && dirtyQueue.size() >= MAX_VAR_IN_MEM) return false;
 			dirtyQueue.put(dbv.getLongID(), dbv);
+			if(mergeIndexLoaded) mergeIndex.indexVariant(dbv);
 			return true;
 		}
 		
+		public void setCacheBudgets(int idxEntries, int varEntries, long varBytes, int genoEntries, long genoBytes)
+		{
+			if(cachedIndex) index.setBudgets(idxEntries, 0L);
+			cache.setBudgets(varEntries, varBytes);
+			genoCache.getReadCache().setBudgets(genoEntries, genoBytes);
+		}
+		
+		public String getCacheStats()
+		{
+			String s = "Index Records -- " + index.getStatsString() + "\n";
+			s += "Variants -- " + cache.getStatsString() + "\n";
+			s += "Genotypes -- " + genoCache.getReadCache().getStatsString();
+			return s;
+		}
+		
+		public void setSoftQueueLimit(boolean b)
+		{
+			softQueueLimit = b;
+			genoCache.softQueueLimit = b;
+		}
+		
+		public boolean queuesFull(int headroom)
+		{
+			if(dirtyQueue.size() + headroom >= MAX_VAR_IN_MEM) return true;
+			if(genoCache.queuedCount() + headroom >= MAX_GENO_IN_MEM) return true;
+			return false;
+		}
+		
 		public void updateTable() throws IOException, UnsupportedFileTypeException
 		{
 			System.err.println("UpdateTable called!");
@@ -1554,8 +1943,6 @@ public class DBVariantTable implements VariantTable{
 			
 			cache.clear();
 			index.clear();
-			cacheQueue.clear();
-			indexCacheQueue.clear();
 			
 			//167.3 MB
 			
@@ -1608,8 +1995,15 @@ public class DBVariantTable implements VariantTable{
 				if(!this.addVariantOnDisk(dirtyQueue.get(id))) throw new IOException();
 			}
 			
+			//Keep the merge index in sync with what was dropped
+			if(mergeIndexLoaded)
+			{
+				for(Long id : removeQueue) mergeIndex.removeVariant(id);
+			}
+			
 			dirtyQueue.clear();
 			removeQueue.clear();
+			releaseTRAIndex();
 
 		}
 	
@@ -1643,6 +2037,16 @@ public class DBVariantTable implements VariantTable{
 		{
 			return genoCache.iterator();
 		}
+		
+		public List<Long> getVariantIDsForSample(int sampleUID) throws IOException
+		{
+			//Table order. Null if there is no genotype table.
+			List<GenotypeSampleIndex.Posting> plist = genoCache.getSamplePostings(sampleUID);
+			if(plist == null) return null;
+			List<Long> idlist = new ArrayList<Long>(plist.size());
+			for(GenotypeSampleIndex.Posting p : plist) idlist.add(p.getVariantUID());
+			return idlist;
+		}
 
 		public boolean removeSample(FamilyMember mem)
 		{
@@ -1811,6 +2215,17 @@ public class DBVariantTable implements VariantTable{
 	
 	public List<Long> getVariantIDsForSample(int sampleUID)
 	{
+		try
+		{
+			List<Long> ids = varCache.getVariantIDsForSample(sampleUID);
+			if(ids != null) return ids;
+		}
+		catch(IOException e)
+		{
+			System.err.println("DBVariantTable.getVariantIDsForSample || Sample index lookup failed. Scanning genotype table instead...");
+			e.printStackTrace();
+		}
+		
 		List<Long> idlist = new LinkedList<Long>();
 		Iterator<VariantGenotype> genoIterator = varCache.getGenotypeIterator();
 		while(genoIterator.hasNext())
@@ -1828,18 +2243,48 @@ public class DBVariantTable implements VariantTable{
 		List<Long> idlist = new LinkedList<Long>();
 		if(fam == null) return idlist;
 		List<FamilyMember> members = fam.getAllFamilyMembers();
+		
+		//Union of the members' posting lists
+		try
+		{
+			Set<Long> idset = new TreeSet<Long>();
+			boolean indexed = true;
+			for(FamilyMember m : members)
+			{
+				List<Long> ids = varCache.getVariantIDsForSample(m.getUID());
+				if(ids == null) {indexed = false; break;}
+				idset.addAll(ids);
+			}
+			if(indexed)
+			{
+				idlist.addAll(idset);
+				return idlist;
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("DBVariantTable.getVariantIDsForFamily || Sample index lookup failed. Scanning genotype table instead...");
+			e.printStackTrace();
+		}
+		
+		//Same sorted, de-duplicated list as the indexed path
+		Set<Long> idset = new TreeSet<Long>();
 		Iterator<VariantGenotype> genoIterator = varCache.getGenotypeIterator();
 		while(genoIterator.hasNext())
 		{
 			VariantGenotype vg = genoIterator.next();
-			//See if target sample is in list.
+			//See if any family member is in list.
 			for(FamilyMember m : members)
 			{
-				if (vg.hasGenotypeFor(m.getUID())) idlist.add(vg.getVariantUID());
-				break;
+				if (vg.hasGenotypeFor(m.getUID()))
+				{
+					idset.add(vg.getVariantUID());
+					break;
+				}
 			}
 		}
 		
+		idlist.addAll(idset);
 		return idlist;
 	}
 	
@@ -1873,10 +2318,35 @@ public class DBVariantTable implements VariantTable{
 		return varCache.generateGeneHitMap();
 	}
 	
+	public GenomeBuild getGenomeBuild()
+	{
+		return varCache.genome;
+	}
+	
+	public String getCacheStats()
+	{
+		return varCache.getCacheStats();
+	}
+	
+	/*----- Settings -----*/
+	
+	public void setCacheBudgets(int idxEntries, int varEntries, long varBytes, int genoEntries, long genoBytes)
+	{
+		//Entry/byte budgets for the read caches. 0 is no limit.
+		//Index record budget only applies if the index isn't fully loaded.
+		varCache.setCacheBudgets(idxEntries, varEntries, varBytes, genoEntries, genoBytes);
+	}
+	
 	/*----- Write -----*/
 	
 	public boolean addVCF(String vcfpath, Map<String, FamilyMember> sampleMap, int mergeFactor, boolean ignoreTRA, int threads) throws IOException
 	{
+		if(threads > 1)
+		{
+			DBVTVarAdder add_engine = new DBVTVarAdder(this, sampleMap, mergeFactor, threads);
+			return add_engine.run(vcfpath, ignoreTRA);
+		}
+		
 		VCFReadStreamer vcfStream = new VCFReadStreamer(vcfpath, varCache.genome);
 		
 		vcfStream.open();
@@ -1885,6 +2355,7 @@ public class DBVariantTable implements VariantTable{
 		StructuralVariant sv = null;
 		while((sv = iterator.next()) != null)
 		{
+			if(ignoreTRA && ((sv.getType() == SVType.BND) || (sv.getType() == SVType.TRA))) continue;
 			long added = varCache.addVariant(sv, mergeFactor, sampleMap);
 			if(added == -1)
 			{
@@ -1898,6 +2369,36 @@ public class DBVariantTable implements VariantTable{
 		return true;
 	}
 	
+	/*----- Concurrent Add (see DBVTVarAdder) -----*/
+	
+	protected void startConcurrentAdd() throws IOException
+	{
+		varCache.loadMergeIndex();
+		varCache.setSoftQueueLimit(true);
+	}
+	
+	protected void endConcurrentAdd()
+	{
+		varCache.setSoftQueueLimit(false);
+	}
+	
+	protected long addVariantConcurrent(StructuralVariant sv, int mergeFactor, Map<String, FamilyMember> sampleMap)
+	{
+		//Caller must make sure no flush is running and that
+		//	only one thread is adding to any given contig
+		return varCache.addVariant(sv, mergeFactor, sampleMap);
+	}
+	
+	protected boolean writeQueuesFull(int headroom)
+	{
+		return varCache.queuesFull(headroom);
+	}
+	
+	protected void flushWriteQueues() throws IOException, UnsupportedFileTypeException
+	{
+		varCache.updateTablesAndReindex();
+	}
+	
 	public boolean removeSample(FamilyMember sample)
 	{
 		if(sample == null) return false;
@@ -0,0 +1,308 @@
+package hospelhornbg_svdb;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import waffleoRai_Utils.FileBuffer;
+import waffleoRai_Utils.FileBuffer.UnsupportedFileTypeException;
+
+public class GenotypeSampleIndex {
+
+	//Sample -> (Variant UID, Record Offset) posting lists for a genotype table
+	//Sits next to the genotype table/index so that per-sample queries only
+	//	touch the records that sample actually has a genotype in.
+	//Postings are kept in table order, so following them is a forward pass.
+
+	//File format (BE)...
+	//Magic [8]
+	//Version [4]
+	//Sample Count [4]
+	//Table Size [8] (Size of genotype table at time of writing)
+	//Table Modified [8] (Last modified time of genotype table at time of writing, ms)
+
+	//Sample Records [16 each]
+	//	Sample UID [4]
+	//	Posting Count [4]
+	//	Posting Offset [8]
+
+	//Postings [16 each]
+	//	Var UID [8]
+	//	Record Offset [8]
+
+	public static final String MAGIC = "svdbGSMP";
+	public static final int VERSION = 2;
+	public static final String EXT = "gsmpx";
+
+	public static final int HEADER_SIZE = 32;
+
+	private static final int INIT_LIST_SIZE = 64;
+
+	/*----- Inner Classes -----*/
+
+	public static class Posting
+	{
+		private long varUID;
+		private long offset;
+
+		public Posting(long vid, long off)
+		{
+			varUID = vid;
+			offset = off;
+		}
+
+		public long getVariantUID(){return varUID;}
+		public long getRecordOffset(){return offset;}
+	}
+
+	private static class PostingList
+	{
+		private long[] varUIDs;
+		private long[] offsets;
+		private int count;
+
+		public PostingList()
+		{
+			varUIDs = new long[INIT_LIST_SIZE];
+			offsets = new long[INIT_LIST_SIZE];
+		}
+
+		public void add(long vid, long off)
+		{
+			if(count >= varUIDs.length)
+			{
+				int nsz = varUIDs.length << 1;
+				long[] nv = new long[nsz];
+				long[] no = new long[nsz];
+				System.arraycopy(varUIDs, 0, nv, 0, count);
+				System.arraycopy(offsets, 0, no, 0, count);
+				varUIDs = nv;
+				offsets = no;
+			}
+			varUIDs[count] = vid;
+			offsets[count] = off;
+			count++;
+		}
+	}
+
+	private static class DiskRecord
+	{
+		public int count;
+		public long offset;
+	}
+
+	/*----- Instance Variables -----*/
+
+	//Building
+	private Map<Integer, PostingList> building;
+
+	//Written
+	private String indexPath;
+	private Map<Integer, DiskRecord> sampleTable;
+	private long tableSize;
+	private long tableModified;
+
+	/*----- Construction -----*/
+
+	public GenotypeSampleIndex()
+	{
+		building = new TreeMap<Integer, PostingList>();
+		tableSize = -1L;
+		tableModified = -1L;
+	}
+
+	public static GenotypeSampleIndex readIndex(String path) throws IOException, UnsupportedFileTypeException
+	{
+		//Only the sample table is loaded. Postings are read when asked for.
+		FileBuffer header = FileBuffer.createBuffer(path, 0, HEADER_SIZE, true);
+		long cpos = header.findString(0, 0x10, MAGIC);
+		if (cpos != 0) throw new FileBuffer.UnsupportedFileTypeException();
+		int ver = header.intFromFile(8);
+		if (ver != VERSION) throw new FileBuffer.UnsupportedFileTypeException();
+		int scount = header.intFromFile(12);
+
+		GenotypeSampleIndex idx = new GenotypeSampleIndex();
+		idx.building = null;
+		idx.indexPath = path;
+		idx.tableSize = header.longFromFile(16);
+		idx.tableModified = header.longFromFile(24);
+		idx.sampleTable = new TreeMap<Integer, DiskRecord>();
+
+		if(scount > 0)
+		{
+			FileBuffer stbl = FileBuffer.createBuffer(path, HEADER_SIZE, HEADER_SIZE + (scount * 16L), true);
+			cpos = 0;
+			for(int i = 0; i < scount; i++)
+			{
+				int sid = stbl.intFromFile(cpos); cpos += 4;
+				DiskRecord r = new DiskRecord();
+				r.count = stbl.intFromFile(cpos); cpos += 4;
+				r.offset = stbl.longFromFile(cpos); cpos += 8;
+				idx.sampleTable.put(sid, r);
+			}
+		}
+
+		return idx;
+	}
+
+	/*----- Building -----*/
+
+	public void addPosting(int sampleUID, long varUID, long recordOffset)
+	{
+		if(building == null) return;
+		PostingList pl = building.get(sampleUID);
+		if(pl == null)
+		{
+			pl = new PostingList();
+			building.put(sampleUID, pl);
+		}
+		pl.add(varUID, recordOffset);
+	}
+
+	private static void packLong(byte[] arr, int pos, long val)
+	{
+		for(int i = 7; i >= 0; i--)
+		{
+			arr[pos + i] = (byte)(val & 0xFF);
+			val = val >>> 8;
+		}
+	}
+
+	/**
+	 * Write the index out and switch to reading postings from the file.
+	 * @param path Path to write the index to.
+	 * @param tablePath Genotype table the index was built from. Its size and
+	 * modification time are recorded so a stale index can be spotted (see matchesTable).
+	 */
+	public void writeIndex(String path, String tablePath) throws IOException
+	{
+		//Once written, the in-memory postings are dropped and the index
+		//	reads from the file instead.
+		if(building == null) return;
+		long tblSize = FileBuffer.fileSize(tablePath);
+		long tblModified = new File(tablePath).lastModified();
+
+		List<Integer> samples = new ArrayList<Integer>(building.size() + 1);
+		samples.addAll(building.keySet());
+		Collections.sort(samples);
+		int scount = samples.size();
+
+		Map<Integer, DiskRecord> stbl = new TreeMap<Integer, DiskRecord>();
+		BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(path));
+
+		FileBuffer header = new FileBuffer(HEADER_SIZE + (scount * 16), true);
+		header.printASCIIToFile(MAGIC);
+		header.addToFile(VERSION);
+		header.addToFile(scount);
+		header.addToFile(tblSize);
+		header.addToFile(tblModified);
+		long poff = HEADER_SIZE + (scount * 16L);
+		for(Integer s : samples)
+		{
+			PostingList pl = building.get(s);
+			header.addToFile(s);
+			header.addToFile(pl.count);
+			header.addToFile(poff);
+
+			DiskRecord r = new DiskRecord();
+			r.count = pl.count;
+			r.offset = poff;
+			stbl.put(s, r);
+			poff += pl.count * 16L;
+		}
+		bw.write(header.getBytes());
+
+		byte[] rec = new byte[16];
+		for(Integer s : samples)
+		{
+			PostingList pl = building.get(s);
+			for(int i = 0; i < pl.count; i++)
+			{
+				packLong(rec, 0, pl.varUIDs[i]);
+				packLong(rec, 8, pl.offsets[i]);
+				bw.write(rec);
+			}
+		}
+		bw.close();
+
+		building = null;
+		indexPath = path;
+		sampleTable = stbl;
+		tableSize = tblSize;
+		tableModified = tblModified;
+	}
+
+	/*----- Getters -----*/
+
+	public long getTableSize()
+	{
+		return tableSize;
+	}
+
+	public long getTableModifiedTime()
+	{
+		return tableModified;
+	}
+
+	public boolean matchesTable(String tablePath)
+	{
+		//Cheap staleness check - a table rewritten to the same size still has a new mtime
+		if(building != null) return false;
+		if(!FileBuffer.fileExists(tablePath)) return false;
+		if(FileBuffer.fileSize(tablePath) != tableSize) return false;
+		return new File(tablePath).lastModified() == tableModified;
+	}
+
+	public Set<Integer> getSamples()
+	{
+		if(building != null) return building.keySet();
+		return sampleTable.keySet();
+	}
+
+	public int countPostings(int sampleUID)
+	{
+		if(building != null)
+		{
+			PostingList pl = building.get(sampleUID);
+			if(pl == null) return 0;
+			return pl.count;
+		}
+		DiskRecord r = sampleTable.get(sampleUID);
+		if(r == null) return 0;
+		return r.count;
+	}
+
+	public List<Posting> getPostings(int sampleUID) throws IOException
+	{
+		if(building != null)
+		{
+			PostingList pl = building.get(sampleUID);
+			if(pl == null) return new ArrayList<Posting>(1);
+			List<Posting> list = new ArrayList<Posting>(pl.count);
+			for(int i = 0; i < pl.count; i++) list.add(new Posting(pl.varUIDs[i], pl.offsets[i]));
+			return list;
+		}
+
+		DiskRecord r = sampleTable.get(sampleUID);
+		if(r == null || r.count < 1) return new ArrayList<Posting>(1);
+		List<Posting> list = new ArrayList<Posting>(r.count);
+		FileBuffer pdat = FileBuffer.createBuffer(indexPath, r.offset, r.offset + (r.count * 16L), true);
+		long cpos = 0;
+		for(int i = 0; i < r.count; i++)
+		{
+			long vid = pdat.longFromFile(cpos); cpos += 8;
+			long off = pdat.longFromFile(cpos); cpos += 8;
+			list.add(new Posting(vid, off));
+		}
+
+		return list;
+	}
+
+}
@@ -1,5 +1,6 @@
 package hospelhornbg_svdb;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -46,6 +47,7 @@ public class GenotypeTable {
 	
 	private String tablePath;
 	private GenotypeIndex index;
+	private GenotypeSampleIndex sampleIndex;
 	
 	private StreamBuffer openStream;
 	private long streamPosition;
@@ -67,6 +69,31 @@ public class GenotypeTable {
 			System.err.println("GenotypeTable.<init> || WARNING: Table could not be indexed! Index will remain null!");
 			e.printStackTrace();
 		}
+		
+		//Sample postings (rebuilt if missing or out of date)
+		if(index != null)
+		{
+			try
+			{
+				String spath = this.generateSampleIndexPath();
+				if (FileBuffer.fileExists(spath))
+				{
+					try {sampleIndex = GenotypeSampleIndex.readIndex(spath);}
+					catch(FileBuffer.UnsupportedFileTypeException e) {sampleIndex = null;} //Old version or damaged - rebuild
+				}
+				if (sampleIndex == null || !sampleIndex.matchesTable(tablePath))
+				{
+					sampleIndex = generateSampleIndex();
+					sampleIndex.writeIndex(spath, tablePath);
+				}
+			}
+			catch(Exception e)
+			{
+				System.err.println("GenotypeTable.<init> || WARNING: Sample index could not be read or generated! Sample lookups will scan the table!");
+				e.printStackTrace();
+				sampleIndex = null;
+			}
+		}
 	}
 	
 	protected class IndexUnit
@@ -102,6 +129,7 @@ public class GenotypeTable {
 		streamPosition += 4;
 		
 		int gcount = openStream.intFromFile(streamPosition);
+		streamPosition += 4;
 		for (int i = 0; i < gcount; i++)
 		{
 			//Skip sampleID
@@ -146,9 +174,93 @@ public class GenotypeTable {
 		return list;
 	}
 	
+	protected GenotypeSampleIndex generateSampleIndex() throws IOException
+	{
+		GenotypeSampleIndex sidx = new GenotypeSampleIndex();
+		openStream();
+		long fsz = FileBuffer.fileSize(tablePath);
+		while(streamPosition < fsz)
+		{
+			long recoff = streamPosition;
+			int varid = openStream.intFromFile(streamPosition); streamPosition += 4;
+			int icount = openStream.intFromFile(streamPosition); streamPosition += 4;
+			for (int i = 0; i < icount; i++)
+			{
+				int sid = openStream.intFromFile(streamPosition); streamPosition += 4;
+				short acount = openStream.shortFromFile(streamPosition); streamPosition += 2;
+				streamPosition += (10 * acount);
+				sidx.addPosting(sid, varid, recoff);
+			}
+		}
+		closeStream();
+		return sidx;
+	}
+	
+	public List<Integer> getVariantIDsForSample(int sampleUID) throws IOException
+	{
+		List<Integer> list = new LinkedList<Integer>();
+		if (sampleIndex == null)
+		{
+			Map<Integer, SVDBGenotype> gmap = getGenotypesForSample(sampleUID);
+			if (gmap != null) list.addAll(gmap.keySet());
+			return list;
+		}
+		List<GenotypeSampleIndex.Posting> plist = sampleIndex.getPostings(sampleUID);
+		for(GenotypeSampleIndex.Posting p : plist) list.add((int)p.getVariantUID());
+		return list;
+	}
+	
 	public Map<Integer, SVDBGenotype> getGenotypesForSample(int sampleUID)
 	{
 		if (index == null) return null;
+		if (sampleIndex == null) return scanGenotypesForSample(sampleUID);
+		
+		List<GenotypeSampleIndex.Posting> plist = null;
+		try 
+		{
+			plist = sampleIndex.getPostings(sampleUID);
+			openStream();
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+		
+		//Only visit the records this sample is in
+		Map<Integer, SVDBGenotype> gmap = new TreeMap<Integer, SVDBGenotype>();
+		for(GenotypeSampleIndex.Posting p : plist)
+		{
+			streamPosition = p.getRecordOffset();
+			int varid = openStream.intFromFile(streamPosition); streamPosition += 4;
+			int icount = openStream.intFromFile(streamPosition); streamPosition += 4;
+			for (int i = 0; i < icount; i++)
+			{
+				int sid = openStream.intFromFile(streamPosition); streamPosition += 4;
+				short acount = openStream.shortFromFile(streamPosition); streamPosition += 2;
+				if (sid == sampleUID)
+				{
+					SVDBGenotype g = new SVDBGenotype(sampleUID, acount);
+					for(short j = 0; j < acount; j++)
+					{
+						int c = (int)openStream.shortFromFile(streamPosition); streamPosition += 2;
+						int st = openStream.intFromFile(streamPosition); streamPosition += 4;
+						int ed = openStream.intFromFile(streamPosition); streamPosition += 4;
+						g.addAllele(c, st, ed);
+					}
+					gmap.put(varid, g);
+					break;
+				}
+				else streamPosition += (10 * acount);
+			}
+		}
+		
+		closeStream();
+		return gmap;
+	}
+	
+	private Map<Integer, SVDBGenotype> scanGenotypesForSample(int sampleUID)
+	{
 		try {openStream();}
 		catch(IOException e)
 		{
@@ -229,6 +341,16 @@ public class GenotypeTable {
 		return arr;
 	}
 	
+	private int writeVariantRecord(FileOutputStream out, int varID, List<SVDBGenotype> genoList, long offset, GenotypeSampleIndex sidx) throws IOException
+	{
+		//Postings are collected as the records go out so the sample
+		//	index never needs its own pass over the table
+		byte[] rec = serializeVariantRecord(varID, genoList);
+		out.write(rec);
+		for(SVDBGenotype g : genoList) sidx.addPosting(g.getIndividualUID(), varID, offset);
+		return rec.length;
+	}
+	
 	private static byte[] serializeHeader()
 	{
 		FileBuffer header = new FileBuffer(16, true);
@@ -260,6 +382,8 @@ public class GenotypeTable {
 		
 		FileOutputStream myStream = new FileOutputStream(temppath);
 		myStream.write(serializeHeader());
+		GenotypeSampleIndex sidx = new GenotypeSampleIndex();
+		long cpos = 16;
 		
 		for(Integer vid : allids)
 		{
@@ -279,7 +403,7 @@ public class GenotypeTable {
 			}
 			else
 			{
-				myStream.write(serializeVariantRecord(vid, ngenos));
+				cpos += writeVariantRecord(myStream, vid, ngenos, cpos, sidx);
 			}
 		}
 		
@@ -291,6 +415,8 @@ public class GenotypeTable {
 		//Reindex
 		index = GenotypeIndex.generateIndex(this);
 		index.writeIndex(generateIndexPath());
+		sidx.writeIndex(generateSampleIndexPath(), tablePath);
+		sampleIndex = sidx;
 		
 		return outids;
 	}
@@ -308,6 +434,8 @@ public class GenotypeTable {
 		
 		FileOutputStream myStream = new FileOutputStream(temppath);
 		myStream.write(serializeHeader());
+		GenotypeSampleIndex sidx = new GenotypeSampleIndex();
+		long cpos = 16;
 		
 		for(Integer vid : allids)
 		{
@@ -335,12 +463,12 @@ public class GenotypeTable {
 					if(i >= 0) ngenos.remove(i);
 					ngenos.add(g);
 				}
-				myStream.write(serializeVariantRecord(vid, ngenos));
+				cpos += writeVariantRecord(myStream, vid, ngenos, cpos, sidx);
 			}
 			else
 			{
 				//Just rewrite!
-				myStream.write(serializeVariantRecord(vid, genos));
+				cpos += writeVariantRecord(myStream, vid, genos, cpos, sidx);
 			}
 		}
 		
@@ -352,6 +480,8 @@ public class GenotypeTable {
 		//Reindex
 		index = GenotypeIndex.generateIndex(this);
 		index.writeIndex(generateIndexPath());
+		sidx.writeIndex(generateSampleIndexPath(), tablePath);
+		sampleIndex = sidx;
 		
 	}
 
@@ -360,11 +490,27 @@ public class GenotypeTable {
 		return tablePath;
 	}
 	
-	public String generateIndexPath()
+	/**
+	 * Path of a file that sits next to a genotype table (index, sample index...).
+	 * The table's extension is swapped for the given one - it is only appended
+	 * if the table has no extension.
+	 */
+	public static String getSidecarPath(String tablePath, String ext)
 	{
 		int dot = tablePath.lastIndexOf('.');
-		if (dot >= 0) return tablePath.substring(0, dot) + "." + GenotypeIndex.EXT;
-		return tablePath + "." + GenotypeIndex.EXT;
+		int sep = Math.max(tablePath.lastIndexOf('/'), tablePath.lastIndexOf(File.separatorChar));
+		if (dot > sep) return tablePath.substring(0, dot) + "." + ext;
+		return tablePath + "." + ext;
+	}
+	
+	public String generateIndexPath()
+	{
+		return getSidecarPath(tablePath, GenotypeIndex.EXT);
+	}
+
+	public String generateSampleIndexPath()
+	{
+		return getSidecarPath(tablePath, GenotypeSampleIndex.EXT);
 	}
 
 	public void generateEmptyTable() throws IOException
@@ -376,6 +522,8 @@ public class GenotypeTable {
 		t.writeFile(tablePath);
 		
 		index.writeIndex(generateIndexPath());
+		sampleIndex = new GenotypeSampleIndex();
+		sampleIndex.writeIndex(generateSampleIndexPath(), tablePath);
 	}
 	
 }
@@ -0,0 +1,327 @@
+package hospelhornbg_svdb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class LRUCache<K, V> {
+
+	//Concurrent LRU cache shared by the svdb variant/genotype caches
+	//Keys are hashed to segments, each segment is an access ordered
+	//	LinkedHashMap behind its own lock, so a hit is an O(1) relink
+	//	instead of a scan of a recency queue.
+	//Entry and byte budgets are split evenly between segments, so eviction
+	//	is LRU within a segment (approximately LRU overall). A segment
+	//	always keeps its newest entry, even if that alone is over budget.
+	//A budget of 0 means no limit.
+
+	/*----- Constants -----*/
+
+	public static final int DEFO_SEGMENTS = 16;
+	public static final int MIN_ENTRIES_PER_SEGMENT = 64;
+
+	/*----- Inner Classes -----*/
+
+	public static interface SizeEstimator<V>
+	{
+		public long estimateSize(V value);
+	}
+
+	private static class Slot<V>
+	{
+		public V value;
+		public long bytes;
+
+		public Slot(V v, long sz)
+		{
+			value = v;
+			bytes = sz;
+		}
+	}
+
+	private class Segment
+	{
+		private ReentrantLock lock;
+		private LinkedHashMap<K, Slot<V>> map;
+		private long bytes;
+
+		public Segment()
+		{
+			lock = new ReentrantLock();
+			map = new LinkedHashMap<K, Slot<V>>(16, 0.75f, true);
+		}
+
+		public V get(K key)
+		{
+			lock.lock();
+			try
+			{
+				Slot<V> s = map.get(key); //Moves to back
+				if(s == null) return null;
+				return s.value;
+			}
+			finally {lock.unlock();}
+		}
+
+		public V put(K key, V value, long sz)
+		{
+			lock.lock();
+			try
+			{
+				Slot<V> old = map.put(key, new Slot<V>(value, sz));
+				bytes += sz;
+				if(old != null) bytes -= old.bytes;
+				trim(key);
+				if(old == null) return null;
+				return old.value;
+			}
+			finally {lock.unlock();}
+		}
+
+		private void trim(K keep)
+		{
+			long maxe = segMaxEntries;
+			long maxb = segMaxBytes;
+			Iterator<Map.Entry<K, Slot<V>>> itr = map.entrySet().iterator();
+			while(itr.hasNext())
+			{
+				boolean over = (maxe > 0 && map.size() > maxe) || (maxb > 0 && bytes > maxb);
+				if(!over) break;
+				Map.Entry<K, Slot<V>> e = itr.next();
+				if(e.getKey().equals(keep)) continue; //Don't toss what was just added
+				bytes -= e.getValue().bytes;
+				itr.remove();
+				evictions.incrementAndGet();
+			}
+		}
+
+		public V remove(K key)
+		{
+			lock.lock();
+			try
+			{
+				Slot<V> old = map.remove(key);
+				if(old == null) return null;
+				bytes -= old.bytes;
+				return old.value;
+			}
+			finally {lock.unlock();}
+		}
+
+		public boolean containsKey(K key)
+		{
+			lock.lock();
+			try {return map.containsKey(key);}
+			finally {lock.unlock();}
+		}
+
+		public int size()
+		{
+			lock.lock();
+			try {return map.size();}
+			finally {lock.unlock();}
+		}
+
+		public long bytes()
+		{
+			lock.lock();
+			try {return bytes;}
+			finally {lock.unlock();}
+		}
+
+		public void addKeysTo(List<K> list)
+		{
+			lock.lock();
+			try {list.addAll(map.keySet());}
+			finally {lock.unlock();}
+		}
+
+		public void clear()
+		{
+			lock.lock();
+			try
+			{
+				map.clear();
+				bytes = 0;
+			}
+			finally {lock.unlock();}
+		}
+
+	}
+
+	/*----- Instance Variables -----*/
+
+	private List<Segment> segments;
+	private int segMask;
+
+	private volatile long segMaxEntries;
+	private volatile long segMaxBytes;
+	private long maxEntries;
+	private long maxBytes;
+
+	private SizeEstimator<V> estimator;
+
+	private AtomicLong hits;
+	private AtomicLong misses;
+	private AtomicLong evictions;
+
+	/*----- Construction -----*/
+
+	public LRUCache(long entryBudget)
+	{
+		this(entryBudget, 0L, null);
+	}
+
+	public LRUCache(long entryBudget, long byteBudget, SizeEstimator<V> sizer)
+	{
+		//Small caches don't need many locks
+		int scount = DEFO_SEGMENTS;
+		if(entryBudget > 0)
+		{
+			while(scount > 1 && (entryBudget / scount) < MIN_ENTRIES_PER_SEGMENT) scount >>>= 1;
+		}
+		segments = new ArrayList<Segment>(scount);
+		for(int i = 0; i < scount; i++) segments.add(new Segment());
+		segMask = scount - 1;
+
+		estimator = sizer;
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		evictions = new AtomicLong();
+
+		setBudgets(entryBudget, byteBudget);
+	}
+
+	/*----- Internal -----*/
+
+	private Segment getSegment(Object key)
+	{
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments.get(h & segMask);
+	}
+
+	private static long splitBudget(long total, int parts)
+	{
+		if(total <= 0) return 0;
+		long each = (total + parts - 1) / parts;
+		if(each < 1) each = 1;
+		return each;
+	}
+
+	/*----- Getters -----*/
+
+	public V get(K key)
+	{
+		if(key == null) return null;
+		V v = getSegment(key).get(key);
+		if(v != null) hits.incrementAndGet();
+		else misses.incrementAndGet();
+		return v;
+	}
+
+	public boolean containsKey(K key)
+	{
+		if(key == null) return false;
+		return getSegment(key).containsKey(key);
+	}
+
+	public int size()
+	{
+		int total = 0;
+		for(Segment s : segments) total += s.size();
+		return total;
+	}
+
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	public long getByteSize()
+	{
+		long total = 0;
+		for(Segment s : segments) total += s.bytes();
+		return total;
+	}
+
+	public List<K> getKeySnapshot()
+	{
+		List<K> list = new ArrayList<K>(size() + 16);
+		for(Segment s : segments) s.addKeysTo(list);
+		return list;
+	}
+
+	public long getEntryBudget(){return maxEntries;}
+	public long getByteBudget(){return maxBytes;}
+
+	public long getHitCount(){return hits.get();}
+	public long getMissCount(){return misses.get();}
+	public long getEvictionCount(){return evictions.get();}
+
+	public double getHitRate()
+	{
+		long h = hits.get();
+		long total = h + misses.get();
+		if(total == 0) return 0.0;
+		return (double)h / (double)total;
+	}
+
+	public String getStatsString()
+	{
+		return "Entries: " + size() + "/" + maxEntries + " | Bytes: " + getByteSize() + "/" + maxBytes
+				+ " | Hits: " + hits.get() + " | Misses: " + misses.get() + " | Evictions: " + evictions.get();
+	}
+
+	/*----- Setters -----*/
+
+	public V put(K key, V value)
+	{
+		long sz = 0;
+		if(estimator != null) sz = estimator.estimateSize(value);
+		return put(key, value, sz);
+	}
+
+	public V put(K key, V value, long bytes)
+	{
+		if(key == null || value == null) return null;
+		return getSegment(key).put(key, value, bytes);
+	}
+
+	public V remove(K key)
+	{
+		if(key == null) return null;
+		return getSegment(key).remove(key);
+	}
+
+	public void clear()
+	{
+		for(Segment s : segments) s.clear();
+	}
+
+	public void setBudgets(long entryBudget, long byteBudget)
+	{
+		//Takes effect on the next put to each segment
+		maxEntries = entryBudget;
+		maxBytes = byteBudget;
+		segMaxEntries = splitBudget(entryBudget, segments.size());
+		segMaxBytes = splitBudget(byteBudget, segments.size());
+	}
+
+	public void setSizeEstimator(SizeEstimator<V> sizer)
+	{
+		estimator = sizer;
+	}
+
+	public void resetCounters()
+	{
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+}
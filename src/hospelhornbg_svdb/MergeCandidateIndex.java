@@ -0,0 +1,324 @@
+package hospelhornbg_svdb;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import hospelhornbg_bioinformatics.Interval;
+import hospelhornbg_bioinformatics.SVType;
+import hospelhornbg_bioinformatics.StructuralVariant;
+import hospelhornbg_bioinformatics.Translocation;
+import hospelhornbg_genomeBuild.Contig;
+
+public class MergeCandidateIndex {
+
+	//In-memory interval index for variant merging
+	//One tree per contig/SV type pair, keyed by the start of the POS CI
+	//Each node also carries the value the merge leeway is calculated from
+	//	(so the leeway expansion done in DBVariant.svIsEquivalent can be
+	//	accounted for while pruning)
+
+	/*----- Constants -----*/
+
+	public static final int TRA_LEEWAY_BASE = 1000;
+
+	/*----- Inner Classes -----*/
+
+	private static class Entry
+	{
+		public long varUID;
+		public Contig contig;
+		public SVType type;
+		public int lo;
+	}
+
+	private static class Node
+	{
+		//Key
+		public int lo;
+		public long varUID;
+
+		//Value
+		public int hi;
+		public int leewayBase;
+
+		//Subtree augmentation
+		public int maxHi;
+		public int maxBase;
+
+		//Treap
+		public int priority;
+		public Node left;
+		public Node right;
+
+		public Node(int start, int end, int base, long vid, int pri)
+		{
+			lo = start;
+			hi = end;
+			leewayBase = base;
+			varUID = vid;
+			priority = pri;
+			maxHi = hi;
+			maxBase = leewayBase;
+		}
+
+		public int compareKey(int olo, long ovid)
+		{
+			if(lo != olo) return (lo < olo)?-1:1;
+			if(varUID != ovid) return (varUID < ovid)?-1:1;
+			return 0;
+		}
+
+		public void update()
+		{
+			maxHi = hi;
+			maxBase = leewayBase;
+			if(left != null)
+			{
+				if(left.maxHi > maxHi) maxHi = left.maxHi;
+				if(left.maxBase > maxBase) maxBase = left.maxBase;
+			}
+			if(right != null)
+			{
+				if(right.maxHi > maxHi) maxHi = right.maxHi;
+				if(right.maxBase > maxBase) maxBase = right.maxBase;
+			}
+		}
+	}
+
+	private static class IntervalTree
+	{
+		private Node root;
+		private int count;
+		private Random rng;
+
+		public IntervalTree()
+		{
+			rng = new Random();
+		}
+
+		private static Node rotateRight(Node n)
+		{
+			Node l = n.left;
+			n.left = l.right;
+			l.right = n;
+			n.update();
+			l.update();
+			return l;
+		}
+
+		private static Node rotateLeft(Node n)
+		{
+			Node r = n.right;
+			n.right = r.left;
+			r.left = n;
+			n.update();
+			r.update();
+			return r;
+		}
+
+		private Node insert(Node n, Node add)
+		{
+			if(n == null) return add;
+			if(n.compareKey(add.lo, add.varUID) > 0)
+			{
+				n.left = insert(n.left, add);
+				if(n.left.priority > n.priority) return rotateRight(n);
+			}
+			else
+			{
+				n.right = insert(n.right, add);
+				if(n.right.priority > n.priority) return rotateLeft(n);
+			}
+			n.update();
+			return n;
+		}
+
+		private Node remove(Node n, int lo, long vid)
+		{
+			if(n == null) return null;
+			int c = n.compareKey(lo, vid);
+			if(c > 0) n.left = remove(n.left, lo, vid);
+			else if(c < 0) n.right = remove(n.right, lo, vid);
+			else
+			{
+				//Rotate down until it has at most one child, then drop
+				if(n.left == null) return n.right;
+				if(n.right == null) return n.left;
+				if(n.left.priority > n.right.priority)
+				{
+					n = rotateRight(n);
+					n.right = remove(n.right, lo, vid);
+				}
+				else
+				{
+					n = rotateLeft(n);
+					n.left = remove(n.left, lo, vid);
+				}
+			}
+			n.update();
+			return n;
+		}
+
+		private static long leeway(double percLeeway, int base)
+		{
+			return Math.round(percLeeway * (double)base);
+		}
+
+		private static void query(Node n, int st, int ed, double percLeeway, List<Long> out)
+		{
+			if(n == null) return;
+			//Nothing in this subtree can reach the query start even with max leeway
+			long maxlee = leeway(percLeeway, n.maxBase) + 1;
+			if((long)n.maxHi + maxlee < (long)st) return;
+
+			query(n.left, st, ed, percLeeway, out);
+
+			long lee = leeway(percLeeway, n.leewayBase);
+			if(((long)n.lo - lee <= (long)ed) && ((long)n.hi + lee >= (long)st)) out.add(n.varUID);
+
+			//Everything to the right starts at or after this node
+			if(n.right != null)
+			{
+				long rlee = leeway(percLeeway, n.right.maxBase) + 1;
+				if((long)n.lo - rlee > (long)ed) return;
+				query(n.right, st, ed, percLeeway, out);
+			}
+		}
+
+		public synchronized void add(int lo, int hi, int base, long vid)
+		{
+			root = insert(root, new Node(lo, hi, base, vid, rng.nextInt()));
+			count++;
+		}
+
+		public synchronized void remove(int lo, long vid)
+		{
+			root = remove(root, lo, vid);
+			count--;
+		}
+
+		public synchronized List<Long> getOverlapping(int st, int ed, double percLeeway)
+		{
+			List<Long> list = new LinkedList<Long>();
+			query(root, st, ed, percLeeway, list);
+			return list;
+		}
+
+		public synchronized int size()
+		{
+			return count;
+		}
+	}
+
+	/*----- Instance Variables -----*/
+
+	private ConcurrentMap<Contig, Map<SVType, IntervalTree>> trees;
+	private ConcurrentMap<Long, Entry> entries;
+
+	/*----- Construction -----*/
+
+	public MergeCandidateIndex()
+	{
+		trees = new ConcurrentHashMap<Contig, Map<SVType, IntervalTree>>();
+		entries = new ConcurrentHashMap<Long, Entry>();
+	}
+
+	/*----- Internal -----*/
+
+	private IntervalTree getTree(Contig c, SVType t, boolean create)
+	{
+		if(c == null || t == null) return null;
+		Map<SVType, IntervalTree> tmap = trees.get(c);
+		if(tmap == null)
+		{
+			if(!create) return null;
+			trees.putIfAbsent(c, new ConcurrentHashMap<SVType, IntervalTree>());
+			tmap = trees.get(c);
+		}
+		IntervalTree tree = tmap.get(t);
+		if(tree == null)
+		{
+			if(!create) return null;
+			tmap.putIfAbsent(t, new IntervalTree());
+			tree = tmap.get(t);
+		}
+		return tree;
+	}
+
+	public static int getLeewayBase(DBVariant var)
+	{
+		//Mirrors the leeway calculation in DBVariant.svIsEquivalent
+		SVType t = var.getType();
+		if(t == SVType.INS || t == SVType.INSME) return 0;
+		if(t == SVType.TRA || t == SVType.BND) return TRA_LEEWAY_BASE;
+		int sz = var.getEndPosition().getEnd() - var.getStartPosition().getStart();
+		if(sz < 0) return 0;
+		return sz;
+	}
+
+	/*----- Getters -----*/
+
+	public List<Long> getMergeCandidates(StructuralVariant sv, double percLeeway)
+	{
+		if(sv == null) return new LinkedList<Long>();
+		Contig c = null;
+		if(sv instanceof Translocation) c = ((Translocation)sv).getChromosome1();
+		else c = sv.getChromosome();
+		IntervalTree tree = getTree(c, sv.getType(), false);
+		if(tree == null) return new LinkedList<Long>();
+
+		Interval svPos = sv.getCIPOS90();
+		return tree.getOverlapping(svPos.getStart(), svPos.getEnd(), percLeeway);
+	}
+
+	public boolean contains(long varUID)
+	{
+		return entries.containsKey(varUID);
+	}
+
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/*----- Setters -----*/
+
+	public void indexVariant(DBVariant var)
+	{
+		if(var == null) return;
+		if(var.getChrom() == null || var.getType() == null) return;
+
+		//Positions may have been changed in place (merge), so drop by old key first
+		long vid = var.getLongID();
+		removeVariant(vid);
+
+		Entry e = new Entry();
+		e.varUID = vid;
+		e.contig = var.getChrom();
+		e.type = var.getType();
+		e.lo = var.getStartPosition().getStart();
+
+		IntervalTree tree = getTree(e.contig, e.type, true);
+		tree.add(e.lo, var.getStartPosition().getEnd(), getLeewayBase(var), vid);
+		entries.put(vid, e);
+	}
+
+	public void removeVariant(long varUID)
+	{
+		Entry e = entries.remove(varUID);
+		if(e == null) return;
+		IntervalTree tree = getTree(e.contig, e.type, false);
+		if(tree != null) tree.remove(e.lo, varUID);
+	}
+
+	public void clear()
+	{
+		trees.clear();
+		entries.clear();
+	}
+
+}
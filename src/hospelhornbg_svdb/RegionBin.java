@@ -0,0 +1,101 @@
+package hospelhornbg_svdb;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+public class RegionBin {
+
+	//UCSC style hierarchical bins (same numbering as the UCSC browser's "bin" column)
+	//Five levels of 512Mb, 64Mb, 8Mb, 1Mb and 128kb blocks. A feature is put in the
+	//	smallest block that holds all of it, so a region query only needs to look at the
+	//	blocks along one path per level - one contiguous run of bin numbers per level.
+	//Positions past the end of the scheme (512Mb) are clamped. That only makes the
+	//	bins coarser - the coordinate test in the query is what decides overlap.
+
+	/*--- Constants ---*/
+
+	public static final int LEVELS = 5;
+	public static final int PARAMS_PER_QUERY = LEVELS * 2;
+
+	public static final int MAX_POS = (1 << 29) - 1;
+
+	//Largest block first
+	private static final int[] SHIFTS = {29, 26, 23, 20, 17};
+	private static final int[] OFFSETS = {0, 1, 9, 73, 585};
+
+	/*--- Bin Calculation ---*/
+
+	private static int clamp(int pos)
+	{
+		if(pos < 0) return 0;
+		if(pos > MAX_POS) return MAX_POS;
+		return pos;
+	}
+
+	/**
+	 * Get the bin of a feature.
+	 * @param first First base covered by the feature.
+	 * @param last Last base covered by the feature (inclusive).
+	 * @return Smallest bin that fully contains the feature.
+	 */
+	public static int getBin(int first, int last)
+	{
+		int s = clamp(first);
+		int e = clamp(last);
+		if(e < s) {int t = s; s = e; e = t;}
+		for(int l = LEVELS - 1; l >= 0; l--)
+		{
+			int sb = s >>> SHIFTS[l];
+			if(sb == (e >>> SHIFTS[l])) return OFFSETS[l] + sb;
+		}
+		return 0;
+	}
+
+	/**
+	 * Get the bin ranges that can hold features overlapping a region.
+	 * @param first First base of the query region.
+	 * @param last Last base of the query region (inclusive).
+	 * @return Array of LEVELS (min, max) pairs, largest level first.
+	 */
+	public static int[] getQueryBinRanges(int first, int last)
+	{
+		int s = clamp(first);
+		int e = clamp(last);
+		if(e < s) e = s;
+		int[] ranges = new int[PARAMS_PER_QUERY];
+		for(int l = 0; l < LEVELS; l++)
+		{
+			ranges[l << 1] = OFFSETS[l] + (s >>> SHIFTS[l]);
+			ranges[(l << 1) + 1] = OFFSETS[l] + (e >>> SHIFTS[l]);
+		}
+		return ranges;
+	}
+
+	/*--- SQL ---*/
+
+	/**
+	 * Generate a bin filter clause for a query.
+	 * ("(field BETWEEN ? AND ? OR field BETWEEN ? AND ? ...)")
+	 * Takes PARAMS_PER_QUERY parameters - fill with setQueryBinValues.
+	 */
+	public static String generateBinClause(String field)
+	{
+		StringBuilder sb = new StringBuilder(LEVELS * (field.length() + 24));
+		sb.append('(');
+		for(int l = 0; l < LEVELS; l++)
+		{
+			if(l > 0) sb.append(" OR ");
+			sb.append(field);
+			sb.append(" BETWEEN ? AND ?");
+		}
+		sb.append(')');
+		return sb.toString();
+	}
+
+	public static void setQueryBinValues(PreparedStatement pstat, int firstParam, int first, int last) throws SQLException
+	{
+		int[] ranges = getQueryBinRanges(first, last);
+		for(int i = 0; i < PARAMS_PER_QUERY; i++) pstat.setInt(firstParam + i, ranges[i]);
+	}
+
+}
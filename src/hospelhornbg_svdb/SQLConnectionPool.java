@@ -0,0 +1,158 @@
+package hospelhornbg_svdb;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public class SQLConnectionPool {
+
+	//Connections for SQLVariantTable
+	//The primary connection carries every write and the open transaction. Each thread gets
+	//	its own StatementPrepper (own prepared statements) on it, so threads never wait on
+	//	each other for a statement object. Preppers live until the pool is closed, so work
+	//	should run on long-lived threads - anything throwaway must call releaseLocalPrepper.
+	//Read-only connections are opened on demand (up to a limit) for bulk reads. They only
+	//	see committed rows, so the table only borrows them when it has nothing uncommitted.
+
+	/*--- Constants ---*/
+
+	public static final int DEFO_MAX_READERS = 4;
+
+	/*--- Instance Variables ---*/
+
+	private String dbURL;
+	private String username;
+	private String password;
+
+	private Connection primary;
+	private ThreadLocal<StatementPrepper> localPrepper;
+	private ConcurrentLinkedQueue<StatementPrepper> allLocal;
+
+	private int maxReaders;
+	private int openReaders;
+	private LinkedBlockingQueue<StatementPrepper> idleReaders;
+	private ConcurrentLinkedQueue<StatementPrepper> allReaders;
+
+	/*--- Construction ---*/
+
+	public SQLConnectionPool(Connection primaryConnection, String url, String user, String pw)
+	{
+		primary = primaryConnection;
+		dbURL = url;
+		username = user;
+		password = pw;
+		allLocal = new ConcurrentLinkedQueue<StatementPrepper>();
+		localPrepper = new ThreadLocal<StatementPrepper>(){
+			protected StatementPrepper initialValue()
+			{
+				StatementPrepper sp = new StatementPrepper(primary);
+				allLocal.add(sp);
+				return sp;
+			}
+		};
+
+		maxReaders = DEFO_MAX_READERS;
+		idleReaders = new LinkedBlockingQueue<StatementPrepper>();
+		allReaders = new ConcurrentLinkedQueue<StatementPrepper>();
+	}
+
+	/*--- Primary Connection ---*/
+
+	public Connection getPrimaryConnection()
+	{
+		return primary;
+	}
+
+	public StatementPrepper getLocalPrepper()
+	{
+		return localPrepper.get();
+	}
+
+	/**
+	 * Close the calling thread's StatementPrepper and forget it.
+	 * Short-lived threads that touched getLocalPrepper should call this before they end,
+	 * or their statements stay open until the pool is closed.
+	 */
+	public void releaseLocalPrepper()
+	{
+		StatementPrepper sp = localPrepper.get();
+		localPrepper.remove();
+		allLocal.remove(sp);
+		sp.closeStatements();
+	}
+
+	/*--- Read Connections ---*/
+
+	public synchronized int getMaxReaders()
+	{
+		return maxReaders;
+	}
+
+	public synchronized void setMaxReaders(int max)
+	{
+		//Already open connections over the limit are kept until closeReaders
+		if(max < 0) max = 0;
+		maxReaders = max;
+	}
+
+	private synchronized StatementPrepper openReaderIfAllowed() throws SQLException
+	{
+		if(openReaders >= maxReaders) return null;
+		Connection c = DriverManager.getConnection(dbURL, username, password);
+		c.setReadOnly(true);
+		c.setAutoCommit(true);
+		openReaders++;
+		StatementPrepper sp = new StatementPrepper(c);
+		allReaders.add(sp);
+		return sp;
+	}
+
+	/**
+	 * Borrow a read-only connection (as a StatementPrepper holding its statements).
+	 * Blocks if the limit is reached and all read connections are in use.
+	 * <br>Must be returned with returnReader.
+	 * @return Read-only StatementPrepper, or null if read connections are disabled.
+	 * @throws SQLException If a new connection could not be opened.
+	 * @throws InterruptedException If interrupted while waiting for a connection.
+	 */
+	public StatementPrepper borrowReader() throws SQLException, InterruptedException
+	{
+		StatementPrepper sp = idleReaders.poll();
+		if(sp != null) return sp;
+		sp = openReaderIfAllowed();
+		if(sp != null) return sp;
+		synchronized(this) {if(openReaders < 1) return null;}
+		return idleReaders.take();
+	}
+
+	public void returnReader(StatementPrepper sp)
+	{
+		if(sp != null) idleReaders.add(sp);
+	}
+
+	/*--- Cleanup ---*/
+
+	public synchronized void closeReaders()
+	{
+		//Only call when no reads are in progress
+		idleReaders.clear();
+		while(!allReaders.isEmpty())
+		{
+			StatementPrepper sp = allReaders.poll();
+			sp.closeStatements();
+			try {sp.getConnection().close();}
+			catch(SQLException e) {e.printStackTrace();}
+		}
+		openReaders = 0;
+	}
+
+	public void close()
+	{
+		//Primary connection is left to the owner
+		closeReaders();
+		while(!allLocal.isEmpty()) allLocal.poll().closeStatements();
+	}
+
+}
@@ -1,11 +1,8 @@
 package hospelhornbg_svdb;
 
 import java.sql.Blob;
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class SQLManager {
 	
@@ -36,236 +33,102 @@ public class SQLManager {
 	public static final String SKEY_GENEHITS_INSERT = "insert_genehit_record";
 	public static final String SKEY_GENEHITS_UPDATE = "update_genehit_record";
 	
+	public static final String SKEY_GROW_INSERT = "insert_genotype_row";
+	public static final String SKEY_GROW_GETSAMPLEVAR = "get_genotype_row_smplvar";
+	public static final String SKEY_GROW_DELETE_VAR = "delete_genotype_rows_var";
+	public static final String SKEY_GROW_DELETE_SAMPLE = "delete_genotype_rows_sample";
+	
 	public static final String[] ALL_KEYS = {SKEY_CHECKVARUID, SKEY_GETVAR, SKEY_GETGENO, SKEY_GETSAMPLEVAR,
 											 SKEY_GETVAR_REG, SKEY_GETVAR_REG_NOTRA, SKEY_GETVAR_REG_OFTYPE,
 											 SKEY_VAR_INSERT, SKEY_VAR_UPDATE_SHORT, SKEY_VAR_UPDATE_POP,
 											 SKEY_VAR_DELETE, SKEY_SGENO_INSERT, SKEY_SGENO_UPDATE,
 											 SKEY_SGENO_DELETE, SKEY_GENEHITS_GET, SKEY_GENEHITS_INSERT,
-											 SKEY_GENEHITS_UPDATE};
+											 SKEY_GENEHITS_UPDATE, SKEY_GROW_INSERT, SKEY_GROW_GETSAMPLEVAR,
+											 SKEY_GROW_DELETE_VAR, SKEY_GROW_DELETE_SAMPLE};
 	
 	/*--- Instance Variables ---*/
 	
-	private StatementPrepper statement_prepper;
-	
-	private ConcurrentHashMap<String, PreparedStatement> psLib;
-	private ConcurrentHashMap<String, Thread> psCleared;
-	private ConcurrentHashMap<String, ConcurrentLinkedQueue<Thread>> psWaitList;
+	//Statements are per thread (see SQLConnectionPool), so there is no statement
+	//	or execution hand-off between threads any more.
 	
-	private volatile Thread exeReady;
-	private ConcurrentLinkedQueue<Thread> exeQueue;
+	private SQLConnectionPool pool;
 	
 	/*--- Initialization ---*/
 	
-	public SQLManager(Connection c) throws SQLException
+	public SQLManager(SQLConnectionPool connections)
 	{
-		statement_prepper = new StatementPrepper(c);
-		psLib = new ConcurrentHashMap<String, PreparedStatement>();
-		psCleared = new ConcurrentHashMap<String, Thread>();
-		psWaitList = new ConcurrentHashMap<String, ConcurrentLinkedQueue<Thread>>();
-		exeQueue = new ConcurrentLinkedQueue<Thread>();
-		
-		populateLibrary();
+		pool = connections;
 	}
 	
-	private void populateLibrary() throws SQLException
-	{
-		psLib.put(SKEY_CHECKVARUID, statement_prepper.getVarUIDCheckStatement());
-		psLib.put(SKEY_GETVAR, statement_prepper.getVarGetterStatement());
-		psLib.put(SKEY_GETGENO, statement_prepper.getGenoGetterStatement());
-		psLib.put(SKEY_GETSAMPLEVAR, statement_prepper.getSampleVarGetterStatement());
-		
-		psLib.put(SKEY_GETVAR_REG, statement_prepper.getRegionVarGetterStatement());
-		psLib.put(SKEY_GETVAR_REG_NOTRA, statement_prepper.getRegionNoTRAVarGetterStatement());
-		psLib.put(SKEY_GETVAR_REG_OFTYPE, statement_prepper.getRegionNoTRAVarGetterStatement_ofType());
-	
-		psLib.put(SKEY_VAR_INSERT, statement_prepper.getFullInsertStatement());
-		psLib.put(SKEY_VAR_UPDATE_SHORT, statement_prepper.getShortUpdateStatement());
-		psLib.put(SKEY_VAR_UPDATE_POP, statement_prepper.getPopUpdateStatement());
-		psLib.put(SKEY_VAR_DELETE, statement_prepper.getVarDeleteStatment());
-		
-		psLib.put(SKEY_SGENO_INSERT, statement_prepper.getSGenoInsertStatement());
-		psLib.put(SKEY_SGENO_UPDATE, statement_prepper.getSGenoUpdateStatement());
-		psLib.put(SKEY_SGENO_DELETE, statement_prepper.getSampleGenoDeleteStatment());
-		
-		psLib.put(SKEY_GENEHITS_GET, statement_prepper.getGeneHitGetterStatement());
-		psLib.put(SKEY_GENEHITS_INSERT, statement_prepper.getGeneHitInsertStatement());
-		psLib.put(SKEY_GENEHITS_UPDATE, statement_prepper.getGeneHitUpdateStatement());
-		
-		for(String k : ALL_KEYS)
-		{
-			psWaitList.put(k, new ConcurrentLinkedQueue<Thread>());
-		}
-	}
-	
-	/*--- Statement Access Concurrency ---*/
-	
-	public PreparedStatement requestStatement(String key, boolean ignoreExternal)
-	{
-		//System.err.println(Thread.currentThread().getName() + " requested " + key);
-		if(psCleared.get(key) == null)
-		{
-			//Free pickin'
-			//System.err.println("No threads ahead in queue. " + Thread.currentThread().getName() + " checking for " + key);
-			PreparedStatement ps = psLib.remove(key);
-			if(ps != null)
-			{
-				//System.err.println(Thread.currentThread().getName() + " granted " + key);
-				return ps;	
-			}
-		}
-		
-		//Put on wait list and block until cleared
-		ConcurrentLinkedQueue<Thread> waitlist = psWaitList.get(key);
-		if(waitlist == null) return null; //Key is invalid
-		Thread me = Thread.currentThread();
-		waitlist.add(me);
-		while(psCleared.get(key) != me && (psLib.containsKey(key)))
-		{
-			try 
-			{
-				//We don't want it checking synchronously very often
-				Thread.sleep(10000);
-			} 
-			catch (InterruptedException e) 
-			{
-				//Check again!
-				if(psCleared.get(key) != me)
-				{
-					//We assume it was an external signal.
-					if(!ignoreExternal)
-					{
-						//System.err.println(Thread.currentThread().getName() + " received interrupt. Request for " + key + " withdrawn.");
-						waitlist.remove(me);
-						return null;	
-					}
-				}
-			}
-		}
-		
-		//System.err.println(Thread.currentThread().getName() + " granted " + key);
-		psCleared.remove(key);
-		return psLib.remove(key);
-	}
+	/*--- Statement Access ---*/
 	
-	public void releaseStatement(String key, PreparedStatement ps)
+	public PreparedStatement getStatement(String key) throws SQLException
 	{
-		//System.err.println(Thread.currentThread().getName() + " requesting release of " + key);
-		ConcurrentLinkedQueue<Thread> waitlist = psWaitList.get(key);
-		if(waitlist == null) return; //Key is invalid
-		Thread cleared = null;
-		if(!waitlist.isEmpty())
-		{
-			cleared = waitlist.poll();
-			psCleared.put(key, cleared);
-			//System.err.println(cleared.getName() + " queued next for " + key);
-		}
-		//If the waiting thread happens to check after its marked as cleared
-		// but before the statement is put back, it'll grab a null statement!
+		//The calling thread's own copy of the statement
+		StatementPrepper sp = pool.getLocalPrepper();
+		if(key == null) return null;
+		if(key.equals(SKEY_CHECKVARUID)) return sp.getVarUIDCheckStatement();
+		if(key.equals(SKEY_GETVAR)) return sp.getVarGetterStatement();
+		if(key.equals(SKEY_GETGENO)) return sp.getGenoGetterStatement();
+		if(key.equals(SKEY_GETSAMPLEVAR)) return sp.getSampleVarGetterStatement();
 		
-		psLib.put(key, ps);
-		if(cleared != null)
-		{
-			synchronized(cleared) {cleared.interrupt();}
-		}
-		//System.err.println(Thread.currentThread().getName() + " released " + key);
-	}
-	
-	/*--- Database Access Concurrency ---*/
-	
-	public boolean requestStatementExecution(boolean ignoreExternalInterrupts)
-	{
-		//Blocks until cleared for statement execution
-		//System.err.println(Thread.currentThread().getName() + " requesting statement execution!");
-		synchronized(this)
-		{
-			if(exeReady == null)
-			{
-				//Put me!
-				exeReady = Thread.currentThread();
-				//System.err.println(Thread.currentThread().getName() + " granted statement execution!");
-				return true;
-			}
-		}
+		if(key.equals(SKEY_GETVAR_REG)) return sp.getRegionVarGetterStatement();
+		if(key.equals(SKEY_GETVAR_REG_NOTRA)) return sp.getRegionNoTRAVarGetterStatement();
+		if(key.equals(SKEY_GETVAR_REG_OFTYPE)) return sp.getRegionNoTRAVarGetterStatement_ofType();
 		
-		Thread me = Thread.currentThread();
-		if(exeReady == me){
-			//System.err.println(Thread.currentThread().getName() + " already has execution permission!");
-			return true;
-		}
-		exeQueue.add(me);	
+		if(key.equals(SKEY_VAR_INSERT)) return sp.getFullInsertStatement();
+		if(key.equals(SKEY_VAR_UPDATE_SHORT)) return sp.getShortUpdateStatement();
+		if(key.equals(SKEY_VAR_UPDATE_POP)) return sp.getPopUpdateStatement();
+		if(key.equals(SKEY_VAR_DELETE)) return sp.getVarDeleteStatment();
 		
-		while(exeReady != me)
-		{
-			try 
-			{
-				Thread.sleep(10000);
-			} 
-			catch (InterruptedException e) 
-			{
-				if(exeReady != me)
-				{
-					if(!ignoreExternalInterrupts)
-					{
-						//System.err.println(Thread.currentThread().getName() + " received external interrupt. Withdrawing execution request...");
-						exeQueue.remove(me);
-						return false;	
-					}
-				}
-				break;
-			}
-		}
+		if(key.equals(SKEY_SGENO_INSERT)) return sp.getSGenoInsertStatement();
+		if(key.equals(SKEY_SGENO_UPDATE)) return sp.getSGenoUpdateStatement();
+		if(key.equals(SKEY_SGENO_DELETE)) return sp.getSampleGenoDeleteStatment();
 		
-		//System.err.println(Thread.currentThread().getName() + " granted statement execution!");
-		return true;
-	}
-	
-	public boolean acknowledgeStatementExecution()
-	{
-		//If this thread was the only one cleared to execute statement, this
-		//	allows queue to move forward
-		Thread me = Thread.currentThread();
-		if(exeReady != me) return false;
-		//System.err.println(Thread.currentThread().getName() + " requesting acknowledgement of statement execution");
+		if(key.equals(SKEY_GENEHITS_GET)) return sp.getGeneHitGetterStatement();
+		if(key.equals(SKEY_GENEHITS_INSERT)) return sp.getGeneHitInsertStatement();
+		if(key.equals(SKEY_GENEHITS_UPDATE)) return sp.getGeneHitUpdateStatement();
 		
-		if(!exeQueue.isEmpty())
-		{
-			synchronized(this) {exeReady = exeQueue.poll();}
-			synchronized(exeReady) {exeReady.interrupt();}
-		}
-		else exeReady = null;
+		if(key.equals(SKEY_GROW_INSERT)) return sp.getGenoRowInsertStatement();
+		if(key.equals(SKEY_GROW_GETSAMPLEVAR)) return sp.getGenoRowSampleVarGetterStatement();
+		if(key.equals(SKEY_GROW_DELETE_VAR)) return sp.getGenoRowVarDeleteStatement();
+		if(key.equals(SKEY_GROW_DELETE_SAMPLE)) return sp.getGenoRowSampleDeleteStatement();
 		
-		//System.err.println(Thread.currentThread().getName() + " acknowledgement of execution received");
-		return true;
+		return null; //Key is invalid
 	}
 
-	public Blob requestAccessAndBlob(byte[] data, boolean ignoreExternalInterrupts) throws SQLException
+	public Blob wrapInBlob(byte[] data) throws SQLException
 	{
-		if(!requestStatementExecution(ignoreExternalInterrupts)) return null;
-		return statement_prepper.wrapInBlob(data);
+		return pool.getLocalPrepper().wrapInBlob(data);
 	}
 	
 	/*--- Generated Statements ---*/
 	
 	public PreparedStatement generateMultiVarGetterStatement(int count) throws SQLException
 	{
-		return statement_prepper.generateMultiVarGetterStatement(count);
+		return pool.getLocalPrepper().generateMultiVarGetterStatement(count);
 	}
 	
 	public PreparedStatement generateMultiVarDeleteStatement(int count) throws SQLException
 	{
-		return statement_prepper.generateMultiVarDeleteStatement(count);
+		return pool.getLocalPrepper().generateMultiVarDeleteStatement(count);
 	}
 	
 	public PreparedStatement generateMultiGenoGetterStatement(int count) throws SQLException
 	{
-		return statement_prepper.generateMultiGenoGetterStatement(count);
+		return pool.getLocalPrepper().generateMultiGenoGetterStatement(count);
 	}
 	
 	/*--- Direct Access ---*/
 	
 	protected StatementPrepper getStatementGenerator()
 	{
-		return statement_prepper;
+		return pool.getLocalPrepper();
+	}
+	
+	protected SQLConnectionPool getConnectionPool()
+	{
+		return pool;
 	}
 	
 }
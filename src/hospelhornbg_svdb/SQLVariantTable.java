@@ -28,8 +28,13 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import hospelhornbg_bioinformatics.Genotype;
 import hospelhornbg_bioinformatics.SVType;
@@ -43,6 +48,7 @@ import hospelhornbg_segregation.Family;
 import hospelhornbg_segregation.FamilyMember;
 import hospelhornbg_segregation.Population;
 import hospelhornbg_svdb.DBVariantTable.GeneHitCounter;
+import hospelhornbg_svdb.SVDBGenotype.SVDBAllele;
 import waffleoRai_Utils.FileBuffer;
 
 public class SQLVariantTable implements VariantTable{
@@ -54,6 +60,7 @@ public class SQLVariantTable implements VariantTable{
 	public static final String TABLENAME_VARIANTS = "VARIANTS";
 	public static final String TABLENAME_SAMPLEGENO = "SAMPLEGENO";
 	public static final String TABLENAME_GENEHITS = "GENES";
+	public static final String TABLENAME_GENOROWS = "GENOTYPES";
 	
 	public static final String FIELDNAME_VARUID = "VARUID";
 	public static final String FIELDNAME_CTG1 = "CONTIG1";
@@ -89,6 +96,8 @@ public class SQLVariantTable implements VariantTable{
 	public static final String FIELDNAME_CTG2 = "CONTIG2";
 	public static final String FIELDNAME_INSSEQ = "INSERTION_SEQ";
 	public static final String FIELDNAME_GENOTYPES = "GENOTYPES";
+	public static final String FIELDNAME_BIN1 = "BIN1"; //RegionBin of CONTIG1 interval
+	public static final String FIELDNAME_BIN2 = "BIN2"; //RegionBin of END1-END2 (CONTIG2 for TRA)
 	
 	public static final String FIELDNAME_SAMPLEUID = "SAMPLEUID";
 	public static final String FIELDNAME_SVARLIST_HOM = "HOMVAR";
@@ -101,6 +110,14 @@ public class SQLVariantTable implements VariantTable{
 	public static final String FIELDNAME_GH_HITS_TI = "TOTAL_INDIVS"; //blob
 	public static final String FIELDNAME_GH_HITS_EI = "EXON_INDIVS"; //blob
 	
+	public static final String FIELDNAME_GR_ZYGOSITY = "ZYGOSITY"; //smallint
+	public static final String FIELDNAME_GR_ALTCOPIES = "ALTCOPIES"; //smallint
+	public static final String FIELDNAME_GR_ALLELES = "ALLELES"; //Same 10 byte allele records as the genotype BLOB
+	
+	public static final int GENOROW_ZYG_HET = 0;
+	public static final int GENOROW_ZYG_HOM = 1;
+	public static final int GENOROW_ZYG_OTH = 2;
+	
 	public static final String REGIDX_FILESTEM = "regidx_";
 	
 	public static final String[][] VAR_COLUMNS = {
@@ -117,7 +134,8 @@ public class SQLVariantTable implements VariantTable{
 			{FIELDNAME_ACOUNT_ASJ, "INTEGER"},{FIELDNAME_HCOUNT_ASJ, "INTEGER"},
 			{FIELDNAME_ACOUNT_OTH, "INTEGER"},{FIELDNAME_HCOUNT_OTH, "INTEGER"},
 			{FIELDNAME_GENELIST, "BLOB"},{FIELDNAME_VALNOTES, "VARCHAR(20000)"},{FIELDNAME_CTG2, "INTEGER"},
-			{FIELDNAME_INSSEQ, "BLOB"},{FIELDNAME_GENOTYPES, "BLOB"}};
+			{FIELDNAME_INSSEQ, "BLOB"},{FIELDNAME_GENOTYPES, "BLOB"},
+			{FIELDNAME_BIN1, "INTEGER"},{FIELDNAME_BIN2, "INTEGER"}};
 	
 	public static final String[][] SAMPLEGENO_COLUMNS = {{FIELDNAME_SAMPLEUID, "INTEGER"},
 			{FIELDNAME_SVARLIST_HOM, "BLOB"},
@@ -130,6 +148,13 @@ public class SQLVariantTable implements VariantTable{
 													   {FIELDNAME_GH_HITS_TI, "BLOB"},
 													   {FIELDNAME_GH_HITS_EI, "BLOB"},};
 	
+	//Optional - only present once migrateToGenotypeRows has been run
+	public static final String[][] GENOROWS_COLUMNS = {{FIELDNAME_VARUID, "BIGINT"},
+													   {FIELDNAME_SAMPLEUID, "INTEGER"},
+													   {FIELDNAME_GR_ZYGOSITY, "SMALLINT"},
+													   {FIELDNAME_GR_ALTCOPIES, "SMALLINT"},
+													   {FIELDNAME_GR_ALLELES, "VARBINARY(1024)"},};
+	
 	/* ----- Instance Variables ----- */
 	
 	private String dbDir;
@@ -138,6 +163,7 @@ public class SQLVariantTable implements VariantTable{
 	private String password;
 	
 	private Connection connection;
+	private SQLConnectionPool connPool;
 	private SQLManager sqlManager;
 	//private StatementPrepper sprepper;
 	
@@ -153,6 +179,8 @@ public class SQLVariantTable implements VariantTable{
 	private RegionSearchCache rs_cache;
 	private RegionIndex regidx;
 	
+	private volatile boolean genoRows;
+	
 	//private List<String> tempBlobFiles;
 	
 	/* ----- Construction ----- */
@@ -167,17 +195,32 @@ public class SQLVariantTable implements VariantTable{
 		dbURL = url;
 		username = user.toUpperCase();
 		password = pw;
-		read_cache = new ReadCache(false);
+		read_cache = new ReadCache();
 		rs_cache = new RegionSearchCache();
 		System.err.println("Now connecting...");
 		connect();
 		System.err.println("Connection successful!");
 		//Check for tables, create if not there
+		boolean fillBins = false;
 		if(!varTableExists()) createVarTable();
+		else if(!varTableHasBins()) 
+		{
+			addBinColumns();
+			fillBins = true;
+		}
 		if(!sampleGenoTableExists()) createSampleGenoTable();
 		if(!geneHitTableExists()) createGeneHitTable();
+		genoRows = genoRowTableExists();
 		
-		sqlManager = new SQLManager(connection);
+		connPool = new SQLConnectionPool(connection, dbURL, username, password);
+		sqlManager = new SQLManager(connPool);
+		initWriteBatching();
+		if(fillBins)
+		{
+			try {updateRegionBins(null);}
+			catch(IOException e) {throw new SQLException("Region bins could not be filled for existing variants!", e);}
+			commitUpdates();
+		}
 		mergeFactor = mf;
 		
 		percLeeway = (double)mergeFactor / 1000.0;
@@ -228,6 +271,47 @@ public class SQLVariantTable implements VariantTable{
 		cstat = connection.createStatement();
 		cstat.executeUpdate(sqlcmd);
 		cstat.closeOnCompletion();
+		
+		createBinIndexes();
+	}
+	
+	private boolean varTableHasBins() throws SQLException
+	{
+		DatabaseMetaData meta = connection.getMetaData();
+		ResultSet rs = meta.getColumns(null, null, TABLENAME_VARIANTS.toUpperCase(), FIELDNAME_BIN1.toUpperCase());
+		boolean b = rs.next();
+		rs.close();
+		return b;
+	}
+	
+	private void addBinColumns() throws SQLException
+	{
+		//Older tables - bins are appended, same position as in VAR_COLUMNS
+		System.err.println("Variant table has no region bins. Adding bin columns...");
+		String sqlcmd = "ALTER TABLE " + SQLVariantTable.TABLENAME_VARIANTS + " ADD COLUMN " + FIELDNAME_BIN1 + " INTEGER";
+		Statement cstat = connection.createStatement();
+		cstat.executeUpdate(sqlcmd);
+		cstat.closeOnCompletion();
+		
+		sqlcmd = "ALTER TABLE " + SQLVariantTable.TABLENAME_VARIANTS + " ADD COLUMN " + FIELDNAME_BIN2 + " INTEGER";
+		cstat = connection.createStatement();
+		cstat.executeUpdate(sqlcmd);
+		cstat.closeOnCompletion();
+		
+		createBinIndexes();
+	}
+	
+	private void createBinIndexes() throws SQLException
+	{
+		String sqlcmd = "CREATE INDEX VARBIN1_INDEX ON " + SQLVariantTable.TABLENAME_VARIANTS + "(" + FIELDNAME_CTG1 + ", " + FIELDNAME_BIN1 + ", " + FIELDNAME_SVTYPE + ")";
+		Statement cstat = connection.createStatement();
+		cstat.executeUpdate(sqlcmd);
+		cstat.closeOnCompletion();
+		
+		sqlcmd = "CREATE INDEX VARBIN2_INDEX ON " + SQLVariantTable.TABLENAME_VARIANTS + "(" + FIELDNAME_CTG2 + ", " + FIELDNAME_BIN2 + ", " + FIELDNAME_SVTYPE + ")";
+		cstat = connection.createStatement();
+		cstat.executeUpdate(sqlcmd);
+		cstat.closeOnCompletion();
 	}
 	
 	private boolean sampleGenoTableExists() throws SQLException
@@ -299,6 +383,45 @@ public class SQLVariantTable implements VariantTable{
 		cstat.closeOnCompletion();
 	}
 	
+	private boolean genoRowTableExists() throws SQLException
+	{
+		DatabaseMetaData meta = connection.getMetaData();
+		String[] ttypes = {"TABLE"};
+		ResultSet rs = meta.getTables(null, null, TABLENAME_GENOROWS.toUpperCase(), ttypes);
+		boolean b = rs.next();
+		rs.close();
+		return b;
+	}
+	
+	private void createGenoRowTable() throws SQLException
+	{
+		System.err.println("Creating genotype row table...");
+		String sqlcmd = "CREATE TABLE " + SQLVariantTable.TABLENAME_GENOROWS + "(";
+		boolean first = true;
+		for(String[] field : GENOROWS_COLUMNS)
+		{
+			if(!first) sqlcmd += ",";
+			sqlcmd += field[0] + " " + field[1];
+			first = false;
+		}
+		sqlcmd += ")";
+		Statement cstat = connection.createStatement();
+		cstat.executeUpdate(sqlcmd);
+		cstat.closeOnCompletion();
+		
+		/*Index*/
+		//Sample first for sample/family lookups, variant first for rewriting one variant's rows
+		sqlcmd = "CREATE UNIQUE INDEX GENOROW_SV_INDEX ON " + SQLVariantTable.TABLENAME_GENOROWS + "(" + SQLVariantTable.FIELDNAME_SAMPLEUID + ", " + SQLVariantTable.FIELDNAME_VARUID + ")";
+		cstat = connection.createStatement();
+		cstat.executeUpdate(sqlcmd);
+		cstat.closeOnCompletion();
+		
+		sqlcmd = "CREATE INDEX GENOROW_VS_INDEX ON " + SQLVariantTable.TABLENAME_GENOROWS + "(" + SQLVariantTable.FIELDNAME_VARUID + ", " + SQLVariantTable.FIELDNAME_SAMPLEUID + ")";
+		cstat = connection.createStatement();
+		cstat.executeUpdate(sqlcmd);
+		cstat.closeOnCompletion();
+	}
+	
 	private void zeroGeneHitTable() throws SQLException
 	{
 		//
@@ -435,12 +558,22 @@ public class SQLVariantTable implements VariantTable{
 	
 	/* ----- Storage Prep ----- */
 	
-	private PreparedStatement generateFullVarInsertStatement(DBVariant var, VariantGenotype vgeno, boolean threadlock) throws IOException, SQLException
+	public static int calculateBin1(DBVariant var)
 	{
-		PreparedStatement pstat = null;
-		StatementPrepper sprepper = sqlManager.getStatementGenerator();
-		if(threadlock) pstat = sqlManager.requestStatement(SQLManager.SKEY_VAR_INSERT, true);
-		else pstat = sqlManager.getStatementGenerator().getFullInsertStatement();
+		//TRA/BND: start CI only (other end is on CONTIG2)
+		int st = var.getStartPosition().getStart();
+		if(var.getType() == SVType.TRA || var.getType() == SVType.BND) return RegionBin.getBin(st, var.getStartPosition().getEnd());
+		return RegionBin.getBin(st, var.getEndPosition().getEnd());
+	}
+	
+	public static int calculateBin2(DBVariant var)
+	{
+		return RegionBin.getBin(var.getEndPosition().getStart(), var.getEndPosition().getEnd());
+	}
+	
+	private PreparedStatement generateFullVarInsertStatement(DBVariant var, VariantGenotype vgeno, StatementPrepper sprepper) throws IOException, SQLException
+	{
+		PreparedStatement pstat = sprepper.getFullInsertStatement();
 		
 		Contig ctg = var.getChrom();
 		
@@ -474,7 +607,6 @@ public class SQLVariantTable implements VariantTable{
 		pstat.setInt(StatementPrepper.FULLINS_HCOUNT_OTH, var.getHomozygoteCount(Population.OTH));
 		
 		//Genelist blob
-		if(threadlock) sqlManager.requestStatementExecution(true);
 		Blob blob = sprepper.wrapInBlob(var.getGeneListAsBLOBBytes());
 		pstat.setBlob(StatementPrepper.FULLINS_GENELIST, blob);
 		//System.err.println("Gene list blob is null: " + (blob == null));
@@ -499,10 +631,13 @@ public class SQLVariantTable implements VariantTable{
 		pstat.setBlob(StatementPrepper.FULLINS_GENOTYPES, blob);
 		//System.err.println("Geno blob is null: " + (blob == null));
 		
+		pstat.setInt(StatementPrepper.FULLINS_BIN1, calculateBin1(var));
+		pstat.setInt(StatementPrepper.FULLINS_BIN2, calculateBin2(var));
+		
 		return pstat;
 	}
 	
-	private PreparedStatement generateAbridgedSetVarUpdateStatement(DBVariant var, VariantGenotype vgeno, boolean threadlock) throws IOException, SQLException
+	private PreparedStatement generateAbridgedSetVarUpdateStatement(DBVariant var, VariantGenotype vgeno, StatementPrepper sprepper) throws IOException, SQLException
 	{
 		//Updates:
 		//	Start, End
@@ -514,10 +649,7 @@ public class SQLVariantTable implements VariantTable{
 		
 		//PreparedStatement pstat = sprepper.getShortUpdateStatement();
 		
-		PreparedStatement pstat = null;
-		StatementPrepper sprepper = sqlManager.getStatementGenerator();
-		if(threadlock) pstat = sqlManager.requestStatement(SQLManager.SKEY_VAR_UPDATE_SHORT, true);
-		else pstat = sprepper.getShortUpdateStatement();
+		PreparedStatement pstat = sprepper.getShortUpdateStatement();
 		
 		pstat.setInt(StatementPrepper.SHORTUD_ST1, var.getStartPosition().getStart()); //System.err.println("Start1 = " + var.getStartPosition().getStart());
 		pstat.setInt(StatementPrepper.SHORTUD_ST2, var.getStartPosition().getEnd()); //System.err.println("Start2 = " + var.getStartPosition().getEnd());
@@ -544,7 +676,6 @@ public class SQLVariantTable implements VariantTable{
 		pstat.setInt(StatementPrepper.SHORTUD_ACOUNT_OTH, var.getIndividualCount(Population.OTH)); //System.err.println("OTH Count = " + var.getIndividualCount(Population.OTH));
 		pstat.setInt(StatementPrepper.SHORTUD_HCOUNT_OTH, var.getHomozygoteCount(Population.OTH)); //System.err.println("OTH Hom = " + var.getHomozygoteCount(Population.OTH));
 		
-		if(threadlock) sqlManager.requestStatementExecution(true);
 		Blob blob = sprepper.wrapInBlob(var.getGeneListAsBLOBBytes());
 		pstat.setBlob(StatementPrepper.SHORTUD_GENELIST, blob);
 		
@@ -556,19 +687,17 @@ public class SQLVariantTable implements VariantTable{
 		blob = sprepper.wrapInBlob(vgeno.getGenotypesAsBLOBBytes());
 		pstat.setBlob(StatementPrepper.SHORTUD_GENOTYPES, blob);
 		
+		pstat.setInt(StatementPrepper.SHORTUD_BIN1, calculateBin1(var));
+		pstat.setInt(StatementPrepper.SHORTUD_BIN2, calculateBin2(var));
+		
 		pstat.setLong(StatementPrepper.SHORTUD_QUERYID, var.getLongID()); //System.err.println("VarUID = " + Long.toHexString(var.getLongID()));
 		
 		return pstat;
 	}
 	
-	private PreparedStatement generatePopulationSetVarUpdateStatement(DBVariant dbv, boolean threadlock) throws SQLException
+	private PreparedStatement generatePopulationSetVarUpdateStatement(DBVariant dbv, StatementPrepper sprepper) throws SQLException
 	{
-		//PreparedStatement pstat = sprepper.getPopUpdateStatement();
-		
-		PreparedStatement pstat = null;
-		StatementPrepper sprepper = sqlManager.getStatementGenerator();
-		if(threadlock) pstat = sqlManager.requestStatement(SQLManager.SKEY_VAR_UPDATE_POP, true);
-		else pstat = sprepper.getPopUpdateStatement();
+		PreparedStatement pstat = sprepper.getPopUpdateStatement();
 		
 		pstat.setInt(StatementPrepper.POPUD_ACOUNT_TOT, dbv.getIndividualCount());
 		pstat.setInt(StatementPrepper.POPUD_HCOUNT_TOT, dbv.getHomozygoteCount());
@@ -594,6 +723,324 @@ public class SQLVariantTable implements VariantTable{
 		return pstat;
 	}
 	
+	public static int getGenoRowZygosity(SVDBGenotype gt)
+	{
+		if(gt.isHomozygous()) return GENOROW_ZYG_HOM;
+		int copies = 0;
+		for(SVDBAllele a : gt.getAlleles()) copies += a.getAlleleCount();
+		if(copies == 1) return GENOROW_ZYG_HET;
+		return GENOROW_ZYG_OTH;
+	}
+	
+	private void setGenoRowValues(PreparedStatement pstat, long varUID, SVDBGenotype gt) throws SQLException
+	{
+		Collection<SVDBAllele> alist = gt.getAlleles();
+		int copies = 0;
+		FileBuffer abytes = new FileBuffer((alist.size() * 10) + 1, true);
+		for(SVDBAllele a : alist)
+		{
+			copies += a.getAlleleCount();
+			abytes.addToFile((short)a.getAlleleCount());
+			abytes.addToFile(a.getAllele().getStart());
+			abytes.addToFile(a.getAllele().getEnd());
+		}
+		
+		pstat.setLong(StatementPrepper.GROWINS_VARUID, varUID);
+		pstat.setInt(StatementPrepper.GROWINS_SAMPUID, gt.getIndividualUID());
+		pstat.setShort(StatementPrepper.GROWINS_ZYGOSITY, (short)getGenoRowZygosity(gt));
+		pstat.setShort(StatementPrepper.GROWINS_ALTCOPIES, (short)copies);
+		if(alist.isEmpty()) pstat.setBytes(StatementPrepper.GROWINS_ALLELES, new byte[0]);
+		else pstat.setBytes(StatementPrepper.GROWINS_ALLELES, abytes.getBytes());
+	}
+	
+	/* ----- Write Batching ----- */
+	
+	//Variant inserts and updates are added to JDBC batches on a statement set of their own
+	//	(not the per-thread ones) and sent WRITE_BATCH_SIZE at a time.
+	//A pending batch is sent early before anything that could read those rows back from the
+	//	DB: a cache miss on a pending UID, a full table read, a delete or a commit.
+	//A later write to a row that is pending in a different batch sends the batches first,
+	//	so each row's writes still hit the DB in order.
+	//With genotype rows on, a variant write also queues a delete of its old rows (updates only)
+	//	and an insert of its current ones. These go after the variant batches.
+	
+	public static final int WRITE_BATCH_SIZE = 256;
+	
+	private Object batchLock;
+	private StatementPrepper batchPrepper;
+	
+	private Set<Long> pendingInserts;
+	private Set<Long> pendingUpdates;
+	private Set<Long> pendingPopUpdates;
+	private int batchedInserts;
+	private int batchedUpdates;
+	private int batchedPopUpdates;
+	
+	private Set<Long> pendingRowVars;
+	private int batchedRowDeletes;
+	private int batchedRowInserts;
+	
+	private volatile boolean hasPending;
+	private volatile boolean uncommitted;
+	
+	private void initWriteBatching()
+	{
+		batchLock = new Object();
+		batchPrepper = new StatementPrepper(connection);
+		pendingInserts = new HashSet<Long>();
+		pendingUpdates = new HashSet<Long>();
+		pendingPopUpdates = new HashSet<Long>();
+		pendingRowVars = new HashSet<Long>();
+	}
+	
+	private boolean isPendingInsert(long varUID)
+	{
+		if(!hasPending) return false;
+		synchronized(batchLock) {return pendingInserts.contains(varUID);}
+	}
+	
+	private boolean queueVariantWrite(DBVariant var, VariantGenotype vgeno, boolean isnew) throws SQLException, IOException
+	{
+		synchronized(batchLock)
+		{
+			long uid = var.getLongID();
+			if(genoRows && pendingRowVars.contains(uid)) flushWrites();
+			if(isnew)
+			{
+				generateFullVarInsertStatement(var, vgeno, batchPrepper).addBatch();
+				pendingInserts.add(uid);
+				batchedInserts++;
+			}
+			else
+			{
+				if(pendingInserts.contains(uid) || pendingPopUpdates.contains(uid)) flushWrites();
+				generateAbridgedSetVarUpdateStatement(var, vgeno, batchPrepper).addBatch();
+				pendingUpdates.add(uid);
+				batchedUpdates++;
+			}
+			if(genoRows) queueGenoRows(uid, vgeno, !isnew);
+			hasPending = true;
+			uncommitted = true;
+			if(batchedInserts >= WRITE_BATCH_SIZE || batchedUpdates >= WRITE_BATCH_SIZE) flushWrites();
+			else if(batchedRowInserts >= WRITE_BATCH_SIZE) flushWrites();
+		}
+		return true;
+	}
+	
+	private void queueGenoRows(long varUID, VariantGenotype vgeno, boolean replace) throws SQLException
+	{
+		//Caller holds batchLock
+		if(replace)
+		{
+			PreparedStatement pstat = batchPrepper.getGenoRowVarDeleteStatement();
+			pstat.setLong(StatementPrepper.GROWDEL_VARUID, varUID);
+			pstat.addBatch();
+			batchedRowDeletes++;
+		}
+		if(vgeno != null)
+		{
+			PreparedStatement pstat = batchPrepper.getGenoRowInsertStatement();
+			for(SVDBGenotype gt : vgeno.getGenotypes())
+			{
+				setGenoRowValues(pstat, varUID, gt);
+				pstat.addBatch();
+				batchedRowInserts++;
+			}
+		}
+		pendingRowVars.add(varUID);
+	}
+	
+	private boolean queuePopulationUpdate(DBVariant dbv) throws SQLException
+	{
+		synchronized(batchLock)
+		{
+			long uid = dbv.getLongID();
+			if(pendingInserts.contains(uid) || pendingUpdates.contains(uid)) flushWrites();
+			generatePopulationSetVarUpdateStatement(dbv, batchPrepper).addBatch();
+			pendingPopUpdates.add(uid);
+			batchedPopUpdates++;
+			hasPending = true;
+			uncommitted = true;
+			if(batchedPopUpdates >= WRITE_BATCH_SIZE) flushWrites();
+		}
+		return true;
+	}
+	
+	private static void checkBatchCounts(int[] counts, String what) throws SQLException
+	{
+		//Every batched statement targets exactly one row
+		for(int i = 0; i < counts.length; i++)
+		{
+			if(counts[i] == 1 || counts[i] == Statement.SUCCESS_NO_INFO) continue;
+			throw new SQLException("SQLVariantTable.flushWrites || Batched " + what + " " + i + " affected " + counts[i] + " rows!");
+		}
+	}
+	
+	private void flushWrites() throws SQLException
+	{
+		if(!hasPending) return;
+		synchronized(batchLock)
+		{
+			try
+			{
+				if(batchedInserts > 0) checkBatchCounts(batchPrepper.getFullInsertStatement().executeBatch(), "insert");
+				if(batchedUpdates > 0) checkBatchCounts(batchPrepper.getShortUpdateStatement().executeBatch(), "update");
+				if(batchedPopUpdates > 0) checkBatchCounts(batchPrepper.getPopUpdateStatement().executeBatch(), "population update");
+				//Row deletes can hit any number of rows
+				if(batchedRowDeletes > 0) batchPrepper.getGenoRowVarDeleteStatement().executeBatch();
+				if(batchedRowInserts > 0) checkBatchCounts(batchPrepper.getGenoRowInsertStatement().executeBatch(), "genotype row insert");
+			}
+			finally
+			{
+				pendingInserts.clear();
+				pendingUpdates.clear();
+				pendingPopUpdates.clear();
+				pendingRowVars.clear();
+				batchedInserts = 0;
+				batchedUpdates = 0;
+				batchedPopUpdates = 0;
+				batchedRowDeletes = 0;
+				batchedRowInserts = 0;
+				hasPending = false;
+			}
+		}
+	}
+	
+	private void flushWritesFor(long varUID) throws SQLException
+	{
+		if(!hasPending) return;
+		synchronized(batchLock)
+		{
+			if(pendingInserts.contains(varUID) || pendingUpdates.contains(varUID) || pendingPopUpdates.contains(varUID)) flushWrites();
+		}
+	}
+	
+	private void flushWritesFor(Collection<Long> varUIDs) throws SQLException
+	{
+		if(!hasPending) return;
+		synchronized(batchLock)
+		{
+			for(Long uid : varUIDs)
+			{
+				if(pendingInserts.contains(uid) || pendingUpdates.contains(uid) || pendingPopUpdates.contains(uid))
+				{
+					flushWrites();
+					return;
+				}
+			}
+		}
+	}
+	
+	/* ----- Bulk Reads ----- */
+	
+	//Multi-UID reads go out as IN lists of at most MAX_VARS_INQUERY UIDs.
+	//With nothing uncommitted, the chunks are spread over the pool's read-only connections.
+	
+	private static interface ChunkReader<T>
+	{
+		public List<T> read(StatementPrepper sp, List<Long> chunk) throws SQLException, IOException;
+	}
+	
+	private List<DBVariant> readVariantChunk(StatementPrepper sp, List<Long> chunk) throws SQLException, IOException
+	{
+		List<DBVariant> out = new ArrayList<DBVariant>(chunk.size());
+		PreparedStatement pstat = sp.getMultiVarGetterStatement();
+		StatementPrepper.setInListValues(pstat, chunk, 1);
+		ResultSet rs = pstat.executeQuery();
+		while(rs.next()) out.add(readFromResultSet(rs));
+		rs.close();
+		return out;
+	}
+	
+	private List<VariantGenotype> readGenotypeChunk(StatementPrepper sp, List<Long> chunk) throws SQLException, IOException
+	{
+		List<VariantGenotype> out = new ArrayList<VariantGenotype>(chunk.size());
+		PreparedStatement pstat = sp.getMultiGenoGetterStatement();
+		StatementPrepper.setInListValues(pstat, chunk, 1);
+		ResultSet rs = pstat.executeQuery();
+		while(rs.next())
+		{
+			long varUID = rs.getLong(FIELDNAME_VARUID);
+			Blob genoblob = rs.getBlob(FIELDNAME_GENOTYPES);
+			VariantGenotype vg = new VariantGenotype(varUID);
+			vg.readDataFromBLOB(genoblob);
+			out.add(vg);
+		}
+		rs.close();
+		return out;
+	}
+	
+	private <T> List<T> readChunked(Collection<Long> uids, final ChunkReader<T> reader) throws SQLException, IOException
+	{
+		List<List<Long>> chunks = new LinkedList<List<Long>>();
+		List<Long> chunk = null;
+		for(Long uid : uids)
+		{
+			if(chunk == null || chunk.size() >= MAX_VARS_INQUERY)
+			{
+				chunk = new ArrayList<Long>(MAX_VARS_INQUERY);
+				chunks.add(chunk);
+			}
+			chunk.add(uid);
+		}
+		
+		List<T> out = new LinkedList<T>();
+		int readers = connPool.getMaxReaders();
+		if(chunks.size() < 2 || readers < 1 || uncommitted)
+		{
+			//Calling thread, primary connection
+			StatementPrepper sp = sqlManager.getStatementGenerator();
+			for(List<Long> c : chunks) out.addAll(reader.read(sp, c));
+			return out;
+		}
+		
+		ExecutorService exec = Executors.newFixedThreadPool(Math.min(readers, chunks.size()));
+		List<Future<List<T>>> flist = new LinkedList<Future<List<T>>>();
+		try
+		{
+			for(final List<Long> c : chunks)
+			{
+				flist.add(exec.submit(new Callable<List<T>>(){
+					public List<T> call() throws Exception
+					{
+						StatementPrepper sp = connPool.borrowReader();
+						if(sp == null)
+						{
+							//Throwaway pool thread - don't leave its statements behind
+							try {return reader.read(sqlManager.getStatementGenerator(), c);}
+							finally {connPool.releaseLocalPrepper();}
+						}
+						try {return reader.read(sp, c);}
+						finally {connPool.returnReader(sp);}
+					}
+				}));
+			}
+			for(Future<List<T>> f : flist) out.addAll(f.get());
+		}
+		catch(InterruptedException e)
+		{
+			throw new IOException("SQLVariantTable.readChunked || Interrupted during read!", e);
+		}
+		catch(ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof SQLException) throw (SQLException)cause;
+			if(cause instanceof IOException) throw (IOException)cause;
+			throw new IOException("SQLVariantTable.readChunked || Read failed!", cause);
+		}
+		finally
+		{
+			exec.shutdownNow();
+		}
+		
+		return out;
+	}
+	
+	public void setReaderConnectionCount(int count)
+	{
+		connPool.setMaxReaders(count);
+	}
+	
 	/* ----- Caching ----- */
 	
 	private void loadRegionIndex() throws IOException
@@ -612,61 +1059,35 @@ public class SQLVariantTable implements VariantTable{
 	{
 		public static final int CACHE_SIZE = 2048;
 		
-		private ConcurrentMap<Long, DBVariant> v_map;
-		private ConcurrentMap<Long, VariantGenotype> g_map;
-		
-		private ConcurrentLinkedQueue<Long> v_queue;
-		private ConcurrentLinkedQueue<Long> g_queue;
+		private LRUCache<Long, DBVariant> v_map;
+		private LRUCache<Long, VariantGenotype> g_map;
 		
-		private boolean thread_locked;
-		
-		public ReadCache(boolean threadlock)
+		public ReadCache()
 		{
-			v_map = new ConcurrentHashMap<Long, DBVariant>();
-			g_map = new ConcurrentHashMap<Long, VariantGenotype>();
-			v_queue = new ConcurrentLinkedQueue<Long>();
-			g_queue = new ConcurrentLinkedQueue<Long>();
-			thread_locked = threadlock;
+			v_map = new LRUCache<Long, DBVariant>(CACHE_SIZE);
+			g_map = new LRUCache<Long, VariantGenotype>(CACHE_SIZE, 0L, new LRUCache.SizeEstimator<VariantGenotype>(){
+				public long estimateSize(VariantGenotype value) {return value.calculateSerializedSize(true);}
+			});
 		}
 		
 		public DBVariant getVariant(long uid)
 		{
 			DBVariant v = v_map.get(uid);
-			if(v != null) 
-			{
-				v_queue.remove(uid);
-				v_queue.add(uid);
-				return v;
-			}
+			if(v != null) return v;
 			
 			//Cache miss
 			try 
 			{
-				//PreparedStatement pstat = sprepper.getVarGetterStatement();
-				PreparedStatement pstat = null;
-				StatementPrepper sprepper = sqlManager.getStatementGenerator();
-				if(thread_locked) pstat = sqlManager.requestStatement(SQLManager.SKEY_GETVAR, true);
-				else pstat = sprepper.getVarGetterStatement();
-				
+				flushWritesFor(uid);
+				PreparedStatement pstat = sqlManager.getStatement(SQLManager.SKEY_GETVAR);
 				pstat.setLong(StatementPrepper.VARGET_VARUID, uid);
-				if(thread_locked) sqlManager.requestStatementExecution(true);
 				ResultSet rs = pstat.executeQuery();
 				if(!rs.next()) {rs.close(); return null;}
 				DBVariant var = readFromResultSet(rs);
 				rs.close();
-				if(thread_locked) {
-					sqlManager.acknowledgeStatementExecution();
-					sqlManager.releaseStatement(SQLManager.SKEY_GETVAR, pstat);
-				}
 				
 				//Cache
-				if(v_map.size() >= CACHE_SIZE)
-				{
-					long id = v_queue.poll();
-					v_map.remove(id);
-				}
 				v_map.put(var.getLongID(), var);
-				v_queue.add(uid);
 				
 				//Return
 				return var;
@@ -686,62 +1107,26 @@ public class SQLVariantTable implements VariantTable{
 			for(Long vid : varUIDs)
 			{
 				DBVariant v = v_map.get(vid);
-				if(v != null) 
-				{
-					v_queue.remove(vid);
-					v_queue.add(vid);
-					out.add(v);
-				}
+				if(v != null) out.add(v);
 				else misses.add(vid);
 			}
 			
-			//Get misses
+			//Get misses (IN lists of up to MAX_VARS_INQUERY)
 			if(!misses.isEmpty())
 			{
-				int len = misses.size();
-				//Reorder into queue
-				LinkedList<Long> q = new LinkedList<Long>();
-				for(Long vid : misses) q.add(vid);
 				try 
 				{
-					//I'm also gonna try doing chunks at a time in case there are too many...
-					int remaining = len;
-					while(remaining > 0)
-					{
-						int grab = MAX_VARS_INQUERY;
-						if(MAX_VARS_INQUERY > remaining) grab = remaining;
-						
-						if(thread_locked) sqlManager.requestStatementExecution(true);
-						PreparedStatement pstat = sqlManager.getStatementGenerator().generateMultiVarGetterStatement(grab);
-						//int i = 1;
-						/*for(Long vid : misses)
+					flushWritesFor(misses);
+					List<DBVariant> read = readChunked(misses, new ChunkReader<DBVariant>(){
+						public List<DBVariant> read(StatementPrepper sp, List<Long> chunk) throws SQLException, IOException
 						{
-							pstat.setLong(i, vid);
-							i++;
-						}*/
-						for(int i = 1; i <= grab; i++)
-						{
-							long pop = q.pop();
-							pstat.setLong(i, pop);
+							return readVariantChunk(sp, chunk);
 						}
-						ResultSet rs = pstat.executeQuery();
-						while(rs.next())
-						{
-							DBVariant v = readFromResultSet(rs);
-							
-							if(v_map.size() >= CACHE_SIZE)
-							{
-								long id = v_queue.poll();
-								v_map.remove(id);
-							}
-							
-							v_map.put(v.getLongID(), v);
-							v_queue.add(v.getLongID());
-							out.add(v);
-						}
-						rs.close();
-						if(thread_locked) sqlManager.acknowledgeStatementExecution();
-						remaining -= grab;
+					});
+					for(DBVariant v : read)
+					{
+						v_map.put(v.getLongID(), v);
+						out.add(v);
 					}
 				} 
 				catch (Exception e) 
@@ -751,51 +1136,30 @@ public class SQLVariantTable implements VariantTable{
 				}	
 			}
 			
-			
 			return out;
 		}
 		
 		public VariantGenotype getGenotype(long var_uid)
 		{
 			VariantGenotype vg = g_map.get(var_uid);
-			if(vg != null) 
-			{
-				g_queue.remove(var_uid);
-				g_queue.add(var_uid);
-				return vg;
-			}
+			if(vg != null) return vg;
 			
 			//Cache miss
 			try 
 			{
-				//PreparedStatement pstat = sprepper.getGenoGetterStatement();
-				PreparedStatement pstat = null;
-				StatementPrepper sprepper = sqlManager.getStatementGenerator();
-				if(thread_locked) pstat = sqlManager.requestStatement(SQLManager.SKEY_GETGENO, true);
-				else pstat = sprepper.getGenoGetterStatement();
-				
+				flushWritesFor(var_uid);
+				PreparedStatement pstat = sqlManager.getStatement(SQLManager.SKEY_GETGENO);
 				pstat.setLong(StatementPrepper.GENOGET_VARUID, var_uid);
 				
-				if(thread_locked) sqlManager.requestStatementExecution(true);
 				ResultSet rs = pstat.executeQuery();
 				if(!rs.next()) {rs.close(); return null;}
 				Blob genoblob = rs.getBlob(FIELDNAME_GENOTYPES);
 				vg = new VariantGenotype(var_uid);
 				vg.readDataFromBLOB(genoblob);
 				rs.close();
-				if(thread_locked) {
-					sqlManager.acknowledgeStatementExecution();
-					sqlManager.releaseStatement(SQLManager.SKEY_GETGENO, pstat);
-				}
 				
 				//Cache
-				if(g_map.size() >= CACHE_SIZE)
-				{
-					long id = g_queue.poll();
-					g_map.remove(id);
-				}
 				g_map.put(vg.getVariantUID(), vg);
-				g_queue.add(vg.getVariantUID());
 				
 				return vg;
 			} 
@@ -814,51 +1178,27 @@ public class SQLVariantTable implements VariantTable{
 			for(Long vid : varUIDs)
 			{
 				VariantGenotype vg = g_map.get(vid);
-				if(vg != null) 
-				{
-					g_queue.remove(vid);
-					g_queue.add(vid);
-					out.add(vg);
-				}
+				if(vg != null) out.add(vg);
 				else misses.add(vid);
 			}
 			
 			//Get misses
 			if(!misses.isEmpty())
 			{
-				int len = misses.size();
 				try 
 				{
-					PreparedStatement pstat = sqlManager.getStatementGenerator().generateMultiGenoGetterStatement(len);
-					int i = 1;
-					for(Long vid : varUIDs)
-					{
-						pstat.setLong(i, vid);
-						i++;
-					}
-					
-					if(thread_locked) sqlManager.requestStatementExecution(true);
-					ResultSet rs = pstat.executeQuery();
-					while(rs.next())
-					{
-						long varUID = rs.getLong(FIELDNAME_VARUID);
-						Blob genoblob = rs.getBlob(FIELDNAME_GENOTYPES);
-						VariantGenotype vg = new VariantGenotype(varUID);
-						vg.readDataFromBLOB(genoblob);
-						
-						if(g_map.size() >= CACHE_SIZE)
+					flushWritesFor(misses);
+					List<VariantGenotype> read = readChunked(misses, new ChunkReader<VariantGenotype>(){
+						public List<VariantGenotype> read(StatementPrepper sp, List<Long> chunk) throws SQLException, IOException
 						{
-							long id = g_queue.poll();
-							g_map.remove(id);
+							return readGenotypeChunk(sp, chunk);
 						}
-						
+					});
+					for(VariantGenotype vg : read)
+					{
 						g_map.put(vg.getVariantUID(), vg);
-						g_queue.add(vg.getVariantUID());
-						
 						out.add(vg);
 					}
-					rs.close();
-					if(thread_locked) sqlManager.acknowledgeStatementExecution();
 				} 
 				catch (Exception e) 
 				{
@@ -869,17 +1209,28 @@ public class SQLVariantTable implements VariantTable{
 			return out;
 		}
 		
+		public void putVariant(DBVariant var, VariantGenotype vgeno)
+		{
+			//Write-through, so rows still sitting in a write batch are read back from here
+			if(var != null) v_map.put(var.getLongID(), var);
+			if(vgeno != null) g_map.put(vgeno.getVariantUID(), vgeno);
+		}
+		
 		public void clear()
 		{
 			v_map.clear();
 			g_map.clear();
-			v_queue.clear();
-			g_queue.clear();
 		}
 		
-		public void setThreadLocked(boolean threadlock)
+		public void setBudgets(int varEntries, long varBytes, int genoEntries, long genoBytes)
 		{
-			thread_locked = threadlock;
+			v_map.setBudgets(varEntries, varBytes);
+			g_map.setBudgets(genoEntries, genoBytes);
+		}
+		
+		public String getStats()
+		{
+			return "Variants -- " + v_map.getStatsString() + "\nGenotypes -- " + g_map.getStatsString();
 		}
 		
 	}
@@ -900,6 +1251,9 @@ public class SQLVariantTable implements VariantTable{
 		//private volatile Collection<Long> last_ids;
 		private Collection<DBVariant> last_vars;
 		
+		//Gophers all run on one reused thread, so only one extra StatementPrepper is ever made
+		private ExecutorService gopherPool;
+		
 		private class DiskGopher implements Runnable
 		{
 
@@ -945,6 +1299,7 @@ public class SQLVariantTable implements VariantTable{
 			Collection<DBVariant> out = new LinkedList<DBVariant>();
 			if(lastq_contig == null) return out;
 			if(last_vars == null || last_vars.isEmpty()) return out;
+			if(end <= start) end = start + 1;
 			
 			for(DBVariant v : last_vars)
 			{
@@ -985,51 +1340,50 @@ public class SQLVariantTable implements VariantTable{
 			return out;
 		}
 		
+		private Collection<Long> readVarUIDs(PreparedStatement pstat) throws SQLException
+		{
+			//TRA with both ends in range can come up twice
+			Set<Long> vuids = new TreeSet<Long>();
+			ResultSet rs = pstat.executeQuery();
+			while(rs.next()) vuids.add(rs.getLong(FIELDNAME_VARUID));
+			rs.close();
+			return vuids;
+		}
+		
 		private Collection<DBVariant> getFromDisk(Contig c, int start, int end, boolean ignoreTRA)
 		{
 			List<DBVariant> varlist = new LinkedList<DBVariant>();
 			if(c == null) return varlist;
+			if(end <= start) end = start + 1; //Zero width (precise INS) - still look at the one base
 			//System.err.println("-DEBUG- Disk Query-- " + c.getUDPName() + ":" + start + "-" + end);
 
 			try 
 			{
-				//Index!
-				if(regidx == null) loadRegionIndex();
-				
-				//Get variant UIDs from index...
-				Collection<Long> vuids = regidx.getVariantIDsInApproximateRegion(c, start, end, ignoreTRA);
+				//Anything still batched wouldn't show up
+				flushWrites();
 				
-				//Load variants from SQL DB
-				Collection<DBVariant> vars = getVariants(vuids);
-				for(DBVariant v : vars)
+				//(contig, bin) indexed query - the coordinate test is done in the DB
+				int cuid = c.getUID();
+				PreparedStatement pstat = null;
+				if(ignoreTRA)
 				{
-					//Double check to see if it's really in the requested region...
-					if(!ignoreTRA && (v.getType() == SVType.TRA || v.getType() == SVType.BND))
-					{
-						if(v.getChrom().equals(c))
-						{
-							if(!((v.getStartPosition().getStart() >= end)&&(v.getStartPosition().getEnd() < start)))
-							{
-								varlist.add(v);
-								continue;
-							}
-						}
-						if (v.getEndChrom().equals(c))
-						{
-							if(!((v.getEndPosition().getStart() >= end)&&(v.getEndPosition().getEnd() < start)))
-							{
-								varlist.add(v);
-								continue;
-							}
-						}
-					}
-					else
+					pstat = sqlManager.getStatement(SQLManager.SKEY_GETVAR_REG_NOTRA);
+					StatementPrepper.setRegionValues(pstat, StatementPrepper.VARS_REG_NOTRA_CUID, StatementPrepper.VARS_REG_NOTRA_BINS, 
+							StatementPrepper.VARS_REG_NOTRA_END, StatementPrepper.VARS_REG_NOTRA_START, cuid, start, end);
+				}
+				else
+				{
+					pstat = sqlManager.getStatement(SQLManager.SKEY_GETVAR_REG);
+					for(int i = 0; i < StatementPrepper.VARS_REG_CUID.length; i++)
 					{
-						if(v.getStartPosition().getStart() >= end) continue;
-						if(v.getEndPosition().getEnd() < start) continue;
-						varlist.add(v);
+						StatementPrepper.setRegionValues(pstat, StatementPrepper.VARS_REG_CUID[i], StatementPrepper.VARS_REG_BINS[i], 
+								StatementPrepper.VARS_REG_END[i], StatementPrepper.VARS_REG_START[i], cuid, start, end);
 					}
 				}
+				Collection<Long> vuids = readVarUIDs(pstat);
+				
+				//Load variants through the cache
+				if(!vuids.isEmpty()) varlist.addAll(getVariants(vuids));
 			} 
 			catch (Exception e) 
 			{
@@ -1043,46 +1397,40 @@ public class SQLVariantTable implements VariantTable{
 		{
 			List<DBVariant> varlist = new LinkedList<DBVariant>();
 			if(c == null) return varlist;
+			if(end <= start) end = start + 1; //Zero width (precise INS) - still look at the one base
 
 			try 
 			{
-				if(regidx == null) loadRegionIndex();
-				
-				//Get variant UIDs from index...
-				Collection<Long> vuids = regidx.getVariantIDsInApproximateRegion(type, c, start, end);
+				flushWrites();
 				
-				//Load variants from SQL DB
-				Collection<DBVariant> vars = getVariants(vuids);
+				int cuid = c.getUID();
 				boolean typetra = type == SVType.TRA || type == SVType.BND;
-				for(DBVariant v : vars)
+				PreparedStatement pstat = null;
+				if(typetra)
 				{
-					//Double check to see if it's really in the requested region...
-					if(typetra)
+					//Both ends - other types are thrown out after loading
+					pstat = sqlManager.getStatement(SQLManager.SKEY_GETVAR_REG);
+					for(int i = 0; i < StatementPrepper.VARS_REG_CUID.length; i++)
 					{
-						if(v.getChrom().equals(c))
-						{
-							if(!((v.getStartPosition().getStart() >= end)&&(v.getStartPosition().getEnd() < start)))
-							{
-								varlist.add(v);
-								continue;
-							}
-						}
-						if (v.getEndChrom().equals(c))
-						{
-							if(!((v.getEndPosition().getStart() >= end)&&(v.getEndPosition().getEnd() < start)))
-							{
-								varlist.add(v);
-								continue;
-							}
-						}
-					}
-					else
-					{
-						if(v.getStartPosition().getStart() >= end) continue;
-						if(v.getEndPosition().getEnd() < start) continue;
-						varlist.add(v);
+						StatementPrepper.setRegionValues(pstat, StatementPrepper.VARS_REG_CUID[i], StatementPrepper.VARS_REG_BINS[i], 
+								StatementPrepper.VARS_REG_END[i], StatementPrepper.VARS_REG_START[i], cuid, start, end);
 					}
 				}
+				else
+				{
+					pstat = sqlManager.getStatement(SQLManager.SKEY_GETVAR_REG_OFTYPE);
+					pstat.setInt(StatementPrepper.VARS_REG_TYPE_TYPE, type.getID());
+					StatementPrepper.setRegionValues(pstat, StatementPrepper.VARS_REG_TYPE_CUID, StatementPrepper.VARS_REG_TYPE_BINS, 
+							StatementPrepper.VARS_REG_TYPE_END, StatementPrepper.VARS_REG_TYPE_START, cuid, start, end);
+				}
+				Collection<Long> vuids = readVarUIDs(pstat);
+				if(vuids.isEmpty()) return varlist;
+				
+				Collection<DBVariant> vars = getVariants(vuids);
+				for(DBVariant v : vars)
+				{
+					if(v.getType() == type) varlist.add(v);
+				}
 			} 
 			catch (Exception e) 
 			{
@@ -1167,16 +1515,19 @@ public class SQLVariantTable implements VariantTable{
 					//Do the DB fetching and cache scan in a different threads
 					out = new ConcurrentLinkedQueue<DBVariant>();
 					DiskGopher runner = new DiskGopher(c, ex_s, ex_e, ignoreTRA, null, out);
-					Thread t = new Thread(runner);
-					t.start();
+					Future<?> f = submitGopher(runner);
 					out.addAll(scanLastQuery(in_s, in_e));
 					
-					try {t.join();} 
+					try {f.get();} 
 					catch (InterruptedException e) 
 					{
 						//Shouldn't happen, maybe?
 						e.printStackTrace();
 					}
+					catch (ExecutionException e) 
+					{
+						e.printStackTrace();
+					}
 				}
 				else if (doin && !doex)
 				{
@@ -1282,16 +1633,19 @@ public class SQLVariantTable implements VariantTable{
 					//Do the DB fetching and cache scan in a different threads
 					out = new ConcurrentLinkedQueue<DBVariant>();
 					DiskGopher runner = new DiskGopher(c, ex_s, ex_e, false, svtype, out);
-					Thread t = new Thread(runner);
-					t.start();
+					Future<?> f = submitGopher(runner);
 					out.addAll(scanLastQuery(in_s, in_e));
 					
-					try {t.join();} 
+					try {f.get();} 
 					catch (InterruptedException e) 
 					{
 						//Shouldn't happen, maybe?
 						e.printStackTrace();
 					}
+					catch (ExecutionException e) 
+					{
+						e.printStackTrace();
+					}
 				}
 				else if (doin && !doex)
 				{
@@ -1322,6 +1676,30 @@ public class SQLVariantTable implements VariantTable{
 			return out;
 		}
 		
+		private synchronized Future<?> submitGopher(DiskGopher runner)
+		{
+			if(gopherPool == null)
+			{
+				gopherPool = Executors.newSingleThreadExecutor(new ThreadFactory(){
+					public Thread newThread(Runnable r)
+					{
+						Thread t = new Thread(r);
+						t.setName("SQLVariantTable_DiskGopher");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+			return gopherPool.submit(runner);
+		}
+		
+		public synchronized void shutdown()
+		{
+			if(gopherPool == null) return;
+			gopherPool.shutdown();
+			gopherPool = null;
+		}
+		
 		public void flush()
 		{
 			lastq_contig = null;
@@ -1337,28 +1715,64 @@ public class SQLVariantTable implements VariantTable{
 		
 	}
 	
-	public void indexByRegion() throws IOException
+	private void updateRegionBins(RegionIndex idx) throws IOException
 	{
-		regidx = new RegionIndex(true);
-		
-		//Go through all variants...
+		//Recalculates BIN1/BIN2 for every row (and adds each variant to idx, if provided)
 		try
 		{
-			PreparedStatement statement = sqlManager.getStatementGenerator().getVariantGetAllStatement();
+			flushWrites();
+			System.err.println("Updating variant region bins...");
+			StatementPrepper sprepper = sqlManager.getStatementGenerator();
+			PreparedStatement statement = sprepper.getVariantGetAllStatement();
+			PreparedStatement binup = sprepper.getBinUpdateStatement();
 			ResultSet rs = statement.executeQuery();
+			int batched = 0;
+			long count = 0;
 			while(rs.next())
 			{
 				DBVariant var = readFromResultSet(rs);
-				regidx.indexVariant(var);
+				if(idx != null) idx.indexVariant(var);
+				
+				binup.setInt(StatementPrepper.BINUD_BIN1, calculateBin1(var));
+				binup.setInt(StatementPrepper.BINUD_BIN2, calculateBin2(var));
+				binup.setLong(StatementPrepper.BINUD_QUERYID, var.getLongID());
+				binup.addBatch();
+				batched++;
+				count++;
+				if(batched >= WRITE_BATCH_SIZE)
+				{
+					checkBatchCounts(binup.executeBatch(), "bin update");
+					batched = 0;
+				}
 			}
+			rs.close();
+			statement.close();
+			if(batched > 0) checkBatchCounts(binup.executeBatch(), "bin update");
+			if(count > 0) uncommitted = true;
+			System.err.println("Region bins updated for " + count + " variants!");
 		}
 		catch(SQLException x)
 		{
 			x.printStackTrace();
 			throw new IOException();
 		}
+	}
+	
+	public void indexByRegion() throws IOException
+	{
+		regidx = new RegionIndex(true);
+		
+		//Go through all variants...
+		//	Rebuilds the SQL region bins at the same time
+		updateRegionBins(regidx);
 		
 		saveRegionIndex();
+		try {commitUpdates();}
+		catch(SQLException x)
+		{
+			x.printStackTrace();
+			throw new IOException();
+		}
 	}
 	
 	/* ----- Multithreading ----- */
@@ -1568,22 +1982,13 @@ public class SQLVariantTable implements VariantTable{
 	{
 		try 
 		{
-			//PreparedStatement pstat = sprepper.getVarUIDCheckStatement();
-			PreparedStatement pstat = null;
-			if(threadlock) pstat = sqlManager.requestStatement(SQLManager.SKEY_CHECKVARUID, true);
-			else pstat = sqlManager.getStatementGenerator().getVarUIDCheckStatement();
+			if(isPendingInsert(varUID)) return true;
+			PreparedStatement pstat = sqlManager.getStatement(SQLManager.SKEY_CHECKVARUID);
 			pstat.setLong(StatementPrepper.VARUIDCHECK_VARUID, varUID);
-			if(threadlock) sqlManager.requestStatementExecution(true);
 			ResultSet rs = pstat.executeQuery();
 			boolean b = rs.next();
 			rs.close();
 			
-			if(threadlock)
-			{
-				sqlManager.acknowledgeStatementExecution();
-				sqlManager.releaseStatement(SQLManager.SKEY_CHECKVARUID, pstat);
-			}
-			
 			return b;
 		} 
 		catch (SQLException e) 
@@ -1618,15 +2023,11 @@ public class SQLVariantTable implements VariantTable{
 	
 	public List<Long> getVariantIDsForSample(int sampleUID) 
 	{
+		if(genoRows) return getVariantIDsForSampleFromRows(sampleUID);
 		try 
 		{
-			//PreparedStatement pstat = sprepper.getSampleVarGetterStatement();
-			PreparedStatement pstat = null;
-			if(threadlock) pstat = sqlManager.requestStatement(SQLManager.SKEY_GETSAMPLEVAR, true);
-			else pstat = sqlManager.getStatementGenerator().getSampleVarGetterStatement();
-			
+			PreparedStatement pstat = sqlManager.getStatement(SQLManager.SKEY_GETSAMPLEVAR);
 			pstat.setInt(StatementPrepper.SVARGET_SAMPUID, sampleUID);
-			if(threadlock) sqlManager.requestStatementExecution(true);
 			ResultSet rs = pstat.executeQuery();
 			if(!rs.next()) {rs.close(); return null;}
 			
@@ -1640,12 +2041,6 @@ public class SQLVariantTable implements VariantTable{
 			Collections.sort(list);
 			rs.close();
 			
-			if(threadlock)
-			{
-				sqlManager.acknowledgeStatementExecution();
-				sqlManager.releaseStatement(SQLManager.SKEY_GETSAMPLEVAR, pstat);
-			}
-			
 			return list;
 		}
 		catch(SQLException e)
@@ -1661,10 +2056,61 @@ public class SQLVariantTable implements VariantTable{
 
 	}
 
+	private List<Long> getVariantIDsForSampleFromRows(int sampleUID)
+	{
+		//Index range scan on (SAMPLEUID, VARUID). Comes back sorted.
+		try 
+		{
+			flushWrites();
+			PreparedStatement pstat = sqlManager.getStatement(SQLManager.SKEY_GROW_GETSAMPLEVAR);
+			pstat.setInt(StatementPrepper.GROWGET_SAMPUID, sampleUID);
+			ResultSet rs = pstat.executeQuery();
+			List<Long> list = new ArrayList<Long>();
+			while(rs.next()) list.add(rs.getLong(FIELDNAME_VARUID));
+			rs.close();
+			
+			//No rows is the same as no sample geno record
+			if(list.isEmpty()) return null;
+			return list;
+		}
+		catch(SQLException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	private List<Long> getVariantIDsForFamilyFromRows(List<FamilyMember> members)
+	{
+		List<Long> list = new ArrayList<Long>();
+		if(members == null || members.isEmpty()) return list;
+		
+		PreparedStatement pstat = null;
+		try 
+		{
+			flushWrites();
+			pstat = sqlManager.getStatementGenerator().generateGenoRowMultiSampleVarGetterStatement(members.size());
+			int i = 1;
+			for(FamilyMember mem : members) pstat.setInt(i++, mem.getUID());
+			ResultSet rs = pstat.executeQuery();
+			while(rs.next()) list.add(rs.getLong(FIELDNAME_VARUID));
+			rs.close();
+			pstat.close();
+		}
+		catch(SQLException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+		
+		return list;
+	}
+
 	@Override
 	public List<Long> getVariantIDsForFamily(Family fam) 
 	{
 		if(fam == null) return null;
+		if(genoRows) return getVariantIDsForFamilyFromRows(fam.getAllFamilyMembers());
 		
 		Set<Long> set = new HashSet<Long>();
 		List<FamilyMember> members = fam.getAllFamilyMembers();
@@ -1735,15 +2181,25 @@ public class SQLVariantTable implements VariantTable{
 		return percLeeway;
 	}
 	
+	public String getCacheStats()
+	{
+		return read_cache.getStats();
+	}
+	
 	/* ----- Setters ----- */
 	
 	public void setThreadlock(boolean b)
 	{
 		threadlock = b;
-		read_cache.setThreadLocked(b);
 		rs_cache.setThreadLock(b);
 	}
 	
+	public void setCacheBudgets(int varEntries, long varBytes, int genoEntries, long genoBytes)
+	{
+		//Entry/byte budgets for the read cache. 0 is no limit.
+		read_cache.setBudgets(varEntries, varBytes, genoEntries, genoBytes);
+	}
+	
 	/* ----- Analysis ----- */
 	
 	public boolean variantInRegion(DBVariant var, Contig c, int start, int end)
@@ -1907,6 +2363,12 @@ public class SQLVariantTable implements VariantTable{
 		//To see what's inside
 		
 		//Doesn't need to thread lock, doesn't check
+		try {flushWrites();}
+		catch(SQLException e)
+		{
+			System.err.println("SQLVariantTable.dumpTable || Pending writes could not be sent!");
+			e.printStackTrace();
+		}
 		String vtpath = directory + File.separator + "vartbl.csv";
 		String stpath = directory + File.separator + "sgenotbl.csv";
 		String gtpath = directory + File.separator + "genehittbl.csv";
@@ -2194,26 +2656,11 @@ public class SQLVariantTable implements VariantTable{
 	{
 		try
 		{
-			PreparedStatement baseStatement = null;
-			if(isnew) baseStatement = generateFullVarInsertStatement(var, vgeno, threadlock);
-			else {
-				var.noteGenes(genes);
-				baseStatement = generateAbridgedSetVarUpdateStatement(var, vgeno, threadlock);
-			}
+			if(!isnew) var.noteGenes(genes);
 			
-			//Statement cstat = connection.createStatement();
-			//int count = cstat.executeUpdate(baseStatement);
-			//if(threadlock) sqlManager.requestStatementExecution(true);
-			int count = baseStatement.executeUpdate();
-			if(threadlock)
-			{
-				sqlManager.acknowledgeStatementExecution();
-				String skey = null;
-				if(isnew) skey = SQLManager.SKEY_VAR_INSERT;
-				else skey = SQLManager.SKEY_VAR_UPDATE_SHORT;
-				sqlManager.releaseStatement(skey, baseStatement);
-			}
-			if(count != 1) return false;
+			//Goes out with the next batch. A failed row shows up when the batch is sent.
+			if(!queueVariantWrite(var, vgeno, isnew)) return false;
+			read_cache.putVariant(var, vgeno);
 			
 			if(regidx == null) this.loadRegionIndex();
 			regidx.indexVariant(var);
@@ -2298,20 +2745,9 @@ public class SQLVariantTable implements VariantTable{
 	{
 		try 
 		{
-			//Statement cstat = connection.createStatement();
-			//PreparedStatement pstat = sprepper.getSampleGenoDeleteStatment();
-			PreparedStatement pstat = null;
-			if(threadlock) pstat = sqlManager.requestStatement(SQLManager.SKEY_SGENO_DELETE, true);
-			else pstat = sqlManager.getStatementGenerator().getSampleGenoDeleteStatment();
-			
+			PreparedStatement pstat = sqlManager.getStatement(SQLManager.SKEY_SGENO_DELETE);
 			pstat.setInt(1, sampleID);
-			if(threadlock) sqlManager.requestStatementExecution(true);
 			int count = pstat.executeUpdate();
-			if(threadlock)
-			{
-				sqlManager.acknowledgeStatementExecution();
-				sqlManager.releaseStatement(SQLManager.SKEY_SGENO_DELETE, pstat);
-			}
 			return (count == 1);
 		} 
 		catch (SQLException e) 
@@ -2321,6 +2757,26 @@ public class SQLVariantTable implements VariantTable{
 		}
 	}
 	
+	private boolean removeGenoRowsForSample(int sampleID)
+	{
+		//Rows of the variants that are kept get rewritten anyway, but the variants
+		//	that are deleted outright need theirs gone too.
+		try 
+		{
+			flushWrites();
+			PreparedStatement pstat = sqlManager.getStatement(SQLManager.SKEY_GROW_DELETE_SAMPLE);
+			pstat.setInt(StatementPrepper.GROWDEL_SAMPUID, sampleID);
+			pstat.executeUpdate();
+			uncommitted = true;
+			return true;
+		} 
+		catch (SQLException e) 
+		{
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
 	public boolean removeVariant(long varUID)
 	{
 		//Get variant so can remove gene hit info
@@ -2329,25 +2785,20 @@ public class SQLVariantTable implements VariantTable{
 		
 		try 
 		{
-			//Statement cstat = connection.createStatement();
-			//int count = cstat.executeUpdate(sqlQuery);
-			//PreparedStatement pstat = sprepper.getVarDeleteStatment();
-			PreparedStatement pstat = null;
-			if(threadlock) pstat = sqlManager.requestStatement(SQLManager.SKEY_VAR_DELETE, true);
-			else pstat = sqlManager.getStatementGenerator().getVarDeleteStatment();
-			
+			flushWrites();
+			PreparedStatement pstat = sqlManager.getStatement(SQLManager.SKEY_VAR_DELETE);
 			pstat.setLong(1, varUID);
-			
-			if(threadlock) sqlManager.requestStatementExecution(true);
 			int count = pstat.executeUpdate();
-			if(threadlock)
+			uncommitted = true;
+			
+			if(genoRows)
 			{
-				sqlManager.acknowledgeStatementExecution();
-				sqlManager.releaseStatement(SQLManager.SKEY_VAR_DELETE, pstat);
+				pstat = sqlManager.getStatement(SQLManager.SKEY_GROW_DELETE_VAR);
+				pstat.setLong(StatementPrepper.GROWDEL_VARUID, varUID);
+				pstat.executeUpdate();
 			}
-			
 			//Update sample geno table...
-			if(vg != null)
+			else if(vg != null)
 			{
 				Set<Integer> samps = vg.getAllIndividuals();
 				Map<Integer, List<Long>> removes = new HashMap<Integer, List<Long>>();
@@ -2405,20 +2856,41 @@ public class SQLVariantTable implements VariantTable{
 		
 		try 
 		{
-			//PreparedStatement pstat = sprepper.generateMultiVarDeleteStatement(len);
-			PreparedStatement pstat = sqlManager.getStatementGenerator().generateMultiVarDeleteStatement(len);
-			int i = 1;
-			for(Long vid : varUIDs) 
+			flushWrites();
+			PreparedStatement pstat = sqlManager.getStatementGenerator().getMultiVarDeleteStatement();
+			PreparedStatement rowdel = null;
+			if(genoRows) rowdel = sqlManager.getStatementGenerator().getMultiGenoRowVarDeleteStatement();
+			int count = 0;
+			List<Long> chunk = new ArrayList<Long>(MAX_VARS_INQUERY);
+			for(Long vid : new TreeSet<Long>(varUIDs)) 
+			{
+				chunk.add(vid);
+				if(chunk.size() >= MAX_VARS_INQUERY)
+				{
+					StatementPrepper.setInListValues(pstat, chunk, 1);
+					count += pstat.executeUpdate();
+					if(rowdel != null)
+					{
+						StatementPrepper.setInListValues(rowdel, chunk, 1);
+						rowdel.executeUpdate();
+					}
+					chunk.clear();
+				}
+			}
+			if(!chunk.isEmpty())
 			{
-				pstat.setLong(i, vid);
-				i++;
+				StatementPrepper.setInListValues(pstat, chunk, 1);
+				count += pstat.executeUpdate();
+				if(rowdel != null)
+				{
+					StatementPrepper.setInListValues(rowdel, chunk, 1);
+					rowdel.executeUpdate();
+				}
 			}
-			if(threadlock) sqlManager.requestStatementExecution(true);
-			int count = pstat.executeUpdate();
-			if(threadlock) sqlManager.acknowledgeStatementExecution();
+			uncommitted = true;
 
 			//Update sample geno table...
-			if(vglist != null)
+			if(!genoRows && vglist != null)
 			{
 				Map<Integer, List<Long>> removes = new HashMap<Integer, List<Long>>();
 				for(VariantGenotype vg : vglist)
@@ -2492,7 +2964,8 @@ public class SQLVariantTable implements VariantTable{
 		List<VariantGenotype> vglist = getGenotypes(sampleVars);
 		
 		//Remove sample geno record
-		b = b && removeSampleGenoRecord(uid);
+		if(genoRows) b = b && removeGenoRowsForSample(uid);
+		else b = b && removeSampleGenoRecord(uid);
 		
 		//Remove individual from gene hit counts
 		ghc_cache_dirty = true;
@@ -2687,17 +3160,7 @@ public class SQLVariantTable implements VariantTable{
 		
 		try
 		{
-			//Statement cstat = connection.createStatement();
-			//int count = cstat.executeUpdate(sqlcmd);
-			PreparedStatement pstat = generatePopulationSetVarUpdateStatement(dbv, threadlock);
-			if(threadlock) sqlManager.requestStatementExecution(true);
-			int count = pstat.executeUpdate();
-			if(threadlock)
-			{
-				sqlManager.acknowledgeStatementExecution();
-				sqlManager.releaseStatement(SQLManager.SKEY_VAR_UPDATE_POP, pstat);
-			}
-			allgood = allgood && (count == 1);
+			allgood = allgood && queuePopulationUpdate(dbv);
 		}
 		catch(Exception e)
 		{
@@ -2716,6 +3179,7 @@ public class SQLVariantTable implements VariantTable{
 		
 		try 
 		{
+			flushWrites();
 			Statement cstat = connection.createStatement();
 			ResultSet rs = cstat.executeQuery(sqlQuery);
 			while(rs.next())
@@ -2723,6 +3187,7 @@ public class SQLVariantTable implements VariantTable{
 				DBVariant dbv = readFromResultSet(rs);
 				allgood = allgood && updateSampleCountsForVariant(dbv, sampleTable);
 			}
+			flushWrites();
 
 		} 
 		catch (Exception e) 
@@ -2768,16 +3233,7 @@ public class SQLVariantTable implements VariantTable{
 			
 			try
 			{
-				PreparedStatement pstat = generatePopulationSetVarUpdateStatement(dbv, true);
-				
-				if(threadlock) sqlManager.requestStatementExecution(true);
-				int count = pstat.executeUpdate();
-				if(threadlock)
-				{
-					sqlManager.acknowledgeStatementExecution();
-					sqlManager.releaseStatement(SQLManager.SKEY_VAR_UPDATE_POP, pstat);
-				}
-				allgood = allgood && (count == 1);
+				allgood = allgood && queuePopulationUpdate(dbv);
 			}
 			catch(Exception e)
 			{
@@ -2786,11 +3242,21 @@ public class SQLVariantTable implements VariantTable{
 			}
 		}
 		
+		try {flushWrites();}
+		catch(SQLException e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+		
 		return allgood;
 	}
 	
 	public boolean updateSampleGenotypeTable() throws SQLException
 	{
+		flushWrites();
+		//Genotype rows are kept up to date on every variant write - nothing to rebuild
+		if(genoRows) return true;
 		Map<Integer, List<Long>> map = new TreeMap<Integer, List<Long>>();
 		PreparedStatement statement = sqlManager.getStatementGenerator().getVariantGetAllStatement();
 		
@@ -2858,13 +3324,102 @@ public class SQLVariantTable implements VariantTable{
 		return true;
 	}
 	
+	/* ----- Genotype Rows ----- */
+	
+	public boolean usesGenotypeRows()
+	{
+		return genoRows;
+	}
+	
+	/**
+	 * Build the normalized genotype table (one row per variant/sample pair) from the
+	 * genotype BLOBs in the variant table, and switch sample and family variant lookups
+	 * over to it. Once the table exists, it is kept up to date on every variant write
+	 * and the per-sample BLOB lists are no longer rewritten.
+	 * <br>Any existing rows are discarded and rebuilt, so this can be rerun to repair the table.
+	 * <br>Pending changes are committed before the migration starts.
+	 * @return True if the rows were built and committed. False if there was an error, in
+	 * which case the migration is rolled back.
+	 */
+	public boolean migrateToGenotypeRows()
+	{
+		try
+		{
+			commitUpdates();
+		}
+		catch(SQLException e)
+		{
+			System.err.println("SQLVariantTable.migrateToGenotypeRows || Pending changes could not be committed! Migration cancelled.");
+			e.printStackTrace();
+			return false;
+		}
+		
+		long vcount = 0;
+		long rcount = 0;
+		try
+		{
+			if(!genoRowTableExists()) createGenoRowTable();
+			StatementPrepper sprepper = sqlManager.getStatementGenerator();
+			PreparedStatement ps = sprepper.getGenoRowTableWipeStatement();
+			ps.executeUpdate();
+			ps.close();
+			
+			PreparedStatement ins = sprepper.getGenoRowInsertStatement();
+			String sqlQuery = "SELECT " + FIELDNAME_VARUID + ", " + FIELDNAME_GENOTYPES + " FROM " + TABLENAME_VARIANTS;
+			Statement cstat = connection.createStatement();
+			ResultSet rs = cstat.executeQuery(sqlQuery);
+			int batched = 0;
+			while(rs.next())
+			{
+				long vuid = rs.getLong(FIELDNAME_VARUID);
+				VariantGenotype vg = new VariantGenotype(vuid);
+				vg.readDataFromBLOB(rs.getBlob(FIELDNAME_GENOTYPES));
+				if(vg.isCorrupted())
+				{
+					System.err.println("SQLVariantTable.migrateToGenotypeRows || Genotypes for variant 0x" + Long.toHexString(vuid) + " are corrupted. Skipping...");
+					continue;
+				}
+				for(SVDBGenotype gt : vg.getGenotypes())
+				{
+					setGenoRowValues(ins, vuid, gt);
+					ins.addBatch();
+					batched++;
+					rcount++;
+					if(batched >= WRITE_BATCH_SIZE)
+					{
+						checkBatchCounts(ins.executeBatch(), "genotype row insert");
+						batched = 0;
+					}
+				}
+				vcount++;
+			}
+			if(batched > 0) checkBatchCounts(ins.executeBatch(), "genotype row insert");
+			rs.close();
+			cstat.close();
+			
+			connection.commit();
+		}
+		catch(Exception e)
+		{
+			System.err.println("SQLVariantTable.migrateToGenotypeRows || Migration failed! Rolling back...");
+			e.printStackTrace();
+			try {connection.rollback();}
+			catch(SQLException x) {x.printStackTrace();}
+			return false;
+		}
+		
+		genoRows = true;
+		System.err.println("Genotype row migration complete! " + vcount + " variants, " + rcount + " rows written!");
+		return true;
+	}
+	
 	/* ----- Cleanup ----- */
 	
 	public void commitUpdates() throws SQLException
 	{
-		if(threadlock) sqlManager.requestStatementExecution(true);
+		flushWrites();
 		connection.commit();
-		if(threadlock) sqlManager.acknowledgeStatementExecution();
+		uncommitted = false;
 	}
 	
 	public void flushCache()
@@ -2896,15 +3451,26 @@ public class SQLVariantTable implements VariantTable{
 		{
 			StatementPrepper sprepper = sqlManager.getStatementGenerator();
 			System.err.println("Deleting variants...");
+			flushWrites();
 			PreparedStatement ps = sprepper.getVarTableWipeStatement();
 			ps.executeUpdate();
 			ps.close();
+			uncommitted = true;
+			read_cache.clear();
 			
 			System.err.println("Deleting sample genotype mapping data...");
 			ps = sprepper.getSampleGenoTableWipeStatement();
 			ps.executeUpdate();
 			ps.close();
 			
+			if(genoRows)
+			{
+				System.err.println("Deleting genotype rows...");
+				ps = sprepper.getGenoRowTableWipeStatement();
+				ps.executeUpdate();
+				ps.close();
+			}
+			
 			System.err.println("Deleting gene hit data...");
 			ps = sprepper.getGeneHitTableWipeStatement();
 			ps.executeUpdate();
@@ -2923,6 +3489,9 @@ public class SQLVariantTable implements VariantTable{
 	
 	public void close() throws SQLException
 	{
+		flushWrites();
+		rs_cache.shutdown();
+		connPool.close();
 		//connection.close();
 	}
 	
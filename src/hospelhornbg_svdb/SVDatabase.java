@@ -805,6 +805,16 @@ public class SVDatabase {
 		return variantTable.updateSampleGenotypeTable();
 	}
 	
+	public boolean migrateToGenotypeRows()
+	{
+		if(!(variantTable instanceof SQLVariantTable))
+		{
+			System.err.println("SVDatabase.migrateToGenotypeRows || Genotype rows are only available for SQL variant tables!");
+			return false;
+		}
+		return ((SQLVariantTable)variantTable).migrateToGenotypeRows();
+	}
+	
 	/* ----- Database Loaders ----- */
 	
 	public static SVDatabase loadDatabase(String dir) throws IOException, SQLException
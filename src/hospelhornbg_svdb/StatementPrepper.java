@@ -4,6 +4,7 @@ import java.sql.Blob;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.List;
 
 import hospelhornbg_bioinformatics.SVType;
 
@@ -15,18 +16,24 @@ public class StatementPrepper {
 	public static final int GENOGET_VARUID = 1;
 	public static final int SVARGET_SAMPUID = 1;
 	
-	public static final int[] VARS_REG_CUID = {1, 4, 7};
-	public static final int[] VARS_REG_START = {3, 6, 9};
-	public static final int[] VARS_REG_END = {2, 5, 8};
+	//Region queries: _BINS is the first of RegionBin.PARAMS_PER_QUERY bin range parameters
+	//_END takes the region end (exclusive), _START the region start
+	//Full query is three parts (non-TRA, TRA end 1, TRA end 2)
+	public static final int[] VARS_REG_CUID = {1, 14, 27};
+	public static final int[] VARS_REG_BINS = {2, 15, 28};
+	public static final int[] VARS_REG_END = {12, 25, 38};
+	public static final int[] VARS_REG_START = {13, 26, 39};
 	
 	public static final int VARS_REG_NOTRA_CUID = 1;
-	public static final int VARS_REG_NOTRA_START = 2;
-	public static final int VARS_REG_NOTRA_END = 3;
+	public static final int VARS_REG_NOTRA_BINS = 2;
+	public static final int VARS_REG_NOTRA_END = 12;
+	public static final int VARS_REG_NOTRA_START = 13;
 	
 	public static final int VARS_REG_TYPE_TYPE = 1;
 	public static final int VARS_REG_TYPE_CUID = 2;
-	public static final int VARS_REG_TYPE_START = 3;
-	public static final int VARS_REG_TYPE_END = 4;
+	public static final int VARS_REG_TYPE_BINS = 3;
+	public static final int VARS_REG_TYPE_END = 13;
+	public static final int VARS_REG_TYPE_START = 14;
 	
 	public static final int FULLINS_VARUID = 1;
 	public static final int FULLINS_CHR1 = 2;
@@ -60,6 +67,8 @@ public class StatementPrepper {
 	public static final int FULLINS_CTG2 = 30;
 	public static final int FULLINS_INSSEQ = 31;
 	public static final int FULLINS_GENOTYPES = 32;
+	public static final int FULLINS_BIN1 = 33;
+	public static final int FULLINS_BIN2 = 34;
 	
 	public static final int SHORTUD_ST1 = 1;
 	public static final int SHORTUD_ST2 = 2;
@@ -87,7 +96,9 @@ public class StatementPrepper {
 	public static final int SHORTUD_GENELIST = 24;
 	public static final int SHORTUD_VALNOTES = 25;
 	public static final int SHORTUD_GENOTYPES = 26;
-	public static final int SHORTUD_QUERYID = 27;
+	public static final int SHORTUD_BIN1 = 27;
+	public static final int SHORTUD_BIN2 = 28;
+	public static final int SHORTUD_QUERYID = 29;
 	
 	public static final int POPUD_ACOUNT_TOT = 1;
 	public static final int POPUD_HCOUNT_TOT = 2;
@@ -131,6 +142,20 @@ public class StatementPrepper {
 	public static final int GENEHIT_UD_TOT_INDIV = 3;
 	public static final int GENEHIT_UD_EXON_INDIV = 4;
 	
+	public static final int BINUD_BIN1 = 1;
+	public static final int BINUD_BIN2 = 2;
+	public static final int BINUD_QUERYID = 3;
+	
+	public static final int GROWINS_VARUID = 1;
+	public static final int GROWINS_SAMPUID = 2;
+	public static final int GROWINS_ZYGOSITY = 3;
+	public static final int GROWINS_ALTCOPIES = 4;
+	public static final int GROWINS_ALLELES = 5;
+	
+	public static final int GROWGET_SAMPUID = 1;
+	public static final int GROWDEL_VARUID = 1;
+	public static final int GROWDEL_SAMPUID = 1;
+	
 	private Connection connection;
 	
 	private PreparedStatement varuid_check;
@@ -145,6 +170,7 @@ public class StatementPrepper {
 	private PreparedStatement insert_full;
 	private PreparedStatement short_update;
 	private PreparedStatement pop_update;
+	private PreparedStatement bin_update;
 	
 	private PreparedStatement sgeno_delete;
 	private PreparedStatement var_delete;
@@ -155,12 +181,27 @@ public class StatementPrepper {
 	private PreparedStatement gh_get_one;
 	private PreparedStatement gh_insert;
 	private PreparedStatement gh_update;
+	
+	private PreparedStatement var_getter_multi;
+	private PreparedStatement geno_getter_multi;
+	private PreparedStatement var_delete_multi;
+	
+	private PreparedStatement grow_insert;
+	private PreparedStatement grow_sample_getter;
+	private PreparedStatement grow_var_delete;
+	private PreparedStatement grow_sample_delete;
+	private PreparedStatement grow_var_delete_multi;
 
 	public StatementPrepper(Connection c)
 	{
 		connection = c;
 	}
 	
+	public Connection getConnection()
+	{
+		return connection;
+	}
+	
 	public PreparedStatement getVarUIDCheckStatement() throws SQLException
 	{
 		if(varuid_check == null)
@@ -186,15 +227,17 @@ public class StatementPrepper {
 	
 	public PreparedStatement generateMultiVarGetterStatement(int count) throws SQLException
 	{
-		String sqlQuery = "SELECT * FROM " + SQLVariantTable.TABLENAME_VARIANTS + " WHERE";
-		for(int i = 0; i < count; i++)
-		{
-			sqlQuery += " " + SQLVariantTable.FIELDNAME_VARUID + " = ?";
-			if(i < (count - 1)) sqlQuery += " OR";
-		}
+		String sqlQuery = "SELECT * FROM " + SQLVariantTable.TABLENAME_VARIANTS + " WHERE " + generateInList(SQLVariantTable.FIELDNAME_VARUID, count);
 		return connection.prepareStatement(sqlQuery);
 	}
 	
+	public PreparedStatement getMultiVarGetterStatement() throws SQLException
+	{
+		//Full size (MAX_VARS_INQUERY) IN list - short chunks pad by repeating a UID
+		if(var_getter_multi == null) var_getter_multi = generateMultiVarGetterStatement(SQLVariantTable.MAX_VARS_INQUERY);
+		return var_getter_multi;
+	}
+	
 	public PreparedStatement getGenoGetterStatement() throws SQLException
 	{
 		if(geno_getter == null)
@@ -208,15 +251,17 @@ public class StatementPrepper {
 	
 	public PreparedStatement generateMultiGenoGetterStatement(int count) throws SQLException
 	{
-		String sqlQuery = "SELECT " + SQLVariantTable.FIELDNAME_VARUID + ", " + SQLVariantTable.FIELDNAME_GENOTYPES + " FROM " + SQLVariantTable.TABLENAME_VARIANTS + " WHERE";
-		for(int i = 0; i < count; i++)
-		{
-			sqlQuery += " " + SQLVariantTable.FIELDNAME_VARUID + " = ?";
-			if(i < (count - 1)) sqlQuery += " OR";
-		}
+		String sqlQuery = "SELECT " + SQLVariantTable.FIELDNAME_VARUID + ", " + SQLVariantTable.FIELDNAME_GENOTYPES + " FROM " + SQLVariantTable.TABLENAME_VARIANTS;
+		sqlQuery += " WHERE " + generateInList(SQLVariantTable.FIELDNAME_VARUID, count);
 		return connection.prepareStatement(sqlQuery);
 	}
 	
+	public PreparedStatement getMultiGenoGetterStatement() throws SQLException
+	{
+		if(geno_getter_multi == null) geno_getter_multi = generateMultiGenoGetterStatement(SQLVariantTable.MAX_VARS_INQUERY);
+		return geno_getter_multi;
+	}
+	
 	public PreparedStatement getSampleVarGetterStatement() throws SQLException
 	{
 		if(sampvar_getter == null)
@@ -228,40 +273,39 @@ public class StatementPrepper {
 		return sampvar_getter;
 	}
 	
+	private static String generateRegionClause(String ctgField, String binField, String stField, String edField)
+	{
+		//ctg = ? AND (bins) AND st < ? AND ed >= ?
+		String clause = ctgField + " = ?";
+		clause += " AND " + RegionBin.generateBinClause(binField);
+		clause += " AND " + stField + " < ?";
+		clause += " AND " + edField + " >= ?";
+		return clause;
+	}
+	
+	private static String generateTRATypeClause()
+	{
+		return "(" + SQLVariantTable.FIELDNAME_SVTYPE + " = " + SVType.TRA.getID() + " OR " + SQLVariantTable.FIELDNAME_SVTYPE + " = " + SVType.BND.getID() + ")";
+	}
+	
 	public PreparedStatement getRegionVarGetterStatement() throws SQLException
 	{
+		//Returns VARUIDs only. A TRA with both ends in the region comes back twice.
 		if(vars_in_reg == null)
 		{
-			String sqlQuery = "SELECT * FROM " + SQLVariantTable.TABLENAME_VARIANTS;
-			sqlQuery += " WHERE ";
-			
-			String statement_type = SQLVariantTable.FIELDNAME_SVTYPE + "=" + SVType.TRA.getID() + " OR " + SQLVariantTable.FIELDNAME_SVTYPE + "=" + SVType.BND.getID();
-			String statement_ctg1 = SQLVariantTable.FIELDNAME_CTG1 + " = ?";// + cuid; 0 3
-			String statement_ctg2 = SQLVariantTable.FIELDNAME_CTG2 + " = ?";// + cuid; 6
-			String statement_reg1 = SQLVariantTable.FIELDNAME_START1 + " < ?";// + end; 1
-			String statement_reg2 = SQLVariantTable.FIELDNAME_END2 + " >= ?";// + start; 2
-			
-			String statement_trareg1 = SQLVariantTable.FIELDNAME_START1 + " < ?";// + end; 4
-			String statement_trareg2 = SQLVariantTable.FIELDNAME_START2 + " >= ?";// + start; 5
-			String statement_trareg3 = SQLVariantTable.FIELDNAME_END1 + " < ?";// + end; 7
-			String statement_trareg4 = SQLVariantTable.FIELDNAME_END2 + " >= ?";// + start; 8
+			String select = "SELECT " + SQLVariantTable.FIELDNAME_VARUID + " FROM " + SQLVariantTable.TABLENAME_VARIANTS + " WHERE ";
 			
-			//Combine for full statement
-			/*
-			 *  (!TRA) && ctg1 && reg1 && reg2
-			 *  or
-			 *  TRA && ((ctg1 && treg1 && treg2) || (ctg2 && treg3 && treg4))
-			 */
-			
-			String nottra = "(NOT " + statement_type + ")";
-			String normQuery = nottra + " AND " + statement_ctg1 + " AND " + statement_reg1 + " AND " + statement_reg2;
-			String tQuery1 = statement_ctg1 + " AND " + statement_trareg1 + " AND " + statement_trareg2;
-			String tQuery2 = statement_ctg2 + " AND " + statement_trareg3 + " AND " + statement_trareg4;
-			String traQuery = statement_type + " AND ((" + tQuery1 + ") OR (" + tQuery2 + "))";
-			sqlQuery += "(" + normQuery + ") OR (" + traQuery + ")";
+			String traType = generateTRATypeClause();
+			String normQuery = generateRegionClause(SQLVariantTable.FIELDNAME_CTG1, SQLVariantTable.FIELDNAME_BIN1, SQLVariantTable.FIELDNAME_START1, SQLVariantTable.FIELDNAME_END2);
+			normQuery += " AND NOT " + traType;
+			String tQuery1 = generateRegionClause(SQLVariantTable.FIELDNAME_CTG1, SQLVariantTable.FIELDNAME_BIN1, SQLVariantTable.FIELDNAME_START1, SQLVariantTable.FIELDNAME_START2);
+			tQuery1 += " AND " + traType;
+			String tQuery2 = generateRegionClause(SQLVariantTable.FIELDNAME_CTG2, SQLVariantTable.FIELDNAME_BIN2, SQLVariantTable.FIELDNAME_END1, SQLVariantTable.FIELDNAME_END2);
+			tQuery2 += " AND " + traType;
 			
+			//Separate parts so each can use its own (contig, bin) index
+			String sqlQuery = select + normQuery + " UNION ALL " + select + tQuery1 + " UNION ALL " + select + tQuery2;
 			vars_in_reg = connection.prepareStatement(sqlQuery);
-			//System.err.println("StatementPrepper.getRegionVarGetterStatement || Statement is null? " + (vars_in_reg == null));
 		}
 		return vars_in_reg;
 	}
@@ -270,55 +314,52 @@ public class StatementPrepper {
 	{
 		if(vars_in_reg_notra == null)
 		{
-			String sqlQuery = "SELECT * FROM " + SQLVariantTable.TABLENAME_VARIANTS;
+			String sqlQuery = "SELECT " + SQLVariantTable.FIELDNAME_VARUID + " FROM " + SQLVariantTable.TABLENAME_VARIANTS;
 			sqlQuery += " WHERE ";
-			
-			String statement_type = SQLVariantTable.FIELDNAME_SVTYPE + "=" + SVType.TRA.getID() + " OR " + SQLVariantTable.FIELDNAME_SVTYPE + "=" + SVType.BND.getID();
-			String statement_ctg1 = SQLVariantTable.FIELDNAME_CTG1 + " = ?";// + cuid; 0 3
-			String statement_reg1 = SQLVariantTable.FIELDNAME_START1 + " < ?";// + end; 1
-			String statement_reg2 = SQLVariantTable.FIELDNAME_END2 + " >= ?";// + start; 2
-			
-			//Combine for full statement
-			/*
-			 *  (!TRA) && ctg1 && reg1 && reg2
-			 */
-			
-			String nottra = "(NOT " + statement_type + ")";
-			String normQuery = nottra + " AND " + statement_ctg1 + " AND " + statement_reg1 + " AND " + statement_reg2;
-			sqlQuery += normQuery;
+			sqlQuery += generateRegionClause(SQLVariantTable.FIELDNAME_CTG1, SQLVariantTable.FIELDNAME_BIN1, SQLVariantTable.FIELDNAME_START1, SQLVariantTable.FIELDNAME_END2);
+			sqlQuery += " AND NOT " + generateTRATypeClause();
 			
 			vars_in_reg_notra = connection.prepareStatement(sqlQuery);
-			//System.err.println("StatementPrepper.getRegionVarGetterStatement || Statement is null? " + (vars_in_reg == null));
 		}
 		return vars_in_reg_notra;
 	}
 	
 	public PreparedStatement getRegionNoTRAVarGetterStatement_ofType() throws SQLException
 	{
+		//Single end (CONTIG1, START1 to END2) - not for TRA/BND
 		if(vars_in_reg_type == null)
 		{
-			String sqlQuery = "SELECT * FROM " + SQLVariantTable.TABLENAME_VARIANTS;
+			String sqlQuery = "SELECT " + SQLVariantTable.FIELDNAME_VARUID + " FROM " + SQLVariantTable.TABLENAME_VARIANTS;
 			sqlQuery += " WHERE ";
-			
-			String statement_type = SQLVariantTable.FIELDNAME_SVTYPE + "= ?";
-			String statement_ctg1 = SQLVariantTable.FIELDNAME_CTG1 + " = ?";// + cuid; 0 3
-			String statement_reg1 = SQLVariantTable.FIELDNAME_START1 + " < ?";// + end; 1
-			String statement_reg2 = SQLVariantTable.FIELDNAME_END2 + " >= ?";// + start; 2
-			
-			//Combine for full statement
-			/*
-			 *  (!TRA) && ctg1 && reg1 && reg2
-			 */
-			
-			String normQuery = statement_type + " AND " + statement_ctg1 + " AND " + statement_reg1 + " AND " + statement_reg2;
-			sqlQuery += normQuery;
+			sqlQuery += SQLVariantTable.FIELDNAME_SVTYPE + " = ? AND ";
+			sqlQuery += generateRegionClause(SQLVariantTable.FIELDNAME_CTG1, SQLVariantTable.FIELDNAME_BIN1, SQLVariantTable.FIELDNAME_START1, SQLVariantTable.FIELDNAME_END2);
 			
 			vars_in_reg_type = connection.prepareStatement(sqlQuery);
-			//System.err.println("StatementPrepper.getRegionVarGetterStatement || Statement is null? " + (vars_in_reg == null));
 		}
 		return vars_in_reg_type;
 	}
 	
+	public static void setRegionValues(PreparedStatement pstat, int cuidParam, int binsParam, int endParam, int startParam, int cuid, int start, int end) throws SQLException
+	{
+		pstat.setInt(cuidParam, cuid);
+		RegionBin.setQueryBinValues(pstat, binsParam, start, end - 1);
+		pstat.setInt(endParam, end);
+		pstat.setInt(startParam, start);
+	}
+	
+	public PreparedStatement getBinUpdateStatement() throws SQLException
+	{
+		if(bin_update == null)
+		{
+			String sqlQuery = "UPDATE " + SQLVariantTable.TABLENAME_VARIANTS + " SET ";
+			sqlQuery += SQLVariantTable.FIELDNAME_BIN1 + " = ?, ";
+			sqlQuery += SQLVariantTable.FIELDNAME_BIN2 + " = ?";
+			sqlQuery += " WHERE " + SQLVariantTable.FIELDNAME_VARUID + " = ?";
+			bin_update = connection.prepareStatement(sqlQuery);
+		}
+		return bin_update;
+	}
+	
 	public PreparedStatement getFullInsertStatement() throws SQLException
 	{
 		if(insert_full == null)
@@ -370,7 +411,9 @@ public class StatementPrepper {
 			
 			valStatement += SQLVariantTable.FIELDNAME_GENELIST + " = ?, ";
 			valStatement += SQLVariantTable.FIELDNAME_VALNOTES + " = ?, ";
-			valStatement += SQLVariantTable.FIELDNAME_GENOTYPES + " = ?";
+			valStatement += SQLVariantTable.FIELDNAME_GENOTYPES + " = ?, ";
+			valStatement += SQLVariantTable.FIELDNAME_BIN1 + " = ?, ";
+			valStatement += SQLVariantTable.FIELDNAME_BIN2 + " = ?";
 			
 			String sqlQuery = "UPDATE " + SQLVariantTable.TABLENAME_VARIANTS + " SET " + valStatement + " WHERE " + SQLVariantTable.FIELDNAME_VARUID + " = ?";
 			//String sqlQuery = "UPDATE " + SQLVariantTable.TABLENAME_VARIANTS + " SET " + valStatement;
@@ -436,13 +479,45 @@ public class StatementPrepper {
 	
 	public PreparedStatement generateMultiVarDeleteStatement(int count) throws SQLException
 	{
-		String sqlQuery = "DELETE FROM " + SQLVariantTable.TABLENAME_VARIANTS + " WHERE";
+		String sqlQuery = "DELETE FROM " + SQLVariantTable.TABLENAME_VARIANTS + " WHERE " + generateInList(SQLVariantTable.FIELDNAME_VARUID, count);
+		return connection.prepareStatement(sqlQuery);
+	}
+	
+	public PreparedStatement getMultiVarDeleteStatement() throws SQLException
+	{
+		if(var_delete_multi == null) var_delete_multi = generateMultiVarDeleteStatement(SQLVariantTable.MAX_VARS_INQUERY);
+		return var_delete_multi;
+	}
+	
+	public static String generateInList(String field, int count)
+	{
+		StringBuilder sb = new StringBuilder(field.length() + 8 + (count * 3));
+		sb.append(field);
+		sb.append(" IN (");
 		for(int i = 0; i < count; i++)
 		{
-			sqlQuery += " " + SQLVariantTable.FIELDNAME_VARUID + " = ?";
-			if(i < (count - 1)) sqlQuery += " OR";
+			if(i > 0) sb.append(", ");
+			sb.append('?');
 		}
-		return connection.prepareStatement(sqlQuery);
+		sb.append(')');
+		return sb.toString();
+	}
+	
+	public static void setInListValues(PreparedStatement pstat, List<Long> uids, int firstParam) throws SQLException
+	{
+		//Fills a MAX_VARS_INQUERY IN list. Unused slots repeat the last UID.
+		int n = uids.size();
+		if(n < 1) throw new SQLException("Empty IN list");
+		if(n > SQLVariantTable.MAX_VARS_INQUERY) throw new SQLException("IN list too long: " + n);
+		long last = 0L;
+		int i = 0;
+		for(Long uid : uids)
+		{
+			last = uid;
+			pstat.setLong(firstParam + i, last);
+			i++;
+		}
+		for(; i < SQLVariantTable.MAX_VARS_INQUERY; i++) pstat.setLong(firstParam + i, last);
 	}
 	
 	public PreparedStatement getSGenoInsertStatement() throws SQLException
@@ -562,6 +637,99 @@ public class StatementPrepper {
 		return connection.prepareStatement(sqlQuery);
 	}
 	
+	public PreparedStatement getGenoRowInsertStatement() throws SQLException
+	{
+		if(grow_insert == null)
+		{
+			String sqlQuery = "INSERT INTO " + SQLVariantTable.TABLENAME_GENOROWS;
+			sqlQuery += " VALUES (?, ?, ?, ?, ?)";
+			grow_insert = connection.prepareStatement(sqlQuery);
+		}
+		return grow_insert;
+	}
+	
+	public PreparedStatement getGenoRowSampleVarGetterStatement() throws SQLException
+	{
+		if(grow_sample_getter == null)
+		{
+			String sqlQuery = "SELECT " + SQLVariantTable.FIELDNAME_VARUID + " FROM " + SQLVariantTable.TABLENAME_GENOROWS;
+			sqlQuery += " WHERE " + SQLVariantTable.FIELDNAME_SAMPLEUID + " = ?";
+			sqlQuery += " ORDER BY " + SQLVariantTable.FIELDNAME_VARUID;
+			grow_sample_getter = connection.prepareStatement(sqlQuery);
+		}
+		return grow_sample_getter;
+	}
+	
+	public PreparedStatement generateGenoRowMultiSampleVarGetterStatement(int count) throws SQLException
+	{
+		String sqlQuery = "SELECT DISTINCT " + SQLVariantTable.FIELDNAME_VARUID + " FROM " + SQLVariantTable.TABLENAME_GENOROWS;
+		sqlQuery += " WHERE " + generateInList(SQLVariantTable.FIELDNAME_SAMPLEUID, count);
+		sqlQuery += " ORDER BY " + SQLVariantTable.FIELDNAME_VARUID;
+		return connection.prepareStatement(sqlQuery);
+	}
+	
+	public PreparedStatement getGenoRowVarDeleteStatement() throws SQLException
+	{
+		if(grow_var_delete == null)
+		{
+			String sqlQuery = "DELETE FROM " + SQLVariantTable.TABLENAME_GENOROWS;
+			sqlQuery += " WHERE " + SQLVariantTable.FIELDNAME_VARUID + " = ?";
+			grow_var_delete = connection.prepareStatement(sqlQuery);
+		}
+		return grow_var_delete;
+	}
+	
+	public PreparedStatement getGenoRowSampleDeleteStatement() throws SQLException
+	{
+		if(grow_sample_delete == null)
+		{
+			String sqlQuery = "DELETE FROM " + SQLVariantTable.TABLENAME_GENOROWS;
+			sqlQuery += " WHERE " + SQLVariantTable.FIELDNAME_SAMPLEUID + " = ?";
+			grow_sample_delete = connection.prepareStatement(sqlQuery);
+		}
+		return grow_sample_delete;
+	}
+	
+	public PreparedStatement getMultiGenoRowVarDeleteStatement() throws SQLException
+	{
+		if(grow_var_delete_multi == null)
+		{
+			String sqlQuery = "DELETE FROM " + SQLVariantTable.TABLENAME_GENOROWS;
+			sqlQuery += " WHERE " + generateInList(SQLVariantTable.FIELDNAME_VARUID, SQLVariantTable.MAX_VARS_INQUERY);
+			grow_var_delete_multi = connection.prepareStatement(sqlQuery);
+		}
+		return grow_var_delete_multi;
+	}
+	
+	public PreparedStatement getGenoRowTableWipeStatement() throws SQLException
+	{
+		String sqlQuery = "DELETE FROM " + SQLVariantTable.TABLENAME_GENOROWS;
+		return connection.prepareStatement(sqlQuery);
+	}
+	
+	public void closeStatements()
+	{
+		//Only the cached statements. Generated ones are the caller's.
+		PreparedStatement[] all = {varuid_check, var_getter, geno_getter, sampvar_getter,
+								   vars_in_reg, vars_in_reg_notra, vars_in_reg_type,
+								   insert_full, short_update, pop_update, bin_update, sgeno_delete, var_delete,
+								   sgeno_insert, sgeno_update, gh_get_one, gh_insert, gh_update,
+								   var_getter_multi, geno_getter_multi, var_delete_multi,
+								   grow_insert, grow_sample_getter, grow_var_delete, grow_sample_delete, grow_var_delete_multi};
+		for(PreparedStatement ps : all)
+		{
+			if(ps == null) continue;
+			try {ps.close();}
+			catch(SQLException e) {e.printStackTrace();}
+		}
+		varuid_check = null; var_getter = null; geno_getter = null; sampvar_getter = null;
+		vars_in_reg = null; vars_in_reg_notra = null; vars_in_reg_type = null;
+		insert_full = null; short_update = null; pop_update = null; bin_update = null; sgeno_delete = null; var_delete = null;
+		sgeno_insert = null; sgeno_update = null; gh_get_one = null; gh_insert = null; gh_update = null;
+		var_getter_multi = null; geno_getter_multi = null; var_delete_multi = null;
+		grow_insert = null; grow_sample_getter = null; grow_var_delete = null; grow_sample_delete = null; grow_var_delete_multi = null;
+	}
+	
 	public Blob wrapInBlob(byte[] bytes) throws SQLException
 	{
 		//System.err.println("Blob length: " + bytes.length);
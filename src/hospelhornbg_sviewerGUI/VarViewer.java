@@ -32,8 +32,10 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JTable;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 import javax.swing.JPanel;
 import javax.swing.JLabel;
@@ -57,6 +59,8 @@ public class VarViewer extends JFrame{
 	
 	private JScrollPane scrollPane;
 	private JTable table;
+	private VariantTableModel tableModel;
+	private SwingWorker<int[], Void> rowTask;
 	
 	private String lastVCF;
 	private String lastBED;
@@ -338,6 +342,16 @@ public class VarViewer extends JFrame{
 				}
 			}
 		});
+		table.getTableHeader().addMouseListener(new MouseAdapter(){
+			
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				
+				int vc = table.getTableHeader().columnAtPoint(e.getPoint());
+				if (vc < 0) return;
+				sortTable(table.convertColumnIndexToModel(vc));
+			}
+		});
 		
 		JPanel panel = new JPanel();
 		panel.setMaximumSize(new Dimension(32767, 50));
@@ -424,15 +438,99 @@ public class VarViewer extends JFrame{
 	
 	public void updateForm()
 	{
+		if (!SwingUtilities.isEventDispatchThread())
+		{
+			SwingUtilities.invokeLater(new Runnable(){
+				public void run() {updateForm();}
+			});
+			return;
+		}
 		updateTable();
-		lblVarCount.setText(Integer.toString(manager.getFilteredSet().size()));
 		repaintAll();
 	}
 	
 	public void updateTable()
 	{
-		if (!manager.poolLoaded()) table.setModel(new DefaultTableModel());
-		else table.setModel(new DefaultTableModel(manager.getTable(), manager.getColumnHeader()));
+		if (!manager.poolLoaded())
+		{
+			if (rowTask != null) rowTask.cancel(true);
+			rowTask = null;
+			tableModel = null;
+			table.setModel(new DefaultTableModel());
+			lblVarCount.setText("0");
+			return;
+		}
+		
+		//New model picks up column/pedigree changes. Keep the sort if its column is still there.
+		VariantTableModel model = new VariantTableModel(manager);
+		int scol = -1;
+		boolean asc = true;
+		if (tableModel != null && tableModel.getSortColumn() >= 0)
+		{
+			scol = model.findColumn(tableModel.getColumnName(tableModel.getSortColumn()));
+			asc = tableModel.isSortAscending();
+		}
+		runRowTask(model, true, scol, asc);
+	}
+	
+	public void sortTable(int column)
+	{
+		//Don't stomp on a filter pass that's still running
+		if (tableModel == null || rowTask != null) return;
+		if (table.getModel() != tableModel) return;
+		boolean asc = true;
+		if (tableModel.getSortColumn() == column) asc = !tableModel.isSortAscending();
+		runRowTask(tableModel, false, column, asc);
+	}
+	
+	private void runRowTask(VariantTableModel model, boolean filter, int scol, boolean asc)
+	{
+		//Only the newest request gets to update the table - anything older is interrupted
+		if (rowTask != null) rowTask.cancel(true);
+		int[] current = model.getRows();
+		lblVarCount.setText("...");
+		rowTask = new SwingWorker<int[], Void>(){
+
+			protected int[] doInBackground() throws Exception 
+			{
+				int[] rows = current;
+				if (filter) rows = model.filterRows();
+				if (rows == null || isCancelled()) return null;
+				if (scol >= 0) rows = model.sortRows(rows, scol, asc);
+				return rows;
+			}
+			
+			public void done()
+			{
+				if (rowTask != this || isCancelled()) return;
+				rowTask = null;
+				int[] rows = null;
+				try
+				{
+					rows = get();
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+				catch (ExecutionException e)
+				{
+					e.getCause().printStackTrace();
+					showError("Unknown Error - Table could not be updated!");
+					return;
+				}
+				if (rows == null) return;
+				model.setRows(rows, scol, asc);
+				if (tableModel != model)
+				{
+					tableModel = model;
+					table.setModel(model);
+				}
+				lblVarCount.setText(Integer.toString(model.getRowCount()));
+			}
+			
+		};
+		rowTask.execute();
 	}
 	
 	/* --- Action --- */
@@ -724,7 +822,8 @@ public class VarViewer extends JFrame{
 		if (!manager.pedigreeLoaded()) return;
 		
 		//Get candidate and pedigree
-		Candidate c = manager.getLinkedCandidate(i);
+		if (tableModel == null || table.getModel() != tableModel) return;
+		Candidate c = tableModel.getCandidateAt(i);
 		Pedigree fam = manager.getPedigree();
 		if (c == null) return;
 		if (fam == null) return;
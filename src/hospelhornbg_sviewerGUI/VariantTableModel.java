@@ -0,0 +1,381 @@
+package hospelhornbg_sviewerGUI;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.table.AbstractTableModel;
+
+import hospelhornbg_bioinformatics.StructuralVariant;
+import hospelhornbg_bioinformatics.Variant;
+import hospelhornbg_genomeBuild.Contig;
+import hospelhornbg_segregation.Candidate;
+import hospelhornbg_segregation.Individual;
+import hospelhornbg_segregation.Pedigree;
+import hospelhornbg_sviewerGUI.ViewManager.FilterSettings;
+import hospelhornbg_sviewerGUI.ViewManager.ViewColumn;
+
+public class VariantTableModel extends AbstractTableModel{
+
+	//Table model for the VarViewer main table
+	//Holds the source list and an index array of the rows that passed the filters only -
+	//	cell strings are rendered through the ViewManager when the table asks for them.
+	//The source, column layout and filter settings are copied at construction, so filterRows
+	//	and sortRows can run off the EDT. Construct and call setRows on the EDT only.
+
+	/* --- Constants --- */
+
+	private static final long serialVersionUID = 5721869037216648209L;
+
+	private static final int INTERRUPT_CHECK_MASK = 0x3FF;
+
+	/* --- Instance Variables --- */
+
+	private ViewManager manager;
+	private FilterSettings filters;
+
+	private List<Variant> variants;
+	private List<Candidate> candidates; //Null if not in candidate mode
+	private Individual proband;
+
+	private String[] headers;
+	private ViewColumn[] colTypes;
+	private String[] colKeys; //Info key or sample name for the expanded columns
+
+	private int[] rows;
+	private int sortColumn;
+	private boolean sortAscending;
+
+	/* --- Construction --- */
+
+	public VariantTableModel(ViewManager vm)
+	{
+		manager = vm;
+		filters = vm.getFilterSettings();
+		candidates = vm.getAllCandidates();
+		if (candidates != null)
+		{
+			variants = new ArrayList<Variant>(candidates.size());
+			for (Candidate c : candidates) variants.add(c.getVariant());
+			Pedigree fam = vm.getPedigree();
+			if (fam != null) proband = fam.getProband();
+		}
+		else variants = vm.getAllVariants();
+
+		//Lay out columns the same way ViewManager.getColumnHeader does
+		headers = vm.getColumnHeader();
+		colTypes = new ViewColumn[headers.length];
+		colKeys = new String[headers.length];
+		int i = 0;
+		for (ViewColumn c : vm.getIncludedStandardFields())
+		{
+			if (c == ViewColumn.OTHERINFO)
+			{
+				for (String k : vm.getIncludedInfoFields())
+				{
+					colTypes[i] = c;
+					colKeys[i] = k;
+					i++;
+				}
+			}
+			else if (c == ViewColumn.SAMPLEGENO)
+			{
+				for (String s : vm.getIncludedSamples())
+				{
+					colTypes[i] = c;
+					colKeys[i] = s;
+					i++;
+				}
+			}
+			else
+			{
+				colTypes[i] = c;
+				i++;
+			}
+		}
+
+		rows = new int[0];
+		sortColumn = -1;
+		sortAscending = true;
+	}
+
+	/* --- Rows --- */
+
+	/**
+	 * Run the filters (as they were when the model was built) over this model's source.
+	 * @return Source indices of the passing rows, or null if the thread was interrupted.
+	 */
+	public int[] filterRows()
+	{
+		if (candidates != null) return filters.getFilteredCandidateIndices(candidates);
+		return filters.getFilteredIndices(variants);
+	}
+
+	/**
+	 * Sort a set of source indices by one column. The sort is stable, so rows that tie
+	 * keep the order they came in.
+	 * @param in Source indices (from filterRows or getRows). Not modified.
+	 * @param col Model column to sort by.
+	 * @param ascending Sort direction. Empty numeric cells go to the end either way.
+	 * @return Sorted copy of the indices, or null if the thread was interrupted.
+	 */
+	public int[] sortRows(int[] in, int col, boolean ascending)
+	{
+		int n = in.length;
+		RowComparator cmp = null;
+		ViewColumn type = colTypes[col];
+		switch (type)
+		{
+		case POSITION:
+		case SVEND:
+		case SVLEN:
+		case QUALITY:
+			double[] nkeys = new double[n];
+			for (int i = 0; i < n; i++)
+			{
+				if ((i & INTERRUPT_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) return null;
+				nkeys[i] = getNumericKey(type, variants.get(in[i]));
+			}
+			cmp = new NumberComparator(nkeys, ascending);
+			break;
+		case CHROM:
+			Contig[] ckeys = new Contig[n];
+			double[] pkeys = new double[n];
+			for (int i = 0; i < n; i++)
+			{
+				Variant v = variants.get(in[i]);
+				ckeys[i] = v.getChromosome();
+				pkeys[i] = v.getPosition();
+			}
+			cmp = new ChromComparator(ckeys, pkeys, ascending);
+			break;
+		default:
+			String[] skeys = new String[n];
+			for (int i = 0; i < n; i++)
+			{
+				if ((i & INTERRUPT_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) return null;
+				skeys[i] = renderCell(in[i], col);
+			}
+			cmp = new StringComparator(skeys, ascending);
+			break;
+		}
+		if (Thread.currentThread().isInterrupted()) return null;
+
+		int[] perm = new int[n];
+		for (int i = 0; i < n; i++) perm[i] = i;
+		mergeSort(perm, new int[n], 0, n, cmp);
+
+		int[] out = new int[n];
+		for (int i = 0; i < n; i++) out[i] = in[perm[i]];
+		return out;
+	}
+
+	/**
+	 * Swap in a new set of visible rows. Call on the EDT.
+	 * @param r Source indices, in display order.
+	 * @param sortCol Column r is sorted by, or -1 if it's in source order.
+	 * @param ascending Direction r is sorted in.
+	 */
+	public void setRows(int[] r, int sortCol, boolean ascending)
+	{
+		rows = r;
+		sortColumn = sortCol;
+		sortAscending = ascending;
+		fireTableDataChanged();
+	}
+
+	public int[] getRows()
+	{
+		return rows;
+	}
+
+	public int getSortColumn()
+	{
+		return sortColumn;
+	}
+
+	public boolean isSortAscending()
+	{
+		return sortAscending;
+	}
+
+	public int getSourceSize()
+	{
+		return variants.size();
+	}
+
+	public Variant getVariantAt(int row)
+	{
+		if (row < 0 || row >= rows.length) return null;
+		return variants.get(rows[row]);
+	}
+
+	public Candidate getCandidateAt(int row)
+	{
+		if (candidates == null) return null;
+		if (row < 0 || row >= rows.length) return null;
+		return candidates.get(rows[row]);
+	}
+
+	/* --- Rendering --- */
+
+	private String renderCell(int src, int col)
+	{
+		Variant v = variants.get(src);
+		ViewColumn c = colTypes[col];
+		if (c == ViewColumn.OTHERINFO) return manager.getInfoString(colKeys[col], v);
+		if (c == ViewColumn.SAMPLEGENO) return manager.getSampleGenoString(colKeys[col], v);
+		if (candidates != null) return manager.getPropertyString(c, candidates.get(src), proband);
+		return manager.getPropertyString(c, v);
+	}
+
+	private static double getNumericKey(ViewColumn c, Variant v)
+	{
+		switch (c)
+		{
+		case POSITION: return v.getPosition();
+		case QUALITY:
+			if (v.getQuality() < 0) return Double.NaN; //No quality
+			return v.getQuality();
+		case SVEND:
+			if (v instanceof StructuralVariant) return ((StructuralVariant)v).getEndPosition();
+			return Double.NaN;
+		case SVLEN:
+			if (v instanceof StructuralVariant) return ((StructuralVariant)v).getSVLength();
+			return Double.NaN;
+		default: return Double.NaN;
+		}
+	}
+
+	/* --- Sorting --- */
+
+	private static interface RowComparator
+	{
+		public int compare(int a, int b);
+	}
+
+	private static class NumberComparator implements RowComparator
+	{
+		private double[] keys;
+		private boolean asc;
+
+		public NumberComparator(double[] k, boolean ascending)
+		{
+			keys = k;
+			asc = ascending;
+		}
+
+		public int compare(int a, int b)
+		{
+			boolean na = Double.isNaN(keys[a]);
+			boolean nb = Double.isNaN(keys[b]);
+			if (na || nb)
+			{
+				if (na && nb) return 0;
+				return na ? 1 : -1;
+			}
+			int c = Double.compare(keys[a], keys[b]);
+			return asc ? c : -c;
+		}
+	}
+
+	private static class ChromComparator implements RowComparator
+	{
+		private Contig[] chroms;
+		private double[] pos;
+		private boolean asc;
+
+		public ChromComparator(Contig[] c, double[] p, boolean ascending)
+		{
+			chroms = c;
+			pos = p;
+			asc = ascending;
+		}
+
+		public int compare(int a, int b)
+		{
+			Contig ca = chroms[a];
+			Contig cb = chroms[b];
+			int c = 0;
+			if (ca != cb)
+			{
+				if (ca == null) return 1;
+				if (cb == null) return -1;
+				c = ca.compareTo(cb);
+			}
+			if (c == 0) c = Double.compare(pos[a], pos[b]);
+			return asc ? c : -c;
+		}
+	}
+
+	private static class StringComparator implements RowComparator
+	{
+		private String[] keys;
+		private boolean asc;
+
+		public StringComparator(String[] k, boolean ascending)
+		{
+			keys = k;
+			asc = ascending;
+		}
+
+		public int compare(int a, int b)
+		{
+			String sa = keys[a];
+			String sb = keys[b];
+			if (sa == null) sa = "";
+			if (sb == null) sb = "";
+			int c = sa.compareTo(sb);
+			return asc ? c : -c;
+		}
+	}
+
+	private static void mergeSort(int[] a, int[] tmp, int lo, int hi, RowComparator cmp)
+	{
+		if (hi - lo < 2) return;
+		int mid = (lo + hi) >>> 1;
+		mergeSort(a, tmp, lo, mid, cmp);
+		mergeSort(a, tmp, mid, hi, cmp);
+		if (cmp.compare(a[mid - 1], a[mid]) <= 0) return; //Already in order
+		System.arraycopy(a, lo, tmp, lo, hi - lo);
+		int i = lo;
+		int j = mid;
+		int k = lo;
+		while (i < mid && j < hi)
+		{
+			//Take from the left on ties to keep it stable
+			if (cmp.compare(tmp[j], tmp[i]) < 0) a[k++] = tmp[j++];
+			else a[k++] = tmp[i++];
+		}
+		while (i < mid) a[k++] = tmp[i++];
+		while (j < hi) a[k++] = tmp[j++];
+	}
+
+	/* --- AbstractTableModel --- */
+
+	public int getRowCount()
+	{
+		return rows.length;
+	}
+
+	public int getColumnCount()
+	{
+		return headers.length;
+	}
+
+	public String getColumnName(int column)
+	{
+		return headers[column];
+	}
+
+	public boolean isCellEditable(int row, int column)
+	{
+		return false;
+	}
+
+	public Object getValueAt(int row, int column)
+	{
+		if (row < 0 || row >= rows.length) return "";
+		return renderCell(rows[row], column);
+	}
+
+}
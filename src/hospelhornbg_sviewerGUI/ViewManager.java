@@ -1,13 +1,12 @@
 package hospelhornbg_sviewerGUI;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import javax.swing.DefaultListModel;
@@ -38,6 +37,9 @@ public class ViewManager {
 	
 	/* --- Constants --- */
 	
+	//Filter loops check for interruption every (mask + 1) records
+	private static final int INTERRUPT_CHECK_MASK = 0x3FF;
+	
 	/* --- Instance Variables --- */
 	
 	private VariantPool mainpool;
@@ -46,7 +48,6 @@ public class ViewManager {
 	private Pedigree family;
 	
 	private List<Candidate> candidateList;
-	private Map<Integer, Candidate> visibleCandidateLinks;
 	
 		// Genome Build
 	
@@ -167,7 +168,6 @@ public class ViewManager {
 		harshBND = false;
 		family = null;
 		candidateList = null;
-		visibleCandidateLinks = new HashMap<Integer, Candidate>();
 		
 		build = GenomeBuild.loadStandardBuild(genomebuild);
 		if (build == null)
@@ -716,63 +716,22 @@ public class ViewManager {
 	
 	public boolean passesAllCustomFilters(Variant v)
 	{
-		for (VariantFilter f : infoFilters)
-		{
-			if (!f.passes(v)) return false;
-		}
-		return true;
+		return getFilterSettings().passesAllCustomFilters(v);
 	}
 	
 	public boolean passesAllFilters(Variant v)
 	{
-		if (confirmedOnly && !v.isConfirmed()) return false;
-		if (filterQual && (v.getQuality() < minimumQual)) {
-			if (filterNoQual) return false;
-			else if (v.getQuality() >= 0) return false;
-		}
-		if (!variantChromosomeIncluded(v)) return false;
-		if (!includeSV && (v instanceof StructuralVariant)) return false;
-		if (!includeNonSV && !(v instanceof StructuralVariant)) return false;
-		if ((v instanceof StructuralVariant))
-		{
-			StructuralVariant sv = (StructuralVariant)v;
-			if (!SVTypeIncluded(sv.getType())) return false;
-			if (sv.getType() != SVType.BND)
-			{
-				if (sv.getAbsoluteSVLength() < minimumSize) return false;
-				if (sv.getAbsoluteSVLength() > maximumSize) return false;	
-			}
-			if (harshBND && sv instanceof BreakendPair)
-			{
-				Collection<Contig> chroms = sv.getAllChromosomes();
-				boolean badchrom = false;
-				for (Contig c : chroms)
-				{
-					if (!this.chromosomeIncluded(c)) {
-						badchrom = true;
-						break;
-					}
-				}
-				if (badchrom) return false;
-			}
-		}
-		else
-		{
-			if (v.getLargestAbsoluteLength() < minimumSize) return false;
-			if (v.getSmallestAbsoluteLength() > maximumSize) return false;
-		}
-		if (!passesAllCustomFilters(v)) return false;
-		
-		return true;
+		return getFilterSettings().passesAllFilters(v);
 	}
 	
 	public List<Variant> getFilteredSet(Collection<Variant> sourceset)
 	{
 		List<Variant> filtered = new LinkedList<Variant>();
+		FilterSettings fs = getFilterSettings();
 		
 		for (Variant v : sourceset)
 		{
-			boolean passes = passesAllFilters(v);
+			boolean passes = fs.passesAllFilters(v);
 			if (passes) filtered.add(v);
 		}
 		
@@ -795,75 +754,20 @@ public class ViewManager {
 	
 	public boolean candidatePassesFilters(Candidate c)
 	{
-		if (c == null) return false;
-		//See if internal variant passes
-		Variant v = c.getVariant();
-		if (!passesAllFilters(v)) return false;
-		//See if variant effect passes
-		boolean epass = false;
-		for (GeneFunc eff : passedEffects)
-		{
-			if (v.getGeneFunction() == eff)
-			{
-				epass = true;
-				break;
-			}
-		}
-		if (!epass) return false;
-		//See if segregation passes - only needs to pass for one aff
-		List<Individual> affected = family.getAllAffected();
-		boolean spass = false;
-		for (Individual aff : affected)
-		{
-			Inheritance ip = c.getInheritancePattern(aff);
-			for (Inheritance i : passedInheritance)
-			{
-				if (ip == i)
-				{
-					spass = true;
-					break;
-				}
-			}	
-			if (spass) break;
-		}
-		
-		if (!spass) return false;
-		//See if unpaired halfhet - only fails if its ONLY ip is unpaired halfhet
-		if(!passUnpairedHalfHets)
-		{
-			spass = false;
-			for (Individual aff : affected)
-			{
-				Inheritance ip = c.getInheritancePattern(aff);
-				if (ip == null) continue;
-				if (ip == Inheritance.HALF_HET || ip == Inheritance.HALF_HET_SV)
-				{
-					if (c.hasPartners(aff))
-					{
-						spass = true;
-						break;
-					}
-				}	
-				else{
-					spass = true;
-					break;
-				}
-			}
-		}
-		if (!spass) return false;
-		return true;
+		return getFilterSettings().candidatePassesFilters(c);
 	}
 	
 	public List<Candidate> getFilteredCandidateSet()
 	{
 		List<Candidate> passed = new LinkedList<Candidate>();
 		if (candidateList == null) return passed;
+		FilterSettings fs = getFilterSettings();
 		
 		//List<Candidate> rescuecand = new LinkedList<Candidate>();
 		
 		for (Candidate c : candidateList)
 		{
-			boolean cpassed = candidatePassesFilters(c);
+			boolean cpassed = fs.candidatePassesFilters(c);
 			if (cpassed) passed.add(c);
 			//else rescuecand.add(c);
 		}
@@ -945,107 +849,239 @@ public class ViewManager {
 		return id.getType();
 	}
 	
-	/* --- Variant View --- */
+	/* --- Filter Snapshots --- */
 	
-	private String[][] getTable_var()
+	/**
+	 * Copy of the filter settings at one point in time.
+	 * The copy doesn't change when the manager's filters do, so it can be
+	 * run off the EDT while the filter form is still being edited.
+	 */
+	public static class FilterSettings
 	{
-		List<Variant> filtered = getFilteredSet();
-		int cols = getNumberColumns();
-		int sCols = includedColumns.size();
-		String[][] data = new String[filtered.size()][cols];
-	
-		int i = 0;
-		for (Variant v : filtered)
+		private boolean confirmedOnly;
+		
+		private Set<Contig> includedChromosomes;
+		
+		private boolean includeSV;
+		private boolean includeNonSV;
+		private Set<SVType> includedSVTypes;
+		
+		private int minimumSize;
+		private int maximumSize;
+		
+		private boolean filterQual;
+		private double minimumQual;
+		private boolean filterNoQual;
+		
+		private boolean harshBND;
+		
+		private List<VariantFilter> infoFilters;
+		
+		private Set<GeneFunc> passedEffects;
+		private Set<Inheritance> passedInheritance;
+		private boolean passUnpairedHalfHets;
+		private List<Individual> affected;
+		
+		private FilterSettings(ViewManager vm)
+		{
+			confirmedOnly = vm.confirmedOnly;
+			includedChromosomes = new HashSet<Contig>(vm.includedChromosomes);
+			includeSV = vm.includeSV;
+			includeNonSV = vm.includeNonSV;
+			includedSVTypes = new HashSet<SVType>(vm.includedSVTypes);
+			minimumSize = vm.minimumSize;
+			maximumSize = vm.maximumSize;
+			filterQual = vm.filterQual;
+			minimumQual = vm.minimumQual;
+			filterNoQual = vm.filterNoQual;
+			harshBND = vm.harshBND;
+			infoFilters = new ArrayList<VariantFilter>(vm.infoFilters);
+			passedEffects = new HashSet<GeneFunc>(vm.passedEffects);
+			passedInheritance = new HashSet<Inheritance>(vm.passedInheritance);
+			passUnpairedHalfHets = vm.passUnpairedHalfHets;
+			if (vm.family != null) affected = new ArrayList<Individual>(vm.family.getAllAffected());
+			else affected = new ArrayList<Individual>(1);
+		}
+		
+		private boolean variantChromosomeIncluded(Variant v)
+		{
+			if (includedChromosomes.contains(v.getChromosome())) return true;
+			for (Contig c : includedChromosomes)
+			{
+				if (v.isOnChromosome(c)) return true;
+			}
+			return false;
+		}
+		
+		public boolean passesAllCustomFilters(Variant v)
 		{
-			int l = 0;
-			for (int j = 0; j < sCols; j++)
+			for (VariantFilter f : infoFilters)
 			{
-				ViewColumn c = includedColumns.get(j);
-				if (c == ViewColumn.OTHERINFO)
+				if (!f.passes(v)) return false;
+			}
+			return true;
+		}
+		
+		public boolean passesAllFilters(Variant v)
+		{
+			if (confirmedOnly && !v.isConfirmed()) return false;
+			if (filterQual && (v.getQuality() < minimumQual)) {
+				if (filterNoQual) return false;
+				else if (v.getQuality() >= 0) return false;
+			}
+			if (!variantChromosomeIncluded(v)) return false;
+			if (!includeSV && (v instanceof StructuralVariant)) return false;
+			if (!includeNonSV && !(v instanceof StructuralVariant)) return false;
+			if ((v instanceof StructuralVariant))
+			{
+				StructuralVariant sv = (StructuralVariant)v;
+				if (!includedSVTypes.contains(sv.getType())) return false;
+				if (sv.getType() != SVType.BND)
 				{
-					for (String k : infoColumns)
-					{
-						data[i][l] = getInfoString(k, v);
-						l++;
-					}
+					if (sv.getAbsoluteSVLength() < minimumSize) return false;
+					if (sv.getAbsoluteSVLength() > maximumSize) return false;	
 				}
-				else if (c == ViewColumn.SAMPLEGENO)
+				if (harshBND && sv instanceof BreakendPair)
 				{
-					for (String s : sampleColumns)
+					Collection<Contig> chroms = sv.getAllChromosomes();
+					boolean badchrom = false;
+					for (Contig c : chroms)
 					{
-						data[i][l] = getSampleGenoString(s, v);
-						l++;
+						if (!includedChromosomes.contains(c)) {
+							badchrom = true;
+							break;
+						}
 					}
+					if (badchrom) return false;
 				}
-				else 
-				{
-					data[i][l] = getPropertyString(c, v);
-					l++;
-				}
 			}
-			i++;
+			else
+			{
+				if (v.getLargestAbsoluteLength() < minimumSize) return false;
+				if (v.getSmallestAbsoluteLength() > maximumSize) return false;
+			}
+			if (!passesAllCustomFilters(v)) return false;
+			
+			return true;
 		}
 		
-		return data;
-	}
-	
-	private String[][] getTable_cand()
-	{
-		if (candidateList == null) return null;
-		visibleCandidateLinks.clear();
-		List<Candidate> filtered = getFilteredCandidateSet();
-		int cols = getNumberColumns();
-		int sCols = includedColumns.size();
-		String[][] data = new String[filtered.size()][cols];
-		
-		int i = 0;
-		for (Candidate n : filtered)
+		public boolean candidatePassesFilters(Candidate c)
 		{
-			Variant v = n.getVariant();
-			int l = 0;
-			for (int j = 0; j < sCols; j++)
+			if (c == null) return false;
+			//See if internal variant passes
+			Variant v = c.getVariant();
+			if (!passesAllFilters(v)) return false;
+			//See if variant effect passes
+			if (!passedEffects.contains(v.getGeneFunction())) return false;
+			//See if segregation passes - only needs to pass for one aff
+			boolean spass = false;
+			for (Individual aff : affected)
 			{
-				ViewColumn c = includedColumns.get(j);
-				if (c == ViewColumn.OTHERINFO)
+				Inheritance ip = c.getInheritancePattern(aff);
+				if (passedInheritance.contains(ip))
 				{
-					for (String k : infoColumns)
-					{
-						data[i][l] = getInfoString(k, v);
-						l++;
-					}
+					spass = true;
+					break;
 				}
-				else if (c == ViewColumn.SAMPLEGENO)
+			}
+			
+			if (!spass) return false;
+			//See if unpaired halfhet - only fails if its ONLY ip is unpaired halfhet
+			if(!passUnpairedHalfHets)
+			{
+				spass = false;
+				for (Individual aff : affected)
 				{
-					for (String s : sampleColumns)
+					Inheritance ip = c.getInheritancePattern(aff);
+					if (ip == null) continue;
+					if (ip == Inheritance.HALF_HET || ip == Inheritance.HALF_HET_SV)
 					{
-						data[i][l] = getSampleGenoString(s, v);
-						l++;
+						if (c.hasPartners(aff))
+						{
+							spass = true;
+							break;
+						}
+					}	
+					else{
+						spass = true;
+						break;
 					}
 				}
-				else 
-				{
-					data[i][l] = getPropertyString(c, n, family.getProband());
-					l++;
-				}
 			}
-			i++;
-			visibleCandidateLinks.put(i, n);
+			if (!spass) return false;
+			return true;
+		}
+		
+		/**
+		 * Get the indices of the variants in a source list that pass these filters.
+		 * Meant to be run off the EDT - the calling thread's interrupt flag is checked
+		 * every so often so a stale filter pass can be abandoned.
+		 * @param source Random access list of variants (see getAllVariants)
+		 * @return Passing indices in source order, or null if the thread was interrupted.
+		 */
+		public int[] getFilteredIndices(List<Variant> source)
+		{
+			int n = source.size();
+			int[] idx = new int[n];
+			int count = 0;
+			for (int i = 0; i < n; i++)
+			{
+				if ((i & INTERRUPT_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) return null;
+				if (passesAllFilters(source.get(i))) idx[count++] = i;
+			}
+			return Arrays.copyOf(idx, count);
+		}
+		
+		/**
+		 * Get the indices of the candidates in a source list that pass these filters.
+		 * @param source Random access list of candidates (see getAllCandidates)
+		 * @return Passing indices in source order, or null if the thread was interrupted.
+		 */
+		public int[] getFilteredCandidateIndices(List<Candidate> source)
+		{
+			int n = source.size();
+			int[] idx = new int[n];
+			int count = 0;
+			for (int i = 0; i < n; i++)
+			{
+				if ((i & INTERRUPT_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) return null;
+				if (candidatePassesFilters(source.get(i))) idx[count++] = i;
+			}
+			return Arrays.copyOf(idx, count);
 		}
 		
-		return data;
 	}
 	
-	public String[][] getTable()
+	/**
+	 * Copy the current filter settings. Call from the thread that edits them (the EDT).
+	 */
+	public FilterSettings getFilterSettings()
 	{
-		if (candidateList == null) return getTable_var();
-		return getTable_cand();
+		return new FilterSettings(this);
 	}
 	
-	public Candidate getLinkedCandidate(int tblIndex)
+	/* --- Variant View --- */
+	
+	/**
+	 * Get a copy of the variant pool in pool order.
+	 * @return Random access copy of all variants, or an empty list if no pool is loaded.
+	 */
+	public List<Variant> getAllVariants()
+	{
+		if (mainpool == null) return new ArrayList<Variant>(1);
+		return mainpool.getVariants();
+	}
+	
+	/**
+	 * Get a copy of the candidate list in table order.
+	 * @return Random access copy of all candidates, or null if no pedigree has been applied.
+	 */
+	public List<Candidate> getAllCandidates()
 	{
 		if (candidateList == null) return null;
-		if (tblIndex < 0) return null;
-		return this.visibleCandidateLinks.get(tblIndex);
+		List<Candidate> copy = new ArrayList<Candidate>(candidateList.size());
+		copy.addAll(candidateList);
+		return copy;
 	}
 	
 	public String getPropertyString(ViewColumn c, Variant v)
@@ -0,0 +1,369 @@
+package hospelhornbg_svproject;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class BlockCompressedFile {
+
+	//BGZF-like container - the data is cut into blocks of at most 64kb that are
+	//	deflated independently, so any block can be inflated without the ones before it.
+	//A position in the data is a virtual offset: (file offset of block << 16) | offset in block
+	//	Virtual offsets sort in the same order as the uncompressed positions they point to.
+
+	//File structure (Big-Endian)
+	//	Magic [8]
+	//	Blocks...
+	//		Compressed size [4]
+	//		Uncompressed size [4]
+	//		CRC32 of uncompressed data [4]
+	//		Raw deflate data [Compressed size]
+	//	EOF block (all three fields 0)
+
+	/* --- Constants --- */
+
+	public static final String MAGIC = "VARTBLKZ";
+
+	public static final int MAX_BLOCK_SIZE = 0x10000;
+	public static final int BLOCK_HEADER_SIZE = 12;
+
+	public static final int DEFO_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+	/* --- Virtual Offsets --- */
+
+	public static long makeVirtualOffset(long blockOffset, int inBlockOffset)
+	{
+		return (blockOffset << 16) | (inBlockOffset & 0xFFFF);
+	}
+
+	public static long getBlockOffset(long virtualOffset)
+	{
+		return virtualOffset >>> 16;
+	}
+
+	public static int getInBlockOffset(long virtualOffset)
+	{
+		return (int)(virtualOffset & 0xFFFF);
+	}
+
+	/* --- Detection --- */
+
+	public static boolean isBlockCompressed(String path) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(path, "r");
+		try
+		{
+			if (raf.length() < MAGIC.length()) return false;
+			byte[] mbytes = new byte[MAGIC.length()];
+			raf.readFully(mbytes);
+			return MAGIC.equals(new String(mbytes, "US-ASCII"));
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/* --- Writer --- */
+
+	public static class BlockWriter implements Closeable
+	{
+		private BufferedOutputStream out;
+		private Deflater deflater;
+		private CRC32 crc;
+
+		private byte[] ubuff;
+		private byte[] cbuff;
+		private int upos;
+		private long blockOffset; //File offset of the block currently being filled
+
+		public BlockWriter(String path) throws IOException
+		{
+			this(path, DEFO_LEVEL);
+		}
+
+		public BlockWriter(String path, int level) throws IOException
+		{
+			out = new BufferedOutputStream(new FileOutputStream(path), MAX_BLOCK_SIZE * 2);
+			deflater = new Deflater(level, true);
+			crc = new CRC32();
+			ubuff = new byte[MAX_BLOCK_SIZE];
+			//Deflate can grow incompressible data a little
+			cbuff = new byte[MAX_BLOCK_SIZE + (MAX_BLOCK_SIZE >>> 3) + 64];
+			upos = 0;
+
+			byte[] mbytes = MAGIC.getBytes("US-ASCII");
+			out.write(mbytes);
+			blockOffset = mbytes.length;
+		}
+
+		/**
+		 * Get the virtual offset the next byte written will have.
+		 */
+		public long getVirtualOffset()
+		{
+			return makeVirtualOffset(blockOffset, upos);
+		}
+
+		public void write(byte[] data) throws IOException
+		{
+			write(data, 0, data.length);
+		}
+
+		public void write(byte[] data, int off, int len) throws IOException
+		{
+			while (len > 0)
+			{
+				int copy = Math.min(len, MAX_BLOCK_SIZE - upos);
+				System.arraycopy(data, off, ubuff, upos, copy);
+				upos += copy;
+				off += copy;
+				len -= copy;
+				//Flush as soon as it's full so a virtual offset never points at the end of a block
+				if (upos >= MAX_BLOCK_SIZE) flushBlock();
+			}
+		}
+
+		private void writeInt(int i) throws IOException
+		{
+			out.write((i >>> 24) & 0xFF);
+			out.write((i >>> 16) & 0xFF);
+			out.write((i >>> 8) & 0xFF);
+			out.write(i & 0xFF);
+		}
+
+		private void flushBlock() throws IOException
+		{
+			if (upos <= 0) return;
+			deflater.reset();
+			deflater.setInput(ubuff, 0, upos);
+			deflater.finish();
+			int csz = 0;
+			while (!deflater.finished())
+			{
+				if (csz >= cbuff.length)
+				{
+					byte[] nbuff = new byte[cbuff.length * 2];
+					System.arraycopy(cbuff, 0, nbuff, 0, csz);
+					cbuff = nbuff;
+				}
+				csz += deflater.deflate(cbuff, csz, cbuff.length - csz);
+			}
+			crc.reset();
+			crc.update(ubuff, 0, upos);
+
+			writeInt(csz);
+			writeInt(upos);
+			writeInt((int)crc.getValue());
+			out.write(cbuff, 0, csz);
+
+			blockOffset += BLOCK_HEADER_SIZE + csz;
+			upos = 0;
+		}
+
+		public void close() throws IOException
+		{
+			try
+			{
+				flushBlock();
+				//EOF marker
+				writeInt(0);
+				writeInt(0);
+				writeInt(0);
+				out.close();
+			}
+			finally
+			{
+				deflater.end();
+			}
+		}
+
+	}
+
+	/* --- Reader --- */
+
+	public static class BlockReader implements Closeable
+	{
+		private RandomAccessFile file;
+		private Inflater inflater;
+		private CRC32 crc;
+
+		private byte[] cbuff;
+		private byte[] ubuff;
+		private int usize;
+		private int upos;
+		private long blockOffset; //File offset of the loaded block (-1 if none)
+		private long nextBlockOffset;
+		private boolean eof;
+
+		public BlockReader(String path) throws IOException
+		{
+			file = new RandomAccessFile(path, "r");
+			inflater = new Inflater(true);
+			crc = new CRC32();
+			ubuff = new byte[MAX_BLOCK_SIZE];
+			cbuff = new byte[MAX_BLOCK_SIZE];
+
+			byte[] mbytes = new byte[MAGIC.length()];
+			if (file.length() < mbytes.length)
+			{
+				file.close();
+				throw new IOException("BlockCompressedFile.BlockReader || File too small: " + path);
+			}
+			file.readFully(mbytes);
+			if (!MAGIC.equals(new String(mbytes, "US-ASCII")))
+			{
+				file.close();
+				throw new IOException("BlockCompressedFile.BlockReader || Not a block compressed file: " + path);
+			}
+
+			blockOffset = -1;
+			nextBlockOffset = mbytes.length;
+			usize = 0;
+			upos = 0;
+			eof = false;
+		}
+
+		private boolean loadBlock(long offset) throws IOException
+		{
+			//Already loaded?
+			if (offset == blockOffset) return !eof;
+
+			file.seek(offset);
+			int csz = file.readInt();
+			int usz = file.readInt();
+			int sum = file.readInt();
+			blockOffset = offset;
+			nextBlockOffset = offset + BLOCK_HEADER_SIZE + csz;
+			upos = 0;
+			if (csz <= 0 || usz <= 0)
+			{
+				usize = 0;
+				eof = true;
+				return false;
+			}
+			if (usz > MAX_BLOCK_SIZE) throw new IOException("BlockCompressedFile.BlockReader || Block at 0x" + Long.toHexString(offset) + " is too large!");
+
+			if (cbuff.length < csz) cbuff = new byte[csz];
+			file.readFully(cbuff, 0, csz);
+			inflater.reset();
+			inflater.setInput(cbuff, 0, csz);
+			try
+			{
+				int n = 0;
+				while (n < usz && !inflater.finished())
+				{
+					int r = inflater.inflate(ubuff, n, usz - n);
+					if (r == 0 && inflater.needsInput()) break;
+					n += r;
+				}
+				if (n != usz) throw new IOException("BlockCompressedFile.BlockReader || Block at 0x" + Long.toHexString(offset) + " is truncated!");
+			}
+			catch (DataFormatException e)
+			{
+				blockOffset = -1;
+				throw new IOException("BlockCompressedFile.BlockReader || Block at 0x" + Long.toHexString(offset) + " could not be inflated", e);
+			}
+			crc.reset();
+			crc.update(ubuff, 0, usz);
+			if ((int)crc.getValue() != sum)
+			{
+				blockOffset = -1;
+				throw new IOException("BlockCompressedFile.BlockReader || Block at 0x" + Long.toHexString(offset) + " failed CRC check!");
+			}
+
+			usize = usz;
+			eof = false;
+			return true;
+		}
+
+		/**
+		 * Move to a virtual offset. Only inflates if the offset is in a different
+		 * block from the one already loaded.
+		 */
+		public void seek(long virtualOffset) throws IOException
+		{
+			long boff = getBlockOffset(virtualOffset);
+			int ioff = getInBlockOffset(virtualOffset);
+			loadBlock(boff);
+			if (ioff > usize) throw new IOException("BlockCompressedFile.BlockReader || Virtual offset 0x" + Long.toHexString(virtualOffset) + " is past the end of its block!");
+			upos = ioff;
+		}
+
+		public long getVirtualOffset() throws IOException
+		{
+			if (blockOffset < 0) loadBlock(nextBlockOffset);
+			if (upos >= usize && !eof) return makeVirtualOffset(nextBlockOffset, 0);
+			return makeVirtualOffset(blockOffset, upos);
+		}
+
+		private boolean ensureData() throws IOException
+		{
+			if (blockOffset < 0) loadBlock(nextBlockOffset);
+			while (upos >= usize)
+			{
+				if (eof) return false;
+				if (!loadBlock(nextBlockOffset)) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @return True if there is no more data after the current position.
+		 */
+		public boolean atEnd() throws IOException
+		{
+			return !ensureData();
+		}
+
+		public int read(byte[] dst, int off, int len) throws IOException
+		{
+			int total = 0;
+			while (len > 0)
+			{
+				if (!ensureData()) break;
+				int copy = Math.min(len, usize - upos);
+				System.arraycopy(ubuff, upos, dst, off, copy);
+				upos += copy;
+				off += copy;
+				len -= copy;
+				total += copy;
+			}
+			if (total == 0 && len > 0) return -1;
+			return total;
+		}
+
+		public void readFully(byte[] dst, int off, int len) throws IOException
+		{
+			int r = read(dst, off, len);
+			if (r < len) throw new EOFException("BlockCompressedFile.BlockReader || Unexpected end of data");
+		}
+
+		public void readFully(byte[] dst) throws IOException
+		{
+			readFully(dst, 0, dst.length);
+		}
+
+		public int readInt() throws IOException
+		{
+			byte[] b = new byte[4];
+			readFully(b);
+			return ((b[0] & 0xFF) << 24) | ((b[1] & 0xFF) << 16) | ((b[2] & 0xFF) << 8) | (b[3] & 0xFF);
+		}
+
+		public void close() throws IOException
+		{
+			inflater.end();
+			file.close();
+		}
+
+	}
+
+}
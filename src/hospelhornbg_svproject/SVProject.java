@@ -134,6 +134,8 @@ public class SVProject {
 		{
 			String varpath = pDir + File.separator + sProjectName + "." + VartableFile.EXT;
 			List<String> suppStrings = CommonLoader.getSupportStrings_ordered();
+			//Whole table is read in one pass - the project holds every candidate, so
+			//	VartableFile.IndexedReader (per gene/contig seeks) would only add overhead here.
 			VariantPool pool = VartableFile.readVartable(genomeBuild, iFamily, suppStrings, varpath);
 			lCandidates = VartableFile.processCandidates(pool, iFamily, geneSet);
 		}
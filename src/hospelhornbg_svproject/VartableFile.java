@@ -1,5 +1,6 @@
 package hospelhornbg_svproject;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -30,6 +31,8 @@ import hospelhornbg_segregation.Family;
 import hospelhornbg_segregation.FamilyMember;
 import hospelhornbg_segregation.Individual;
 import hospelhornbg_segregation.Inheritor;
+import hospelhornbg_svproject.BlockCompressedFile.BlockReader;
+import hospelhornbg_svproject.BlockCompressedFile.BlockWriter;
 import waffleoRai_Compression.huffman.Huffman;
 import waffleoRai_Utils.FileBuffer;
 import waffleoRai_Utils.FileBuffer.UnsupportedFileTypeException;
@@ -44,6 +47,14 @@ public class VartableFile {
 	public static final int CURRENT_VERSION = 1;
 	
 	public static final String EXT = "vartbl";
+	public static final String EXT_GIDX = "gidx";
+	public static final String EXT_CIDX = "cidx";
+	
+	//Record field offsets
+	public static final int RECORD_FIXED_SIZE = 116;
+	public static final int RECORD_OFF_STCTG = 16;
+	public static final int RECORD_OFF_EDCTG = 24;
+	public static final int RECORD_OFF_CANDNO = 112;
 	
 	/** ID = CANDFLAGS
 	* <br>Number = Variable
@@ -332,7 +343,83 @@ public class VartableFile {
 		return sv;
 	}
 	
+	private static int intFromBytes(byte[] b, int off)
+	{
+		return ((b[off] & 0xFF) << 24) | ((b[off+1] & 0xFF) << 16) | ((b[off+2] & 0xFF) << 8) | (b[off+3] & 0xFF);
+	}
+	
+	private static FileBuffer wrapRecord(byte[] rec)
+	{
+		FileBuffer fb = new FileBuffer(rec.length, true);
+		for (byte b : rec) fb.addToFile(b);
+		return fb;
+	}
+	
+	private static byte[] readRecord(BlockReader in, int ngeno) throws IOException
+	{
+		byte[] fixed = new byte[RECORD_FIXED_SIZE];
+		in.readFully(fixed);
+		int ccount = intFromBytes(fixed, RECORD_OFF_CANDNO);
+		if (ccount < 0) throw new IOException("VartableFile.readRecord || Bad candidate count: " + ccount);
+		byte[] rec = new byte[calculateSerializedVariantSize(ccount, ngeno)];
+		System.arraycopy(fixed, 0, rec, 0, RECORD_FIXED_SIZE);
+		in.readFully(rec, RECORD_FIXED_SIZE, rec.length - RECORD_FIXED_SIZE);
+		return rec;
+	}
+	
+	private static List<String> getSampleNames(List<Integer> iidlist, Family family) throws UnsupportedFileTypeException
+	{
+		List<String> indivlist = new LinkedList<String>();
+		for (Integer i : iidlist)
+		{
+			FamilyMember fm = family.getMember(i);
+			if (fm == null) throw new FileBuffer.UnsupportedFileTypeException();
+			indivlist.add(fm.getName());
+		}
+		return indivlist;
+	}
+	
+	private static List<Integer> readHeader(BlockReader in, GenomeBuild gb) throws IOException, UnsupportedFileTypeException, GenomeBuildMismatchException
+	{
+		//Same header as the old format, just at the start of the block compressed data
+		byte[] hdr = new byte[20];
+		in.readFully(hdr);
+		if (!MAGIC.equals(new String(hdr, 0, 8, "US-ASCII"))) throw new FileBuffer.UnsupportedFileTypeException();
+		int indivcount = intFromBytes(hdr, 12);
+		int gbuid = intFromBytes(hdr, 16);
+		if (gb != null && gb.getUIDEnum().getUID() != gbuid) throw new GenomeBuildMismatchException();
+		
+		List<Integer> iidlist = new ArrayList<Integer>(indivcount);
+		for (int i = 0; i < indivcount; i++) iidlist.add(in.readInt());
+		return iidlist;
+	}
+	
 	public static VariantPool readVartable(GenomeBuild gb, Family family, List<String> suppStrings, String inpath) throws IOException, UnsupportedFileTypeException, GenomeBuildMismatchException
+	{
+		//Old Huffman tables have to be decompressed to a temp file first
+		if (!BlockCompressedFile.isBlockCompressed(inpath)) return readVartable_huff(gb, family, suppStrings, inpath);
+		
+		BlockReader in = new BlockReader(inpath);
+		try
+		{
+			List<String> indivlist = getSampleNames(readHeader(in, gb), family);
+			int ngeno = indivlist.size();
+			VariantPool pool = new VariantPool(ngeno);
+			pool.setGenomeBuild(gb);
+			while (!in.atEnd())
+			{
+				byte[] rec = readRecord(in, ngeno);
+				pool.addVariant(parseVariant(wrapRecord(rec), 0, gb, indivlist, suppStrings));
+			}
+			return pool;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	private static VariantPool readVartable_huff(GenomeBuild gb, Family family, List<String> suppStrings, String inpath) throws IOException, UnsupportedFileTypeException, GenomeBuildMismatchException
 	{
 		//Header structure
 		
@@ -368,13 +455,7 @@ public class VartableFile {
 		}
 		
 		//Make sample name list
-		List<String> indivlist = new LinkedList<String>();
-		for (Integer i : iidlist)
-		{
-			FamilyMember fm = family.getMember(i);
-			if (fm == null) throw new FileBuffer.UnsupportedFileTypeException();
-			indivlist.add(fm.getName());
-		}
+		List<String> indivlist = getSampleNames(iidlist, family);
 		
 		//Parse variants
 		int ngeno = indivlist.size();
@@ -649,8 +730,8 @@ public class VartableFile {
 	
 	public static void writeVartable(GenomeBuild gb, Collection<Candidate> candidates, Family family, List<String> supportStrings, String outpath) throws IOException
 	{
-		String decpath = FileBuffer.generateTemporaryPath("vartable_writer_dec");
-	
+		//Written straight into 64kb deflate blocks - no temp file
+		
 		//Indiv list
 		List<FamilyMember> fmlist = family.getAllFamilyMembers();
 		int nmem = fmlist.size();
@@ -671,9 +752,6 @@ public class VartableFile {
 			ilist.add(fm);
 		}
 		
-		//Write header...
-		header.writeFile(decpath);
-		
 		//Map Candidates to Variants...
 		Map<Variant, List<Candidate>> cvmap = new HashMap<Variant, List<Candidate>>();
 		for (Candidate c : candidates)
@@ -695,17 +773,22 @@ public class VartableFile {
 		vlist.addAll(cvmap.keySet());
 		Collections.sort(vlist);
 		
-		//Serialize, appending to file as we go...
-		for (Variant v : vlist)
+		//Serialize, compressing as we go...
+		BlockWriter out = new BlockWriter(outpath);
+		try
 		{
-			FileBuffer vser = serializeVariant(cvmap.get(v), ilist, supportStrings);	
-			vser.appendToFile(decpath);
+			out.write(header.getBytes(0, header.getFileSize()));
+			for (Variant v : vlist)
+			{
+				FileBuffer vser = serializeVariant(cvmap.get(v), ilist, supportStrings);
+				if (vser == null) continue;
+				out.write(vser.getBytes(0, vser.getFileSize()));
+			}
+		}
+		finally
+		{
+			out.close();
 		}
-		
-		//Compress!
-		compressVarTable(decpath, outpath);
-		//Delete temp
-		Files.deleteIfExists(Paths.get(decpath));
 	}
 	
 	/* --- Calculations --- */
@@ -717,9 +800,47 @@ public class VartableFile {
 	
 	/* --- Indexing --- */
 	
+	private static void indexRecord(byte[] rec, long offset, Map<Integer, List<Long>> tmap, Map<Integer, List<Long>> emap, Map<Integer, Long> cmap)
+	{
+		//Grab Start Contig UID
+		int stChromUID = intFromBytes(rec, RECORD_OFF_STCTG);
+		if (!cmap.containsKey(stChromUID)) cmap.put(stChromUID, offset);
+		//Grab End contig UID (if different)
+		int edChromUID = intFromBytes(rec, RECORD_OFF_EDCTG);
+		if (stChromUID != edChromUID)
+		{
+			List<Long> list = emap.get(edChromUID);
+			if (list == null)
+			{
+				list = new LinkedList<Long>();
+				emap.put(edChromUID, list);
+			}
+			list.add(offset);	
+		}
+		//Grab transcript UIDs
+		int candidateCount = intFromBytes(rec, RECORD_OFF_CANDNO);
+		int apos = RECORD_FIXED_SIZE;
+		for (int i = 0; i < candidateCount; i++)
+		{
+			//Candidate entries are UID [4] + flags [4]
+			int cuid = intFromBytes(rec, apos);
+			apos += 8;
+			if (cuid == -1) continue;
+			List<Long> list = tmap.get(cuid);
+			if (list == null)
+			{
+				list = new LinkedList<Long>();
+				tmap.put(cuid, list);
+			}
+			list.add(offset);
+		}
+	}
+	
 	public static void indexVarTable(String path) throws IOException
 	{
 		//Two indices - one by transcript, one by chrom
+		//For block compressed tables, offsets are virtual offsets into the compressed file
+		//	(see BlockCompressedFile). For old Huffman tables, they are offsets into the decompressed data.
 		
 		//Transcript Index .gidx
 		//	Transcript UID [4]
@@ -740,58 +861,53 @@ public class VartableFile {
 		Map<Integer, List<Long>> emap = new HashMap<Integer, List<Long>>();
 		Map<Integer, Long> cmap = new HashMap<Integer, Long>();
 		
-		//Decompress and determine indiv count
-		String decfile = decompressVarTable(path);
-		FileBuffer file = new StreamBuffer(decfile, StreamBuffer.DEFO_SUBBUF_SIZE, 0x400);
-		int indivs = file.intFromFile(12);
-		
-		//Start scanning through the variant records...
-		final long stCtgOff = 16;
-		final long edCtgOff = 24;
-		final long candNoOff = 112;
-		long cpos = 20 + (indivs * 4);
-		long fsz = FileBuffer.fileSize(decfile);
-		while (cpos < fsz)
+		if (BlockCompressedFile.isBlockCompressed(path))
 		{
-			//Grab Start Contig UID
-			int stChromUID = file.intFromFile(cpos + stCtgOff);
-			if (!cmap.containsKey(stChromUID)) cmap.put(stChromUID, cpos);
-			//Grab End contig UID (if different)
-			int edChromUID = file.intFromFile(cpos + edCtgOff);
-			if (stChromUID != edChromUID)
+			BlockReader in = new BlockReader(path);
+			try
 			{
-				List<Long> list = emap.get(edChromUID);
-				if (list == null)
+				byte[] hdr = new byte[20];
+				in.readFully(hdr);
+				int indivs = intFromBytes(hdr, 12);
+				for (int i = 0; i < indivs; i++) in.readInt();
+				while (!in.atEnd())
 				{
-					list = new LinkedList<Long>();
-					emap.put(edChromUID, list);
+					long voff = in.getVirtualOffset();
+					indexRecord(readRecord(in, indivs), voff, tmap, emap, cmap);
 				}
-				list.add(cpos);	
 			}
-			//Grab transcript UIDs
-			int candidateCount = file.intFromFile(cpos + candNoOff);
-			long apos = cpos + candNoOff + 4;
-			for (int i = 0; i < candidateCount; i++)
+			finally
 			{
-				int cuid = file.intFromFile(apos);
-				if (cuid == -1) continue;
-				List<Long> list = tmap.get(cuid);
-				if (list == null)
-				{
-					list = new LinkedList<Long>();
-					tmap.put(cuid, list);
-				}
-				list.add(cpos);
-				apos += 4;
+				in.close();
+			}
+		}
+		else
+		{
+			//Decompress and determine indiv count
+			String decfile = decompressVarTable(path);
+			FileBuffer file = new StreamBuffer(decfile, StreamBuffer.DEFO_SUBBUF_SIZE, 0x400);
+			int indivs = file.intFromFile(12);
+			
+			//Start scanning through the variant records...
+			long cpos = 20 + (indivs * 4);
+			long fsz = FileBuffer.fileSize(decfile);
+			while (cpos < fsz)
+			{
+				int candidateCount = file.intFromFile(cpos + RECORD_OFF_CANDNO);
+				int rsz = calculateSerializedVariantSize(candidateCount, indivs);
+				indexRecord(file.getBytes(cpos, cpos + rsz), cpos, tmap, emap, cmap);
+				cpos += rsz;
 			}
 			
-			//Determine record size and increment cpos...
-			cpos += calculateSerializedVariantSize(candidateCount, indivs);
+			//Delete the decompressed file
+			Files.deleteIfExists(Paths.get(decfile));
 		}
 		
-		//Delete the decompressed file
-		Files.deleteIfExists(Paths.get(decfile));
-		
+		writeIndices(path, tmap, emap, cmap);
+	}
+	
+	private static void writeIndices(String path, Map<Integer, List<Long>> tmap, Map<Integer, List<Long>> emap, Map<Integer, Long> cmap) throws IOException
+	{
 		//Write the index files
 		//Order transcripts
 		int tcount = tmap.size();
@@ -819,10 +935,15 @@ public class VartableFile {
 		}
 		
 		//Write to disk...
-		header.writeFile(path + ".gidx");
-		for (FileBuffer fb : slist) fb.appendToFile(path + ".gidx");
+		header.writeFile(path + "." + EXT_GIDX);
+		for (FileBuffer fb : slist) fb.appendToFile(path + "." + EXT_GIDX);
 		
 		//Now the chroms...
+		//Contigs that only have variant ends get a start offset of -1
+		for (Integer cID : emap.keySet())
+		{
+			if (!cmap.containsKey(cID)) cmap.put(cID, -1L);
+		}
 		int ccount = cmap.size();
 		List<Integer> ctglist = new ArrayList<Integer>(ccount);
 		ctglist.addAll(cmap.keySet());
@@ -838,7 +959,8 @@ public class VartableFile {
 			long off = cmap.get(cID);
 			header.addToFile(off);
 			List<Long> ends = emap.get(cID);
-			int ecount = ends.size();
+			int ecount = 0;
+			if (ends != null) ecount = ends.size();
 			header.addToFile(ecount);
 			header.addToFile(wpos);
 			int rsz = 8 * ecount;
@@ -854,8 +976,164 @@ public class VartableFile {
 		}
 		
 		//Write to disk...
-		header.writeFile(path + ".cidx");
-		for (FileBuffer fb : slist) fb.appendToFile(path + ".cidx");
+		header.writeFile(path + "." + EXT_CIDX);
+		for (FileBuffer fb : slist) fb.appendToFile(path + "." + EXT_CIDX);
+		
+	}
+	
+	/* --- Indexed Queries --- */
+	
+	public static class IndexedReader implements Closeable
+	{
+		//Random access into a block compressed table through its .gidx/.cidx indices
+		//Only the blocks holding the requested records are inflated.
+		
+		private BlockReader in;
+		private GenomeBuild genome;
+		private List<String> samples;
+		private List<String> suppStrings;
+		
+		private Map<Integer, long[]> tindex;
+		private Map<Integer, Long> cstart;
+		private Map<Integer, long[]> cends;
+		
+		public IndexedReader(GenomeBuild gb, Family family, List<String> supportStrings, String path) throws IOException, UnsupportedFileTypeException, GenomeBuildMismatchException
+		{
+			if (!BlockCompressedFile.isBlockCompressed(path)) throw new FileBuffer.UnsupportedFileTypeException();
+			String gpath = path + "." + EXT_GIDX;
+			String cpath = path + "." + EXT_CIDX;
+			if (!FileBuffer.fileExists(gpath) || !FileBuffer.fileExists(cpath)) indexVarTable(path);
+			
+			genome = gb;
+			suppStrings = supportStrings;
+			in = new BlockReader(path);
+			try
+			{
+				samples = VartableFile.getSampleNames(readHeader(in, gb), family);
+				loadTranscriptIndex(gpath);
+				loadContigIndex(cpath);
+			}
+			catch (IOException | UnsupportedFileTypeException | GenomeBuildMismatchException e)
+			{
+				in.close();
+				throw e;
+			}
+		}
+		
+		private void loadTranscriptIndex(String gpath) throws IOException
+		{
+			tindex = new HashMap<Integer, long[]>();
+			long fsz = FileBuffer.fileSize(gpath);
+			if (fsz < 16) return;
+			FileBuffer idx = FileBuffer.createBuffer(gpath, true);
+			//Entry table ends where the first list starts
+			long tblend = idx.longFromFile(8);
+			for (long cpos = 0; cpos < tblend; cpos += 16)
+			{
+				int tid = idx.intFromFile(cpos);
+				int vcount = idx.intFromFile(cpos + 4);
+				long lpos = idx.longFromFile(cpos + 8);
+				long[] offs = new long[vcount];
+				for (int i = 0; i < vcount; i++) offs[i] = idx.longFromFile(lpos + (i * 8L));
+				tindex.put(tid, offs);
+			}
+		}
+		
+		private void loadContigIndex(String cpath) throws IOException
+		{
+			cstart = new HashMap<Integer, Long>();
+			cends = new HashMap<Integer, long[]>();
+			long fsz = FileBuffer.fileSize(cpath);
+			if (fsz < 24) return;
+			FileBuffer idx = FileBuffer.createBuffer(cpath, true);
+			long tblend = idx.longFromFile(16);
+			for (long cpos = 0; cpos < tblend; cpos += 24)
+			{
+				int cid = idx.intFromFile(cpos);
+				cstart.put(cid, idx.longFromFile(cpos + 4));
+				int ecount = idx.intFromFile(cpos + 12);
+				long lpos = idx.longFromFile(cpos + 16);
+				if (ecount <= 0) continue;
+				long[] offs = new long[ecount];
+				for (int i = 0; i < ecount; i++) offs[i] = idx.longFromFile(lpos + (i * 8L));
+				cends.put(cid, offs);
+			}
+		}
+		
+		private StructuralVariant readAt(long voff) throws IOException
+		{
+			in.seek(voff);
+			byte[] rec = readRecord(in, samples.size());
+			return parseVariant(wrapRecord(rec), 0, genome, samples, suppStrings);
+		}
+		
+		public List<String> getSampleNames()
+		{
+			return samples;
+		}
+		
+		/**
+		 * Get all variants with a candidate in the specified transcript.
+		 * @param transcriptUID UID of transcript (hash of its ID)
+		 * @return List of variants in table order. Empty list if there are none.
+		 * @throws IOException If a record could not be read.
+		 */
+		public synchronized List<StructuralVariant> getVariantsInTranscript(int transcriptUID) throws IOException
+		{
+			long[] offs = tindex.get(transcriptUID);
+			if (offs == null) return new LinkedList<StructuralVariant>();
+			List<StructuralVariant> list = new ArrayList<StructuralVariant>(offs.length);
+			//Offsets are ascending, so each block only gets inflated once
+			for (long voff : offs) list.add(readAt(voff));
+			return list;
+		}
+		
+		public List<StructuralVariant> getVariantsInGene(Gene g) throws IOException
+		{
+			if (g == null) return new LinkedList<StructuralVariant>();
+			return getVariantsInTranscript(g.getID().hashCode());
+		}
+		
+		/**
+		 * Get all variants that start on the specified contig, followed by any
+		 * variants that start elsewhere and end on it.
+		 * @param c Contig to get variants for.
+		 * @return List of variants. Empty list if there are none.
+		 * @throws IOException If a record could not be read.
+		 */
+		public synchronized List<StructuralVariant> getVariantsOnContig(Contig c) throws IOException
+		{
+			List<StructuralVariant> list = new LinkedList<StructuralVariant>();
+			if (c == null) return list;
+			int cid = c.getUDPName().hashCode();
+			
+			//Records are written sorted, so the ones starting on a contig are one run
+			Long st = cstart.get(cid);
+			if (st != null && st >= 0)
+			{
+				int ngeno = samples.size();
+				in.seek(st);
+				while (!in.atEnd())
+				{
+					byte[] rec = readRecord(in, ngeno);
+					if (intFromBytes(rec, RECORD_OFF_STCTG) != cid) break;
+					list.add(parseVariant(wrapRecord(rec), 0, genome, samples, suppStrings));
+				}
+			}
+			
+			long[] ends = cends.get(cid);
+			if (ends != null)
+			{
+				for (long voff : ends) list.add(readAt(voff));
+			}
+			
+			return list;
+		}
+		
+		public void close() throws IOException
+		{
+			in.close();
+		}
 		
 	}
 	
@@ -151,11 +151,13 @@ public class ConsensusGeno {
 				{
 					//Get the gt string
 					//if (debuginfo) System.err.println("\tSupport found from this sample.");
-					Genotype g = v.getSampleGenotype(sIndexes.get(i));
-					if (g.getPercentAlt() < 0.01) {
-						if (g.isGenotypeUnknown()) unkgeno++;
+					//Check GT first so homref calls don't need a full Genotype
+					int[] alleles = v.getSampleAlleles(sIndexes.get(i));
+					if (Genotype.getPercentAlt(alleles) < 0.01) {
+						if (Genotype.isGenotypeUnknown(alleles)) unkgeno++;
 						continue; //homref
 					}
+					Genotype g = v.getSampleGenotype(sIndexes.get(i));
 					//if (debuginfo) System.err.println("\tSample genotype call is not homref. (Percent Alt = " + String.format("%.3f", g.getPercentAlt()));
 					String gt = g.getField(Genotype.INFODEF_GT.getKey());
 					//if (debuginfo) System.err.println("\tGT = " + gt);
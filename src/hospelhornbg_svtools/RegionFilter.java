@@ -8,6 +8,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import hospelhornbg_bioinformatics.VCF;
+import hospelhornbg_bioinformatics.VCFStreamPipeline;
 import hospelhornbg_bioinformatics.Variant;
 import hospelhornbg_bioinformatics.VariantPool;
 import hospelhornbg_genomeBuild.Contig;
@@ -26,6 +27,7 @@ public class RegionFilter {
 	public static final String OP_VCFOUT = "-o"; 
 	public static final String OP_BEDIN = "-r"; 
 	public static final String OP_EXCLUSIVE = "-x";
+	public static final String OP_STREAM = "--stream";
 	
 	private static class Region implements Comparable<Region>
 	{
@@ -114,25 +116,23 @@ public class RegionFilter {
 		return rlist;
 	}
 	
+	private static boolean inAnyRegion(Variant v, List<Region> outregions, boolean exclusive)
+	{
+		for (Region r : outregions)
+		{
+			if (v.inRegion(r.chrom, r.start, r.end, exclusive)) return true;
+		}
+		return false;
+	}
+	
 	public static void runFilter(VariantPool variants, List<Region> outregions, boolean exclusive)
 	{
 		List<Variant> vlist = variants.getVariants();
 		List<Variant> passed = new LinkedList<Variant>();
-		boolean good = false;
 		
 		for (Variant v : vlist)
 		{
-			good = true;
-			for (Region r : outregions)
-			{
-				boolean inregion = v.inRegion(r.chrom, r.start, r.end, exclusive);	
-				if (inregion)
-				{
-					good = false;
-					break;
-				}
-			}
-			if (good) passed.add(v);
+			if (!inAnyRegion(v, outregions, exclusive)) passed.add(v);
 		}
 		
 		variants.clearVariants();
@@ -141,12 +141,23 @@ public class RegionFilter {
 		
 	}
 	
+	private static boolean streamFilter(String inFile, String outFile, GenomeBuild gb, final List<Region> outregions, final boolean exclusive) throws IOException
+	{
+		VCFStreamPipeline pipe = new VCFStreamPipeline(inFile, gb, true);
+		pipe.open();
+		pipe.addFilter(new VCFStreamPipeline.VariantFilter(){
+			public boolean passes(Variant v) {return !inAnyRegion(v, outregions, exclusive);}
+		});
+		return pipe.run(outFile, "bioisvtools");
+	}
+	
 	public static void filterRegions(String[] args, GenomeBuild gb)
 	{
 		String inFile = null;
 		String outFile = null;
 		String bedFile = null;
 		boolean ex = false;
+		boolean stream = false;
 		
 		for (int i = 0; i < args.length; i++)
 		{
@@ -185,6 +196,7 @@ public class RegionFilter {
 			{
 				ex = true;
 			}
+			else if (s.equals(OP_STREAM)) stream = true;
 		}
 		
 		
@@ -215,33 +227,52 @@ public class RegionFilter {
 		
 		try 
 		{
-			pool = VCF.readVCF(inFile, gb, true);
+			rlist = readBED(bedFile, gb);
 		} 
 		catch (IOException e) 
 		{
-			System.err.println("ERROR: Input VCF file " + inFile + " could not be opened!");
+			System.err.println("ERROR: Input BED file " + bedFile + " could not be opened!");
 			e.printStackTrace();
 			System.exit(1);
 		} 
-		catch (UnsupportedFileTypeException e) {
-			System.err.println("ERROR: Input VCF file " + inFile + " could not be read!");
+		catch (UnsupportedFileTypeException e) 
+		{
+			System.err.println("ERROR: Input BED file " + bedFile + " could not be read!");
 			e.printStackTrace();
 			System.exit(1);
 		}
 		
+		if (stream)
+		{
+			try 
+			{
+				if (!streamFilter(inFile, outFile, gb, rlist, ex))
+				{
+					System.err.println("ERROR: Streamed filter of " + inFile + " did not complete!");
+					System.exit(1);
+				}
+			} 
+			catch (IOException e) 
+			{
+				System.err.println("ERROR: Input VCF file " + inFile + " could not be read or " + outFile + " could not be written!");
+				e.printStackTrace();
+				System.exit(1);
+			}
+			return;
+		}
+		
 		try 
 		{
-			rlist = readBED(bedFile, gb);
+			pool = VCF.readVCF(inFile, gb, true);
 		} 
 		catch (IOException e) 
 		{
-			System.err.println("ERROR: Input BED file " + bedFile + " could not be opened!");
+			System.err.println("ERROR: Input VCF file " + inFile + " could not be opened!");
 			e.printStackTrace();
 			System.exit(1);
 		} 
-		catch (UnsupportedFileTypeException e) 
-		{
-			System.err.println("ERROR: Input BED file " + bedFile + " could not be read!");
+		catch (UnsupportedFileTypeException e) {
+			System.err.println("ERROR: Input VCF file " + inFile + " could not be read!");
 			e.printStackTrace();
 			System.exit(1);
 		}
@@ -1,11 +1,13 @@
 package hospelhornbg_svtools;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
 import hospelhornbg_bioinformatics.StructuralVariant;
 import hospelhornbg_bioinformatics.VCF;
+import hospelhornbg_bioinformatics.VCFStreamPipeline;
 import hospelhornbg_bioinformatics.Variant;
 import hospelhornbg_bioinformatics.VariantPool;
 import hospelhornbg_bioinformatics.VariantPool.InfoDefinition;
@@ -18,51 +20,7 @@ public class SVAnno {
 	public static final String OP_VCFIN = "-i"; 
 	public static final String OP_VCFOUT = "-o"; 
 	public static final String OP_THREADS = "-t"; 
-	
-	public static class RunnerThread extends Thread
-	{
-		private List<Variant> queue;
-		private int counter;
-		private GeneSet genes;
-		
-		public RunnerThread(List<Variant> vlist, GeneSet gs, int number)
-		{
-			queue = vlist;
-			counter = 0;
-			genes = gs;
-			this.setName("SVANNO_workerThread_" + number);
-			this.setDaemon(true);
-		}
-		
-		private synchronized void incrementCounter()
-		{
-			counter++;
-		}
-		
-		public void run()
-		{
-			for (Variant v : queue)
-			{
-				if (v instanceof StructuralVariant)
-				{
-					StructuralVariant sv = (StructuralVariant)v;
-					genes.annotateStructuralVariant(sv, false);
-					//incrementCounter();
-				}
-				else
-				{
-					System.err.println("Variant " + v.getVarID() + " was not recognized as a structural variant. Skipping...");
-				}
-				incrementCounter();
-			}
-		}
-		
-		public synchronized int countProcessed()
-		{
-			return counter;
-		}
-		
-	}
+	public static final String OP_STREAM = "--stream"; 
 	
 	public static void printUsage()
 	{
@@ -83,6 +41,7 @@ public class SVAnno {
 		System.out.println("\t-i\tFILE\t[Required]\t\tInput vcf path.");
 		System.out.println("\t-o\tFILE\t[Required]\t\tOutput vcf path.");
 		System.out.println("\t-t\tINT\t[Optional]\t\tNumber of threads. Defaults to 1.");
+		System.out.println("\t--stream\t\t[Optional]\t\tAnnotate record by record instead of loading the whole VCF. Output keeps input order.");
 		System.out.println();
 		System.out.println("Sample Usage:");
 		System.out.println("java -jar bioisvtools.jar svanno -g GRCh37 -v -i NA12878_svset.vcf -o NA12878_svset_refGene.vcf");
@@ -136,43 +95,17 @@ public class SVAnno {
 		//Get variants
 		List<Variant> vlist = pool.getVariants();
 		int vCount = vlist.size();
-		if (verbose) System.err.println(vCount + " variants retrieved! Now distributing to worker threads...");
-		
-		//Distribute variants
-		RunnerThread[] tarr = new RunnerThread[threads - 1];
-		int nvar = (vCount / tarr.length) + 1; //Ceiling
-		int ed = 0;
-		for (int i = 0; i < tarr.length; i++)
+		List<Variant> svlist = new ArrayList<Variant>(vCount);
+		for (Variant v : vlist)
 		{
-			int st = ed;
-			ed = (nvar * (i + 1));
-			if (ed > vCount) ed = vCount;
-			List<Variant> sublist = vlist.subList(st, ed);
-			tarr[i] = new RunnerThread(sublist, genes, i);
-			tarr[i].start();
+			if (v instanceof StructuralVariant) svlist.add(v);
+			else System.err.println("Variant " + v.getVarID() + " was not recognized as a structural variant. Skipping...");
 		}
+		if (verbose) System.err.println(vCount + " variants retrieved! Annotating " + svlist.size() + " structural variants on " + threads + " threads...");
 		
-		//Main thread monitors progress!
-		while(checkForAlive(tarr))
-		{
-			try 
-			{
-				Thread.sleep(100);
-			} 
-			catch (InterruptedException e) 
-			{
-				System.err.println("Main thread sleep interrupted unexpectedly! Going back to sleep...");
-				e.printStackTrace();
-			}
-			if(verbose)
-			{
-				int tot = 0;
-				for (int i = 0; i < tarr.length; i++) tot += tarr[i].countProcessed();
-				double percent = ((double)tot / (double)vCount) * 100.0;
-				System.err.println(tot + " of " + vCount + " variants processed (" + String.format("%.2f", percent) + "%)...");
-			}
-		}
-		if (verbose) System.err.println("All structural variants have been processed!");
+		//Split by contig inside the GeneSet
+		int done = genes.annotateAll(svlist, false, threads);
+		if (verbose) System.err.println(done + " structural variants have been processed!");
 		
 		//Add infodefs
 		Collection<InfoDefinition> icoll = GeneSet.getInfoDefinitions();
@@ -183,11 +116,42 @@ public class SVAnno {
 		
 	}
 	
+	public static boolean annotateStream(String inPath, String outPath, GenomeBuild genome, final GeneSet genes, int threads, boolean verbose) throws IOException
+	{
+		VCFStreamPipeline pipe = new VCFStreamPipeline(inPath, genome, true);
+		pipe.open();
+		
+		//Add infodefs
+		VariantPool header = pipe.getHeader();
+		Collection<InfoDefinition> icoll = GeneSet.getInfoDefinitions();
+		for (InfoDefinition def : icoll) header.addInfoField(def.getKey(), def);
+		
+		pipe.addStage(new VCFStreamPipeline.VariantStage(){
+			public Variant processVariant(Variant v)
+			{
+				if (v instanceof StructuralVariant)
+				{
+					genes.annotateStructuralVariant((StructuralVariant)v, false);
+				}
+				else
+				{
+					System.err.println("Variant " + v.getVarID() + " was not recognized as a structural variant. Skipping...");
+				}
+				return v;
+			}
+		});
+		
+		pipe.setThreads(threads);
+		if (verbose) System.err.println("Streaming variants through annotator (" + threads + " thread(s))...");
+		return pipe.run(outPath, "bioisvtools");
+	}
+	
 	public static void svanno(String[] args, GenomeBuild genome, GeneSet mygenes, boolean verbose)
 	{
 		String inPath = null;
 		String outPath = null;
 		int threads = 1;
+		boolean stream = false;
 		
 		for (int i = 0; i < args.length; i++)
 		{
@@ -231,6 +195,7 @@ public class SVAnno {
 					System.exit(1);
 				}
 			}
+			else if (s.equals(OP_STREAM)) stream = true;
 		}
 		
 		boolean pass = true;
@@ -253,6 +218,25 @@ public class SVAnno {
 		
 		if (threads < 1) threads = 1;
 		
+		if (stream)
+		{
+			try 
+			{
+				if (!annotateStream(inPath, outPath, genome, mygenes, threads, verbose))
+				{
+					System.err.println("ERROR: Streamed annotation of " + inPath + " did not complete!");
+					System.exit(1);
+				}
+			} 
+			catch (IOException e) 
+			{
+				System.err.println("IO ERROR: Input VCF " + inPath + " could not be read or " + outPath + " could not be written!");
+				e.printStackTrace();
+				System.exit(1);
+			}
+			return;
+		}
+		
 		VariantPool pool = null;
 		try 
 		{
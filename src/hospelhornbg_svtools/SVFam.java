@@ -514,6 +514,8 @@ public class SVFam {
 			System.exit(1);
 		}
 		System.err.println("NOTICE: VCF file read!");
+		//Only GT/GQ/DP/CN are used downstream - keep the cohort's genotypes small
+		vcf.setCompactGenotypes(true);
 		
 		//Load gene set
 		GeneSet gs = GeneSet.loadRefGene(g);
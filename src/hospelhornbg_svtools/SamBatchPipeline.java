@@ -0,0 +1,468 @@
+package hospelhornbg_svtools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SamBatchPipeline<T> {
+
+	//Ordered parallel processing of SAM record lines (SamFixer, SamScanner, Stdchrom)
+	//Lines are read in batches on a reader thread and processed on a fixed pool. Results
+	//	come back to the thread that called run in input order.
+	//The batch queue is bounded, so no more than maxBatches batches are held at once -
+	//	the reader waits when the consumer falls behind.
+	//Chunk mode skips building Strings altogether - the input is cut into byte chunks
+	//	that end on a line break, and the processor scans the lines itself.
+
+	/*--- Constants ---*/
+
+	public static final int DEFO_BATCH_SIZE = 4096;
+	public static final int DEFO_BATCHES_PER_THREAD = 4;
+	public static final int DEFO_CHUNK_SIZE = 0x100000;
+
+	public static final long QUEUE_WAIT_MILLIS = 100;
+
+	/*--- Interfaces ---*/
+
+	public static interface BatchProcessor<T>
+	{
+		//Called on pool threads - must be thread safe
+		//Lines are in input order. Return value is passed to the consumer.
+		public T processBatch(List<String> lines) throws Exception;
+	}
+
+	public static interface ChunkProcessor<T>
+	{
+		//Called on pool threads - must be thread safe
+		//data[0:len] holds whole lines ('\n' terminated, except maybe the last line of the input)
+		//	The array is not touched by the pipeline again, so it's safe to keep.
+		public T processChunk(byte[] data, int len) throws Exception;
+	}
+
+	public static interface BatchConsumer<T>
+	{
+		//Called on the thread running the pipeline, one batch at a time in input order
+		public void consumeBatch(T result) throws IOException;
+	}
+
+	/*--- Instance Variables ---*/
+
+	private BatchProcessor<T> processor;
+	private ChunkProcessor<T> chunkProcessor;
+	private BatchConsumer<T> consumer;
+
+	private int threads;
+	private int batchSize;
+	private int chunkSize;
+	private int maxBatches;
+
+	private volatile boolean error_kill;
+	private volatile Throwable error;
+
+	private AtomicLong c_read;
+
+	/*--- Construction ---*/
+
+	public SamBatchPipeline(BatchProcessor<T> proc, BatchConsumer<T> cons)
+	{
+		processor = proc;
+		consumer = cons;
+		threads = 1;
+		batchSize = DEFO_BATCH_SIZE;
+		chunkSize = DEFO_CHUNK_SIZE;
+		maxBatches = DEFO_BATCHES_PER_THREAD;
+		c_read = new AtomicLong();
+	}
+
+	public SamBatchPipeline(ChunkProcessor<T> proc, BatchConsumer<T> cons)
+	{
+		this((BatchProcessor<T>)null, cons);
+		chunkProcessor = proc;
+	}
+
+	/*--- Settings ---*/
+
+	public void setThreads(int n)
+	{
+		if(n < 1) n = 1;
+		threads = n;
+		maxBatches = n * DEFO_BATCHES_PER_THREAD;
+	}
+
+	public void setBatching(int linesPerBatch, int batchesInFlight)
+	{
+		if(linesPerBatch > 0) batchSize = linesPerBatch;
+		if(batchesInFlight > 0) maxBatches = batchesInFlight;
+	}
+
+	public void setChunkSize(int bytes)
+	{
+		if(bytes > 0) chunkSize = bytes;
+	}
+
+	/**
+	 * @return Lines read in line mode, bytes read in chunk mode.
+	 */
+	public long countRead()
+	{
+		return c_read.get();
+	}
+
+	/*--- Workers ---*/
+
+	private class BatchTask implements Callable<T>
+	{
+		private List<String> lines;
+
+		public BatchTask(List<String> batch)
+		{
+			lines = batch;
+		}
+
+		@Override
+		public T call() throws Exception
+		{
+			return processor.processBatch(lines);
+		}
+	}
+
+	private class ChunkTask implements Callable<T>
+	{
+		private byte[] data;
+		private int len;
+
+		public ChunkTask(byte[] chunk, int length)
+		{
+			data = chunk;
+			len = length;
+		}
+
+		@Override
+		public T call() throws Exception
+		{
+			return chunkProcessor.processChunk(data, len);
+		}
+	}
+
+	private static int lastLineBreak(byte[] buff, int len)
+	{
+		for(int i = len - 1; i >= 0; i--)
+		{
+			if(buff[i] == '\n') return i;
+		}
+		return -1;
+	}
+
+	private class ChunkReader
+	{
+		//Cuts the stream into chunks ending on a line break
+		private InputStream input;
+		private byte[] buff;
+		private int fill;
+		private boolean eof;
+
+		public ChunkReader(InputStream in)
+		{
+			input = in;
+			buff = new byte[chunkSize];
+			fill = 0;
+			eof = false;
+		}
+
+		public ChunkTask next() throws IOException
+		{
+			while(!eof)
+			{
+				if(fill >= buff.length)
+				{
+					int lb = lastLineBreak(buff, fill);
+					if(lb >= 0)
+					{
+						//Cut here - leftover partial line goes to the next chunk
+						//(After a long line, the leftover can be bigger than chunkSize)
+						byte[] chunk = buff;
+						int clen = lb + 1;
+						fill -= clen;
+						buff = new byte[Math.max(chunkSize, fill)];
+						System.arraycopy(chunk, clen, buff, 0, fill);
+						return new ChunkTask(chunk, clen);
+					}
+					//One line bigger than the chunk size
+					byte[] nbuff = new byte[buff.length << 1];
+					System.arraycopy(buff, 0, nbuff, 0, fill);
+					buff = nbuff;
+				}
+				int r = input.read(buff, fill, buff.length - fill);
+				if(r < 0) eof = true;
+				else
+				{
+					fill += r;
+					c_read.addAndGet(r);
+				}
+			}
+			if(fill <= 0) return null;
+			ChunkTask t = new ChunkTask(buff, fill);
+			buff = null;
+			fill = 0;
+			return t;
+		}
+	}
+
+	private class ChunkReaderRunner implements Runnable
+	{
+		private ChunkReader reader;
+		private ExecutorService pool;
+		private BlockingQueue<Future<T>> queue;
+		private Future<T> endMarker;
+
+		public ChunkReaderRunner(InputStream in, ExecutorService workers, BlockingQueue<Future<T>> outq, Future<T> end)
+		{
+			reader = new ChunkReader(in);
+			pool = workers;
+			queue = outq;
+			endMarker = end;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				ChunkTask t = null;
+				while(!error_kill && (t = reader.next()) != null)
+				{
+					putBlocking(queue, pool.submit(t));
+				}
+				putBlocking(queue, endMarker);
+			}
+			catch(Throwable e)
+			{
+				//Anything escaping here would leave the consumer polling forever
+				killAll(e);
+			}
+		}
+	}
+
+	private class ReaderRunner implements Runnable
+	{
+		private BufferedReader input;
+		private String first;
+		private ExecutorService pool;
+		private BlockingQueue<Future<T>> queue;
+		private Future<T> endMarker;
+
+		public ReaderRunner(BufferedReader in, String firstLine, ExecutorService workers, BlockingQueue<Future<T>> outq, Future<T> end)
+		{
+			input = in;
+			first = firstLine;
+			pool = workers;
+			queue = outq;
+			endMarker = end;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				List<String> batch = new ArrayList<String>(batchSize);
+				if(first != null) {batch.add(first); c_read.incrementAndGet();}
+				String line = null;
+				while(!error_kill && (line = input.readLine()) != null)
+				{
+					batch.add(line);
+					c_read.incrementAndGet();
+					if(batch.size() >= batchSize)
+					{
+						putBlocking(queue, pool.submit(new BatchTask(batch)));
+						batch = new ArrayList<String>(batchSize);
+					}
+				}
+				if(!batch.isEmpty() && !error_kill) putBlocking(queue, pool.submit(new BatchTask(batch)));
+				putBlocking(queue, endMarker);
+			}
+			catch(Throwable e)
+			{
+				//Anything escaping here would leave the consumer polling forever
+				killAll(e);
+			}
+		}
+	}
+
+	private void putBlocking(BlockingQueue<Future<T>> q, Future<T> item) throws InterruptedException
+	{
+		//Back-pressure: waits for the consumer, but gives up if the pipeline is dead
+		while(!q.offer(item, QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+		{
+			if(error_kill) return;
+		}
+	}
+
+	private synchronized void killAll(Throwable e)
+	{
+		if(!error_kill)
+		{
+			System.err.println("SamBatchPipeline || An unhandled exception has been detected! Terminating...");
+			error = e;
+		}
+		error_kill = true;
+	}
+
+	/*--- Running ---*/
+
+	private void runSingleThread(BufferedReader input, String firstLine) throws Exception
+	{
+		List<String> batch = new ArrayList<String>(batchSize);
+		if(firstLine != null) {batch.add(firstLine); c_read.incrementAndGet();}
+		String line = null;
+		while((line = input.readLine()) != null)
+		{
+			batch.add(line);
+			c_read.incrementAndGet();
+			if(batch.size() >= batchSize)
+			{
+				consumer.consumeBatch(processor.processBatch(batch));
+				batch.clear();
+			}
+		}
+		if(!batch.isEmpty()) consumer.consumeBatch(processor.processBatch(batch));
+	}
+
+	private void runChunksSingleThread(InputStream input) throws Exception
+	{
+		ChunkReader reader = new ChunkReader(input);
+		ChunkTask t = null;
+		while((t = reader.next()) != null) consumer.consumeBatch(t.call());
+	}
+
+	private void runThreaded(BufferedReader input, String firstLine, InputStream chunkInput)
+	{
+		BlockingQueue<Future<T>> queue = new ArrayBlockingQueue<Future<T>>(maxBatches);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		Future<T> endMarker = new FutureTask<T>(new Callable<T>(){
+			public T call() {return null;}
+		});
+
+		Runnable r = null;
+		if(chunkInput != null) r = new ChunkReaderRunner(chunkInput, pool, queue, endMarker);
+		else r = new ReaderRunner(input, firstLine, pool, queue, endMarker);
+		Thread t_read = new Thread(r);
+		t_read.setName("SamBatchPipeline_Reader");
+		t_read.setDaemon(true);
+		t_read.start();
+
+		//Consume on this thread, in submission (input) order
+		boolean done = false;
+		try
+		{
+			while(!error_kill)
+			{
+				Future<T> f = queue.poll(QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+				if(f == null) continue;
+				if(f == endMarker) break;
+				consumer.consumeBatch(f.get());
+			}
+			done = true;
+			t_read.join();
+		}
+		catch(InterruptedException e)
+		{
+			killAll(e);
+		}
+		catch(ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause != null) killAll(cause);
+			else killAll(e);
+		}
+		catch(IOException e)
+		{
+			killAll(e);
+		}
+		catch(RuntimeException e)
+		{
+			killAll(e);
+		}
+		finally
+		{
+			if(!done) error_kill = true; //Consumer bailed, let the reader go
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Process every line left in the input.
+	 * @param input Reader positioned at the first record line (or just after firstLine).
+	 * @param firstLine A line already pulled off the reader (eg. while reading the header)
+	 * to process first. May be null.
+	 * @throws IOException If reading fails, or the processor or consumer throw. Exceptions that
+	 * are not IOExceptions are wrapped.
+	 */
+	public void run(BufferedReader input, String firstLine) throws IOException
+	{
+		if(processor == null) throw new IllegalStateException("SamBatchPipeline.run || Pipeline was built for chunk input");
+		error_kill = false;
+		error = null;
+		c_read.set(0);
+
+		if(threads <= 1)
+		{
+			try {runSingleThread(input, firstLine);}
+			catch(IOException e) {throw e;}
+			catch(Exception e) {throw new IOException("SamBatchPipeline.run || Batch processing failed", e);}
+			return;
+		}
+
+		runThreaded(input, firstLine, null);
+		checkError();
+	}
+
+	/**
+	 * Process everything left in the input as byte chunks (chunk mode).
+	 * @param input Stream positioned at the start of a line.
+	 * @throws IOException If reading fails, or the processor or consumer throw. Exceptions that
+	 * are not IOExceptions are wrapped.
+	 */
+	public void run(InputStream input) throws IOException
+	{
+		if(chunkProcessor == null) throw new IllegalStateException("SamBatchPipeline.run || Pipeline was built for line input");
+		error_kill = false;
+		error = null;
+		c_read.set(0);
+
+		if(threads <= 1)
+		{
+			try {runChunksSingleThread(input);}
+			catch(IOException e) {throw e;}
+			catch(Exception e) {throw new IOException("SamBatchPipeline.run || Batch processing failed", e);}
+			return;
+		}
+
+		runThreaded(null, null, input);
+		checkError();
+	}
+
+	private void checkError() throws IOException
+	{
+		if(error != null)
+		{
+			if(error instanceof IOException) throw (IOException)error;
+			if(error instanceof Error) throw (Error)error;
+			throw new IOException("SamBatchPipeline.run || Batch processing failed", error);
+		}
+		if(error_kill) throw new IOException("SamBatchPipeline.run || Pipeline terminated early");
+	}
+
+}
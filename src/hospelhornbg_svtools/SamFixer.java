@@ -2,20 +2,17 @@ package hospelhornbg_svtools;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
+import hospelhornbg_bioinformatics.BAMReader;
+import hospelhornbg_bioinformatics.BAMWriter;
 import hospelhornbg_bioinformatics.SAMField;
 import hospelhornbg_bioinformatics.SAMHeaderLine;
 import hospelhornbg_bioinformatics.SAMRecord;
@@ -24,6 +21,8 @@ import hospelhornbg_bioinformatics.SAMRecord.WarningFlags;
 import hospelhornbg_bioinformatics.SAMStringField;
 import hospelhornbg_genomeBuild.Contig;
 import hospelhornbg_genomeBuild.GenomeBuild;
+import hospelhornbg_svtools.SamBatchPipeline.BatchConsumer;
+import hospelhornbg_svtools.SamBatchPipeline.BatchProcessor;
 import waffleoRai_Utils.FileBuffer.UnsupportedFileTypeException;
 
 public class SamFixer {
@@ -36,80 +35,7 @@ public class SamFixer {
 	public static final String OP_UNMAP_BAD_CONTIGS = "-k"; 
 	
 	public static final String OP_SAMPLE_NAME = "-s"; 
-	
-	public static final int MAX_QUEUESIZE = 1000000000;
-	
-	private static QueueCounter qc;
-	
-	public static class QueueCounter
-	{
-		private volatile long parseIn;
-		private volatile long parseOut;
-		
-		private volatile boolean parseDone;
-		private volatile long writeIn;
-		private volatile long writeOut;
-		
-		public QueueCounter()
-		{
-			parseIn = 0;
-			parseOut = 0;
-			parseDone = false;
-			writeIn = 0;
-			writeOut = 0;
-		}
-		
-		public long countParseIn()
-		{
-			return parseIn;
-		}
-		
-		public void incrementParseIn()
-		{
-			parseIn++; //Only reader thread writes
-		}
-		
-		public long countParseOut()
-		{
-			return parseOut;
-		}
-		
-		public synchronized void incrementParseOut()
-		{
-			parseOut++;
-		}
-		
-		public boolean isParseDone()
-		{
-			return parseDone;
-		}
-		
-		public void setParseDone()
-		{
-			parseDone = true;
-		}
-
-		public long countWriteIn()
-		{
-			return writeIn;
-		}
-		
-		public synchronized void incrementWriteIn()
-		{
-			writeIn++;
-		}
-		
-		public long countWriteOut()
-		{
-			return writeOut;
-		}
-		
-		public void incrementWriteOut()
-		{
-			writeOut++;
-		}
-	
-	}
+	public static final String OP_BAM_OUT = "-b"; 
 	
 	public static void printUsage()
 	{
@@ -120,7 +46,7 @@ public class SamFixer {
 		System.out.println("to match requested build.");
 		System.out.println();
 		System.out.println("Input Formats:");
-		System.out.println("\tInput stream must be a SAM file. BAM cannot be read at this time.");
+		System.out.println("\tInput stream may be SAM or BAM. BAM is detected automatically.");
 		System.out.println();
 		System.out.println("Flags:");
 		System.out.println("\t-i\tFILE\t[Optional]\t\tInput file path. Defaults to stdin stream if not provided.");
@@ -128,6 +54,7 @@ public class SamFixer {
 		System.out.println("\t-t\tINT\t[Optional]\t\tNumber of threads to use.");
 		System.out.println("\t-u\tFLAG\t[Optional]\t\tUse UCSC standard names (eg. chr1, chrX, etc.) instead of NCBI (eg. 1, X, etc.)");
 		System.out.println("\t-s\tFILE\t[Optional]\t\tName of sample the SAM holds data for in case an RG line is not present.");
+		System.out.println("\t-b\tFLAG\t[Optional]\t\tWrite BAM instead of SAM. On by default if the output path ends in .bam");
 		System.out.println();
 		System.out.println("Note:");
 		System.out.println("You maust specify a genome build.");
@@ -137,6 +64,7 @@ public class SamFixer {
 		System.out.println("java -jar bioisvtools.jar fixsam -g ncbi36 -v");
 		System.out.println("java -jar bioisvtools.jar fixsam -g grch37 -v -t 24 -u");
 		System.out.println("java -jar bioisvtools.jar fixsam -g grch38 -v -i sample.sam -o samplechromfix.sam -t 8 -s MySample");
+		System.out.println("java -jar bioisvtools.jar fixsam -g grch38 -i sample.bam -o samplechromfix.bam -t 16");
 		System.out.println();
 		System.out.println("--------------------------------------------------------------------------------------------------------------");
 	}
@@ -154,7 +82,7 @@ public class SamFixer {
 		
 		private volatile long queued_for_write;
 		private volatile long total_read;
-		private volatile long total_written;
+		private volatile long total_written; //Only the writing thread touches this
 		
 		//private Set<String> aux_recs;
 		
@@ -212,9 +140,9 @@ public class SamFixer {
 			return bad_record;
 		}
 	
-		public synchronized void incrementQueuedForWrite()
+		public synchronized void addQueuedForWrite(long n)
 		{
-			queued_for_write++;
+			queued_for_write += n;
 		}
 		
 		public long getQueuedForWriteCount()
@@ -222,9 +150,9 @@ public class SamFixer {
 			return this.queued_for_write;
 		}
 		
-		public synchronized void incrementTotalRead()
+		public synchronized void addTotalRead(long n)
 		{
-			total_read++;
+			total_read += n;
 		}
 		
 		public long getTotalRead()
@@ -232,7 +160,7 @@ public class SamFixer {
 			return this.total_read;
 		}
 		
-		public synchronized void incrementTotalWritten()
+		public void incrementTotalWritten()
 		{
 			total_written++;
 		}
@@ -413,9 +341,10 @@ public class SamFixer {
 		return outlist;
 	}
 	
-	private static void generateOutputLine(String input, GenomeBuild gb, BadCounter counter, ConcurrentLinkedQueue<String> writequeue, boolean verbose, boolean ucsc, boolean keep_bad_contig, String defo_rgid) throws InterruptedException
+	private static String generateOutputLine(String input, GenomeBuild gb, BadCounter counter, boolean verbose, boolean ucsc, boolean keep_bad_contig, String defo_rgid)
 	{
 		//Tosses lines with bad contigs (commented out lines for unmapping bad contig lines)
+		//Returns null if the record is tossed
 		try 
 		{
 			SAMRecord sr = SAMRecord.parseSAMRecord(input, gb, verbose).getRecord();
@@ -423,12 +352,12 @@ public class SamFixer {
 			if (wf.err_invalid_RNAME != null) {
 				counter.increment_RNAME();
 				if(keep_bad_contig) sr.flagSegmentUnmapped(true);
-				else return;
+				else return null;
 			}
 			if (wf.err_invalid_RNEXT != null) {
 				counter.increment_RNEXT();
 				if(keep_bad_contig) sr.flagNextSegmentUnmapped(true);
-				else return;
+				else return null;
 			}
 			//Look for qual/seq mismatches...
 			//I don't know how they would be getting through though...
@@ -441,7 +370,7 @@ public class SamFixer {
 				System.err.println(Thread.currentThread().getName() + " || SamFixer.generateOutputLine || SEQ = " + seq);
 				System.err.println(Thread.currentThread().getName() + " || SamFixer.generateOutputLine || QUAL = " + qstring);
 				System.err.println(Thread.currentThread().getName() + " || SamFixer.generateOutputLine || Skipping record...");
-				return;
+				return null;
 			}
 			
 			//Check for positions and mate positions that are off end of contig...
@@ -462,7 +391,7 @@ public class SamFixer {
 						sr.flagSegmentUnmapped(true);
 						sr.setPosition(0);
 					}
-					else return;
+					else return null;
 				}
 			}
 			
@@ -482,7 +411,7 @@ public class SamFixer {
 						sr.flagNextSegmentUnmapped(true);
 						sr.setNextPosition(0);
 					}
-					else return;
+					else return null;
 				}
 			}
 			
@@ -501,27 +430,7 @@ public class SamFixer {
 				counter.addAux(aux.getSAMString());
 			}*/
 			//Render to line
-			String outline = sr.writeSAMRecord(ucsc);
-			//Wait until queue has space...
-			while(writequeue.size() >= SamFixer.MAX_QUEUESIZE)
-			{
-				try 
-				{
-					Thread.sleep(10);
-				} 
-				catch (InterruptedException e) 
-				{
-					//If it's getting interrupted, that should only be a kill signal...
-					//Dump the record in the queue regardless of queue size, and throw the exception.
-					qc.incrementWriteIn();
-					writequeue.add(outline);
-					counter.incrementQueuedForWrite();
-					throw e;
-				}
-			}
-			qc.incrementWriteIn();
-			writequeue.add(outline);
-			counter.incrementQueuedForWrite();
+			return sr.writeSAMRecord(ucsc);
 		}
 		catch (UnsupportedFileTypeException e) 
 		{
@@ -533,28 +442,7 @@ public class SamFixer {
 			if(verbose) System.err.println(Thread.currentThread().getName() + " || SamFixer.generateOutputLine || Record could not be parsed!");
 			counter.increment_BadRecord();
 		}
-	}
-	
-	private static int finishParsingQueue(ConcurrentLinkedQueue<String> linequeue, GenomeBuild gb, BadCounter counter, ConcurrentLinkedQueue<String> writequeue, boolean verbose, boolean ucsc, boolean keep_bad_contig, String defo_rgid)
-	{
-		int lcount = 0;
-		while(!linequeue.isEmpty())
-		{
-			String line = linequeue.poll();
-			if (line == null) continue;
-			try 
-			{
-				generateOutputLine(line, gb, counter, writequeue, verbose, ucsc, keep_bad_contig, defo_rgid);
-			} 
-			catch (InterruptedException e) 
-			{
-				//IGNORE!!! Make sure this method is used KNOWING that it ignores interrupt signals!!
-				//e.printStackTrace();
-			}
-			lcount++;
-			//counter.incrementQueuedForWrite();
-		}
-		return lcount;
+		return null;
 	}
 	
 	public static BadCounter fixSam(BufferedReader input, BufferedWriter output, GenomeBuild gb, SAMHeaderLine newRG, int threads, boolean verbose, boolean ucsc, boolean keep_bad_contig) throws IOException, UnsupportedFileTypeException
@@ -563,10 +451,6 @@ public class SamFixer {
 		//Prepare Counter
 		BadCounter counter = new BadCounter();
 		
-		//Prepare and start record parsing/fixing threads
-		ConcurrentLinkedQueue<String> linequeue = new ConcurrentLinkedQueue<String>();
-		ConcurrentLinkedQueue<String> writequeue = new ConcurrentLinkedQueue<String>();
-		
 		String defo_rgid = null;
 		List<String> rawheader = new LinkedList<String>();
 		String line = null;
@@ -594,158 +478,41 @@ public class SamFixer {
 		}
 		System.err.println("Default ReadGroup ID set to: " + defo_rgid);
 		
-		String rgid = defo_rgid;
+		final String rgid = defo_rgid;
 		
-		int tcount = threads - 2;
-		Thread[] tarr = new Thread[tcount];
-		//SyncedInt donecount = new SyncedInt();
-		for (int i = 0; i < tcount; i++)
-		{
-			tarr[i] = new Thread(new Runnable() {
-				@Override
-				public void run() 
+		//Records are fixed on the pool and written here, in input order
+		SamBatchPipeline<List<String>> pipeline = new SamBatchPipeline<List<String>>(new BatchProcessor<List<String>>(){
+			public List<String> processBatch(List<String> lines)
+			{
+				List<String> out = new ArrayList<String>(lines.size());
+				int rcount = 0;
+				for (String l : lines)
 				{
-					System.err.println("DEBUG: Worker thread " + Thread.currentThread().getName() + " started!");
-					long pcount = 0;
-					while(!Thread.interrupted())
-					{
-						if(linequeue.isEmpty()) 
-						{
-							try 
-							{
-								Thread.sleep(10);
-							} 
-							catch (InterruptedException e) 
-							{
-								//If it's getting interrupted, that should only be a kill signal...
-								if(verbose)System.err.println("DEBUG: Lines Parsed " + pcount + " (Worker: " + Thread.currentThread().getName() + ") - Worker thread returning... (From queue empty sleep)");
-								//donecount.increment();
-								return;
-							}
-						}
-						else
-						{
-							String line = linequeue.poll();
-							if (line == null) continue;
-							qc.incrementParseOut();
-							pcount++;
-							
-							//Try to parse
-							try 
-							{
-								generateOutputLine(line, gb, counter, writequeue, verbose, ucsc, keep_bad_contig, rgid);
-							} 
-							catch (InterruptedException e) 
-							{
-								//Interruption should only be a kill signal.
-								//Run until read queue is empty, eating any more interruptions, and return.
-								pcount += finishParsingQueue(linequeue, gb, counter, writequeue, verbose, ucsc, keep_bad_contig,rgid);
-								//donecount.increment();
-								if(verbose)System.err.println("DEBUG: Lines Parsed " + pcount + " (Worker: " + Thread.currentThread().getName() + ") - Worker thread returning... (From write queue full sleep)");
-								return;
-							}
-							
-						}		
-					}
-					//Run until the queue is empty...
-					pcount += finishParsingQueue(linequeue, gb, counter, writequeue, verbose, ucsc, keep_bad_contig,rgid);
-					if(verbose)System.err.println("DEBUG: Running until queue is empty. Total lines queued: " + counter.getQueuedForWriteCount() + " (Worker: " + Thread.currentThread().getName() + ")");
-					if(verbose)System.err.println("DEBUG: Running until queue is empty. Total lines queued by this thread (before final dump): " + pcount + " (Worker: " + Thread.currentThread().getName() + ")");
-					//donecount.increment();
-					if(verbose)System.err.println("DEBUG: Lines Parsed " + pcount + " (Worker: " + Thread.currentThread().getName() + ") - Worker thread returning...");
+					if (l == null) continue;
+					rcount++;
+					String outline = generateOutputLine(l, gb, counter, verbose, ucsc, keep_bad_contig, rgid);
+					if (outline != null) out.add(outline);
 				}
-			});
-			tarr[i].setName("SamFixerWorkerThread" + i);
-		}
-		
-		//Prepare writer thread
-		Thread writerthread = new Thread(new Runnable() {
-
-			@Override
-			public void run() {
-				System.err.println("DEBUG: Writer thread " + Thread.currentThread().getName() + " started!");
-				long lcount = 0;
-				while(!Thread.interrupted())
+				counter.addTotalRead(rcount);
+				counter.addQueuedForWrite(out.size());
+				return out;
+			}
+		}, new BatchConsumer<List<String>>(){
+			private long lcount = 0;
+			public void consumeBatch(List<String> lines) throws IOException
+			{
+				for (String l : lines)
 				{
-					
-					if(writequeue.isEmpty()) 
-					{
-						try 
-						{
-							Thread.sleep(10);
-						} 
-						catch (InterruptedException e) 
-						{
-							//If it's getting interrupted, that should only be a kill signal...
-							break;
-						}
-					}
-					else
-					{
-						//Write the line to the output stream
-						String line = writequeue.poll();
-						if (line == null) continue;
-						qc.incrementWriteOut();
-						try 
-						{
-							//output.write("\n" + line);
-							//output.write(line + "\n");
-							if (lcount != 0L) output.write("\n" + line);
-							else output.write(line);
-							lcount++;
-							counter.incrementTotalWritten();
-							//if(lcount > 5942000000L && lcount < 5943000000L) System.err.println("R" + lcount + "\t" + line); //DEBUG
-						} 
-						catch (IOException e) 
-						{
-							if(verbose)System.err.println("ERROR: (" + Thread.currentThread().getName() + ") Fatal IO Exception!");
-							if(verbose)System.err.println("DEBUG: Lines Written: " + lcount + " (" + Thread.currentThread().getName() + ") - Writer thread returning... (IO Fail)");
-							e.printStackTrace();
-							return;
-						}
-					}
+					if (lcount != 0L) output.write("\n" + l);
+					else output.write(l);
+					lcount++;
+					counter.incrementTotalWritten();
 					if (verbose && (lcount % 100000000L == 0)) System.err.println("DEBUG: Lines Written: " + lcount);
 				}
-				//Finish writing any lines still in queue or that are waiting to be processed...
-				if(verbose)System.err.println("DEBUG: Interrupt received. Lines Written (before final push): " + lcount + " (" + Thread.currentThread().getName() + ")");
-				while(!(writequeue.isEmpty() && qc.isParseDone() && (qc.countWriteOut() >= qc.countWriteIn())))
-				{
-					if(writequeue.isEmpty())
-					{
-						//Sleep and continue
-						try 
-						{
-							Thread.sleep(10);
-						} 
-						catch (InterruptedException e) 
-						{
-							e.printStackTrace();
-						}
-						continue;
-					}
-					String line = writequeue.poll();
-					if (line == null) continue;
-					qc.incrementWriteOut();
-					try 
-					{
-
-						output.write("\n"+line);
-						lcount++;
-						counter.incrementTotalWritten();
-					} 
-					catch (IOException e) 
-					{
-						if(verbose)System.err.println("ERROR: (" + Thread.currentThread().getName() + ") Fatal IO Exception!");
-						if(verbose)System.err.println("DEBUG: Lines Written: " + lcount + " (" + Thread.currentThread().getName() + ") - Writer thread returning... (IO Fail)");
-						e.printStackTrace();
-						return;
-					}
-				}
-				if(verbose)System.err.println("DEBUG: Lines Written: " + lcount + " (" + Thread.currentThread().getName() + ") - Writer thread returning...");	
 			}
-			
 		});
-		writerthread.setName("SamFixerWriterThread");
+		//One thread each for reading and writing
+		pipeline.setThreads(Math.max(1, threads - 2));
 		
 		//Read and re-write header
 		//Remove any contigs from the genome build not in header
@@ -763,68 +530,9 @@ public class SamFixer {
 		if(verbose) System.err.println("DEBUG: New header written (" + hlcount + " lines)... Starting record processing...");
 		
 		//Now, the records!
-		//Start the workers and writer
-		for (int i = 0; i < tcount; i++) tarr[i].start();
-		writerthread.start();
-		linequeue.add(line); //Dump the first non-header line we read before...
-		long readcount = 1;
-		while((line = input.readLine()) != null)
-		{
-			//Check line queue size and wait if full...
-			while(linequeue.size() >= SamFixer.MAX_QUEUESIZE)
-			{
-				try 
-				{
-					Thread.sleep(10);
-				} 
-				catch (InterruptedException e) 
-				{
-					System.err.println("SamFixer.fixSam || Unexpected interruption to reader thread. Ignoring...");
-				}
-			}
-			linequeue.add(line);
-			qc.countParseIn();
-			readcount++;
-			counter.incrementTotalRead();
-			if ((verbose) && (readcount % 10000000L == 0)) System.err.println("DEBUG: " + readcount + " lines read!");
-		}
-		
-		if(verbose) System.err.println("DEBUG: Read complete!");
-		//Now, the reader is done. Interrupt the workers and writer...
-		for (int i = 0; i < tcount; i++) {
-			synchronized(tarr[i]) {tarr[i].interrupt();}
-		}
-		synchronized(writerthread) {writerthread.interrupt();}
-		
-		//Wait for the other threads to die...
-		boolean anyalive = true;
-		while(anyalive)
-		{
-			try {
-				Thread.sleep(10);
-			} catch (InterruptedException e) {
-				System.err.println("SamFixer.fixSam || Unexpected interruption to reader thread. Ignoring...");
-			}
-			
-			anyalive = false;
-			for (int i = 0; i < tcount; i++) {
-				if(tarr[i].isAlive())
-				{
-					anyalive = true;
-					break;
-				}
-			}
-		}
-		qc.setParseDone();
-		
-		while (writerthread.isAlive()) 
-		{
-			try {
-				Thread.sleep(10);
-			} catch (InterruptedException e) {
-				System.err.println("SamFixer.fixSam || Unexpected interruption to reader thread. Ignoring...");
-			}
-		}
+		//The first non-header line we read before goes in first
+		pipeline.run(input, line);
+		if(verbose) System.err.println("DEBUG: Read complete! Lines read: " + pipeline.countRead());
 		
 		return counter;
 	}
@@ -844,6 +552,7 @@ public class SamFixer {
 		int threads = 3;
 		boolean ucsc = false;
 		boolean unmap_bad_contig = false;
+		boolean bamout = false;
 		String samplename = "MySAM";
 		
 		for (int i = 0; i < args.length; i++)
@@ -887,6 +596,10 @@ public class SamFixer {
 			{
 				unmap_bad_contig = true;
 			}
+			else if (s.equals(OP_BAM_OUT))
+			{
+				bamout = true;
+			}
 			else if (s.equals(OP_THREADS))
 			{
 				if (i+1 >= args.length)
@@ -905,7 +618,6 @@ public class SamFixer {
 			}
 		}
 		
-		qc = new QueueCounter();
 		//Check threads
 		if (threads < 1)
 		{
@@ -922,46 +634,34 @@ public class SamFixer {
 		rgline.addField("SM", samplename);
 		
 
-		//Input - default to stdin if there's no path
+		//BGZF codec threads for BAM in/out - most of the pool goes to the fixers
+		int zthreads = Math.max(1, threads / 4);
+		if (BAMWriter.isBAMPath(outPath)) bamout = true;
+		
+		//Input - default to stdin if there's no path. SAM or BAM.
 		BufferedReader br = null;
-		if (inPath == null || inPath.isEmpty())
+		try 
 		{
-			br = new BufferedReader(new InputStreamReader(System.in));
-		}
-		else
+			br = BAMReader.openSAMReader(inPath, zthreads);
+		} 
+		catch (IOException e)
 		{
-			try 
-			{
-				FileReader fr = new FileReader(inPath);
-				br = new BufferedReader(fr);
-			} 
-			catch (FileNotFoundException e)
-			{
-				System.err.println("ERROR: File " + inPath + " could not be opened!");
-				e.printStackTrace();
-				System.exit(1);
-			}
+			System.err.println("ERROR: Input " + (inPath == null ? "stream" : inPath) + " could not be opened!");
+			e.printStackTrace();
+			System.exit(1);
 		}
 		
 		//Output - default to stdout if there's no path
 		BufferedWriter bw = null;
-		if (outPath == null || outPath.isEmpty())
+		try 
 		{
-			bw = new BufferedWriter(new OutputStreamWriter(System.out));
-		}
-		else
+			bw = BAMWriter.openSAMWriter(outPath, bamout, zthreads);
+		} 
+		catch (IOException e)
 		{
-			try 
-			{
-				FileWriter fw = new FileWriter(outPath);
-				bw = new BufferedWriter(fw);
-			} 
-			catch (IOException e)
-			{
-				System.err.println("ERROR: File " + outPath + " could not be opened!");
-				e.printStackTrace();
-				System.exit(1);
-			}
+			System.err.println("ERROR: Output " + (outPath == null ? "stream" : outPath) + " could not be opened!");
+			e.printStackTrace();
+			System.exit(1);
 		}
 		
 		//Do the thing
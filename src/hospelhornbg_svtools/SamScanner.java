@@ -1,26 +1,35 @@
 package hospelhornbg_svtools;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
+import hospelhornbg_bioinformatics.BAMReader;
 import hospelhornbg_bioinformatics.SAMHeaderLine;
 import hospelhornbg_bioinformatics.SAMRecord;
+import hospelhornbg_bioinformatics.SAMRecordBuffer;
 import hospelhornbg_bioinformatics.SAMRecord.FailFlags;
 import hospelhornbg_bioinformatics.SAMRecord.InvalidSAMRecordException;
 import hospelhornbg_bioinformatics.SAMRecord.ParsedRecord;
 import hospelhornbg_bioinformatics.SAMRecord.WarningFlags;
 import hospelhornbg_genomeBuild.Contig;
 import hospelhornbg_genomeBuild.GenomeBuild;
+import hospelhornbg_svtools.SamBatchPipeline.BatchConsumer;
+import hospelhornbg_svtools.SamBatchPipeline.BatchProcessor;
+import hospelhornbg_svtools.SamBatchPipeline.ChunkProcessor;
 import waffleoRai_Utils.FileBuffer;
 import waffleoRai_Utils.FileBuffer.UnsupportedFileTypeException;
 
@@ -30,8 +39,6 @@ public class SamScanner {
 	public static final String OP_TEMPDIR = "-T"; 
 	public static final String OP_THREADS = "-t"; 
 	
-	public static final int MAX_QUEUESIZE = 1000000000;
-	
 	private static class Counts
 	{
 		private volatile long total;
@@ -53,6 +60,8 @@ public class SamScanner {
 		
 		private volatile int err_qualstr_len_bad;
 		
+		private long header_lines;
+		
 		public Counts()
 		{
 			total = 0;
@@ -142,6 +151,43 @@ public class SamScanner {
 			else all_RNEXT.put(rname, count+1);
 		}
 		
+		private static <K> void addAll(HashMap<K, Integer> dst, HashMap<K, Integer> src)
+		{
+			for (K k : src.keySet())
+			{
+				Integer count = dst.get(k);
+				if (count == null) dst.put(k, src.get(k));
+				else dst.put(k, count + src.get(k));
+			}
+		}
+		
+		private static <K> void addAllLong(HashMap<K, Long> dst, HashMap<K, Long> src)
+		{
+			for (K k : src.keySet())
+			{
+				Long count = dst.get(k);
+				if (count == null) dst.put(k, src.get(k));
+				else dst.put(k, count + src.get(k));
+			}
+		}
+		
+		public synchronized void merge(Counts o)
+		{
+			//o must not be in use by another thread
+			total += o.total;
+			header_lines += o.header_lines;
+			err_syntax_general += o.err_syntax_general;
+			err_nullseq_nnqual += o.err_nullseq_nnqual;
+			err_invalid_POS += o.err_invalid_POS;
+			err_invalid_PNEXT += o.err_invalid_PNEXT;
+			err_qualstr_len_bad += o.err_qualstr_len_bad;
+			addAll(bad_customFieldTypes, o.bad_customFieldTypes);
+			addAllLong(bad_RNAME, o.bad_RNAME);
+			addAllLong(bad_RNEXT, o.bad_RNEXT);
+			addAll(all_RNAME, o.all_RNAME);
+			addAll(all_RNEXT, o.all_RNEXT);
+		}
+		
 		public long getTotal()
 		{
 			return total;
@@ -258,7 +304,7 @@ public class SamScanner {
 		System.out.println("or oversights that may make the SAM unreadable to some tools.");
 		System.out.println();
 		System.out.println("Input Formats:");
-		System.out.println("\tInput must be a SAM file");
+		System.out.println("\tInput may be a SAM or BAM file. BAM is detected automatically.");
 		System.out.println();
 		System.out.println("Flags:");
 		System.out.println("\t-i\tFILE\t[Optional]\t\tInput file path. Defaults to stdin stream if not provided.");
@@ -274,6 +320,7 @@ public class SamScanner {
 		System.out.println("java -jar bioisvtools.jar scansam -g hg38");
 		System.out.println("java -jar bioisvtools.jar scansam -v -t 16");
 		System.out.println("java -jar bioisvtools.jar scansam -g GRCh37 -i sample.sam -t 24");
+		System.out.println("java -jar bioisvtools.jar scansam -g GRCh38 -i sample.bam -t 8");
 		System.out.println();
 		System.out.println("--------------------------------------------------------------------------------");
 	}
@@ -336,6 +383,48 @@ public class SamScanner {
 	}
 	
 	private static GenomeBuild scanSamHeader(BufferedReader reader, GenomeBuild gb) throws IOException
+	{
+		//Header lines are collected, then the reader is rewound to the top for the records
+		reader.mark(1000000);
+		List<String> hlines = new LinkedList<String>();
+		String line = reader.readLine();
+		while(line != null && line.startsWith("@"))
+		{
+			hlines.add(line);
+			line = reader.readLine();
+		}
+		reader.reset();
+		return scanSamHeader(hlines, gb);
+	}
+	
+	private static List<String> readHeaderLines(BufferedInputStream in) throws IOException
+	{
+		//Bytewise, so nothing past the header is taken out of the stream
+		List<String> lines = new LinkedList<String>();
+		ByteArrayOutputStream lbuff = new ByteArrayOutputStream(256);
+		while(true)
+		{
+			in.mark(1);
+			int b = in.read();
+			if(b != '@')
+			{
+				if(b >= 0) in.reset();
+				break;
+			}
+			lbuff.reset();
+			while(b >= 0 && b != '\n')
+			{
+				lbuff.write(b);
+				b = in.read();
+			}
+			String line = new String(lbuff.toByteArray(), StandardCharsets.ISO_8859_1);
+			if(line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+			lines.add(line);
+		}
+		return lines;
+	}
+	
+	private static GenomeBuild scanSamHeader(List<String> hlines, GenomeBuild gb)
 	{
 		//Read header
 		//Check for HD line (which is mandatory)
@@ -344,22 +433,19 @@ public class SamScanner {
 		//	in records
 		//If there is no provided GenomeBuild, build one from the SQ lines and regurgitate for user
 		//Check for RG line
-		reader.mark(1000000);
 		System.out.println("===================== HEADER =====================");
-		String line = reader.readLine();
-		//This line should be the @HD. If not, report.
-		if (!(line.startsWith("@HD")))
+		Iterator<String> itr = hlines.iterator();
+		//First line should be the @HD. If not, report.
+		if (hlines.isEmpty())
 		{
 			System.out.println("ERROR   || @HD line was NOT found!");
-			if (!line.startsWith("@")) {
-				System.out.println("ERROR   || SAM lacks header!");
-				reader.reset();
-			}
+			System.out.println("ERROR   || SAM lacks header!");
 		}
+		else if (!hlines.get(0).startsWith("@HD")) System.out.println("ERROR   || @HD line was NOT found!");
 		else
 		{
 			System.out.println("INFO   || @HD line found!");
-			String[] fields = line.split("\t");
+			String[] fields = itr.next().split("\t");
 			int fc = fields.length;
 			for (int i = 1; i < fc; i++) System.out.println("\t" + fields[i]);
 		}
@@ -367,9 +453,9 @@ public class SamScanner {
 		Set<SAMHeaderLine> sqlines = new HashSet<SAMHeaderLine>();
 		boolean rgfound = false;
 		boolean rgsmfound = false;
-		line = reader.readLine();
-		while(line.startsWith("@"))
+		while(itr.hasNext())
 		{
+			String line = itr.next();
 			SAMHeaderLine hl = null;
 			try {hl = new SAMHeaderLine(line);}
 			catch(FileBuffer.UnsupportedFileTypeException e) {
@@ -389,7 +475,6 @@ public class SamScanner {
 					rgsmfound = true;
 				}
 			}
-			line = reader.readLine();
 		}
 		
 		//Handle RG
@@ -438,7 +523,6 @@ public class SamScanner {
 				}
 			}
 			
-			reader.reset();
 			return gb;
 		}
 		else
@@ -459,11 +543,112 @@ public class SamScanner {
 				}
 			}
 			
-			reader.reset();
 			return ngb;
 		}
 	}
 	
+	private static void countRecord(String line, GenomeBuild gb, boolean verbose, Counts c)
+	{
+		c.incrementTotal();
+		try 
+		{
+			ParsedRecord pr = SAMRecord.parseSAMRecord(line, gb, verbose);
+			SAMRecord rec = pr.getRecord();
+			WarningFlags wf = rec.getParserWarnings();
+			if(wf.err_qualstr_len_bad) c.incrementQualStrLengthErrCount();
+			if(wf.err_invalid_RNAME != null) c.addInvalidRefContig(wf.err_invalid_RNAME);
+			if(wf.err_invalid_RNEXT != null) c.addInvalidRNextContig(wf.err_invalid_RNEXT);
+			if(wf.err_invalid_POS != 0) c.incrementInvalidPosErrCount();
+			if(wf.err_invalid_PNEXT != 0) c.incrementInvalidPNextCount();
+			c.add_RNAME(pr.raw_rname);
+			c.add_RNEXT(pr.raw_rnext);
+		} 
+		catch (UnsupportedFileTypeException e)
+		{
+			c.incrementSyntaxErrCount();
+		} 
+		catch (InvalidSAMRecordException e) 
+		{
+			FailFlags ff = e.getFlags();
+			if (ff.err_syntax) c.incrementSyntaxErrCount();
+			if (ff.err_nullseq_nnqual) c.incrementNullSeqErrCount();
+			if (ff.err_bad_customFieldType != null) c.addBadCustomFieldErr(ff.err_bad_customFieldType);
+		}
+	}
+	
+	private static void countRecord(SAMRecordBuffer rb, byte[] data, int off, int len, boolean verbose, Counts c)
+	{
+		c.incrementTotal();
+		try 
+		{
+			rb.parse(data, off, len, verbose);
+			WarningFlags wf = rb.getParserWarnings();
+			if(wf.err_qualstr_len_bad) c.incrementQualStrLengthErrCount();
+			if(wf.err_invalid_RNAME != null) c.addInvalidRefContig(wf.err_invalid_RNAME);
+			if(wf.err_invalid_RNEXT != null) c.addInvalidRNextContig(wf.err_invalid_RNEXT);
+			if(wf.err_invalid_POS != 0) c.incrementInvalidPosErrCount();
+			if(wf.err_invalid_PNEXT != 0) c.incrementInvalidPNextCount();
+			c.add_RNAME(rb.getRawRName());
+			c.add_RNEXT(rb.getRawRNext());
+		} 
+		catch (InvalidSAMRecordException e) 
+		{
+			FailFlags ff = e.getFlags();
+			if (ff.err_syntax) c.incrementSyntaxErrCount();
+			if (ff.err_nullseq_nnqual) c.incrementNullSeqErrCount();
+			if (ff.err_bad_customFieldType != null) c.addBadCustomFieldErr(ff.err_bad_customFieldType);
+		}
+	}
+	
+	private static Counts getCounts(InputStream input, GenomeBuild gb, boolean verbose, int threads) throws IOException
+	{
+		//Byte level - lines are never turned into Strings, and each worker reuses one record buffer
+		Counts c = new Counts();
+		ThreadLocal<SAMRecordBuffer> localBuffer = new ThreadLocal<SAMRecordBuffer>(){
+			protected SAMRecordBuffer initialValue()
+			{
+				return new SAMRecordBuffer(gb);
+			}
+		};
+		
+		SamBatchPipeline<Counts> pipeline = new SamBatchPipeline<Counts>(new ChunkProcessor<Counts>(){
+			public Counts processChunk(byte[] data, int len)
+			{
+				SAMRecordBuffer rb = localBuffer.get();
+				Counts bc = new Counts();
+				int st = 0;
+				while (st < len)
+				{
+					int ed = st;
+					while (ed < len && data[ed] != '\n') ed++;
+					int llen = ed - st;
+					if (llen > 0 && data[st] != '\r')
+					{
+						if (data[st] == '@') bc.header_lines++; //Skip header
+						else countRecord(rb, data, st, llen, verbose, bc);
+					}
+					st = ed + 1;
+				}
+				return bc;
+			}
+		}, new BatchConsumer<Counts>(){
+			public void consumeBatch(Counts bc)
+			{
+				long before = c.getTotal();
+				c.merge(bc);
+				if(verbose && (before / 10000000L != c.getTotal() / 10000000L)) System.err.println("DEBUG: Lines Read: " + c.getTotal());
+			}
+		});
+		//One thread for reading
+		pipeline.setThreads(Math.max(1, threads - 1));
+		pipeline.run(input);
+		
+		if(verbose)System.err.println("DEBUG: SAM readin complete. Total records read: " + c.getTotal());
+		if(verbose)System.err.println("DEBUG: Total header lines read: " + c.header_lines);
+		
+		return c;
+	}
+	
 	private static Counts getCounts(BufferedReader reader, GenomeBuild gb, boolean verbose) throws IOException
 	{
 		//Skip header lines
@@ -476,31 +661,7 @@ public class SamScanner {
 		//Reads
 		while (line != null)
 		{
-			c.incrementTotal();
-			try 
-			{
-				ParsedRecord pr = SAMRecord.parseSAMRecord(line, gb, verbose);
-				SAMRecord rec = pr.getRecord();
-				WarningFlags wf = rec.getParserWarnings();
-				if(wf.err_qualstr_len_bad) c.incrementQualStrLengthErrCount();
-				if(wf.err_invalid_RNAME != null) c.addInvalidRefContig(wf.err_invalid_RNAME);
-				if(wf.err_invalid_RNEXT != null) c.addInvalidRNextContig(wf.err_invalid_RNEXT);
-				if(wf.err_invalid_POS != 0) c.incrementInvalidPosErrCount();
-				if(wf.err_invalid_PNEXT != 0) c.incrementInvalidPNextCount();
-				c.add_RNAME(pr.raw_rname);
-				c.add_RNEXT(pr.raw_rnext);
-			} 
-			catch (UnsupportedFileTypeException e)
-			{
-				c.incrementSyntaxErrCount();
-			} 
-			catch (InvalidSAMRecordException e) 
-			{
-				FailFlags ff = e.getFlags();
-				if (ff.err_syntax) c.incrementSyntaxErrCount();
-				if (ff.err_nullseq_nnqual) c.incrementNullSeqErrCount();
-				if (ff.err_bad_customFieldType != null) c.addBadCustomFieldErr(ff.err_bad_customFieldType);
-			}
+			countRecord(line, gb, verbose, c);
 			line = reader.readLine();
 		}
 		
@@ -512,161 +673,36 @@ public class SamScanner {
 		//Counts
 		Counts c = new Counts();
 		
-		//Threads
-		int tcount = threads - 1;
-		Thread[] tarr = new Thread[tcount];
-		ConcurrentLinkedQueue<String> linequeue = new ConcurrentLinkedQueue<String>();
-		for (int i = 0; i < tcount; i++)
-		{
-			tarr[i] = new Thread(new Runnable() {
-				@Override
-				public void run() 
+		//Each batch is counted into its own Counts (no lock traffic between workers),
+		//	then merged here in input order
+		SamBatchPipeline<Counts> pipeline = new SamBatchPipeline<Counts>(new BatchProcessor<Counts>(){
+			public Counts processBatch(List<String> lines)
+			{
+				Counts bc = new Counts();
+				for (String line : lines)
 				{
-					int pcount = 0;
-					while(!Thread.interrupted())
-					{
-						if(linequeue.isEmpty()) 
-						{
-							try 
-							{
-								Thread.sleep(10);
-							} 
-							catch (InterruptedException e) 
-							{
-								//If it's getting interrupted, that should only be a kill signal...
-								if(verbose)System.err.println("DEBUG: Lines Parsed " + pcount + " (Worker: " + Thread.currentThread().getName() + ") - Worker thread returning... (From queue empty sleep)");
-								return;
-							}
-						}
-						else
-						{
-							String line = linequeue.poll();
-							if (line == null) continue;
-							pcount++;
-							c.incrementTotal();
-							try 
-							{
-								ParsedRecord pr = SAMRecord.parseSAMRecord(line, gb, verbose);
-								SAMRecord rec = pr.getRecord();
-								WarningFlags wf = rec.getParserWarnings();
-								if(wf.err_qualstr_len_bad) c.incrementQualStrLengthErrCount();
-								if(wf.err_invalid_RNAME != null) c.addInvalidRefContig(wf.err_invalid_RNAME);
-								if(wf.err_invalid_RNEXT != null) c.addInvalidRNextContig(wf.err_invalid_RNEXT);
-								if(wf.err_invalid_POS != 0) c.incrementInvalidPosErrCount();
-								if(wf.err_invalid_PNEXT != 0) c.incrementInvalidPNextCount();
-								c.add_RNAME(pr.raw_rname);
-								c.add_RNEXT(pr.raw_rnext);
-							} 
-							catch (UnsupportedFileTypeException e)
-							{
-								c.incrementSyntaxErrCount();
-							} 
-							catch (InvalidSAMRecordException e) 
-							{
-								FailFlags ff = e.getFlags();
-								if (ff.err_syntax) c.incrementSyntaxErrCount();
-								if (ff.err_nullseq_nnqual) c.incrementNullSeqErrCount();
-								if (ff.err_bad_customFieldType != null) c.addBadCustomFieldErr(ff.err_bad_customFieldType);
-							}
-							//if(pcount % 1000000 == 0) System.err.println("DEBUG: Lines Parsed " + pcount + " (Worker: " + Thread.currentThread().getName() + ")");
-						}		
-					}
-					//Run until the queue is empty...
-					while(!linequeue.isEmpty())
-					{
-						String line = linequeue.poll();
-						if (line == null) break;
-						pcount++;
-						c.incrementTotal();
-						try 
-						{
-							ParsedRecord pr = SAMRecord.parseSAMRecord(line, gb, verbose);
-							SAMRecord rec = pr.getRecord();
-							WarningFlags wf = rec.getParserWarnings();
-							if(wf.err_qualstr_len_bad) c.incrementQualStrLengthErrCount();
-							if(wf.err_invalid_RNAME != null) c.addInvalidRefContig(wf.err_invalid_RNAME);
-							if(wf.err_invalid_RNEXT != null) c.addInvalidRNextContig(wf.err_invalid_RNEXT);
-							if(wf.err_invalid_POS != 0) c.incrementInvalidPosErrCount();
-							if(wf.err_invalid_PNEXT != 0) c.incrementInvalidPNextCount();
-							c.add_RNAME(pr.raw_rname);
-							c.add_RNEXT(pr.raw_rnext);
-						} 
-						catch (UnsupportedFileTypeException e)
-						{
-							c.incrementSyntaxErrCount();
-						} 
-						catch (InvalidSAMRecordException e) 
-						{
-							FailFlags ff = e.getFlags();
-							if (ff.err_syntax) c.incrementSyntaxErrCount();
-							if (ff.err_nullseq_nnqual) c.incrementNullSeqErrCount();
-							if (ff.err_bad_customFieldType != null) c.addBadCustomFieldErr(ff.err_bad_customFieldType);
-						}
+					if (line.startsWith("@")) {
+						bc.header_lines++;
+						continue; //Skip header
 					}
-					if(verbose)System.err.println("DEBUG: Lines Parsed " + pcount + " (Worker: " + Thread.currentThread().getName() + ") - Worker thread returning...");
+					countRecord(line, gb, verbose, bc);
 				}
-			});
-			tarr[i].setName("SamScannerWorkerThread" + i);
-		}
-		
-		//Start worker threads
-		for (Thread t : tarr) {
-			t.start();
-			if(verbose)System.err.println("DEBUG: Worker thread " + t.getName() + " started!");
-		}
-		
-		//Start line reading
-		String line = null;
-		long lcount = 0;
-		int hcount = 0;
-		while((line = reader.readLine()) != null)
-		{
-			if (line.startsWith("@")) {
-				hcount++;
-				continue; //Skip header
+				return bc;
 			}
-			lcount++;
-			//pause if linequeue is too full
-			while (linequeue.size() >= MAX_QUEUESIZE)
+		}, new BatchConsumer<Counts>(){
+			public void consumeBatch(Counts bc)
 			{
-				try 
-				{
-					Thread.sleep(10);
-				} 
-				catch (InterruptedException e) 
-				{
-					//Eat
-					e.printStackTrace();
-				}
+				long before = c.getTotal();
+				c.merge(bc);
+				if(verbose && (before / 10000000L != c.getTotal() / 10000000L)) System.err.println("DEBUG: Lines Read: " + c.getTotal());
 			}
-			linequeue.add(line);
-			if(verbose && (lcount % 10000000 == 0)) System.err.println("DEBUG: Lines Read: " + lcount);
-		}
-		if(verbose)System.err.println("DEBUG: SAM readin complete. Total records read: " + lcount);
-		if(verbose)System.err.println("DEBUG: Total header lines read: " + hcount);
+		});
+		//One thread for reading
+		pipeline.setThreads(Math.max(1, threads - 1));
+		pipeline.run(reader, null);
 		
-		//Kill worker threads
-		for (Thread t : tarr){
-			synchronized(t) { t.interrupt();}
-			if(verbose)System.err.println("DEBUG: Worker thread " + t.getName() + " interrupted!");
-		}
-		
-		//Wait for worker threads to die
-		if(verbose)System.err.println("DEBUG: Waiting for worker threads to die...");
-		boolean anyalive = true;
-		while(anyalive)
-		{
-			anyalive = false;
-			for (Thread t : tarr)
-			{
-				if (t.isAlive())
-				{
-					anyalive = true;
-					break;
-				}
-			}	
-		}
-		if(verbose)System.err.println("DEBUG: Worker threads dead.");
+		if(verbose)System.err.println("DEBUG: SAM readin complete. Total records read: " + c.getTotal());
+		if(verbose)System.err.println("DEBUG: Total header lines read: " + c.header_lines);
 		
 		return c;
 	}
@@ -685,6 +721,27 @@ public class SamScanner {
 		if (threads < 2) c = getCounts(reader, gb, verbose);
 		else c = getCounts(reader, gb, verbose, threads);
 		
+		printCounts(c);
+	}
+	
+	public static void scanSam(InputStream input, GenomeBuild gb, boolean verbose, int threads) throws IOException
+	{
+		BufferedInputStream bis = new BufferedInputStream(input, SamBatchPipeline.DEFO_CHUNK_SIZE);
+		
+		//Header is taken off the front of the stream - the records are left for the pipeline
+		gb = scanSamHeader(readHeaderLines(bis), gb);
+		
+		//Dump contig list to stdout before looking at reads
+		System.out.println("--------- Generated Genome Build --------- ");
+		gb.printMe();
+		
+		//Scan reads to look for major syntactical errors
+		Counts c = getCounts(bis, gb, verbose, threads);
+		printCounts(c);
+	}
+	
+	private static void printCounts(Counts c)
+	{
 		//Print stats on errors found
 		System.out.println();
 		System.out.println("===================== RECORDS =====================");
@@ -775,17 +832,16 @@ public class SamScanner {
 		}
 		
 		//Input - default to stdin if there's no path
-		BufferedReader br = null;
+		InputStream is = null;
 		if (inPath == null || inPath.isEmpty())
 		{
-			br = new BufferedReader(new InputStreamReader(System.in));
+			is = System.in;
 		}
 		else
 		{
 			try 
 			{
-				FileReader fr = new FileReader(inPath);
-				br = new BufferedReader(fr);
+				is = new FileInputStream(inPath);
 			} 
 			catch (FileNotFoundException e)
 			{
@@ -795,10 +851,22 @@ public class SamScanner {
 			}
 		}
 		
+		//BAM is decoded to SAM text on the way in
+		try
+		{
+			is = BAMReader.openAsSAM(is, Math.max(1, threads / 4));
+		}
+		catch (IOException e)
+		{
+			System.err.println("ERROR: Input stream could not be read as SAM or BAM!");
+			e.printStackTrace();
+			System.exit(1);
+		}
+		
 		
 		try 
 		{
-			scanSam(br, gb, verbose, threads);
+			scanSam(is, gb, verbose, threads);
 		} 
 		catch (IOException e1) 
 		{
@@ -806,11 +874,11 @@ public class SamScanner {
 			e1.printStackTrace();
 			try 
 			{
-				br.close();
+				is.close();
 			} 
 			catch (IOException e) 
 			{
-				System.err.println("ERROR: BufferedReader could not be closed... Exiting anyway.");
+				System.err.println("ERROR: Input stream could not be closed... Exiting anyway.");
 				e.printStackTrace();
 				System.exit(1);
 			}
@@ -820,11 +888,11 @@ public class SamScanner {
 		
 		try 
 		{
-			br.close();
+			is.close();
 		} 
 		catch (IOException e) 
 		{
-			System.err.println("ERROR: BufferedReader could not be closed... Exiting anyway.");
+			System.err.println("ERROR: Input stream could not be closed... Exiting anyway.");
 			e.printStackTrace();
 			System.exit(1);
 		}
@@ -7,6 +7,7 @@ import java.util.Set;
 
 import hospelhornbg_bioinformatics.StructuralVariant;
 import hospelhornbg_bioinformatics.VCF;
+import hospelhornbg_bioinformatics.VCFStreamPipeline;
 import hospelhornbg_bioinformatics.Variant;
 import hospelhornbg_bioinformatics.VariantPool;
 import hospelhornbg_genomeBuild.GenomeBuild;
@@ -18,6 +19,7 @@ public class SizeFilter {
 	public static final String OP_VCFOUT = "-o"; 
 	public static final String OP_MIN = "-m"; 
 	public static final String OP_MAX = "-M"; 
+	public static final String OP_STREAM = "--stream"; 
 	
 	public static void printUsage()
 	{
@@ -37,6 +39,7 @@ public class SizeFilter {
 		System.out.println("\t-o\tFILE\t[Required]\t\tOutput vcf path.");
 		System.out.println("\t-m\tINT\t[Optional]\t\tMinimum size of variants to pass.");
 		System.out.println("\t-M\tINT\t[Optional]\t\tMaximum size of variants to pass.");
+		System.out.println("\t--stream\t\t[Optional]\t\tFilter record by record instead of loading the whole VCF. Output keeps input order.");
 		System.out.println("Note: You can omit both -m and -M, but this tool will just output the unfiltered set.");
 		System.out.println();
 		System.out.println("Sample Usage:");
@@ -47,6 +50,26 @@ public class SizeFilter {
 		System.out.println("--------------------------------------------------------------------------------");
 	}
 	
+	public static boolean passesMax(Variant v, int maxSize)
+	{
+		if (v instanceof StructuralVariant)
+		{
+			StructuralVariant sv = (StructuralVariant)v;
+			return (Math.abs(sv.getSVLength()) <= maxSize);
+		}
+		return (v.getLargestAbsoluteLength() <= maxSize);
+	}
+	
+	public static boolean passesMin(Variant v, int minSize)
+	{
+		if (v instanceof StructuralVariant)
+		{
+			StructuralVariant sv = (StructuralVariant)v;
+			return (Math.abs(sv.getSVLength()) >= minSize);
+		}
+		return (v.getSmallestAbsoluteLength() >= minSize);
+	}
+	
 	public static void filterAllAbove(VariantPool pool, int maxSize)
 	{
 		List<Variant> vlist = pool.getVariants();
@@ -55,15 +78,7 @@ public class SizeFilter {
 		Set<Variant> keepset = new HashSet<Variant>();
 		for (Variant v : vlist)
 		{
-			if (v instanceof StructuralVariant)
-			{
-				StructuralVariant sv = (StructuralVariant)v;
-				if (Math.abs(sv.getSVLength()) <= maxSize) keepset.add(v);
-			}
-			else
-			{
-				if (v.getLargestAbsoluteLength() <= maxSize) keepset.add(v);
-			}
+			if (passesMax(v, maxSize)) keepset.add(v);
 		}
 		
 		pool.addVariants(keepset);
@@ -79,21 +94,32 @@ public class SizeFilter {
 		Set<Variant> keepset = new HashSet<Variant>();
 		for (Variant v : vlist)
 		{
-			if (v instanceof StructuralVariant)
-			{
-				StructuralVariant sv = (StructuralVariant)v;
-				if (Math.abs(sv.getSVLength()) >= minSize) keepset.add(v);
-			}
-			else
-			{
-				if (v.getSmallestAbsoluteLength() >= minSize) keepset.add(v);
-			}
+			if (passesMin(v, minSize)) keepset.add(v);
 		}
 		
 		pool.addVariants(keepset);
 		pool.sortVariants();
 
 	}
+	
+	public static boolean streamFilter(String inFile, String outFile, GenomeBuild gb, final int minsize, final int maxsize) throws IOException
+	{
+		VCFStreamPipeline pipe = new VCFStreamPipeline(inFile, gb, true);
+		pipe.open();
+		if(minsize >= 0)
+		{
+			pipe.addFilter(new VCFStreamPipeline.VariantFilter(){
+				public boolean passes(Variant v) {return passesMin(v, minsize);}
+			});
+		}
+		if(maxsize >= 0)
+		{
+			pipe.addFilter(new VCFStreamPipeline.VariantFilter(){
+				public boolean passes(Variant v) {return passesMax(v, maxsize);}
+			});
+		}
+		return pipe.run(outFile, "bioisvtools");
+	}
 
 	public static void filterBySize(String[] args, GenomeBuild gb)
 	{
@@ -101,6 +127,7 @@ public class SizeFilter {
 		String outFile = null;
 		int minsize = -1;
 		int maxsize = -1;
+		boolean stream = false;
 		
 		for (int i = 0; i < args.length; i++)
 		{
@@ -177,6 +204,7 @@ public class SizeFilter {
 					System.exit(1);
 				}
 			}
+			else if (s.equals(OP_STREAM)) stream = true;
 		}
 		
 		boolean pass = true;
@@ -196,6 +224,24 @@ public class SizeFilter {
 			System.exit(1);
 		}
 		
+		if (stream)
+		{
+			try 
+			{
+				if (!streamFilter(inFile, outFile, gb, minsize, maxsize))
+				{
+					System.err.println("ERROR: Streamed filter of " + inFile + " did not complete!");
+					System.exit(1);
+				}
+			} 
+			catch (IOException e) {
+				System.err.println("IO ERROR: Input file " + inFile + " could not be read or " + outFile + " could not be written!");
+				e.printStackTrace();
+				System.exit(1);
+			}
+			return;
+		}
+		
 		VariantPool mypool = null;
 		try 
 		{
@@ -2,16 +2,18 @@ package hospelhornbg_svtools;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
 
+import hospelhornbg_bioinformatics.BAMReader;
+import hospelhornbg_bioinformatics.BAMWriter;
 import hospelhornbg_genomeBuild.Contig;
 import hospelhornbg_genomeBuild.GenomeBuild;
+import hospelhornbg_svtools.SamBatchPipeline.BatchConsumer;
+import hospelhornbg_svtools.SamBatchPipeline.BatchProcessor;
 
 public class Stdchrom {
 	
@@ -27,10 +29,10 @@ public class Stdchrom {
 		System.out.println("Purpose: For standardizing the chromosome coordinates in a SAM file.");
 		System.out.println();
 		System.out.println("Input Formats:");
-		System.out.println("\tAligned sequence in [SAM] format. Must be [SAM], NOT BAM.");
+		System.out.println("\tAligned sequence in [SAM] or [BAM] format. BAM is detected automatically.");
 		System.out.println();
 		System.out.println("Output Formats:");
-		System.out.println("\tPlain text sequence alignment map [SAM] format. Use samtools to compress to BAM.");
+		System.out.println("\tPlain text sequence alignment map [SAM] format, or [BAM] if the output path ends in .bam");
 		System.out.println();
 		System.out.println("Flags:");
 		System.out.println("\t-i\tFILE\t[Required]\t\tInput file path");
@@ -39,6 +41,7 @@ public class Stdchrom {
 		System.out.println();
 		System.out.println("Sample Usage:");
 		System.out.println("java -jar bioisvtools.jar stdchrom -g GRCh37 -i aligneroutput.sam -o pipelineinput.sam");
+		System.out.println("java -jar bioisvtools.jar stdchrom -g GRCh38 -i aligneroutput.bam -o pipelineinput.bam -t 8");
 		System.out.println();
 		System.out.println("--------------------------------------------------------------------------------");
 	}
@@ -57,186 +60,52 @@ public class Stdchrom {
 		return s;
 	}
 	
-	public static class ConvertThread extends Thread
+	private static class ConversionException extends IOException
 	{
-		private static final String killline = "@KILL";
-		
-		private Deque<String> inqueue;
-		private SynchronizedWriter writeBuffer;
-		private WrappedGenome genome;
-		private int counter;
-		
-		private boolean killme;
-		
-		public ConvertThread(SynchronizedWriter writer, WrappedGenome g)
-		{
-			inqueue = new LinkedList<String>();
-			writeBuffer = writer;
-			killme = false;
-			genome = g;
-			this.setDaemon(true);
-			Random r = new Random();
-			this.setName("Bioisvtools_stdchrom_ConvertThread_" + Integer.toHexString(r.nextInt()));
-		}
-		
-		public void run()
-		{
-			//System.err.println("Thread " + Thread.currentThread().getName() + " starting...");
-			while (!killme)
-			{
-				while (!queueEmpty())
-				{
-					String line = popQueue();
-					if (line.equals(killline))
-					{
-						killme = true;
-						//System.err.println("Thread " + Thread.currentThread().getName() + " kill signal received. Now terminating...");
-						return;
-					}
-					
-					String[] fields = line.split("\t");
-					if (fields.length < 3)
-					{
-						System.err.println("ERROR: Input file is not properly formatted!");
-						System.err.println("Terminating conversion...");
-						System.exit(1);
-					}
-					String chrom = fields[2];
-					if (!chrom.equals("*"))
-					{
-						Contig c = genome.getContig(chrom);
-						/*if (counter < 10)
-						{
-							System.err.println(Thread.currentThread().getName() + "|| stdchrom.ConvertThread.run || chrom = " + chrom);
-							System.err.println(Thread.currentThread().getName() + "|| stdchrom.ConvertThread.run || chrom output = " + c.getUDPName());
-						}*/
-						if (c == null)
-						{
-							System.err.println("ERROR: Contig \"" + chrom + "\" was not recognized!");
-							System.err.println("Terminating conversion...");
-							System.exit(1);
-						}
-						fields[2] = c.getUDPName();	
-					}
-					
-					if (fields.length >= 7){
-						String rnext = fields[6];
-						if (!(rnext.equals("=") || rnext.equals("*")))
-						{
-							Contig cnext = genome.getContig(rnext);
-							if (cnext == null)
-							{
-								System.err.println("ERROR: Contig \"" + rnext + "\" was not recognized!");
-								System.err.println("Terminating conversion...");
-								System.exit(1);
-							}
-							fields[6] = cnext.getUDPName();	
-
-							//System.err.println(Thread.currentThread().getName() + "|| stdchrom.ConvertThread.run || chrom = " + chrom);
-							//System.err.println(Thread.currentThread().getName() + "|| stdchrom.ConvertThread.run || chrom output = " + c.getUDPName());
-							//System.err.println(Thread.currentThread().getName() + "|| stdchrom.ConvertThread.run || chrom saved = " + fields[2]);
-							//System.err.println(Thread.currentThread().getName() + "|| stdchrom.ConvertThread.run || rnext = " + rnext);
-							//System.err.println(Thread.currentThread().getName() + "|| stdchrom.ConvertThread.run || rnext output = " + cnext.getUDPName());
-							//System.err.println(Thread.currentThread().getName() + "|| stdchrom.ConvertThread.run || rnext saved = " + fields[6]);
-						}
-						else 
-						{
-							/*if (counter < 10)
-							{
-								System.err.println(Thread.currentThread().getName() + "|| stdchrom.ConvertThread.run || rnext = " + rnext);
-								System.err.println(Thread.currentThread().getName() + "|| stdchrom.ConvertThread.run || No conversion needed.");
-							}	*/
-						}
-					}
-					
-					
-					String s = "";
-					for (int i = 0; i < fields.length; i++)
-					{
-						s += fields[i];
-						if (i < (fields.length - 1)) s += "\t";
-					}
-					try 
-					{
-						writeBuffer.writeString("\n" + s);
-						incrementCounter();
-					} 
-					catch (IOException e) 
-					{
-						System.err.println("ERROR: " + Thread.currentThread().getName() + " || I/O error - cannot write to output!");
-						System.err.println("Thread " + Thread.currentThread().getName() + " now terminating...");
-						e.printStackTrace();
-						return;
-					}
-				}
-				
-			}
-			System.err.println("Thread " + Thread.currentThread().getName() + " killed. Now terminating...");
-		}
-		
-		public void kill()
-		{
-			killme = true;
-		}
-		
-		public void killWhenDone()
-		{
-			addToQueue(killline);
-		}
-		
-		public synchronized void pushQueue(String line)
-		{
-			inqueue.push(line);
-		}
-		
-		public synchronized void addToQueue(String line)
-		{
-			inqueue.add(line);
-		}
-		
-		private synchronized String popQueue()
-		{
-			return inqueue.pop();
-		}
-		
-		private synchronized boolean queueEmpty()
-		{
-			return inqueue.isEmpty();
-		}
-		
-		private synchronized void incrementCounter()
-		{
-			counter++;
-		}
-		
-		public synchronized int countProcessed()
+		//Error has already been printed
+		private static final long serialVersionUID = 2370265213916650148L;
+	}
+	
+	private static String convertContigName(String cname, WrappedGenome genome, Map<String, String> nameCache) throws ConversionException
+	{
+		String udp = nameCache.get(cname);
+		if (udp != null) return udp;
+		Contig c = genome.getContig(cname);
+		if (c == null)
 		{
-			return counter;
+			System.err.println("ERROR: Contig \"" + cname + "\" was not recognized!");
+			System.err.println("Terminating conversion...");
+			throw new ConversionException();
 		}
-		
-		
-		
+		udp = c.getUDPName();
+		nameCache.put(cname, udp);
+		return udp;
 	}
 	
-	public static class SynchronizedWriter
+	private static String convertRecordLine(String line, WrappedGenome genome, Map<String, String> nameCache) throws ConversionException
 	{
-		private BufferedWriter writer;
-		
-		public SynchronizedWriter(FileWriter filewriter)
+		String[] fields = line.split("\t");
+		if (fields.length < 3)
 		{
-			writer = new BufferedWriter(filewriter);
+			System.err.println("ERROR: Input file is not properly formatted!");
+			System.err.println("Terminating conversion...");
+			throw new ConversionException();
 		}
+		String chrom = fields[2];
+		if (!chrom.equals("*")) fields[2] = convertContigName(chrom, genome, nameCache);
 		
-		public synchronized void writeString(String s) throws IOException
-		{
-			writer.write(s);
+		if (fields.length >= 7){
+			String rnext = fields[6];
+			if (!(rnext.equals("=") || rnext.equals("*"))) fields[6] = convertContigName(rnext, genome, nameCache);
 		}
 		
-		public void close() throws IOException
+		StringBuilder sb = new StringBuilder(line.length() + 16);
+		for (int i = 0; i < fields.length; i++)
 		{
-			writer.close();
+			if (i > 0) sb.append('\t');
+			sb.append(fields[i]);
 		}
-		
+		return sb.toString();
 	}
 	
 	public static class WrappedGenome
@@ -255,125 +124,101 @@ public class Stdchrom {
 	
 	}
 	
-	public static boolean liveThreads(Thread[] tArr)
-	{
-		for (int i = 0; i < tArr.length; i++)
-		{
-			if (tArr[i] != null)
-			{
-				if (tArr[i].isAlive()) return true;
-			}
-		}
-		return false;
-	}
-	
 	public static void convertSAM(String inpath, String outpath, GenomeBuild g, int threads)
 	{
-		int cthreads = threads - 1;
-		ConvertThread[] converters = new ConvertThread[cthreads];
-		
 		try
 		{
-			FileReader fr = new FileReader(inpath);
-			BufferedReader br = new BufferedReader(fr);
-			
-			FileWriter fw = new FileWriter(outpath);
-			SynchronizedWriter sw = new SynchronizedWriter(fw);
-			
-			int counter = 0;
-			int tPtr = 0;
+			//BGZF codec threads - most of the pool goes to conversion
+			int zthreads = Math.max(1, threads / 4);
+			BufferedReader br = BAMReader.openSAMReader(inpath, zthreads);
+			BufferedWriter bw = BAMWriter.openSAMWriter(outpath, BAMWriter.isBAMPath(outpath), zthreads);
 			
 			WrappedGenome wg = new WrappedGenome(g);
 			
-			for (int i = 0; i < cthreads; i++)
-			{
-				converters[i] = new ConvertThread(sw, wg);
-				converters[i].start();
-			}
-			
+			//Header - up to the first record line
 			String line = null;
 			boolean sqfound = false;
 			boolean skipnl = true;
 			while ((line = br.readLine()) != null)
 			{
 				if (line.isEmpty()) continue;
-				if (line.charAt(0) == '@')
+				if (line.charAt(0) != '@') break;
+				if (line.startsWith("@SQ"))
 				{
-					if (line.startsWith("@SQ"))
-					{
-						if (!sqfound) {
-							if (!skipnl) sw.writeString("\n");
-							sw.writeString(generateSQBlock(g));
-						}
-						sqfound = true;
+					if (!sqfound) {
+						if (!skipnl) bw.write("\n");
+						bw.write(generateSQBlock(g));
 					}
-					else if (line.startsWith("@HD"))
+					sqfound = true;
+				}
+				else if (line.startsWith("@HD"))
+				{
+					if (!skipnl) bw.write("\n");
+					String[] fields = line.split("\t");
+					String outline = "";
+					boolean hasso = false;
+					for (int i = 0; i < fields.length; i++)
 					{
-						if (!skipnl) sw.writeString("\n");
-						String[] fields = line.split("\t");
-						String outline = "";
-						boolean hasso = false;
-						for (int i = 0; i < fields.length; i++)
+						if (fields[i].startsWith("SO:"))
 						{
-							if (fields[i].startsWith("SO:"))
-							{
-								fields[i] = "SO:unsorted";
-								hasso = true;
-							}
-							outline += fields[i];
-							if (i < fields.length - 1) outline += "\t";
+							fields[i] = "SO:unsorted";
+							hasso = true;
 						}
-						if (!hasso) outline += "\tSO:unsorted";
-						sw.writeString(outline);
-					}
-					else {
-						if (!skipnl) sw.writeString("\n");
-						sw.writeString(line);
+						outline += fields[i];
+						if (i < fields.length - 1) outline += "\t";
 					}
+					if (!hasso) outline += "\tSO:unsorted";
+					bw.write(outline);
 				}
-				else
-				{
-					converters[tPtr].addToQueue(line);
-					tPtr++;
-					if (tPtr >= cthreads) tPtr = 0;
+				else {
+					if (!skipnl) bw.write("\n");
+					bw.write(line);
 				}
 				skipnl = false;
-				counter++;
-				if (counter % 1000000 == 0) {
-					System.err.println("Update -- " + counter + " lines read...");
-					int pcount = 0;
-					for (int i = 0; i < cthreads; i++) pcount += converters[i].countProcessed();
-					System.err.println("\t(" + pcount + " records processed)");
-					//for (int i = 0; i < cthreads; i++) System.err.println("\tRecords processed by " + converters[i].getName() + " : " + converters[i].countProcessed());
-				}
 			}
+			final boolean noheader = skipnl;
 			
-			br.close();
-			fr.close();
-			
-			for (int i = 0; i < cthreads; i++) converters[i].killWhenDone();
-			while (liveThreads(converters))
-			{
-				try 
+			//Records - converted on the pool, written here in input order
+			SamBatchPipeline<List<String>> pipeline = new SamBatchPipeline<List<String>>(new BatchProcessor<List<String>>(){
+				public List<String> processBatch(List<String> lines) throws ConversionException
 				{
-					Thread.sleep(10000);
-				} 
-				catch (InterruptedException e)
+					List<String> out = new ArrayList<String>(lines.size());
+					Map<String, String> nameCache = new HashMap<String, String>();
+					for (String l : lines)
+					{
+						if (l == null || l.isEmpty()) continue;
+						if (l.charAt(0) == '@') out.add(l); //Stray header line - pass through
+						else out.add(convertRecordLine(l, wg, nameCache));
+					}
+					return out;
+				}
+			}, new BatchConsumer<List<String>>(){
+				private boolean first = noheader;
+				private long pcount = 0;
+				public void consumeBatch(List<String> lines) throws IOException
 				{
-					System.err.println("Main thread wait sleep interrupted. Going back to sleep...");
-					e.printStackTrace();
+					for (String l : lines)
+					{
+						if (!first) bw.write("\n");
+						bw.write(l);
+						first = false;
+						pcount++;
+						if (pcount % 1000000 == 0) System.err.println("Update -- " + pcount + " records processed");
+					}
 				}
-				int pcount = 0;
-				for (int i = 0; i < cthreads; i++) pcount += converters[i].countProcessed();
-				System.err.println("Update -- " + pcount + " records processed");
-			}
+			});
+			//One thread for reading
+			pipeline.setThreads(Math.max(1, threads - 1));
+			pipeline.run(br, line);
 			
-			int pcount = 0;
-			for (int i = 0; i < cthreads; i++) pcount += converters[i].countProcessed();
-			System.err.println("Final -- " + pcount + " records processed");
+			System.err.println("Final -- " + pipeline.countRead() + " lines read");
 			
-			sw.close();
-			fw.close();	
+			br.close();
+			bw.close();
+		}
+		catch (ConversionException e)
+		{
+			System.exit(1);
 		}
 		catch (IOException e)
 		{
@@ -387,13 +232,12 @@ public class Stdchrom {
 	{
 		try
 		{
-			FileReader fr = new FileReader(inpath);
-			BufferedReader br = new BufferedReader(fr);
-			
-			FileWriter fw = new FileWriter(outpath);
-			BufferedWriter bw = new BufferedWriter(fw);
+			BufferedReader br = BAMReader.openSAMReader(inpath, 1);
+			BufferedWriter bw = BAMWriter.openSAMWriter(outpath, BAMWriter.isBAMPath(outpath), 1);
 			
 			int counter = 0;
+			WrappedGenome wg = new WrappedGenome(g);
+			Map<String, String> nameCache = new HashMap<String, String>();
 			
 			String line = null;
 			boolean sqfound = false;
@@ -418,47 +262,7 @@ public class Stdchrom {
 				}
 				else
 				{
-					String[] fields = line.split("\t");
-					if (fields.length < 3)
-					{
-						System.err.println("ERROR: Input file is not properly formatted!");
-						System.err.println("Terminating conversion...");
-						System.exit(1);
-					}
-					String chrom = fields[2];
-					if (!chrom.equals("*"))
-					{
-						Contig c = g.getContig(chrom);
-						if (c == null)
-						{
-							System.err.println("ERROR: Contig \"" + chrom + "\" was not recognized!");
-							System.err.println("Terminating conversion...");
-							System.exit(1);
-						}
-						fields[2] = c.getUDPName();	
-					}
-					
-					if (fields.length >= 7){
-						String rnext = fields[6];
-						if (!(rnext.equals("=") || rnext.equals("*")))
-						{
-							Contig cnext = g.getContig(rnext);
-							if (cnext == null)
-							{
-								System.err.println("ERROR: Contig \"" + rnext + "\" was not recognized!");
-								System.err.println("Terminating conversion...");
-								System.exit(1);
-							}
-							fields[6] = cnext.getUDPName();	
-						}
-					}
-					
-					String s = "";
-					for (int i = 0; i < fields.length; i++)
-					{
-						s += fields[i];
-						if (i < (fields.length - 1)) s += "\t";
-					}
+					String s = convertRecordLine(line, wg, nameCache);
 					if (!skipnl) bw.write("\n");
 					bw.write(s);
 				}
@@ -468,10 +272,11 @@ public class Stdchrom {
 			}
 			
 			br.close();
-			fr.close();
-			
 			bw.close();
-			fw.close();	
+		}
+		catch (ConversionException e)
+		{
+			System.exit(1);
 		}
 		catch (IOException e)
 		{
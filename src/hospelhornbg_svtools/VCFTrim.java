@@ -10,7 +10,9 @@ import java.util.Collection;
 import java.util.List;
 
 import hospelhornbg_bioinformatics.Genotype;
+import hospelhornbg_bioinformatics.VCFStreamPipeline;
 import hospelhornbg_bioinformatics.Variant;
+import hospelhornbg_bioinformatics.VariantPool;
 import waffleoRai_Utils.FileBuffer.UnsupportedFileTypeException;
 
 //Not multithreaded because that makes it easier to keep in order
@@ -20,6 +22,7 @@ public class VCFTrim {
 	public static final String OP_VCFIN = "-i"; 
 	public static final String OP_VCFOUT = "-o"; 
 	public static final String OP_SAMPLES = "-s"; 
+	public static final String OP_STREAM = "--stream"; 
 	
 	public static void printUsage()
 	{
@@ -40,6 +43,7 @@ public class VCFTrim {
 		System.out.println("\t-i\tFILE\t[Required]\t\tInput vcf path.");
 		System.out.println("\t-o\tFILE\t[Required]\t\tOutput vcf path.");
 		System.out.println("\t-s\tSTRING\t[Required]\t\tComma delimited list of samples to keep.");
+		System.out.println("\t--stream\t\t[Optional]\t\tTrim through the streaming VCF pipeline (header is regenerated).");
 		System.out.println();
 		System.out.println("Sample Usage:");
 		System.out.println("java -jar bioisvtools.jar vcftrimsamp -i mycohort.vcf -o myfam.vcf -s PB123,UM456,UF789,AS098,US765");
@@ -179,11 +183,32 @@ public class VCFTrim {
 		
 	}
 	
+	public static boolean streamTrim(String inPath, String outPath, final List<String> validSamples) throws IOException
+	{
+		VCFStreamPipeline pipe = new VCFStreamPipeline(inPath, null, false);
+		pipe.open();
+		
+		//Only kept samples get a column (input column order)
+		VariantPool header = pipe.getHeader();
+		List<String> allSamples = header.getAllSamples();
+		header.clearSamples();
+		for (String s : allSamples)
+		{
+			if (validSamples.contains(s)) header.addSample(s);
+		}
+		
+		pipe.addFilter(new VCFStreamPipeline.VariantFilter(){
+			public boolean passes(Variant v) {return keepVar(v, validSamples);}
+		});
+		return pipe.run(outPath, "bioisvtools");
+	}
+	
 	public static void trimVCF(String[] args)
 	{
 		String inFile = null;
 		String outFile = null;
 		List<String> slist = new ArrayList<String>();
+		boolean stream = false;
 		
 		for (int i = 0; i < args.length; i++)
 		{
@@ -226,6 +251,7 @@ public class VCFTrim {
 				String[] sarr = samps.split(",");
 				for (String x : sarr) slist.add(x);
 			}
+			else if (s.equals(OP_STREAM)) stream = true;
 		}
 		
 		boolean pass = true;
@@ -258,7 +284,15 @@ public class VCFTrim {
 		
 		try 
 		{
-			trimFile(inFile, outFile, slist);
+			if (stream)
+			{
+				if (!streamTrim(inFile, outFile, slist))
+				{
+					System.err.println("ERROR: Streamed trim of " + inFile + " did not complete!");
+					System.exit(1);
+				}
+			}
+			else trimFile(inFile, outFile, slist);
 		} 
 		catch (IOException e) 
 		{
@@ -1,184 +1,119 @@
 package hospelhornbg_svtools.sampairing;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Comparator;
 
+import hospelhornbg_bioinformatics.ExternalSorter;
+import hospelhornbg_bioinformatics.ExternalSorter.LineCodec;
+import hospelhornbg_bioinformatics.ExternalSorter.RecordConsumer;
 import hospelhornbg_bioinformatics.SAMRecord;
 import hospelhornbg_bioinformatics.SAMRecord.InvalidSAMRecordException;
 import hospelhornbg_genomeBuild.GenomeBuild;
-import waffleoRai_Utils.FileBuffer;
 import waffleoRai_Utils.FileBuffer.UnsupportedFileTypeException;
-import waffleoRai_Compression.huffman.Huffman;
 
 public class SAMPairer {
 	
-	public static final int RECORDS_PER_FILE = 10000;
-
-	private BufferedWriter[] openStreams;
-	private int[] fileCounts;
-	private int[] recordCounts;
+	//Puts reads in query name order so mates end up next to each other
+	//Records are held as SAM lines in an external sorter, which spills to the temp
+	//	directory as needed and merges everything back in one pass at the end.
 	
-	private String tempdir;
+	private ExternalSorter<String> sorter;
 	
 	public SAMPairer(String tempDirPath)
 	{
-		tempdir = tempDirPath;
-		openStreams = new BufferedWriter[256];
-		fileCounts = new int[256];
-		recordCounts = new int[256];
+		this(tempDirPath, 1);
 	}
 	
-	private String getFilePath(int group, int fileNumber) throws IOException
+	public SAMPairer(String tempDirPath, int threads)
 	{
-		String gnum = "g_" + String.format("%02X", group);
-		String dir = tempdir + File.separator + gnum;
-		if (!FileBuffer.directoryExists(dir))
-		{
-			Files.createDirectories(Paths.get(dir));
-		}
-		return dir + File.separator + gnum + "_" + fileNumber + ".tmp";
+		if (tempDirPath != null && !tempDirPath.isEmpty()) new File(tempDirPath).mkdirs();
+		sorter = new ExternalSorter<String>(new LineCodec(), new QueryNameLineComparator(), tempDirPath);
+		sorter.setThreads(threads);
 	}
 	
-	public synchronized void saveRecord(SAMRecord r) throws IOException
+	/**
+	 * Orders SAM lines by QNAME, then first segment before last.
+	 * Only the first two fields are looked at - the record isn't parsed.
+	 */
+	public static class QueryNameLineComparator implements Comparator<String>
 	{
-		//Hash the qname
-		int qhash = r.getQueryName().hashCode();
-		
-		//LSB of the hash determines the group
-		int group = qhash & 0xFF;
-		
-		//See if there is already an open stream
-		BufferedWriter bw = openStreams[group];
-		
-		//If not, open one
-		if (bw == null)
+		private static int segmentRank(String line)
 		{
-			String fpath = getFilePath(group, fileCounts[group]);
-			FileWriter fw = new FileWriter(fpath);
-			bw = new BufferedWriter(fw);
-			openStreams[group] = bw;
+			int st = line.indexOf('\t');
+			if (st < 0) return 1;
+			int ed = line.indexOf('\t', st + 1);
+			if (ed < 0) ed = line.length();
+			int flag = 0;
+			for (int i = st + 1; i < ed; i++)
+			{
+				char c = line.charAt(i);
+				if (c < '0' || c > '9') return 1;
+				flag = (flag * 10) + (c - '0');
+			}
+			if ((flag & 0x40) != 0) return 0;
+			if ((flag & 0x80) != 0) return 2;
+			return 1;
 		}
 		
-		//Write record
-		bw.write(r.writeSAMRecord(false) + "\n");
-		recordCounts[group]++;
-		
-		//See if record count is at max for this file
-		if (recordCounts[group] >= RECORDS_PER_FILE)
+		public int compare(String o1, String o2)
 		{
-			//Close stream
-			bw.close();
-			openStreams[group] = null;
-			//Compress result
-			String fpath = getFilePath(group, fileCounts[group]);
-			compressFile(fpath);
-			//Increment file count
-			fileCounts[group]++;
-			recordCounts[group] = 0;
+			int l1 = o1.length();
+			int l2 = o2.length();
+			int i = 0;
+			while (true)
+			{
+				char c1 = (i < l1) ? o1.charAt(i) : '\t';
+				char c2 = (i < l2) ? o2.charAt(i) : '\t';
+				if (c1 == '\t' || c2 == '\t')
+				{
+					if (c1 != c2) return (c1 == '\t') ? -1 : 1;
+					break;
+				}
+				if (c1 != c2) return c1 - c2;
+				i++;
+			}
+			return segmentRank(o1) - segmentRank(o2);
 		}
-		
 	}
 	
-	private void compressFile(String path) throws IOException
+	public synchronized void saveRecord(SAMRecord r) throws IOException
 	{
-		String huffpath = path + ".huff";
-		FileBuffer in = FileBuffer.createBuffer(path);
-		FileBuffer out = Huffman.HuffEncodeFile(in, 8);
-		out.writeFile(huffpath);
-		Files.deleteIfExists(Paths.get(path));
+		sorter.add(r.writeSAMRecord(false));
 	}
 	
-	private void decompressFile(String inpath, String outpath) throws IOException
+	public synchronized void saveRecord(String samLine) throws IOException
 	{
-		FileBuffer in = FileBuffer.createBuffer(inpath);
-		FileBuffer out = Huffman.HuffDecodeFile(in);
-		out.writeFile(outpath);
-		Files.deleteIfExists(Paths.get(inpath));
+		sorter.add(samLine);
 	}
 	
-	public synchronized void closeOpenStreams() throws IOException
+	public long getRecordCount()
 	{
-		for (int i = 0; i < 256; i++)
-		{
-			if (openStreams[i] != null)
-			{
-				openStreams[i].close();
-				openStreams[i] = null;
-				//Compress
-				String path = getFilePath(i, fileCounts[i]);
-				compressFile(path);
-				fileCounts[i]++;
-				recordCounts[i] = 0;
-			}
-		}
+		return sorter.getRecordCount();
 	}
 	
-	public String sortAllReads(int group, GenomeBuild gb) throws IOException
+	/**
+	 * Sort all saved reads by name and pass them on as SAM lines.
+	 * The pairer can't be added to afterwards.
+	 */
+	public void sortAllLines(RecordConsumer<String> out) throws IOException
 	{
-		//Will close all open streams
-		//Returns the path of the new dir with the sorted reads
-		closeOpenStreams();
-		
-		//Read in records, sort into new files based on hash MSB
-		//Don't need to parse whole record. Just read the first field to hash
-		//Delete old files as they are processed
-		String gnum = "g_" + String.format("%02X", group);
-		String dir = tempdir + File.separator + gnum;
-		
-		int fcount = fileCounts[group];
-		for (int i = 0; i < fcount; i++)
-		{
-			String inpath = dir + File.separator + gnum + "_" + i + ".tmp";
-			//Decompress
-			decompressFile(inpath + ".huff", inpath);
-			//Read in
-			FileReader fr = new FileReader(inpath);
-			BufferedReader br = new BufferedReader(fr);
-			
-			String line = null;
-			while((line = br.readLine()) != null)
-			{
-				String[] fields = line.split("\t");
-				if (fields.length >= 1)
-				{
-					int sg = fields[0].hashCode() >>> 24;
-					String outpath = dir + File.separator + "sg_" + sg + ".tmp";
-					line += "\n";
-					Files.write(Paths.get(outpath), line.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-				}
-			}
-			
-			br.close();
-			Files.deleteIfExists(Paths.get(inpath));
-		}
-		
-		//Go to the file for each subgroup and read the file into a record list
-			//Sort the record list by query name
-			//Output to a new file
-			//Delete old file for the subgroup
-		for (int i = 0; i < 256; i++)
-		{
-			String inpath = dir + File.separator + "sg_" + i + ".tmp";
-			FileReader fr = new FileReader(inpath);
-			BufferedReader br = new BufferedReader(fr);
-			
-			List<SAMRecord> list = new LinkedList<SAMRecord>();
-			String line = null;
-			while((line = br.readLine()) != null)
+		sorter.sortTo(out);
+	}
+	
+	/**
+	 * Sort all saved reads by name and pass them on as records.
+	 * Lines that can't be parsed against the build are skipped.
+	 * The pairer can't be added to afterwards.
+	 */
+	public void sortAllReads(final GenomeBuild gb, final RecordConsumer<SAMRecord> out) throws IOException
+	{
+		sorter.sortTo(new RecordConsumer<String>(){
+			public void consume(String line) throws IOException
 			{
 				try 
 				{
-					list.add(SAMRecord.parseSAMRecord(line, gb, false).getRecord());
+					out.consume(SAMRecord.parseSAMRecord(line, gb, false).getRecord());
 				} 
 				catch (UnsupportedFileTypeException e) 
 				{
@@ -189,23 +124,15 @@ public class SAMPairer {
 					e.printStackTrace();
 				}
 			}
-			
-			br.close();
-			
-			Collections.sort(list);
-			
-			//Write back out
-			String outpath = dir + File.separator + "sg_" + i + "_sorted.tmp";
-			FileWriter fw = new FileWriter(outpath);
-			BufferedWriter bw = new BufferedWriter(fw);
-			for (SAMRecord r : list) bw.write(r.writeSAMRecord(false) + "\n");
-			bw.close();
-			
-			Files.deleteIfExists(Paths.get(inpath));
-		}
-		
-		
-		return dir;
+		});
+	}
+	
+	/**
+	 * Drop everything saved so far and delete the temp files.
+	 */
+	public void close() throws IOException
+	{
+		sorter.close();
 	}
 	
 }